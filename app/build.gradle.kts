@@ -18,4 +18,5 @@ dependencies {
 
 application {
     mainClass.set("dgroomes.app.Runner")
+    applicationDefaultJvmArgs = listOf("--add-modules", "jdk.incubator.vector")
 }
@@ -1,5 +1,7 @@
 package dgroomes.app;
 
+import dgroomes.data_system.Aggregate;
+import dgroomes.data_system.AggregateResult;
 import dgroomes.data_system.Association;
 import dgroomes.data_system.Criteria;
 import dgroomes.data_system.Query;
@@ -19,6 +21,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -66,7 +69,7 @@ public class Runner {
         //   1: state (association)
         //   2: ZIP codes (association)
         InMemoryTable citiesTable;
-        InMemoryColumn.StringColumn cityNameColumn;
+        InMemoryColumn.DictionaryStringColumn cityNameColumn;
         InMemoryColumn.AssociationColumn cityStateColumn;
 
         // The states table is made of these columns:
@@ -132,7 +135,8 @@ public class Runner {
                     i++;
                 }
 
-                cityNameColumn = new InMemoryColumn.StringColumn(cityNames);
+                // City names repeat a lot (e.g. there are many "Springfield"s) so they are dictionary-encoded.
+                cityNameColumn = InMemoryColumn.DictionaryStringColumn.encode(cityNames);
                 citiesTable = InMemoryTable.ofColumns(cityNameColumn);
                 dataSystem.register("cities", citiesTable);
                 cityStateColumn = citiesTable.associateTo(statesTable, cityStateAssociations);
@@ -163,6 +167,9 @@ public class Runner {
                 zipsTable = InMemoryTable.ofColumns(zipCodeColumn, zipPopulationColumn);
                 dataSystem.register("zips", zipsTable);
                 zipCityColumn = zipsTable.associateTo(citiesTable, zipCityAssociations);
+
+                // Narrow population ranges are a common lookup (see the queries below), so index the population column.
+                dataSystem.createIndex("zips", 1);
             }
 
             // Load the state adjacencies into the in-memory format.
@@ -214,13 +221,29 @@ public class Runner {
             }
 
             int code = zipCodeColumn.ints()[maxPopulationIndex];
-            int cityIndex = ((Association.One) zipCityColumn.associations[maxPopulationIndex]).idx();
-            String city = cityNameColumn.strings()[cityIndex];
-            int stateIndex = ((Association.One) cityStateColumn.associations[cityIndex]).idx();
+            int cityIndex = ((Association.One) zipCityColumn.associationsForIndex(maxPopulationIndex)).idx();
+            String city = cityNameColumn.get(cityIndex);
+            int stateIndex = ((Association.One) cityStateColumn.associationsForIndex(cityIndex)).idx();
             String stateCode = stateCodeColumn.strings()[stateIndex];
             log.info("The ZIP code with the highest population is '{}' in {}, {} with a population of {}.", code, city, stateCode, Util.formatInteger(maxPopulation));
         }
 
+        {
+            // Aggregate the population of the ZIP codes by state. The group-by path goes from the zips table, through the
+            // cities table, to the state code column of the states table.
+            var query = new Query("zips")
+                    .aggregate(Aggregate.sum(1), Aggregate.count()) // Column 1 is the population column.
+                    .groupBy(2, 1, 0); // ZIP to city, city to state, state code.
+
+            switch (dataSystem.aggregate(query)) {
+                case AggregateResult.Success(var groups) -> {
+                    var mostPopulous = groups.stream().max(Comparator.comparingLong(group -> (Long) group.values().get(0))).orElseThrow();
+                    log.info("The most populous state is {} with a population of {} over {} ZIP codes.", mostPopulous.key(), Util.formatInteger((Long) mostPopulous.values().get(0)), mostPopulous.values().get(1));
+                }
+                case AggregateResult.Failure(var msg) -> log.error(msg);
+            }
+        }
+
         {
             // Query the data using the full 'data system' abstraction.
             //
@@ -228,12 +251,12 @@ public class Runner {
             // least one city named "Plymouth".
 
             var query = new Query("zips");
-            query.rootNode.addCriteria(new Criteria.IntCriteria(1, i -> i >= 10_000 && i < 10_100));
+            query.rootNode.addCriteria(Criteria.IntCriteria.range(1, 10_000, 10_100)); // Column 1 is the population column.
             query.rootNode.createChild(2) // Column 2 is the association column to cities.
                     .createChild(1) // Column 1 is the association column to states.
                     .createChild(3) // Column 3 is the association column to other states.
                     .createChild(2) // Column 2 is the association column to cities.
-                    .addCriteria(new Criteria.StringCriteria(0, "PLYMOUTH"::equals)); // Column 0 is the string column of city names.
+                    .addCriteria(Criteria.StringCriteria.equalTo(0, "PLYMOUTH")); // Column 0 is the string column of city names.
 
             QueryResult queryResult = dataSystem.execute(query);
 
@@ -252,11 +275,11 @@ public class Runner {
         {
             // Find all states named with "North" that are adjacent to a state with "South" that are adjacent to a state with "North".
             var query = new Query("states");
-            query.rootNode.addCriteria(new Criteria.StringCriteria(1, s -> s.contains("North"))) // Column 1 is the string column of state names.
+            query.rootNode.addCriteria(Criteria.StringCriteria.contains(1, "North")) // Column 1 is the string column of state names.
                     .createChild(3) // Column 3 is the association column to other states.
-                    .addCriteria(new Criteria.StringCriteria(1, s -> s.contains("South")))
+                    .addCriteria(Criteria.StringCriteria.contains(1, "South"))
                     .createChild(3)
-                    .addCriteria(new Criteria.StringCriteria(1, s -> s.contains("North")));
+                    .addCriteria(Criteria.StringCriteria.contains(1, "North"));
 
             QueryResult queryResult = dataSystem.execute(query);
 
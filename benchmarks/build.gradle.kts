@@ -0,0 +1,57 @@
+plugins {
+    id("dgroomes.conventions")
+    alias(libs.plugins.jmh)
+}
+
+dependencies {
+    // The 'main' source set is the benchmark comparison tool. It only needs to read JSON.
+    implementation(platform(libs.jackson.bom))
+    implementation(libs.jackson.databind)
+
+    // The 'jmh' source set is the benchmarks themselves.
+    jmh(project(":util"))
+    jmh(project(":geography-loader"))
+    jmh(project(":geography-generator"))
+    jmh(project(":data-model-in-memory"))
+    jmh(project(":data-system-serial-indices-arrays"))
+    jmh(project(":data-system-parallel-indices-arrays"))
+}
+
+val jmhResultsFile = layout.buildDirectory.file("results/jmh/results.json")
+val baselineFile = layout.projectDirectory.file("baseline.json")
+
+jmh {
+    jmhVersion.set(libs.versions.jmh.asProvider())
+    resultFormat.set("JSON")
+    resultsFile.set(jmhResultsFile)
+
+    // The benchmarks load the ZIP code data from the root of the project.
+    jvmArgsAppend.add("-Dzips.file=${rootDir}/zips.jsonl")
+
+    // Enable the SIMD kernels (see the 'dgroomes.conventions' plugin).
+    jvmArgsAppend.addAll("--add-modules", "jdk.incubator.vector")
+
+    // Optionally, run a subset of the benchmarks with a regular expression. For example:
+    //
+    //     ./gradlew :benchmarks:jmh -Pincludes=QueryBenchmark
+    //
+    providers.gradleProperty("includes").orNull?.let { includes.add(it) }
+}
+
+tasks {
+    register<JavaExec>("compareBenchmarks") {
+        group = "benchmark"
+        description = "Compares the latest JMH results to the stored baseline and fails if there are regressions."
+        classpath = sourceSets.main.get().runtimeClasspath
+        mainClass.set("dgroomes.benchmarks.BenchmarkComparison")
+        args(jmhResultsFile.get().asFile.absolutePath, baselineFile.asFile.absolutePath, providers.gradleProperty("threshold").getOrElse("10"))
+    }
+
+    register<Copy>("saveBenchmarkBaseline") {
+        group = "benchmark"
+        description = "Stores the latest JMH results as the baseline for 'compareBenchmarks'."
+        from(jmhResultsFile)
+        into(layout.projectDirectory)
+        rename { baselineFile.asFile.name }
+    }
+}
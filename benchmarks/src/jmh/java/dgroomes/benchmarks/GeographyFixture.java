@@ -0,0 +1,73 @@
+package dgroomes.benchmarks;
+
+import dgroomes.data_system.DataSystem;
+import dgroomes.data_system.Table;
+import dgroomes.data_system_parallel_indices_arrays.DataSystemParallelIndices;
+import dgroomes.data_system_serial_indices_arrays.DataSystemSerialIndices;
+import dgroomes.geography_generator.GeographyTemplate;
+import dgroomes.geography_generator.UniverseGenerator;
+import dgroomes.geography_generator.Universes;
+import dgroomes.geography_loader.GeographiesLoader;
+
+import java.io.File;
+
+/**
+ * The geography data for the benchmarks. The "scale factor" is the number of parallel universes (see
+ * {@link UniverseGenerator}).
+ */
+public class GeographyFixture {
+
+    private static GeographyTemplate template;
+
+    /**
+     * Load the real geography data. It is cached because the benchmarks in one JVM fork all use the same data.
+     */
+    public static synchronized GeographyTemplate template() {
+        if (template == null) {
+            template = GeographyTemplate.of(GeographiesLoader.loadFromFile(zipsFile()));
+        }
+        return template;
+    }
+
+    public static File zipsFile() {
+        return new File(System.getProperty("zips.file", "../zips.jsonl"));
+    }
+
+    public static Universes universes(int scale) {
+        return UniverseGenerator.generate(template(), scale);
+    }
+
+    /**
+     * Create a data system by its short name and register the tables into it.
+     */
+    public static DataSystem dataSystem(String name, Universes.Tables tables) {
+        return switch (name) {
+            case "serial" -> {
+                var dataSystem = new DataSystemSerialIndices();
+                register(tables, dataSystem::register);
+                yield dataSystem;
+            }
+            case "serial-sideways" -> {
+                var dataSystem = new DataSystemSerialIndices(DataSystemSerialIndices.ExecutionMode.SIDEWAYS);
+                register(tables, dataSystem::register);
+                yield dataSystem;
+            }
+            case "parallel" -> {
+                var dataSystem = new DataSystemParallelIndices();
+                register(tables, dataSystem::register);
+                yield dataSystem;
+            }
+            default -> throw new IllegalArgumentException("Unknown data system: " + name);
+        };
+    }
+
+    private interface Registrar {
+        void register(String tableName, Table table);
+    }
+
+    private static void register(Universes.Tables tables, Registrar registrar) {
+        registrar.register("zips", tables.zips());
+        registrar.register("cities", tables.cities());
+        registrar.register("states", tables.states());
+    }
+}
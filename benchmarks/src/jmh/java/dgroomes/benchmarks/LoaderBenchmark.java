@@ -0,0 +1,23 @@
+package dgroomes.benchmarks;
+
+import dgroomes.geography.GeographyGraph;
+import dgroomes.geography_loader.GeographiesLoader;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for loading the ZIP code data from the JSON file into the {@link GeographyGraph} domain objects.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class LoaderBenchmark {
+
+    @Benchmark
+    public GeographyGraph loadFromFile() {
+        return GeographiesLoader.loadFromFile(GeographyFixture.zipsFile());
+    }
+}
@@ -0,0 +1,123 @@
+package dgroomes.benchmarks;
+
+import dgroomes.data_system.Criteria;
+import dgroomes.data_system.DataSystem;
+import dgroomes.data_system.Query;
+import dgroomes.data_system.QueryResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the two example queries of the 'app' module, across data system implementations and data scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    /**
+     * The number of parallel universes of geography data.
+     */
+    @Param({"1", "10", "100"})
+    public int scale;
+
+    @Param({"serial", "serial-sideways", "parallel"})
+    public String dataSystemName;
+
+    private DataSystem dataSystem;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var universes = GeographyFixture.universes(scale);
+        dataSystem = GeographyFixture.dataSystem(dataSystemName, universes.tables());
+    }
+
+    /**
+     * Find all ZIP codes that have a population around 10,000 and are in a state adjacent to a state with at least one
+     * city named "Plymouth".
+     */
+    @Benchmark
+    public QueryResult plymouth() {
+        var query = new Query("zips");
+        query.rootNode.addCriteria(Criteria.IntCriteria.range(1, 10_000, 10_100));
+        query.rootNode.createChild(2)
+                .createChild(1)
+                .createChild(3)
+                .createChild(2)
+                .addCriteria(Criteria.StringCriteria.equalTo(0, "PLYMOUTH"));
+        return dataSystem.execute(query);
+    }
+
+    /**
+     * Find all ZIP codes with a population of at least 1,000 in cities named "MINNEAPOLIS". The city criteria is very
+     * selective, which is where the "sideways" execution mode shines.
+     */
+    @Benchmark
+    public QueryResult minneapolisZips() {
+        var query = new Query("zips");
+        query.rootNode.addCriteria(Criteria.IntCriteria.range(1, 1_000, Integer.MAX_VALUE))
+                .createChild(2)
+                .addCriteria(Criteria.StringCriteria.equalTo(0, "MINNEAPOLIS"));
+        return dataSystem.execute(query);
+    }
+
+    /**
+     * Find all states named with "North" that are adjacent to a state with "South" that are adjacent to a state with
+     * "North".
+     */
+    @Benchmark
+    public QueryResult northSouthNorth() {
+        var query = new Query("states");
+        query.rootNode.addCriteria(Criteria.StringCriteria.contains(1, "North"))
+                .createChild(3)
+                .addCriteria(Criteria.StringCriteria.contains(1, "South"))
+                .createChild(3)
+                .addCriteria(Criteria.StringCriteria.contains(1, "North"));
+        return dataSystem.execute(query);
+    }
+
+    /**
+     * Scan the population column with a range criteria that the data system can recognize (and vectorize).
+     */
+    @Benchmark
+    public QueryResult populationRange() {
+        var query = new Query("zips");
+        query.rootNode.addCriteria(Criteria.IntCriteria.range(1, 10_000, 10_100));
+        return dataSystem.execute(query);
+    }
+
+    /**
+     * The same as {@link #populationRange()} but with an opaque lambda. This is the baseline for the optimized scan.
+     */
+    @Benchmark
+    public QueryResult populationRangeLambda() {
+        var query = new Query("zips");
+        query.rootNode.addCriteria(new Criteria.IntCriteria(1, i -> i >= 10_000 && i < 10_100));
+        return dataSystem.execute(query);
+    }
+
+    /**
+     * Scan the (dictionary-encoded) city names with a prefix criteria. The prefix becomes a range of dictionary codes.
+     */
+    @Benchmark
+    public QueryResult cityNamePrefix() {
+        var query = new Query("cities");
+        query.rootNode.addCriteria(Criteria.StringCriteria.startsWith(0, "SPRING"));
+        return dataSystem.execute(query);
+    }
+
+    /**
+     * The same as {@link #cityNamePrefix()} but with an opaque lambda. The lambda is still only evaluated once per
+     * distinct city name.
+     */
+    @Benchmark
+    public QueryResult cityNamePrefixLambda() {
+        var query = new Query("cities");
+        query.rootNode.addCriteria(new Criteria.StringCriteria(0, s -> s.startsWith("SPRING")));
+        return dataSystem.execute(query);
+    }
+}
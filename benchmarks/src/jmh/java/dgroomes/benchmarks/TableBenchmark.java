@@ -0,0 +1,82 @@
+package dgroomes.benchmarks;
+
+import dgroomes.data_system.CompressedBitmap;
+import dgroomes.data_system.Table;
+import dgroomes.geography_generator.Universes;
+import dgroomes.in_memory.InMemoryColumn;
+import dgroomes.in_memory.InMemoryTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for building and pruning {@link InMemoryTable}s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableBenchmark {
+
+    /**
+     * The number of parallel universes of geography data.
+     */
+    @Param({"1", "10"})
+    public int scale;
+
+    /**
+     * The fraction of rows that are kept by the subset operation.
+     */
+    @Param({"0.01", "0.5"})
+    public double density;
+
+    private Universes universes;
+    private InMemoryTable zips;
+    private BitSet matchingRows;
+    private CompressedBitmap compressedMatchingRows;
+
+    // Fresh tables for each invocation of the 'associateTo' benchmark because 'associateTo' adds columns to them.
+    private InMemoryTable unassociatedZips;
+    private InMemoryTable unassociatedCities;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        universes = GeographyFixture.universes(scale);
+        zips = universes.tables().zips();
+
+        var random = new Random(0);
+        matchingRows = new BitSet(zips.size());
+        for (int i = 0; i < zips.size(); i++) {
+            if (random.nextDouble() < density) matchingRows.set(i);
+        }
+        compressedMatchingRows = CompressedBitmap.fromBitSet(matchingRows);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        unassociatedZips = InMemoryTable.ofColumns(new InMemoryColumn.IntegerColumn(universes.zipCodes()), new InMemoryColumn.IntegerColumn(universes.zipPopulations()));
+        unassociatedCities = InMemoryTable.ofColumns(new InMemoryColumn.StringColumn(universes.cityNames()));
+    }
+
+    @Benchmark
+    public InMemoryColumn.AssociationColumn associateTo() {
+        return unassociatedZips.associateTo(unassociatedCities, universes.zipCityAssociations());
+    }
+
+    @Benchmark
+    public Table subset() {
+        return zips.subset(matchingRows);
+    }
+
+    /**
+     * The lazy alternative to {@link #subset()}. Only the selection vector is created.
+     */
+    @Benchmark
+    public Table view() {
+        return zips.view(compressedMatchingRows);
+    }
+}
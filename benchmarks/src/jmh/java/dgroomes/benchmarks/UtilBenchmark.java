@@ -0,0 +1,51 @@
+package dgroomes.benchmarks;
+
+import dgroomes.util.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for {@link Util#zipperIntersection(int[], int[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UtilBenchmark {
+
+    /**
+     * The length of each of the two sorted arrays.
+     */
+    @Param({"1000", "1000000"})
+    public int length;
+
+    private int[] a;
+    private int[] b;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var random = new Random(0);
+        // Random gaps of 1 to 4 between values make for an intersection of roughly a quarter of the values.
+        a = sortedArray(random, length);
+        b = sortedArray(random, length);
+    }
+
+    private static int[] sortedArray(Random random, int length) {
+        int[] array = new int[length];
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            value += 1 + random.nextInt(4);
+            array[i] = value;
+        }
+        return array;
+    }
+
+    @Benchmark
+    public int[] zipperIntersection() {
+        return Util.zipperIntersection(a, b);
+    }
+}
@@ -0,0 +1,129 @@
+package dgroomes.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compare a JMH result file (JSON) to a baseline result file and flag regressions.
+ * <p>
+ * A benchmark is identified by its name plus its parameters. A regression is a change in the score, in the "worse"
+ * direction, that is bigger than the threshold percentage AND bigger than the combined error margins of the two
+ * measurements. Be careful with the conclusions. A benchmark result is only comparable to a baseline that was measured
+ * on the same machine under similar conditions.
+ * <p>
+ * Usage: {@code BenchmarkComparison <results.json> <baseline.json> [threshold-percent]}
+ */
+public class BenchmarkComparison {
+
+    record Score(String mode, double score, double error, String unit) {
+
+        /**
+         * For throughput, higher is better. For the time-based modes (average time, sample time, single shot), lower is
+         * better.
+         */
+        boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkComparison <results.json> <baseline.json> [threshold-percent]");
+            System.exit(2);
+        }
+
+        var resultsFile = new File(args[0]);
+        var baselineFile = new File(args[1]);
+        double thresholdPercent = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+        if (!resultsFile.exists()) {
+            System.err.printf("The benchmark results file could not be found at '%s'. Run the 'jmh' task first.%n", resultsFile.getAbsolutePath());
+            System.exit(2);
+        }
+        if (!baselineFile.exists()) {
+            // There is nothing to compare to yet. A baseline is only meaningful on the machine that measured it, so none
+            // is committed to the repository.
+            System.out.printf("The baseline file could not be found at '%s', so there is nothing to compare. Run the 'saveBenchmarkBaseline' task to store the latest results as the baseline.%n", baselineFile.getAbsolutePath());
+            return;
+        }
+
+        Map<String, Score> results = read(resultsFile);
+        Map<String, Score> baseline = read(baselineFile);
+
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : results.entrySet()) {
+            String key = entry.getKey();
+            Score current = entry.getValue();
+            Score previous = baseline.get(key);
+            if (previous == null) {
+                System.out.printf("NEW         %s: %.3f %s%n", key, current.score(), current.unit());
+                continue;
+            }
+            if (!previous.mode().equals(current.mode()) || !previous.unit().equals(current.unit())) {
+                System.out.printf("INCOMPARABLE %s: the mode or unit changed (%s %s -> %s %s)%n", key, previous.mode(), previous.unit(), current.mode(), current.unit());
+                continue;
+            }
+
+            double change = current.higherIsBetter() ? previous.score() - current.score() : current.score() - previous.score();
+            double changePercent = 100 * change / previous.score();
+            boolean beyondNoise = Math.abs(current.score() - previous.score()) > errorMargin(current) + errorMargin(previous);
+
+            String verdict;
+            if (changePercent > thresholdPercent && beyondNoise) {
+                verdict = "REGRESSION";
+                regressions++;
+            } else if (changePercent < -thresholdPercent && beyondNoise) {
+                verdict = "IMPROVEMENT";
+            } else {
+                verdict = "OK";
+            }
+
+            System.out.printf("%-11s %s: %.3f -> %.3f %s (%+.1f%% worse)%n", verdict, key, previous.score(), current.score(), current.unit(), changePercent);
+        }
+
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) System.out.printf("MISSING     %s%n", key);
+        }
+
+        if (regressions > 0) {
+            System.err.printf("%d benchmark(s) regressed by more than %.1f%% compared to the baseline.%n", regressions, thresholdPercent);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * JMH reports 'NaN' for the error when there are too few measurement iterations. Treat that as no error margin.
+     */
+    private static double errorMargin(Score score) {
+        return Double.isNaN(score.error()) ? 0 : score.error();
+    }
+
+    private static Map<String, Score> read(File file) throws IOException {
+        JsonNode root = JsonMapper.builder().build().readTree(file);
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode benchmark : root) {
+            var key = new StringBuilder(benchmark.get("benchmark").asText());
+            JsonNode params = benchmark.get("params");
+            if (params != null) {
+                // Sort the params so that the key doesn't depend on the order in the file.
+                Map<String, String> sortedParams = new TreeMap<>();
+                params.fields().forEachRemaining(param -> sortedParams.put(param.getKey(), param.getValue().asText()));
+                key.append(sortedParams);
+            }
+
+            JsonNode metric = benchmark.get("primaryMetric");
+            var score = new Score(benchmark.get("mode").asText(),
+                    metric.get("score").asDouble(),
+                    metric.get("scoreError").asDouble(Double.NaN),
+                    metric.get("scoreUnit").asText());
+            scores.put(key.toString(), score);
+        }
+        return scores;
+    }
+}
@@ -17,4 +17,14 @@ tasks {
             exceptionFormat = TestExceptionFormat.FULL
         }
     }
+
+    // The (incubating) Vector API module is not resolved by default. The SIMD kernels of the 'data-model-in-memory'
+    // module are only used when it is. See https://openjdk.org/jeps/448
+    withType<Test> {
+        jvmArgs("--add-modules", "jdk.incubator.vector")
+    }
+
+    withType<JavaExec> {
+        jvmArgs("--add-modules", "jdk.incubator.vector")
+    }
 }
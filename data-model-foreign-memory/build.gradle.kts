@@ -0,0 +1,26 @@
+plugins {
+    id("dgroomes.conventions")
+    `java-library`
+}
+
+dependencies {
+    api(project(":data-system"))
+
+    testImplementation(project(":data-system-serial-indices-arrays"))
+    testImplementation(libs.assertj)
+    testImplementation(libs.junit.jupiter.api)
+    testRuntimeOnly(libs.junit.jupiter.engine)
+}
+
+// The Foreign Function & Memory API is a preview feature in Java 21. See https://openjdk.org/jeps/442
+//
+// Note: any module that uses this module must also enable preview features, both at compile time and at runtime.
+tasks {
+    withType<JavaCompile> {
+        options.compilerArgs.add("--enable-preview")
+    }
+
+    withType<Test> {
+        jvmArgs("--enable-preview")
+    }
+}
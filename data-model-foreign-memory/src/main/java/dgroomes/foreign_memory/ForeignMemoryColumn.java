@@ -0,0 +1,313 @@
+package dgroomes.foreign_memory;
+
+import dgroomes.data_system.*;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * A {@link Column} implementation that is backed by off-heap memory (a {@link MemorySegment}).
+ * <p>
+ * The memory is owned by the {@link java.lang.foreign.Arena} of the {@link ForeignMemoryTable} that the column belongs
+ * to. When the table is closed, the column can't be read anymore.
+ */
+sealed public interface ForeignMemoryColumn extends Column {
+
+    /**
+     * An integer column laid out as contiguous 32-bit values.
+     */
+    record IntegerColumn(MemorySegment ints, int height) implements ForeignMemoryColumn, ColumnFilterable.IntegerColumnFilterable {
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(IntPredicate predicate) {
+            return idx -> predicate.test(ints.getAtIndex(JAVA_INT, idx));
+        }
+
+        @Override
+        public int get(int idx) {
+            return ints.getAtIndex(JAVA_INT, idx);
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return ints.byteSize();
+        }
+    }
+
+    /**
+     * A string column laid out as UTF-8 bytes plus 64-bit offsets into the bytes. The string at row {@code i} is the
+     * bytes in the range {@code [offsets[i], offsets[i + 1])}. So, there are {@code height + 1} offsets.
+     */
+    record StringColumn(MemorySegment offsets, MemorySegment bytes, int height) implements ForeignMemoryColumn, ColumnFilterable.StringColumnFilterable {
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        /**
+         * Note: the predicate is over Java strings, so each row is decoded into a {@link String} before it is tested.
+         * That's an allocation per row.
+         */
+        @Override
+        public IntPredicate where(Predicate<String> predicate) {
+            return idx -> predicate.test(get(idx));
+        }
+
+        @Override
+        public String get(int idx) {
+            long from = offsets.getAtIndex(JAVA_LONG, idx);
+            long to = offsets.getAtIndex(JAVA_LONG, idx + 1);
+            return new String(bytes.asSlice(from, to - from).toArray(JAVA_BYTE), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return offsets.byteSize() + bytes.byteSize();
+        }
+    }
+
+    /**
+     * A dictionary-encoded string column. Each distinct string is stored once, in the dictionary, and each row is an
+     * integer code which is the index of its string in the dictionary.
+     * <p>
+     * The dictionary must be sorted (by {@link String#compareTo}). So, the codes are ordered like the strings are, and
+     * predicates like "equals", "starts with" and "range" become ranges of codes. These are found with a binary search
+     * over the dictionary, which decodes only a few strings. Any other predicate is evaluated once per dictionary entry
+     * instead of once per row. Either way, the rows are matched by their codes, without decoding their strings (see
+     * {@link StringColumn#where}).
+     */
+    record DictionaryStringColumn(StringColumn dictionary, MemorySegment codes, int height) implements ForeignMemoryColumn, ColumnFilterable.StringColumnFilterable {
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(Predicate<String> predicate) {
+            IntPredicate codePredicate = codePredicate(predicate);
+            return idx -> codePredicate.test(codes.getAtIndex(JAVA_INT, idx));
+        }
+
+        @Override
+        public void scan(Predicate<String> predicate, int fromIndex, int toIndex, long[] words) {
+            prepareScan(predicate).scan(fromIndex, toIndex, words);
+        }
+
+        @Override
+        public Scan prepareScan(Predicate<String> predicate) {
+            IntPredicate codePredicate = codePredicate(predicate);
+            if (codePredicate instanceof Criteria.IntExpression expression && expression.asBetween().isPresent()) {
+                var between = expression.asBetween().get();
+                int min = between.min(), max = between.max();
+                return (fromIndex, toIndex, words) -> {
+                    int base = fromIndex >>> 6;
+                    for (int i = fromIndex; i < toIndex; i++) {
+                        int code = codes.getAtIndex(JAVA_INT, i);
+                        if (code >= min && code <= max) words[(i >>> 6) - base] |= 1L << i;
+                    }
+                };
+            }
+            return (fromIndex, toIndex, words) -> {
+                int base = fromIndex >>> 6;
+                for (int i = fromIndex; i < toIndex; i++) {
+                    if (codePredicate.test(codes.getAtIndex(JAVA_INT, i))) words[(i >>> 6) - base] |= 1L << i;
+                }
+            };
+        }
+
+        /**
+         * Translate a predicate over strings into a predicate over codes.
+         */
+        private IntPredicate codePredicate(Predicate<String> predicate) {
+            return switch (predicate) {
+                case Criteria.StringEquals(var value) -> {
+                    int code = codeOf(value);
+                    yield code >= 0 ? new Criteria.IntEquals(code) : Criteria.IntBetween.EMPTY;
+                }
+                case Criteria.StringIn(var values) ->
+                        new Criteria.IntIn(values.stream().mapToInt(this::codeOf).filter(code -> code >= 0).toArray());
+                // The strings that start with the prefix are contiguous in the sorted dictionary, starting at the prefix itself.
+                case Criteria.StringStartsWith(var prefix) ->
+                        new Criteria.IntRange(partitionPoint(entry -> entry.compareTo(prefix) < 0),
+                                partitionPoint(entry -> entry.compareTo(prefix) < 0 || entry.startsWith(prefix)));
+                case Criteria.StringRange(var min, var max) ->
+                        new Criteria.IntRange(partitionPoint(entry -> entry.compareTo(min) < 0),
+                                partitionPoint(entry -> entry.compareTo(max) < 0));
+                default -> {
+                    // Evaluate the predicate once for each distinct string.
+                    boolean[] matches = new boolean[dictionary.height()];
+                    for (int code = 0; code < matches.length; code++) matches[code] = predicate.test(dictionary.get(code));
+                    yield code -> matches[code];
+                }
+            };
+        }
+
+        /**
+         * The code of the string, or -1 if it is not in the dictionary.
+         */
+        private int codeOf(String value) {
+            int code = partitionPoint(entry -> entry.compareTo(value) < 0);
+            return code < dictionary.height() && dictionary.get(code).equals(value) ? code : -1;
+        }
+
+        /**
+         * Find the first code for which the given condition is false. The condition must be true for a (possibly empty)
+         * prefix of the dictionary and false for the rest.
+         */
+        private int partitionPoint(Predicate<String> condition) {
+            int low = 0, high = dictionary.height();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (condition.test(dictionary.get(mid))) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        public String get(int idx) {
+            return dictionary.get(codes.getAtIndex(JAVA_INT, idx));
+        }
+
+        /**
+         * Only the codes are counted. The dictionary is small compared to the codes (see {@link Snapshot#write}).
+         */
+        @Override
+        public long estimatedBytes() {
+            return codes.byteSize();
+        }
+    }
+
+    /**
+     * An association column laid out in the "compressed sparse row" (CSR) style: the associated row indices (targets)
+     * of all rows are laid out back-to-back, and the targets of row {@code i} are in the range
+     * {@code [offsets[i], offsets[i + 1])}. So, there are {@code height + 1} offsets.
+     */
+    final class AssociationColumn implements ForeignMemoryColumn, dgroomes.data_system.AssociationColumn, ColumnFilterable.AssociationColumnFilterable {
+
+        private final Table associatedEntity;
+        private final MemorySegment offsets;
+        private final MemorySegment targets;
+        private final int height;
+
+        // Similar to the in-memory association column, the reverse column can only be set after construction.
+        private AssociationColumn reverseAssociatedColumn;
+
+        AssociationColumn(Table associatedEntity, MemorySegment offsets, MemorySegment targets, int height) {
+            this.associatedEntity = associatedEntity;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.height = height;
+        }
+
+        void setReverseAssociatedColumn(AssociationColumn reverseAssociatedColumn) {
+            if (this.reverseAssociatedColumn != null) {
+                throw new IllegalStateException("reverseAssociatedColumn is already set");
+            }
+            this.reverseAssociatedColumn = reverseAssociatedColumn;
+        }
+
+        public MemorySegment offsets() {
+            return offsets;
+        }
+
+        public MemorySegment targets() {
+            return targets;
+        }
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(Predicate<Association> predicate) {
+            throw new IllegalStateException("not implemented");
+        }
+
+        @Override
+        public int height() {
+            return height;
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return offsets.byteSize() + targets.byteSize();
+        }
+
+        @Override
+        public Table associatedEntity() {
+            return associatedEntity;
+        }
+
+        @Override
+        public AssociationColumn reverseAssociatedColumn() {
+            if (reverseAssociatedColumn == null) {
+                throw new IllegalStateException("reverseAssociatedColumn was never set");
+            }
+            return reverseAssociatedColumn;
+        }
+
+        @Override
+        public boolean hasReverseAssociatedColumn() {
+            return reverseAssociatedColumn != null;
+        }
+
+        /**
+         * This materializes an {@link Association} object from the off-heap data. It's a compatibility view.
+         */
+        @Override
+        public Association associationsForIndex(int i) {
+            int from = offsets.getAtIndex(JAVA_INT, i);
+            int to = offsets.getAtIndex(JAVA_INT, i + 1);
+            return switch (to - from) {
+                case 0 -> Association.NONE;
+                case 1 -> Association.toOne(targets.getAtIndex(JAVA_INT, from));
+                default -> Association.toMany(targets.asSlice((long) from * Integer.BYTES, (long) (to - from) * Integer.BYTES).toArray(JAVA_INT));
+            };
+        }
+
+        @Override
+        public void propagate(BitSet rows, int fromIndex, int toIndex, BitSet associatedRows) {
+            for (int i = rows.nextSetBit(fromIndex); i >= 0 && i < toIndex; i = rows.nextSetBit(i + 1)) {
+                for (int t = offsets.getAtIndex(JAVA_INT, i), end = offsets.getAtIndex(JAVA_INT, i + 1); t < end; t++) {
+                    associatedRows.set(targets.getAtIndex(JAVA_INT, t));
+                }
+            }
+        }
+
+        @Override
+        public void propagate(CompressedBitmap rows, CompressedBitmap.Builder associatedRows) {
+            rows.forEach(i -> {
+                for (int t = offsets.getAtIndex(JAVA_INT, i), end = offsets.getAtIndex(JAVA_INT, i + 1); t < end; t++) {
+                    associatedRows.add(targets.getAtIndex(JAVA_INT, t));
+                }
+            });
+        }
+
+        @Override
+        public void forEachAssociated(int i, IntConsumer action) {
+            for (int t = offsets.getAtIndex(JAVA_INT, i), end = offsets.getAtIndex(JAVA_INT, i + 1); t < end; t++) {
+                action.accept(targets.getAtIndex(JAVA_INT, t));
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package dgroomes.foreign_memory;
+
+import dgroomes.data_system.Association;
+import dgroomes.data_system.Column;
+import dgroomes.data_system.Table;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * A {@link Table} whose column data lives off the Java heap, in memory allocated with the Foreign Function & Memory API.
+ * <p>
+ * The table owns an {@link Arena} and all the memory of its columns is allocated from it. The memory is freed when the
+ * table is closed (see {@link #close()}), not when the garbage collector gets around to it. This keeps huge tables off
+ * of the heap, which keeps garbage collection pauses short.
+ * <p>
+ * Choose the kind of arena with care:
+ * <ul>
+ *     <li>{@link #shared()}: the memory can be read by any thread. Use this with a parallel data system.</li>
+ *     <li>{@link #confined()}: the memory can only be read by the thread that created the table. Access is a bit
+ *     cheaper.</li>
+ * </ul>
+ * The result sets created by {@link #subset(BitSet)} are different. They are allocated from an automatic arena (see
+ * {@link Arena#ofAuto()}) because the caller of a data system can't be expected to know that it has to close a result
+ * set. Their memory is freed when they are garbage collected.
+ */
+public final class ForeignMemoryTable implements Table, AutoCloseable {
+
+    private final Arena arena;
+    private final boolean closeable;
+    private final List<ForeignMemoryColumn> columns = new ArrayList<>();
+    private int size = -1;
+
+    private ForeignMemoryTable(Arena arena, boolean closeable) {
+        this.arena = arena;
+        this.closeable = closeable;
+    }
+
+    /**
+     * Create an empty table whose memory can be read by any thread.
+     */
+    public static ForeignMemoryTable shared() {
+        return new ForeignMemoryTable(Arena.ofShared(), true);
+    }
+
+    /**
+     * Create an empty table whose memory can only be read by the current thread.
+     */
+    public static ForeignMemoryTable confined() {
+        return new ForeignMemoryTable(Arena.ofConfined(), true);
+    }
+
+    /**
+     * Create an empty table whose memory is owned by someone else, like a {@link Snapshot}. The table is not closeable.
+     */
+    static ForeignMemoryTable of(Arena arena) {
+        return new ForeignMemoryTable(arena, false);
+    }
+
+    /**
+     * Add a column whose memory is already allocated (or mapped).
+     */
+    void add(ForeignMemoryColumn column) {
+        checkHeight(column.height());
+        columns.add(column);
+    }
+
+    @Override
+    public List<? extends Column> columns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    @Override
+    public int size() {
+        return Math.max(size, 0);
+    }
+
+    /**
+     * Copy the given integers into off-heap memory as a new column of this table.
+     */
+    public ForeignMemoryColumn.IntegerColumn addInts(int... ints) {
+        checkHeight(ints.length);
+        var segment = arena.allocateArray(JAVA_INT, ints);
+        var column = new ForeignMemoryColumn.IntegerColumn(segment, ints.length);
+        columns.add(column);
+        return column;
+    }
+
+    /**
+     * Copy the given strings into off-heap memory (encoded as UTF-8) as a new column of this table.
+     */
+    public ForeignMemoryColumn.StringColumn addStrings(String... strings) {
+        checkHeight(strings.length);
+        var column = strings(strings);
+        columns.add(column);
+        return column;
+    }
+
+    /**
+     * Copy the given strings into off-heap memory (encoded as UTF-8) but don't add them as a column.
+     */
+    private ForeignMemoryColumn.StringColumn strings(String... strings) {
+        byte[][] encoded = new byte[strings.length][];
+        long[] offsets = new long[strings.length + 1];
+        for (int i = 0; i < strings.length; i++) {
+            if (strings[i] == null) throw new IllegalArgumentException("Found a null string at index " + i);
+            encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + encoded[i].length;
+        }
+
+        MemorySegment bytes = arena.allocate(Math.max(1, offsets[strings.length]));
+        for (int i = 0; i < strings.length; i++) {
+            MemorySegment.copy(encoded[i], 0, bytes, JAVA_BYTE, offsets[i], encoded[i].length);
+        }
+
+        return new ForeignMemoryColumn.StringColumn(arena.allocateArray(JAVA_LONG, offsets), bytes, strings.length);
+    }
+
+    /**
+     * Associate this entity (X) to another entity (Y). The reverse association column (from Y to X) is added to the
+     * other table and its memory is allocated from the other table's arena.
+     * <p>
+     * Note: this means that the tables depend on each other. Close them together.
+     *
+     * @param associatedEntity the entity type to associate to (Y)
+     * @param associations     the associations from this entity (X) to the associated entity (Y)
+     * @return the association column
+     */
+    public ForeignMemoryColumn.AssociationColumn associateTo(ForeignMemoryTable associatedEntity, Association... associations) {
+        checkHeight(associations.length);
+        int ySize = associatedEntity.size();
+
+        // Lay out the forward associations (X to Y) and count the reverse associations (Y to X) in the same pass.
+        int[] forwardOffsets = new int[associations.length + 1];
+        int[] reverseCounts = new int[ySize];
+        for (int x = 0; x < associations.length; x++) {
+            int count = switch (associations[x]) {
+                case Association.One(var y) -> {
+                    reverseCounts[y]++;
+                    yield 1;
+                }
+                case Association.Many(var ys) -> {
+                    for (int y : ys) reverseCounts[y]++;
+                    yield ys.length;
+                }
+                case Association.None ignored -> 0;
+                case null -> throw new IllegalStateException("Found a null association");
+            };
+            forwardOffsets[x + 1] = forwardOffsets[x] + count;
+        }
+
+        int[] reverseOffsets = new int[ySize + 1];
+        for (int y = 0; y < ySize; y++) reverseOffsets[y + 1] = reverseOffsets[y] + reverseCounts[y];
+
+        int[] forwardTargets = new int[forwardOffsets[associations.length]];
+        int[] reverseTargets = new int[reverseOffsets[ySize]];
+        int[] reverseFilled = new int[ySize];
+        for (int x = 0; x < associations.length; x++) {
+            int offset = forwardOffsets[x];
+            switch (associations[x]) {
+                case Association.One(var y) -> {
+                    forwardTargets[offset] = y;
+                    reverseTargets[reverseOffsets[y] + reverseFilled[y]++] = x;
+                }
+                case Association.Many(var ys) -> {
+                    for (int y : ys) {
+                        forwardTargets[offset++] = y;
+                        reverseTargets[reverseOffsets[y] + reverseFilled[y]++] = x;
+                    }
+                }
+                case Association.None ignored -> {
+                }
+            }
+        }
+
+        var forward = new ForeignMemoryColumn.AssociationColumn(associatedEntity, arena.allocateArray(JAVA_INT, forwardOffsets), arena.allocateArray(JAVA_INT, forwardTargets), associations.length);
+        var reverse = new ForeignMemoryColumn.AssociationColumn(this, associatedEntity.arena.allocateArray(JAVA_INT, reverseOffsets), associatedEntity.arena.allocateArray(JAVA_INT, reverseTargets), ySize);
+        forward.setReverseAssociatedColumn(reverse);
+        reverse.setReverseAssociatedColumn(forward);
+
+        columns.add(forward);
+        associatedEntity.columns.add(reverse);
+        return forward;
+    }
+
+    private void checkHeight(int height) {
+        if (size == -1) {
+            size = height;
+        } else if (size != height) {
+            throw new IllegalArgumentException("The column has %d rows but the table has %d rows".formatted(height, size));
+        }
+    }
+
+    /**
+     * The selected table shares the arena of this table. It is not closeable. Close this table instead.
+     */
+    @Override
+    public Table select(List<Integer> ordinals) {
+        var selected = new ForeignMemoryTable(arena, false);
+        for (int ordinal : ordinals) selected.columns.add(columns.get(ordinal));
+        selected.size = size;
+        return selected;
+    }
+
+    /**
+     * This method is designed to create the result set of the query. A subset of the original table is the result set.
+     * The subset is allocated in an automatic arena (see the class-level comments).
+     */
+    @Override
+    public Table subset(BitSet matchingRows) {
+        return subset(matchingRows.stream().takeWhile(i -> i < size).toArray());
+    }
+
+    /**
+     * Like {@link #subset(BitSet)} but the rows are given in the order of the result set.
+     */
+    @Override
+    public Table subset(int[] rows) {
+        var subset = new ForeignMemoryTable(Arena.ofAuto(), false);
+        int cardinality = rows.length;
+        subset.size = cardinality;
+
+        for (ForeignMemoryColumn column : columns) {
+            ForeignMemoryColumn pruned = switch (column) {
+                case ForeignMemoryColumn.IntegerColumn(var ints, var height) -> {
+                    var prunedInts = subset.arena.allocateArray(JAVA_INT, cardinality);
+                    for (int j = 0; j < cardinality; j++) {
+                        prunedInts.setAtIndex(JAVA_INT, j, ints.getAtIndex(JAVA_INT, rows[j]));
+                    }
+                    yield new ForeignMemoryColumn.IntegerColumn(prunedInts, cardinality);
+                }
+                case ForeignMemoryColumn.StringColumn(var offsets, var bytes, var height) -> {
+                    long[] prunedOffsets = new long[cardinality + 1];
+                    for (int j = 0; j < cardinality; j++) {
+                        long length = offsets.getAtIndex(JAVA_LONG, rows[j] + 1) - offsets.getAtIndex(JAVA_LONG, rows[j]);
+                        prunedOffsets[j + 1] = prunedOffsets[j] + length;
+                    }
+                    var prunedBytes = subset.arena.allocate(Math.max(1, prunedOffsets[cardinality]));
+                    for (int j = 0; j < cardinality; j++) {
+                        long from = offsets.getAtIndex(JAVA_LONG, rows[j]);
+                        MemorySegment.copy(bytes, from, prunedBytes, prunedOffsets[j], prunedOffsets[j + 1] - prunedOffsets[j]);
+                    }
+                    yield new ForeignMemoryColumn.StringColumn(subset.arena.allocateArray(JAVA_LONG, prunedOffsets), prunedBytes, cardinality);
+                }
+                case ForeignMemoryColumn.DictionaryStringColumn(var dictionary, var codes, var height) -> {
+                    // The dictionary may live in memory that the result set must not depend on (like the mapping of a
+                    // snapshot), so the entries that are used are copied. They keep their order, so the pruned
+                    // dictionary is still sorted.
+                    int[] prunedCodesByCode = new int[dictionary.height()];
+                    for (int j = 0; j < cardinality; j++) prunedCodesByCode[codes.getAtIndex(JAVA_INT, rows[j])] = 1;
+                    int entryCount = 0;
+                    for (int code = 0; code < prunedCodesByCode.length; code++) {
+                        prunedCodesByCode[code] = prunedCodesByCode[code] == 1 ? entryCount++ : -1;
+                    }
+                    String[] entries = new String[entryCount];
+                    for (int code = 0; code < prunedCodesByCode.length; code++) {
+                        if (prunedCodesByCode[code] >= 0) entries[prunedCodesByCode[code]] = dictionary.get(code);
+                    }
+                    var prunedCodes = subset.arena.allocateArray(JAVA_INT, cardinality);
+                    for (int j = 0; j < cardinality; j++) {
+                        prunedCodes.setAtIndex(JAVA_INT, j, prunedCodesByCode[codes.getAtIndex(JAVA_INT, rows[j])]);
+                    }
+                    yield new ForeignMemoryColumn.DictionaryStringColumn(subset.strings(entries), prunedCodes, cardinality);
+                }
+                case ForeignMemoryColumn.AssociationColumn associationColumn -> {
+                    var offsets = associationColumn.offsets();
+                    var targets = associationColumn.targets();
+                    int[] prunedOffsets = new int[cardinality + 1];
+                    for (int j = 0; j < cardinality; j++) {
+                        prunedOffsets[j + 1] = prunedOffsets[j] + offsets.getAtIndex(JAVA_INT, rows[j] + 1) - offsets.getAtIndex(JAVA_INT, rows[j]);
+                    }
+                    var prunedTargets = subset.arena.allocateArray(JAVA_INT, prunedOffsets[cardinality]);
+                    for (int j = 0; j < cardinality; j++) {
+                        long from = offsets.getAtIndex(JAVA_INT, rows[j]);
+                        MemorySegment.copy(targets, from * Integer.BYTES, prunedTargets, (long) prunedOffsets[j] * Integer.BYTES, (long) (prunedOffsets[j + 1] - prunedOffsets[j]) * Integer.BYTES);
+                    }
+                    yield new ForeignMemoryColumn.AssociationColumn(associationColumn.associatedEntity(), subset.arena.allocateArray(JAVA_INT, prunedOffsets), prunedTargets, cardinality);
+                }
+            };
+            subset.columns.add(pruned);
+        }
+
+        return subset;
+    }
+
+    /**
+     * Free the off-heap memory of this table. After this, reading the columns fails with an
+     * {@link IllegalStateException}. This is a no-op for result sets (see the class-level comments).
+     */
+    @Override
+    public void close() {
+        if (closeable) arena.close();
+    }
+}
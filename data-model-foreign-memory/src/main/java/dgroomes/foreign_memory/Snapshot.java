@@ -0,0 +1,498 @@
+package dgroomes.foreign_memory;
+
+import dgroomes.data_system.AssociationColumn;
+import dgroomes.data_system.Column;
+import dgroomes.data_system.ColumnFilterable;
+import dgroomes.data_system.Table;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * A set of tables saved to a file in a binary, columnar format, and opened again by memory-mapping the file.
+ * <p>
+ * Building the tables from the source data (parsing, building the associations in both directions, encoding the
+ * dictionaries) can take minutes for big data sets. Opening a snapshot only reads a small metadata section. The columns
+ * are slices of the mapped file (see {@link FileChannel#map(FileChannel.MapMode, long, long, Arena)}), so the data is
+ * paged in by the operating system as it's read. The mapping is read-only, so the JVMs on a host that open the same
+ * snapshot share the same pages of the page cache.
+ * <p>
+ * The file is laid out like this:
+ * <ul>
+ *     <li>A header of 32 bytes: the magic number, the version of the format, and the position, length and checksum of
+ *     the metadata.</li>
+ *     <li>The data sections, each aligned to 8 bytes. A section is one array: the values of an integer column, the
+ *     offsets or the bytes of a string column, the codes of a dictionary-encoded column, or the offsets or the targets
+ *     of an association column (in the CSR style, see {@link ForeignMemoryColumn.AssociationColumn}).</li>
+ *     <li>The metadata: the tables, their columns, and the position, length and checksum of each section of each
+ *     column. For an association column, it's also the table that it associates to and the position of its reverse
+ *     column, so that both directions are restored without being rebuilt.</li>
+ * </ul>
+ * The header and the sections are in the native byte order of the machine that wrote the file, so that they can be read
+ * in place. A snapshot can't be opened on a machine with the other byte order. The checksums are CRC32C.
+ * <p>
+ * The checksum of the metadata is verified when the snapshot is opened. The checksums of the sections are only verified
+ * by {@link #verify()} because that reads the whole file, which is what opening a snapshot avoids.
+ */
+public final class Snapshot implements AutoCloseable {
+
+    /**
+     * The version of the format. A snapshot of another version can't be opened.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * "QESNAPSH" in ASCII.
+     */
+    private static final long MAGIC = 0x5145534E41505348L;
+    private static final int HEADER_BYTES = 32;
+
+    private static final byte INTEGERS = 0;
+    private static final byte STRINGS = 1;
+    private static final byte DICTIONARY_STRINGS = 2;
+    private static final byte ASSOCIATIONS = 3;
+
+    private final Arena arena;
+    private final MemorySegment file;
+    private final Map<String, ForeignMemoryTable> tables;
+    private final List<Section> sections;
+
+    private Snapshot(Arena arena, MemorySegment file, Map<String, ForeignMemoryTable> tables, List<Section> sections) {
+        this.arena = arena;
+        this.file = file;
+        this.tables = tables;
+        this.sections = sections;
+    }
+
+    /**
+     * The tables by name, in the order that they were written. The tables belong to the snapshot. They can't be read
+     * after the snapshot is closed.
+     */
+    public Map<String, ForeignMemoryTable> tables() {
+        return tables;
+    }
+
+    /**
+     * The position, length and checksum of an array in the file.
+     */
+    private record Section(long offset, long length, int checksum) {}
+
+    /**
+     * Write the tables to a file. The columns are read through the interfaces of the data system, so the tables can be of
+     * any kind (in-memory, off-heap, ...).
+     * <p>
+     * A string column with at most half as many distinct strings as rows is dictionary-encoded, with a sorted
+     * dictionary. Every association column must associate to one of the tables.
+     * <p>
+     * The snapshot is written to a temporary file and then moved over the given path. So, a snapshot is never seen half
+     * written, and the processes that already mapped the previous snapshot keep reading it.
+     *
+     * @param tables the tables by name
+     * @throws IllegalArgumentException if a column can't be written (for example, a boolean column) or an association
+     *                                  column associates to a table that is not written
+     */
+    public static void write(Path path, Map<String, ? extends Table> tables) throws IOException {
+        // Where each table and each column is, so that the associations can refer to them.
+        Map<Table, Integer> tableIndexes = new IdentityHashMap<>();
+        Map<Column, int[]> columnPositions = new IdentityHashMap<>();
+        int t = 0;
+        for (Table table : tables.values()) {
+            tableIndexes.put(table, t);
+            for (int ordinal = 0; ordinal < table.width(); ordinal++) {
+                columnPositions.put(table.columns().get(ordinal), new int[]{t, ordinal});
+            }
+            t++;
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            var writer = new SectionWriter(channel);
+            var metadataBytes = new ByteArrayOutputStream();
+            var metadata = new DataOutputStream(metadataBytes);
+            metadata.writeInt(tables.size());
+            for (var entry : tables.entrySet()) {
+                Table table = entry.getValue();
+                metadata.writeUTF(entry.getKey());
+                metadata.writeInt(table.size());
+                metadata.writeInt(table.width());
+                for (int ordinal = 0; ordinal < table.width(); ordinal++) {
+                    writeColumn(table.columns().get(ordinal), table.size(), tableIndexes, columnPositions, writer, metadata);
+                }
+            }
+            metadata.flush();
+            Section metadataSection = writer.bytes(metadataBytes.toByteArray());
+
+            var header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+            header.putLong(MAGIC).putInt(VERSION).putInt(0).putLong(metadataSection.offset()).putInt((int) metadataSection.length()).putInt(metadataSection.checksum());
+            header.flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeColumn(Column column, int height, Map<Table, Integer> tableIndexes, Map<Column, int[]> columnPositions,
+                                    SectionWriter writer, DataOutputStream metadata) throws IOException {
+        switch (column.filterableType()) {
+            case ColumnFilterable.IntegerColumnFilterable integers -> {
+                int[] values = new int[height];
+                for (int i = 0; i < height; i++) values[i] = integers.get(i);
+                metadata.writeByte(INTEGERS);
+                writeSection(metadata, writer.ints(values));
+            }
+            case ColumnFilterable.StringColumnFilterable strings -> {
+                String[] values = new String[height];
+                Map<String, Integer> codesByString = new HashMap<>();
+                for (int i = 0; i < height; i++) {
+                    values[i] = strings.get(i);
+                    if (values[i] == null) throw new IllegalArgumentException("Found a null string at index " + i);
+                    codesByString.put(values[i], 0);
+                }
+                if (codesByString.size() <= height / 2) {
+                    // The dictionary is sorted. See ForeignMemoryColumn.DictionaryStringColumn.
+                    String[] dictionary = codesByString.keySet().toArray(String[]::new);
+                    Arrays.sort(dictionary);
+                    for (int code = 0; code < dictionary.length; code++) codesByString.put(dictionary[code], code);
+                    int[] codes = new int[height];
+                    for (int i = 0; i < height; i++) codes[i] = codesByString.get(values[i]);
+                    metadata.writeByte(DICTIONARY_STRINGS);
+                    metadata.writeInt(dictionary.length);
+                    writeStrings(dictionary, writer, metadata);
+                    writeSection(metadata, writer.ints(codes));
+                } else {
+                    metadata.writeByte(STRINGS);
+                    writeStrings(values, writer, metadata);
+                }
+            }
+            case ColumnFilterable.AssociationColumnFilterable ignored when column instanceof AssociationColumn association -> {
+                Integer associatedTable = tableIndexes.get(association.associatedEntity());
+                if (associatedTable == null) {
+                    throw new IllegalArgumentException("An association column associates to a table that is not in the snapshot");
+                }
+                int[] offsets = new int[height + 1];
+                for (int i = 0; i < height; i++) {
+                    int[] count = {0};
+                    association.forEachAssociated(i, ignoredTarget -> count[0]++);
+                    offsets[i + 1] = offsets[i] + count[0];
+                }
+                int[] targets = new int[offsets[height]];
+                for (int i = 0; i < height; i++) {
+                    int[] next = {offsets[i]};
+                    association.forEachAssociated(i, target -> targets[next[0]++] = target);
+                }
+
+                // The reverse column, if there is one. The association columns of a subset don't have one.
+                int[] reversePosition = {-1, -1};
+                if (association.hasReverseAssociatedColumn()) {
+                    reversePosition = columnPositions.getOrDefault(association.reverseAssociatedColumn(), reversePosition);
+                }
+                metadata.writeByte(ASSOCIATIONS);
+                metadata.writeInt(associatedTable);
+                metadata.writeInt(reversePosition[0]);
+                metadata.writeInt(reversePosition[1]);
+                writeSection(metadata, writer.ints(offsets));
+                writeSection(metadata, writer.ints(targets));
+            }
+            default ->
+                    throw new IllegalArgumentException("Columns of type %s can't be written to a snapshot".formatted(column.getClass().getSimpleName()));
+        }
+    }
+
+    /**
+     * Write strings in the layout of a {@link ForeignMemoryColumn.StringColumn}: the offsets and then the UTF-8 bytes.
+     */
+    private static void writeStrings(String[] strings, SectionWriter writer, DataOutputStream metadata) throws IOException {
+        byte[][] encoded = new byte[strings.length][];
+        long[] offsets = new long[strings.length + 1];
+        for (int i = 0; i < strings.length; i++) {
+            encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + encoded[i].length;
+        }
+        writeSection(metadata, writer.longs(offsets));
+        writeSection(metadata, writer.bytes(encoded));
+    }
+
+    private static void writeSection(DataOutputStream metadata, Section section) throws IOException {
+        metadata.writeLong(section.offset());
+        metadata.writeLong(section.length());
+        metadata.writeInt(section.checksum());
+    }
+
+    /**
+     * Writes the sections one after the other, aligned to 8 bytes, after the header. The values are buffered and written
+     * in the native byte order, and the checksum of each section is computed as it's written.
+     */
+    private static final class SectionWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.nativeOrder());
+        private final CRC32C checksum = new CRC32C();
+        private long position = HEADER_BYTES;
+        private long sectionStart;
+
+        SectionWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        Section ints(int[] values) throws IOException {
+            begin();
+            for (int value : values) {
+                if (buffer.remaining() < Integer.BYTES) flush();
+                buffer.putInt(value);
+            }
+            return end();
+        }
+
+        Section longs(long[] values) throws IOException {
+            begin();
+            for (long value : values) {
+                if (buffer.remaining() < Long.BYTES) flush();
+                buffer.putLong(value);
+            }
+            return end();
+        }
+
+        Section bytes(byte[]... arrays) throws IOException {
+            begin();
+            for (byte[] bytes : arrays) {
+                for (int from = 0; from < bytes.length; ) {
+                    if (!buffer.hasRemaining()) flush();
+                    int length = Math.min(buffer.remaining(), bytes.length - from);
+                    buffer.put(bytes, from, length);
+                    from += length;
+                }
+            }
+            return end();
+        }
+
+        private void begin() throws IOException {
+            int padding = (int) (-position & 7);
+            if (padding > 0) write(ByteBuffer.allocate(padding));
+            sectionStart = position;
+            checksum.reset();
+        }
+
+        private Section end() throws IOException {
+            flush();
+            return new Section(sectionStart, position - sectionStart, (int) checksum.getValue());
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            checksum.update(buffer.duplicate());
+            write(buffer);
+            buffer.clear();
+        }
+
+        private void write(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) position += channel.write(bytes, position);
+        }
+    }
+
+    /**
+     * Open a snapshot by memory-mapping it. Only the header and the metadata are read now. See {@link #verify()}.
+     *
+     * @throws IOException if the file can't be read, is not a snapshot, is of another version or byte order, or its
+     *                     metadata is corrupt
+     */
+    public static Snapshot open(Path path) throws IOException {
+        // A shared arena, so that the tables can be read by a parallel data system.
+        Arena arena = Arena.ofShared();
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping outlives the channel. It's unmapped when the arena is closed.
+            MemorySegment file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            if (file.byteSize() < HEADER_BYTES) throw new IOException("The file is too small to be a snapshot: " + path);
+
+            long magic = file.get(JAVA_LONG, 0);
+            if (magic == Long.reverseBytes(MAGIC)) {
+                throw new IOException("The snapshot was written on a machine with a different byte order: " + path);
+            }
+            if (magic != MAGIC) throw new IOException("The file is not a snapshot: " + path);
+            int version = file.get(JAVA_INT, 8);
+            if (version != VERSION) {
+                throw new IOException("The snapshot is of version %d but only version %d is supported: %s".formatted(version, VERSION, path));
+            }
+
+            var metadataSection = new Section(file.get(JAVA_LONG, 16), file.get(JAVA_INT, 24), file.get(JAVA_INT, 28));
+            MemorySegment metadataSegment = slice(file, metadataSection);
+            if (checksum(metadataSegment) != metadataSection.checksum()) {
+                throw new IOException("The metadata of the snapshot is corrupt (the checksum doesn't match): " + path);
+            }
+            var reader = new MetadataReader(arena, file, new DataInputStream(new ByteArrayInputStream(metadataSegment.toArray(JAVA_BYTE))));
+            var tables = reader.read();
+            var sections = new ArrayList<>(reader.sections);
+            sections.add(metadataSection);
+            return new Snapshot(arena, file, tables, Collections.unmodifiableList(sections));
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Builds the tables from the metadata. The columns are slices of the mapped file. Nothing is copied.
+     */
+    private static final class MetadataReader {
+
+        private final Arena arena;
+        private final MemorySegment file;
+        private final DataInputStream metadata;
+        private final List<Section> sections = new ArrayList<>();
+
+        MetadataReader(Arena arena, MemorySegment file, DataInputStream metadata) {
+            this.arena = arena;
+            this.file = file;
+            this.metadata = metadata;
+        }
+
+        Map<String, ForeignMemoryTable> read() throws IOException {
+            int tableCount = metadata.readInt();
+            // The tables are created up front because an association column may associate to a table that comes later.
+            var tables = new ForeignMemoryTable[tableCount];
+            for (int t = 0; t < tableCount; t++) tables[t] = ForeignMemoryTable.of(arena);
+
+            record ReverseLink(ForeignMemoryColumn.AssociationColumn column, int table, int ordinal) {}
+            var reverseLinks = new ArrayList<ReverseLink>();
+            var tablesByName = new LinkedHashMap<String, ForeignMemoryTable>();
+            for (int t = 0; t < tableCount; t++) {
+                String name = metadata.readUTF();
+                int height = metadata.readInt();
+                int width = metadata.readInt();
+                if (height < 0 || width < 0) {
+                    throw new IOException("The metadata of the snapshot is corrupt (a table of height %d and width %d)".formatted(height, width));
+                }
+                for (int ordinal = 0; ordinal < width; ordinal++) {
+                    byte kind = metadata.readByte();
+                    ForeignMemoryColumn column = switch (kind) {
+                        case INTEGERS -> new ForeignMemoryColumn.IntegerColumn(section(height, Integer.BYTES), height);
+                        case STRINGS -> strings(height);
+                        case DICTIONARY_STRINGS -> {
+                            int dictionarySize = metadata.readInt();
+                            if (dictionarySize < 0) {
+                                throw new IOException("The metadata of the snapshot is corrupt (a dictionary of %d strings)".formatted(dictionarySize));
+                            }
+                            var dictionary = strings(dictionarySize);
+                            yield new ForeignMemoryColumn.DictionaryStringColumn(dictionary, section(height, Integer.BYTES), height);
+                        }
+                        case ASSOCIATIONS -> {
+                            int associatedTable = metadata.readInt();
+                            int reverseTable = metadata.readInt();
+                            int reverseOrdinal = metadata.readInt();
+                            if (associatedTable < 0 || associatedTable >= tableCount) {
+                                throw new IOException("The metadata of the snapshot is corrupt (an association to table %d)".formatted(associatedTable));
+                            }
+                            var offsets = section(height + 1L, Integer.BYTES);
+                            var targets = section(offsets.getAtIndex(JAVA_INT, height), Integer.BYTES);
+                            var association = new ForeignMemoryColumn.AssociationColumn(tables[associatedTable], offsets, targets, height);
+                            if (reverseTable >= 0) reverseLinks.add(new ReverseLink(association, reverseTable, reverseOrdinal));
+                            yield association;
+                        }
+                        default ->
+                                throw new IOException("The metadata of the snapshot is corrupt (a column of kind %d)".formatted(kind));
+                    };
+                    tables[t].add(column);
+                }
+                tablesByName.put(name, tables[t]);
+            }
+
+            for (var link : reverseLinks) {
+                if (!(link.table() < tableCount && link.ordinal() < tables[link.table()].width()
+                      && tables[link.table()].columns().get(link.ordinal()) instanceof ForeignMemoryColumn.AssociationColumn reverse)) {
+                    throw new IOException("The metadata of the snapshot is corrupt (a reverse association to column %d of table %d)".formatted(link.ordinal(), link.table()));
+                }
+                link.column().setReverseAssociatedColumn(reverse);
+            }
+            return Collections.unmodifiableMap(tablesByName);
+        }
+
+        private ForeignMemoryColumn.StringColumn strings(int height) throws IOException {
+            var offsets = section(height + 1L, Long.BYTES);
+            var bytes = section(offsets.getAtIndex(JAVA_LONG, height), 1);
+            return new ForeignMemoryColumn.StringColumn(offsets, bytes, height);
+        }
+
+        /**
+         * Slice the next section. It is checked against the number of elements that the column will read from it, so
+         * that a corrupt snapshot fails here, when it's opened, instead of when a row is read.
+         *
+         * @param count        the number of elements in the section. The last offset of an offsets section is the
+         *                     number of elements of the section that it indexes.
+         * @param elementBytes the size of each element
+         */
+        private MemorySegment section(long count, int elementBytes) throws IOException {
+            var section = new Section(metadata.readLong(), metadata.readLong(), metadata.readInt());
+            sections.add(section);
+            MemorySegment segment = slice(file, section);
+            if (count < 0 || segment.byteSize() < count * elementBytes) {
+                throw new IOException("The snapshot is corrupt (a section at %d of %d bytes is too small for %d elements of %d bytes)".formatted(section.offset(), section.length(), count, elementBytes));
+            }
+            return segment;
+        }
+    }
+
+    private static MemorySegment slice(MemorySegment file, Section section) throws IOException {
+        if (section.offset() < HEADER_BYTES || section.length() < 0 || section.offset() + section.length() > file.byteSize()) {
+            throw new IOException("The snapshot is corrupt (a section at %d of %d bytes is out of bounds)".formatted(section.offset(), section.length()));
+        }
+        return file.asSlice(section.offset(), section.length());
+    }
+
+    private static int checksum(MemorySegment segment) {
+        var checksum = new CRC32C();
+        // The segment is copied to the heap in chunks because a CRC32C can't read a byte buffer of a shared arena.
+        byte[] chunk = new byte[(int) Math.min(segment.byteSize(), 1 << 20)];
+        for (long from = 0; from < segment.byteSize(); from += chunk.length) {
+            int length = (int) Math.min(chunk.length, segment.byteSize() - from);
+            MemorySegment.copy(segment, JAVA_BYTE, from, chunk, 0, length);
+            checksum.update(chunk, 0, length);
+        }
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * Verify the checksums of all the sections. This reads the whole file.
+     *
+     * @throws IOException if a checksum doesn't match
+     */
+    public void verify() throws IOException {
+        for (Section section : sections) {
+            if (checksum(slice(file, section)) != section.checksum()) {
+                throw new IOException("The snapshot is corrupt (the checksum of the section at %d doesn't match)".formatted(section.offset()));
+            }
+        }
+    }
+
+    /**
+     * Unmap the file. After this, reading the tables fails with an {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
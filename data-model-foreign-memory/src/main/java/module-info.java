@@ -0,0 +1,4 @@
+module dgroomes.foreign_memory {
+    requires dgroomes.data_system;
+    exports dgroomes.foreign_memory;
+}
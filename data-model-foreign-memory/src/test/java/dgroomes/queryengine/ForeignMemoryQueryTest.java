@@ -0,0 +1,227 @@
+package dgroomes.queryengine;
+
+import dgroomes.data_system.Association;
+import dgroomes.data_system.Column;
+import dgroomes.data_system.Criteria;
+import dgroomes.data_system.Query;
+import dgroomes.data_system.QueryResult;
+import dgroomes.data_system.QueryResult.Failure;
+import dgroomes.data_system.QueryResult.Success;
+import dgroomes.data_system_serial_indices_arrays.DataSystemSerialIndices;
+import dgroomes.foreign_memory.ForeignMemoryColumn;
+import dgroomes.foreign_memory.ForeignMemoryTable;
+import dgroomes.foreign_memory.Snapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opentest4j.AssertionFailedError;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Query over off-heap tables with the (unchanged) serial data system.
+ */
+public class ForeignMemoryQueryTest {
+
+    @Test
+    void queryOnAssociationProperty() {
+        try (var cities = ForeignMemoryTable.confined();
+             var states = ForeignMemoryTable.confined()) {
+            cities.addStrings("Minneapolis", "Pierre", "Duluth");
+            cities.addInts(425_336, 13_646, 86_697);
+            states.addStrings("Minnesota", "South Dakota");
+            cities.associateTo(states, Association.toOne(0), Association.toOne(1), Association.toOne(0));
+
+            var dataSystem = new DataSystemSerialIndices();
+            dataSystem.register("cities", cities);
+            dataSystem.register("states", states);
+
+            var query = new Query("cities");
+            query.rootNode.addCriteria(new Criteria.IntCriteria(1, pop -> pop > 50_000))
+                    .createChild(2)
+                    .addCriteria(new Criteria.StringCriteria(0, "Minnesota"::equals));
+
+            var columns = columns(dataSystem.execute(query));
+
+            assertThat(columns).hasSize(3);
+            if (!(columns.get(0) instanceof ForeignMemoryColumn.StringColumn names)) {
+                throw new AssertionFailedError("Expected a StringColumn");
+            }
+            assertThat(List.of(names.get(0), names.get(1))).containsExactly("Minneapolis", "Duluth");
+
+            // The associations survive the subset.
+            if (!(columns.get(2) instanceof ForeignMemoryColumn.AssociationColumn toState)) {
+                throw new AssertionFailedError("Expected an AssociationColumn");
+            }
+            assertThat(toState.associationsForIndex(1)).isEqualTo(Association.toOne(0));
+
+            // The reverse associations are built too.
+            var stateToCities = states.columns().get(1);
+            if (!(stateToCities instanceof ForeignMemoryColumn.AssociationColumn reverse)) {
+                throw new AssertionFailedError("Expected an AssociationColumn");
+            }
+            if (!(reverse.associationsForIndex(0) instanceof Association.Many(var indices))) {
+                throw new AssertionFailedError("Expected a 'many' association");
+            }
+            assertThat(indices).containsExactly(0, 2);
+        }
+    }
+
+    @Test
+    void closedTableCannotBeRead() {
+        var table = ForeignMemoryTable.shared();
+        var column = table.addInts(1, 2, 3);
+        table.close();
+
+        try {
+            column.get(0);
+        } catch (IllegalStateException e) {
+            return;
+        }
+        throw new AssertionFailedError("Expected an IllegalStateException");
+    }
+
+    /**
+     * Write tables to a snapshot, open it again and query it. The repeated strings are dictionary-encoded and the
+     * associations are restored in both directions.
+     */
+    @Test
+    void snapshot(@TempDir Path directory) throws IOException {
+        Path path = directory.resolve("cities.snapshot");
+        try (var cities = ForeignMemoryTable.confined();
+             var states = ForeignMemoryTable.confined()) {
+            cities.addStrings("Minneapolis", "Pierre", "Duluth", "Rapid City", "Rochester", "Sioux Falls");
+            cities.addStrings("city", "capital", "city", "city", "city", "city");
+            states.addStrings("Minnesota", "South Dakota");
+            cities.associateTo(states, Association.toOne(0), Association.toOne(1), Association.toOne(0),
+                    Association.toOne(1), Association.toOne(0), Association.toOne(1));
+            var tables = new LinkedHashMap<String, ForeignMemoryTable>();
+            tables.put("cities", cities);
+            tables.put("states", states);
+            Snapshot.write(path, tables);
+        }
+
+        List<? extends Column> columns;
+        try (var snapshot = Snapshot.open(path)) {
+            snapshot.verify();
+            var cities = snapshot.tables().get("cities");
+            var states = snapshot.tables().get("states");
+            assertThat(cities.size()).isEqualTo(6);
+            // The dictionary is sorted, so "equals" and "starts with" are ranges of codes.
+            if (!(cities.columns().get(1) instanceof ForeignMemoryColumn.DictionaryStringColumn kinds)) {
+                throw new AssertionFailedError("Expected a DictionaryStringColumn");
+            }
+            assertThat(List.of(kinds.dictionary().get(0), kinds.dictionary().get(1))).containsExactly("capital", "city");
+
+            var dataSystem = new DataSystemSerialIndices();
+            dataSystem.register("cities", cities);
+            dataSystem.register("states", states);
+            var query = new Query("cities");
+            query.rootNode.addCriteria(Criteria.StringCriteria.equalTo(1, "city"))
+                    .createChild(2)
+                    .addCriteria(new Criteria.StringCriteria(0, "South Dakota"::equals));
+            var capitals = new Query("cities");
+            capitals.rootNode.addCriteria(Criteria.StringCriteria.startsWith(1, "cap"));
+
+            columns = columns(dataSystem.execute(query));
+            var capitalColumns = columns(dataSystem.execute(capitals));
+
+            if (!(capitalColumns.get(0) instanceof ForeignMemoryColumn.StringColumn capitalNames)) {
+                throw new AssertionFailedError("Expected a StringColumn");
+            }
+            assertThat(capitalNames.height()).isEqualTo(1);
+            assertThat(capitalNames.get(0)).isEqualTo("Pierre");
+            if (!(states.columns().get(1) instanceof ForeignMemoryColumn.AssociationColumn reverse)) {
+                throw new AssertionFailedError("Expected an AssociationColumn");
+            }
+            if (!(reverse.associationsForIndex(1) instanceof Association.Many(var indices))) {
+                throw new AssertionFailedError("Expected a 'many' association");
+            }
+            assertThat(indices).containsExactly(1, 3, 5);
+        }
+
+        // The result set doesn't depend on the memory of the snapshot, so it can be read after the snapshot is closed.
+        if (!(columns.get(0) instanceof ForeignMemoryColumn.StringColumn names)
+            || !(columns.get(1) instanceof ForeignMemoryColumn.DictionaryStringColumn kinds)) {
+            throw new AssertionFailedError("Expected a StringColumn and a DictionaryStringColumn");
+        }
+        assertThat(List.of(names.get(0), names.get(1))).containsExactly("Rapid City", "Sioux Falls");
+        assertThat(List.of(kinds.get(0), kinds.get(1))).containsExactly("city", "city");
+        assertThat(kinds.dictionary().height()).isEqualTo(1);
+
+        // Corrupt a byte of the first section (right after the header). The metadata is intact, so the snapshot still opens.
+        Path corrupt = directory.resolve("corrupt.snapshot");
+        Files.copy(path, corrupt);
+        try (var file = new RandomAccessFile(corrupt.toFile(), "rw")) {
+            file.seek(40);
+            int b = file.read();
+            file.seek(40);
+            file.write(b ^ 0xFF);
+        }
+        try (var snapshot = Snapshot.open(corrupt)) {
+            assertThatThrownBy(snapshot::verify).isInstanceOf(IOException.class);
+        }
+
+        // A file that is not a snapshot can't be opened.
+        Path notSnapshot = directory.resolve("not.snapshot");
+        Files.write(notSnapshot, new byte[64]);
+        assertThatThrownBy(() -> Snapshot.open(notSnapshot)).isInstanceOf(IOException.class);
+    }
+
+    /**
+     * A section that is shorter than its column is rejected when the snapshot is opened, even when the checksums match.
+     */
+    @Test
+    void snapshotWithShortSection(@TempDir Path directory) throws IOException {
+        // Arrange
+        Path path = directory.resolve("numbers.snapshot");
+        try (var numbers = ForeignMemoryTable.confined()) {
+            numbers.addInts(1, 2, 3, 4);
+            Snapshot.write(path, Map.of("numbers", numbers));
+        }
+
+        // Shorten the section of the integer column by one integer, in the metadata, and fix the checksum of the
+        // metadata. The metadata is: the table count, the table name, the height, the width, the column kind and then
+        // the offset and the length of the section.
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var header = ByteBuffer.allocate(32).order(ByteOrder.nativeOrder());
+            channel.read(header, 0);
+            long metadataOffset = header.getLong(16);
+            var metadata = ByteBuffer.allocate(header.getInt(24));
+            channel.read(metadata, metadataOffset);
+            int lengthPosition = Integer.BYTES + (2 + "numbers".length()) + 2 * Integer.BYTES + 1 + Long.BYTES;
+            assertThat(metadata.getLong(lengthPosition)).isEqualTo(4L * Integer.BYTES);
+            metadata.putLong(lengthPosition, 3L * Integer.BYTES);
+            var checksum = new CRC32C();
+            checksum.update(metadata.array());
+            header.putInt(28, (int) checksum.getValue());
+            channel.write(metadata.rewind(), metadataOffset);
+            channel.write(header.rewind(), 0);
+        }
+
+        // Act & Assert
+        assertThatThrownBy(() -> Snapshot.open(path))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("too small");
+    }
+
+    private static List<? extends Column> columns(QueryResult result) {
+        return switch (result) {
+            case Failure(var msg) -> throw new AssertionFailedError(msg);
+            case Success(var resultTable) -> resultTable.columns();
+        };
+    }
+}
@@ -2,8 +2,16 @@ package dgroomes.in_memory;
 
 import dgroomes.data_system.*;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IntSummaryStatistics;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.IntConsumer;
 import java.util.function.IntPredicate;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 /**
  * A {@link Column} implementation that is backed by an in-memory data structure.
@@ -41,6 +49,11 @@ sealed public interface InMemoryColumn extends Column {
         public int height() {
             return bools.length;
         }
+
+        @Override
+        public long estimatedBytes() {
+            return bools.length;
+        }
     }
 
     record IntegerColumn(int[] ints) implements InMemoryColumn, ColumnFilterable.IntegerColumnFilterable {
@@ -55,10 +68,540 @@ sealed public interface InMemoryColumn extends Column {
             return idx -> predicate.test(ints[idx]);
         }
 
+        @Override
+        public int get(int index) {
+            return ints[index];
+        }
+
+        /**
+         * Runs of full words (64 matching rows in a row) are summarized with a plain loop over the array, which the JIT
+         * can unroll and vectorize. Sparse words are visited one set bit at a time.
+         */
+        @Override
+        public void summarize(long[] words, int fromWord, int toWord, IntSummaryStatistics statistics) {
+            long count = 0;
+            long sum = 0;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            int w = fromWord;
+            while (w < toWord) {
+                long word = words[w];
+                if (word == -1L) {
+                    int runEnd = w + 1;
+                    while (runEnd < toWord && words[runEnd] == -1L) runEnd++;
+                    for (int i = w << 6, end = runEnd << 6; i < end; i++) {
+                        int value = ints[i];
+                        sum += value;
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                    }
+                    count += (long) (runEnd - w) << 6;
+                    w = runEnd;
+                } else {
+                    for (; word != 0; word &= word - 1) {
+                        int value = ints[(w << 6) + Long.numberOfTrailingZeros(word)];
+                        sum += value;
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                        count++;
+                    }
+                    w++;
+                }
+            }
+            if (count > 0) statistics.combine(new IntSummaryStatistics(count, min, max, sum));
+        }
+
+        /**
+         * Range-like expressions (ranges, "between" and equality) are evaluated with a SIMD kernel (when the Vector API
+         * is available). Other expressions are tested directly against the array. Lambdas fall back to the default.
+         */
+        @Override
+        public void scan(IntPredicate predicate, int fromIndex, int toIndex, long[] words) {
+            if (!(predicate instanceof Criteria.IntExpression expression)) {
+                IntegerColumnFilterable.super.scan(predicate, fromIndex, toIndex, words);
+                return;
+            }
+
+            var between = expression.asBetween();
+            if (between.isPresent() && IntVectorKernels.isAvailable()) {
+                IntVectorKernels.between(ints, between.get().min(), between.get().max(), fromIndex, toIndex, words);
+                return;
+            }
+
+            int base = fromIndex >>> 6;
+            for (int i = fromIndex; i < toIndex; i++) {
+                if (expression.test(ints[i])) words[(i >>> 6) - base] |= 1L << i;
+            }
+        }
+
         @Override
         public int height() {
             return ints.length;
         }
+
+        @Override
+        public long estimatedBytes() {
+            return 4L * ints.length;
+        }
+    }
+
+    /**
+     * An integer column compressed with "frame of reference" and bit-packing, in the style of the codecs of
+     * <a href="https://github.com/lemire/JavaFastPFOR">JavaFastPFOR</a>.
+     * <p>
+     * The rows are split into blocks of {@link #BLOCK_SIZE} values. Each block stores its minimum (the "reference") and
+     * each of its values as the (unsigned) difference from the reference, packed in just enough bits for the largest
+     * difference of the block. So, five-digit ZIP codes take at most 17 bits each, fewer when the codes of a block are
+     * close together, and a block of equal values takes no bits at all. A block of values that are w bits wide is
+     * exactly 2 * w words.
+     * <p>
+     * Range-like expressions are evaluated on the packed values, without decoding them: the bounds are translated into
+     * the frame of reference of each block, once, and then each packed difference is compared with the translated
+     * bounds. A block whose values can't be in the bounds is skipped and a block whose values are all in the bounds
+     * matches without reading its values.
+     * <p>
+     * Note: unlike PFOR, there are no "exceptions". One outlier widens its whole block.
+     *
+     * @param height     the number of rows
+     * @param references the reference (minimum) of each block
+     * @param bitWidths  the number of bits of each value of each block (0 to 32)
+     * @param offsets    the index of the first word of each block in {@code packed}, plus one more for the end
+     * @param packed     the packed values of all the blocks, back-to-back
+     */
+    record PackedIntegerColumn(int height, int[] references, byte[] bitWidths, int[] offsets,
+                               long[] packed) implements InMemoryColumn, ColumnFilterable.IntegerColumnFilterable {
+
+        private static final int BLOCK_SHIFT = 7;
+        public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+        public static PackedIntegerColumn encode(int... ints) {
+            int blockCount = (ints.length + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+            int[] references = new int[blockCount];
+            byte[] bitWidths = new byte[blockCount];
+            int[] offsets = new int[blockCount + 1];
+            for (int block = 0; block < blockCount; block++) {
+                int from = block << BLOCK_SHIFT;
+                int to = Math.min(from + BLOCK_SIZE, ints.length);
+                int min = ints[from];
+                int max = ints[from];
+                for (int i = from + 1; i < to; i++) {
+                    min = Math.min(min, ints[i]);
+                    max = Math.max(max, ints[i]);
+                }
+                references[block] = min;
+                // The difference may overflow an int, but not an unsigned int.
+                bitWidths[block] = (byte) (32 - Integer.numberOfLeadingZeros(max - min));
+                offsets[block + 1] = offsets[block] + 2 * bitWidths[block];
+            }
+
+            long[] packed = new long[offsets[blockCount]];
+            for (int i = 0; i < ints.length; i++) {
+                int block = i >>> BLOCK_SHIFT;
+                int width = bitWidths[block];
+                if (width == 0) continue;
+                long difference = Integer.toUnsignedLong(ints[i] - references[block]);
+                int bit = (i & (BLOCK_SIZE - 1)) * width;
+                int word = offsets[block] + (bit >>> 6);
+                int shift = bit & 63;
+                packed[word] |= difference << shift;
+                if (shift + width > 64) packed[word + 1] |= difference >>> (64 - shift);
+            }
+            return new PackedIntegerColumn(ints.length, references, bitWidths, offsets, packed);
+        }
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(IntPredicate predicate) {
+            return idx -> predicate.test(get(idx));
+        }
+
+        @Override
+        public int get(int index) {
+            int block = index >>> BLOCK_SHIFT;
+            return references[block] + (int) difference(block, index & (BLOCK_SIZE - 1));
+        }
+
+        /**
+         * The packed difference of the value at the given position of the block from the reference of the block.
+         */
+        private long difference(int block, int position) {
+            int width = bitWidths[block];
+            if (width == 0) return 0;
+            int bit = position * width;
+            int word = offsets[block] + (bit >>> 6);
+            int shift = bit & 63;
+            long value = packed[word] >>> shift;
+            if (shift + width > 64) value |= packed[word + 1] << (64 - shift);
+            return value & ((1L << width) - 1);
+        }
+
+        /**
+         * Range-like expressions (ranges, "between" and equality) are evaluated on the packed values. See the class
+         * Javadoc. Other expressions decode each value. Lambdas fall back to the default.
+         */
+        @Override
+        public void scan(IntPredicate predicate, int fromIndex, int toIndex, long[] words) {
+            if (!(predicate instanceof Criteria.IntExpression expression)) {
+                IntegerColumnFilterable.super.scan(predicate, fromIndex, toIndex, words);
+                return;
+            }
+
+            var between = expression.asBetween();
+            int base = fromIndex >>> 6;
+            for (int block = fromIndex >>> BLOCK_SHIFT; (long) block << BLOCK_SHIFT < toIndex; block++) {
+                int from = Math.max(fromIndex, block << BLOCK_SHIFT);
+                int to = (int) Math.min(toIndex, ((long) block + 1) << BLOCK_SHIFT);
+                if (between.isPresent()) {
+                    scanBetween(block, between.get(), from, to, words, base);
+                } else {
+                    for (int i = from; i < to; i++) {
+                        if (expression.test(references[block] + (int) difference(block, i & (BLOCK_SIZE - 1)))) words[(i >>> 6) - base] |= 1L << i;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param base the word of the first row of the scan. The words start at it.
+         */
+        private void scanBetween(int block, Criteria.IntBetween range, int from, int to, long[] words, int base) {
+            // Translate the bounds into the frame of reference of the block. They may be outside of it.
+            int width = bitWidths[block];
+            long mask = (1L << width) - 1;
+            long low = (long) range.min() - references[block];
+            long high = (long) range.max() - references[block];
+            if (low > high || high < 0 || low > mask) return;
+            if (low <= 0 && high >= mask) {
+                setRange(words, from - (base << 6), to - (base << 6));
+                return;
+            }
+
+            // Decode the differences one after the other. Each is compared while it's still in a register.
+            int offset = offsets[block];
+            for (int i = from, bit = (from & (BLOCK_SIZE - 1)) * width; i < to; i++, bit += width) {
+                int word = offset + (bit >>> 6);
+                int shift = bit & 63;
+                long difference = packed[word] >>> shift;
+                if (shift + width > 64) difference |= packed[word + 1] << (64 - shift);
+                difference &= mask;
+                if (difference >= low && difference <= high) words[(i >>> 6) - base] |= 1L << i;
+            }
+        }
+
+        /**
+         * Decode the values.
+         */
+        public int[] toInts() {
+            int[] ints = new int[height];
+            for (int i = 0; i < height; i++) ints[i] = get(i);
+            return ints;
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return 8L * packed.length + 4L * references.length + bitWidths.length + 4L * offsets.length;
+        }
+    }
+
+    /**
+     * A run-length encoded integer column. A run is a range of consecutive rows with the same value, and each run is
+     * stored once. This is a big memory saving for clustered data, like a column of states for ZIP codes that are
+     * grouped by state.
+     * <p>
+     * A {@link #scan} evaluates any predicate, even a lambda, once per run and then sets the bits of the whole run at
+     * once. So the column {@link #prefersScan() prefers scans}: the data systems route lambdas through {@link #scan}
+     * instead of testing them row by row with {@link #where}, which has to find the run of every row.
+     *
+     * @param runEnds the end (exclusive) of each run. The first run starts at row 0.
+     * @param values  the value of each run
+     */
+    record RunLengthIntegerColumn(int[] runEnds, int[] values) implements InMemoryColumn, ColumnFilterable.IntegerColumnFilterable {
+
+        public static RunLengthIntegerColumn encode(int... ints) {
+            int runCount = 0;
+            for (int i = 0; i < ints.length; i++) {
+                if (i == 0 || ints[i] != ints[i - 1]) runCount++;
+            }
+            int[] runEnds = new int[runCount];
+            int[] values = new int[runCount];
+            int run = -1;
+            for (int i = 0; i < ints.length; i++) {
+                if (i == 0 || ints[i] != ints[i - 1]) values[++run] = ints[i];
+                runEnds[run] = i + 1;
+            }
+            return new RunLengthIntegerColumn(runEnds, values);
+        }
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(IntPredicate predicate) {
+            return idx -> predicate.test(get(idx));
+        }
+
+        @Override
+        public boolean prefersScan() {
+            return true;
+        }
+
+        @Override
+        public int get(int index) {
+            return values[runOf(runEnds, index, 0)];
+        }
+
+        @Override
+        public void scan(IntPredicate predicate, int fromIndex, int toIndex, long[] words) {
+            if (fromIndex >= toIndex) return;
+            int baseRow = fromIndex & ~63;
+            for (int run = runOf(runEnds, fromIndex, 0), runStart = fromIndex; runStart < toIndex; runStart = runEnds[run++]) {
+                if (predicate.test(values[run])) setRange(words, runStart - baseRow, Math.min(runEnds[run], toIndex) - baseRow);
+            }
+        }
+
+        /**
+         * The matching rows are visited in order, so the run of each row is searched for from the run of the previous
+         * row.
+         */
+        @Override
+        public void summarize(long[] words, int fromWord, int toWord, IntSummaryStatistics statistics) {
+            int run = 0;
+            for (int w = fromWord; w < toWord; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    int row = (w << 6) + Long.numberOfTrailingZeros(word);
+                    if (runEnds[run] <= row) run = runOf(runEnds, row, run);
+                    statistics.accept(values[run]);
+                }
+            }
+        }
+
+        @Override
+        public int height() {
+            return runEnds.length == 0 ? 0 : runEnds[runEnds.length - 1];
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return 8L * runEnds.length;
+        }
+    }
+
+    /**
+     * A delta-encoded integer column. Each value is stored as its difference (its "delta") from the value before it. For
+     * sorted or nearly sorted data, like ZIP codes that are grouped by state and city, the deltas are much smaller than
+     * the values themselves, so they are bit-packed in far fewer bits.
+     * <p>
+     * The rows are split into blocks of {@link #BLOCK_SIZE} values, like a {@link PackedIntegerColumn}. Each block
+     * stores its first value and then the deltas of the rest of its values. The deltas are packed in the frame of
+     * reference of the smallest delta of the block, so a block of values that are evenly spaced (e.g. consecutive ZIP
+     * codes) takes no bits at all. A block of values that are w bits wide is exactly 2 * w words.
+     * <p>
+     * The deltas only decode in order, so reading a single row with {@link #get} decodes the beginning of its block.
+     * Instead, a {@link #scan} decodes each block once, and it checks the range-like expressions against the minimum and
+     * maximum of each block first: a block whose values can't be in the bounds is skipped and a block whose values are
+     * all in the bounds matches without being decoded. For sorted data, nearly every block is one or the other. The
+     * column {@link #prefersScan() prefers scans}, so the data systems route lambdas through {@link #scan} too.
+     *
+     * @param height    the number of rows
+     * @param firsts    the first value of each block
+     * @param minDeltas the smallest delta of each block (the reference of its packed deltas)
+     * @param mins      the minimum value of each block
+     * @param maxes     the maximum value of each block
+     * @param bitWidths the number of bits of each packed delta of each block (0 to 32)
+     * @param offsets   the index of the first word of each block in {@code packed}, plus one more for the end
+     * @param packed    the packed deltas of all the blocks, back-to-back. The delta of the value at position p of a
+     *                  block is at position p (position 0 is unused)
+     */
+    record DeltaIntegerColumn(int height, int[] firsts, int[] minDeltas, int[] mins, int[] maxes, byte[] bitWidths,
+                              int[] offsets, long[] packed) implements InMemoryColumn, ColumnFilterable.IntegerColumnFilterable {
+
+        private static final int BLOCK_SHIFT = 7;
+        public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+        public static DeltaIntegerColumn encode(int... ints) {
+            int blockCount = (ints.length + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+            int[] firsts = new int[blockCount];
+            int[] minDeltas = new int[blockCount];
+            int[] mins = new int[blockCount];
+            int[] maxes = new int[blockCount];
+            byte[] bitWidths = new byte[blockCount];
+            int[] offsets = new int[blockCount + 1];
+            for (int block = 0; block < blockCount; block++) {
+                int from = block << BLOCK_SHIFT;
+                int to = Math.min(from + BLOCK_SIZE, ints.length);
+                firsts[block] = ints[from];
+                int min = ints[from];
+                int max = ints[from];
+                // The deltas may overflow an int. They wrap around, and so does the decoding, so the values come back
+                // exactly. The packed deltas are unsigned, so they always fit in 32 bits.
+                int minDelta = Integer.MAX_VALUE;
+                int maxDelta = Integer.MIN_VALUE;
+                for (int i = from + 1; i < to; i++) {
+                    min = Math.min(min, ints[i]);
+                    max = Math.max(max, ints[i]);
+                    int delta = ints[i] - ints[i - 1];
+                    minDelta = Math.min(minDelta, delta);
+                    maxDelta = Math.max(maxDelta, delta);
+                }
+                mins[block] = min;
+                maxes[block] = max;
+                if (to - from > 1) {
+                    minDeltas[block] = minDelta;
+                    bitWidths[block] = (byte) (32 - Integer.numberOfLeadingZeros(maxDelta - minDelta));
+                }
+                offsets[block + 1] = offsets[block] + 2 * bitWidths[block];
+            }
+
+            long[] packed = new long[offsets[blockCount]];
+            for (int i = 0; i < ints.length; i++) {
+                int block = i >>> BLOCK_SHIFT;
+                int width = bitWidths[block];
+                if (width == 0 || (i & (BLOCK_SIZE - 1)) == 0) continue;
+                long difference = Integer.toUnsignedLong(ints[i] - ints[i - 1] - minDeltas[block]);
+                int bit = (i & (BLOCK_SIZE - 1)) * width;
+                int word = offsets[block] + (bit >>> 6);
+                int shift = bit & 63;
+                packed[word] |= difference << shift;
+                if (shift + width > 64) packed[word + 1] |= difference >>> (64 - shift);
+            }
+            return new DeltaIntegerColumn(ints.length, firsts, minDeltas, mins, maxes, bitWidths, offsets, packed);
+        }
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(IntPredicate predicate) {
+            return idx -> predicate.test(get(idx));
+        }
+
+        @Override
+        public boolean prefersScan() {
+            return true;
+        }
+
+        @Override
+        public int get(int index) {
+            int block = index >>> BLOCK_SHIFT;
+            int position = index & (BLOCK_SIZE - 1);
+            int value = firsts[block];
+            int width = bitWidths[block];
+            int minDelta = minDeltas[block];
+            if (width == 0) return value + position * minDelta;
+
+            long mask = (1L << width) - 1;
+            int offset = offsets[block];
+            for (int p = 1, bit = width; p <= position; p++, bit += width) {
+                value += minDelta + (int) (unpack(offset, bit, width) & mask);
+            }
+            return value;
+        }
+
+        private long unpack(int offset, int bit, int width) {
+            int word = offset + (bit >>> 6);
+            int shift = bit & 63;
+            long value = packed[word] >>> shift;
+            if (shift + width > 64) value |= packed[word + 1] << (64 - shift);
+            return value;
+        }
+
+        /**
+         * Decode the values of a block into the given array, which has room for a whole block.
+         *
+         * @return the number of values of the block
+         */
+        private int decode(int block, int[] values) {
+            int from = block << BLOCK_SHIFT;
+            int count = Math.min(BLOCK_SIZE, height - from);
+            int width = bitWidths[block];
+            int minDelta = minDeltas[block];
+            long mask = (1L << width) - 1;
+            int offset = offsets[block];
+            int value = firsts[block];
+            values[0] = value;
+            for (int p = 1, bit = width; p < count; p++, bit += width) {
+                value += minDelta;
+                if (width != 0) value += (int) (unpack(offset, bit, width) & mask);
+                values[p] = value;
+            }
+            return count;
+        }
+
+        /**
+         * Range-like expressions (ranges, "between" and equality) skip or fully match whole blocks by their minimum and
+         * maximum. The other blocks, and all the other predicates, decode each block once and test its values. See the
+         * class Javadoc.
+         */
+        @Override
+        public void scan(IntPredicate predicate, int fromIndex, int toIndex, long[] words) {
+            var between = predicate instanceof Criteria.IntExpression expression ? expression.asBetween() : Optional.<Criteria.IntBetween>empty();
+            int base = fromIndex >>> 6;
+            int[] values = new int[BLOCK_SIZE];
+            for (int block = fromIndex >>> BLOCK_SHIFT; (long) block << BLOCK_SHIFT < toIndex; block++) {
+                int blockFrom = block << BLOCK_SHIFT;
+                int from = Math.max(fromIndex, blockFrom);
+                int to = (int) Math.min(toIndex, ((long) block + 1) << BLOCK_SHIFT);
+                if (between.isPresent()) {
+                    var range = between.get();
+                    if (maxes[block] < range.min() || mins[block] > range.max()) continue;
+                    if (mins[block] >= range.min() && maxes[block] <= range.max()) {
+                        setRange(words, from - (base << 6), to - (base << 6));
+                        continue;
+                    }
+                }
+
+                decode(block, values);
+                for (int i = from; i < to; i++) {
+                    if (predicate.test(values[i - blockFrom])) words[(i >>> 6) - base] |= 1L << i;
+                }
+            }
+        }
+
+        /**
+         * The matching rows are visited in order, so each block that has a matching row is decoded once.
+         */
+        @Override
+        public void summarize(long[] words, int fromWord, int toWord, IntSummaryStatistics statistics) {
+            int[] values = new int[BLOCK_SIZE];
+            int decoded = -1;
+            for (int w = fromWord; w < toWord; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    int row = (w << 6) + Long.numberOfTrailingZeros(word);
+                    int block = row >>> BLOCK_SHIFT;
+                    if (block != decoded) {
+                        decode(block, values);
+                        decoded = block;
+                    }
+                    statistics.accept(values[row & (BLOCK_SIZE - 1)]);
+                }
+            }
+        }
+
+        /**
+         * Decode the values.
+         */
+        public int[] toInts() {
+            int[] ints = new int[height];
+            int[] values = new int[BLOCK_SIZE];
+            for (int block = 0; (long) block << BLOCK_SHIFT < height; block++) {
+                int count = decode(block, values);
+                System.arraycopy(values, 0, ints, block << BLOCK_SHIFT, count);
+            }
+            return ints;
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return 8L * packed.length + 16L * firsts.length + bitWidths.length + 4L * offsets.length;
+        }
     }
 
     record StringColumn(String[] strings) implements InMemoryColumn, ColumnFilterable.StringColumnFilterable {
@@ -73,19 +616,183 @@ sealed public interface InMemoryColumn extends Column {
             return idx -> predicate.test(strings[idx]);
         }
 
+        @Override
+        public String get(int index) {
+            return strings[index];
+        }
+
         @Override
         public int height() {
             return strings.length;
         }
+
+        /**
+         * Each row has a reference, and each string has an object header and (assuming compact, Latin-1 strings) one
+         * byte per character.
+         */
+        @Override
+        public long estimatedBytes() {
+            long bytes = 8L * strings.length;
+            for (String string : strings) {
+                if (string != null) bytes += 40 + string.length();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * A dictionary-encoded string column. Each distinct string is stored once, in the dictionary, and each row is an
+     * integer code which is the index of its string in the dictionary. This is a big memory saving when the strings
+     * repeat a lot (e.g. city names).
+     * <p>
+     * The dictionary is sorted. So, the codes are ordered like the strings are, and predicates like "equals", "starts
+     * with" and "range" become ranges of codes. These are found with a binary search over the dictionary and then the
+     * codes are scanned with the same SIMD kernel as an {@link IntegerColumn}. Any other predicate is evaluated once per
+     * dictionary entry instead of once per row.
+     * <p>
+     * Note: the codes are 32-bit integers even though most dictionaries would fit in 16 bits. This is so that the
+     * integer scan kernels can be reused.
+     */
+    record DictionaryStringColumn(String[] dictionary, int[] codes) implements InMemoryColumn, ColumnFilterable.StringColumnFilterable {
+
+        /**
+         * Encode the given strings. The strings must not be null.
+         */
+        public static DictionaryStringColumn encode(String... strings) {
+            Map<String, Integer> codesByString = new HashMap<>();
+            for (int i = 0; i < strings.length; i++) {
+                if (strings[i] == null) throw new IllegalArgumentException("Found a null string at index " + i);
+                codesByString.put(strings[i], 0);
+            }
+
+            String[] dictionary = codesByString.keySet().toArray(String[]::new);
+            Arrays.sort(dictionary);
+            for (int code = 0; code < dictionary.length; code++) codesByString.put(dictionary[code], code);
+
+            int[] codes = new int[strings.length];
+            for (int i = 0; i < strings.length; i++) codes[i] = codesByString.get(strings[i]);
+            return new DictionaryStringColumn(dictionary, codes);
+        }
+
+        @Override
+        public String get(int idx) {
+            return dictionary[codes[idx]];
+        }
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(Predicate<String> predicate) {
+            IntPredicate codePredicate = codePredicate(predicate);
+            return idx -> codePredicate.test(codes[idx]);
+        }
+
+        @Override
+        public void scan(Predicate<String> predicate, int fromIndex, int toIndex, long[] words) {
+            prepareScan(predicate).scan(fromIndex, toIndex, words);
+        }
+
+        /**
+         * The predicate is translated to a predicate over the codes once, so a predicate that isn't a range of codes is
+         * tested once per dictionary entry no matter how many times the scan is called.
+         */
+        @Override
+        public Scan prepareScan(Predicate<String> predicate) {
+            IntPredicate codePredicate = codePredicate(predicate);
+            if (codePredicate instanceof Criteria.IntExpression expression && IntVectorKernels.isAvailable()) {
+                var between = expression.asBetween();
+                if (between.isPresent()) {
+                    int min = between.get().min(), max = between.get().max();
+                    return (fromIndex, toIndex, words) -> IntVectorKernels.between(codes, min, max, fromIndex, toIndex, words);
+                }
+            }
+
+            return (fromIndex, toIndex, words) -> {
+                int base = fromIndex >>> 6;
+                for (int i = fromIndex; i < toIndex; i++) {
+                    if (codePredicate.test(codes[i])) words[(i >>> 6) - base] |= 1L << i;
+                }
+            };
+        }
+
+        /**
+         * Translate a predicate over strings into a predicate over codes.
+         */
+        private IntPredicate codePredicate(Predicate<String> predicate) {
+            return switch (predicate) {
+                case Criteria.StringEquals(var value) -> {
+                    int code = Arrays.binarySearch(dictionary, value);
+                    yield code >= 0 ? new Criteria.IntEquals(code) : Criteria.IntBetween.EMPTY;
+                }
+                case Criteria.StringIn(var values) ->
+                        new Criteria.IntIn(values.stream().mapToInt(value -> Arrays.binarySearch(dictionary, value)).filter(code -> code >= 0).toArray());
+                // The strings that start with the prefix are contiguous in the sorted dictionary, starting at the prefix itself.
+                case Criteria.StringStartsWith(var prefix) ->
+                        new Criteria.IntRange(partitionPoint(code -> dictionary[code].compareTo(prefix) < 0),
+                                partitionPoint(code -> dictionary[code].compareTo(prefix) < 0 || dictionary[code].startsWith(prefix)));
+                case Criteria.StringRange(var min, var max) ->
+                        new Criteria.IntRange(partitionPoint(code -> dictionary[code].compareTo(min) < 0),
+                                partitionPoint(code -> dictionary[code].compareTo(max) < 0));
+                default -> {
+                    // Evaluate the predicate once for each distinct string.
+                    boolean[] matches = new boolean[dictionary.length];
+                    for (int code = 0; code < dictionary.length; code++) matches[code] = predicate.test(dictionary[code]);
+                    yield code -> matches[code];
+                }
+            };
+        }
+
+        /**
+         * Find the first code for which the given condition is false. The condition must be true for a (possibly empty)
+         * prefix of the dictionary and false for the rest.
+         */
+        private int partitionPoint(IntPredicate condition) {
+            int low = 0, high = dictionary.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (condition.test(mid)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        public int height() {
+            return codes.length;
+        }
+
+        /**
+         * Only the codes are counted. The dictionary is shared between a column and its subsets.
+         */
+        @Override
+        public long estimatedBytes() {
+            return 4L * codes.length;
+        }
     }
 
     // Note: maybe modelling an association as a column of the entity is a bad idea. After all, the association is
     // usually goes both ways (bi-directional) in meaning. For example, a city is contained in a state and that state
     // also contains the city. There is a case for uni-directional associations, but I'm not there right now.
+    /**
+     * An association column laid out in the "compressed sparse row" (CSR) style: the associated row indices (targets)
+     * of all rows are laid out back-to-back in one array, and the targets of row {@code i} are in the range
+     * {@code [offsets[i], offsets[i + 1])}. So, there are {@code height + 1} offsets.
+     * <p>
+     * Compared to an array of {@link Association} objects, there are only two objects no matter how many rows there
+     * are, and following the associations is a tight loop over two arrays instead of a pointer chase and a type check
+     * for each row.
+     */
     final class AssociationColumn implements InMemoryColumn, dgroomes.data_system.AssociationColumn, ColumnFilterable.AssociationColumnFilterable {
 
         public final Table associatedEntity;
-        public final Association[] associations;
+        public final int[] offsets;
+        public final int[] targets;
 
         @Override
         public ColumnFilterable filterableType() {
@@ -99,16 +806,22 @@ sealed public interface InMemoryColumn extends Column {
 
         @Override
         public int height() {
-            return associations.length;
+            return offsets.length - 1;
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return 4L * offsets.length + 4L * targets.length;
         }
 
         // The dreaded bootstrapping problem with cyclic data structures. This has to be initialized later than the
         // constructor and this is why this class can't be a record.
         private AssociationColumn reverseAssociatedColumn;
 
-        public AssociationColumn(Table associatedEntity, Association[] associations) {
+        public AssociationColumn(Table associatedEntity, int[] offsets, int[] targets) {
             this.associatedEntity = associatedEntity;
-            this.associations = associations;
+            this.offsets = offsets;
+            this.targets = targets;
         }
 
         public void setReverseAssociatedColumn(AssociationColumn reverseAssociatedColumn) {
@@ -126,14 +839,238 @@ sealed public interface InMemoryColumn extends Column {
             return reverseAssociatedColumn;
         }
 
+        @Override
+        public boolean hasReverseAssociatedColumn() {
+            return reverseAssociatedColumn != null;
+        }
+
         @Override
         public Table associatedEntity() {
             return associatedEntity;
         }
 
+        /**
+         * This materializes an {@link Association} object from the CSR arrays. It's a compatibility view. Prefer
+         * {@link #propagate} or the arrays themselves.
+         */
         @Override
         public Association associationsForIndex(int i) {
-            return associations[i];
+            int from = offsets[i];
+            int to = offsets[i + 1];
+            return switch (to - from) {
+                case 0 -> Association.NONE;
+                case 1 -> Association.toOne(targets[from]);
+                default -> Association.toMany(Arrays.copyOfRange(targets, from, to));
+            };
+        }
+
+        @Override
+        public void propagate(BitSet rows, int fromIndex, int toIndex, BitSet associatedRows) {
+            for (int i = rows.nextSetBit(fromIndex); i >= 0 && i < toIndex; i = rows.nextSetBit(i + 1)) {
+                for (int t = offsets[i], end = offsets[i + 1]; t < end; t++) associatedRows.set(targets[t]);
+            }
+        }
+
+        @Override
+        public void propagate(CompressedBitmap rows, CompressedBitmap.Builder associatedRows) {
+            rows.forEach(i -> {
+                for (int t = offsets[i], end = offsets[i + 1]; t < end; t++) associatedRows.add(targets[t]);
+            });
+        }
+
+        @Override
+        public void forEachAssociated(int i, IntConsumer action) {
+            for (int t = offsets[i], end = offsets[i + 1]; t < end; t++) action.accept(targets[t]);
+        }
+    }
+
+    /**
+     * An association column for clustered data, laid out as runs. A run is a range of consecutive rows that are all
+     * associated to the same range of consecutive rows of the associated table. The associated rows are "delta encoded"
+     * down to the first one and the end of the range.
+     * <p>
+     * For example, when ZIP codes are grouped by city, a city is associated to a range of ZIP codes and each group of ZIP
+     * codes is one run that is associated to one city. So, both directions of the association cost a few ints per city
+     * instead of a few ints per ZIP code. See {@link InMemoryTable#associateToClustered}.
+     * <p>
+     * Matches are propagated a run at a time: the first matching row of a run is enough, the rest of the run is skipped,
+     * and the associated rows are set as one range.
+     */
+    final class RunLengthAssociationColumn implements InMemoryColumn, dgroomes.data_system.AssociationColumn, ColumnFilterable.AssociationColumnFilterable {
+
+        public final Table associatedEntity;
+        public final int[] runEnds;
+        public final int[] targetStarts;
+        public final int[] targetEnds;
+
+        private RunLengthAssociationColumn reverseAssociatedColumn;
+
+        /**
+         * @param runEnds      the end (exclusive) of each run. The first run starts at row 0.
+         * @param targetStarts the first associated row of each run
+         * @param targetEnds   the end (exclusive) of the associated rows of each run
+         */
+        public RunLengthAssociationColumn(Table associatedEntity, int[] runEnds, int[] targetStarts, int[] targetEnds) {
+            this.associatedEntity = associatedEntity;
+            this.runEnds = runEnds;
+            this.targetStarts = targetStarts;
+            this.targetEnds = targetEnds;
+        }
+
+        /**
+         * Encode associations that are laid out in the "compressed sparse row" style (see {@link AssociationColumn}).
+         *
+         * @throws IllegalArgumentException if the associated rows of a row are not a range of consecutive rows
+         */
+        public static RunLengthAssociationColumn encode(Table associatedEntity, int[] offsets, int[] targets) {
+            int height = offsets.length - 1;
+            int[] runEnds = new int[height];
+            int[] targetStarts = new int[height];
+            int[] targetEnds = new int[height];
+            int run = -1;
+            for (int x = 0; x < height; x++) {
+                int from = offsets[x];
+                int to = offsets[x + 1];
+                for (int t = from + 1; t < to; t++) {
+                    if (targets[t] != targets[t - 1] + 1) {
+                        throw new IllegalArgumentException("The associated rows of row %d are not a range of consecutive rows".formatted(x));
+                    }
+                }
+                // Normalize the empty range so that consecutive rows without associations make one run.
+                int targetStart = from == to ? 0 : targets[from];
+                int targetEnd = from == to ? 0 : targets[to - 1] + 1;
+                if (run < 0 || targetStarts[run] != targetStart || targetEnds[run] != targetEnd) {
+                    run++;
+                    targetStarts[run] = targetStart;
+                    targetEnds[run] = targetEnd;
+                }
+                runEnds[run] = x + 1;
+            }
+            int runCount = run + 1;
+            return new RunLengthAssociationColumn(associatedEntity, Arrays.copyOf(runEnds, runCount),
+                    Arrays.copyOf(targetStarts, runCount), Arrays.copyOf(targetEnds, runCount));
+        }
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(Predicate<Association> predicate) {
+            throw new IllegalStateException("not implemented");
+        }
+
+        @Override
+        public int height() {
+            return runEnds.length == 0 ? 0 : runEnds[runEnds.length - 1];
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return 12L * runEnds.length;
+        }
+
+        public void setReverseAssociatedColumn(RunLengthAssociationColumn reverseAssociatedColumn) {
+            if (this.reverseAssociatedColumn != null) {
+                throw new IllegalStateException("reverseAssociatedColumn is already set");
+            }
+            this.reverseAssociatedColumn = reverseAssociatedColumn;
+        }
+
+        @Override
+        public RunLengthAssociationColumn reverseAssociatedColumn() {
+            if (reverseAssociatedColumn == null) {
+                throw new IllegalStateException("reverseAssociatedColumn was never set");
+            }
+            return reverseAssociatedColumn;
+        }
+
+        @Override
+        public boolean hasReverseAssociatedColumn() {
+            return reverseAssociatedColumn != null;
+        }
+
+        @Override
+        public Table associatedEntity() {
+            return associatedEntity;
+        }
+
+        /**
+         * The run of the row at the given index. Its associated rows are {@code [targetStarts[run], targetEnds[run])}.
+         */
+        public int runOf(int i) {
+            return InMemoryColumn.runOf(runEnds, i, 0);
+        }
+
+        @Override
+        public Association associationsForIndex(int i) {
+            int run = runOf(i);
+            int from = targetStarts[run];
+            int to = targetEnds[run];
+            return switch (to - from) {
+                case 0 -> Association.NONE;
+                case 1 -> Association.toOne(from);
+                default -> Association.toMany(IntStream.range(from, to).toArray());
+            };
+        }
+
+        @Override
+        public void propagate(BitSet rows, int fromIndex, int toIndex, BitSet associatedRows) {
+            int run = 0;
+            // One matching row of a run is enough. The rest of the run is skipped.
+            for (int i = rows.nextSetBit(fromIndex); i >= 0 && i < toIndex; i = rows.nextSetBit(runEnds[run])) {
+                run = InMemoryColumn.runOf(runEnds, i, run);
+                if (targetStarts[run] < targetEnds[run]) associatedRows.set(targetStarts[run], targetEnds[run]);
+            }
+        }
+
+        @Override
+        public void propagate(CompressedBitmap rows, CompressedBitmap.Builder associatedRows) {
+            int run = 0;
+            for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(runEnds[run])) {
+                run = InMemoryColumn.runOf(runEnds, i, run);
+                associatedRows.addRange(targetStarts[run], targetEnds[run]);
+            }
+        }
+
+        @Override
+        public void forEachAssociated(int i, IntConsumer action) {
+            int run = runOf(i);
+            for (int t = targetStarts[run], end = targetEnds[run]; t < end; t++) action.accept(t);
+        }
+    }
+
+    /**
+     * The run of the given row: the first run, from {@code fromRun} on, whose end is after the row. This is a binary
+     * search.
+     */
+    private static int runOf(int[] runEnds, int row, int fromRun) {
+        int low = fromRun;
+        int high = runEnds.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (runEnds[mid] <= row) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Set the bits in the range {@code [fromIndex, toIndex)}, like {@link BitSet#set(int, int)}.
+     */
+    private static void setRange(long[] words, int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) return;
+        int first = fromIndex >>> 6;
+        int last = (toIndex - 1) >>> 6;
+        long firstMask = -1L << fromIndex;
+        long lastMask = -1L >>> -toIndex;
+        if (first == last) {
+            words[first] |= firstMask & lastMask;
+            return;
         }
+        words[first] |= firstMask;
+        for (int w = first + 1; w < last; w++) words[w] = -1L;
+        words[last] |= lastMask;
     }
 }
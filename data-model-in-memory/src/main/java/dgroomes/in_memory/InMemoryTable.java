@@ -2,10 +2,10 @@ package dgroomes.in_memory;
 
 import dgroomes.data_system.Association;
 import dgroomes.data_system.Column;
+import dgroomes.data_system.CompressedBitmap;
 import dgroomes.data_system.Table;
 
 import java.util.*;
-import java.util.stream.IntStream;
 
 /**
  * A {@link Table} implemented with simple in-memory data structures.
@@ -42,51 +42,111 @@ public class InMemoryTable implements Table {
      * @return the association column
      */
     public InMemoryColumn.AssociationColumn associateTo(InMemoryTable associatedEntity, Association... associations) {
-        var associationColumn = new InMemoryColumn.AssociationColumn(associatedEntity, associations);
+        var csr = Csr.of(associations);
+        return associateTo(associatedEntity, csr.offsets(), csr.targets());
+    }
+
+    /**
+     * Associate this entity (X) to another entity (Y) with associations that are already laid out in the "compressed
+     * sparse row" (CSR) style. The associated rows of X row {@code x} are {@code targets[offsets[x]]} up to (but not
+     * including) {@code targets[offsets[x + 1]]}.
+     * <p>
+     * The arrays are not copied.
+     *
+     * @param associatedEntity the entity type to associate to (Y)
+     * @param offsets          the offsets into the targets, one for each X row plus one
+     * @param targets          the associated Y rows
+     * @return the association column
+     */
+    public InMemoryColumn.AssociationColumn associateTo(InMemoryTable associatedEntity, int[] offsets, int[] targets) {
+        var associationColumn = new InMemoryColumn.AssociationColumn(associatedEntity, offsets, targets);
         // Note: yes this is nasty; we are using a mutable data structure. I love using records, but I often wind up with
         // a need to mutate it and struggle.
         this.columns.add(associationColumn);
 
         // Create a reverse association from Y to X.
-        //
-        // Note: this is some stream of consciousness code and needs to be cleaned up.
-        InMemoryColumn.AssociationColumn reverseAssociationColumn;
-        {
-            var yIndexToXAssociations = new HashMap<Integer, List<Integer>>();
-            // Initialize the map with empty lists.
-            for (int yIndex = 0; yIndex < associatedEntity.size(); yIndex++) {
-                yIndexToXAssociations.put(yIndex, new ArrayList<>());
-            }
+        var reverse = new Csr(offsets, targets).reverse(associatedEntity.size());
+        var reverseAssociationColumn = new InMemoryColumn.AssociationColumn(this, reverse.offsets(), reverse.targets());
+        reverseAssociationColumn.setReverseAssociatedColumn(associationColumn);
+        associationColumn.setReverseAssociatedColumn(reverseAssociationColumn);
 
-            for (int xIndex = 0; xIndex < associations.length; xIndex++) {
-                int[] yIndices = switch (associations[xIndex]) {
-                    case Association.One(var idx) -> new int[]{idx};
-                    case Association.Many(var indices) -> indices;
-                    case Association.None ignored -> new int[]{};
+        associatedEntity.columns.add(reverseAssociationColumn);
+        return associationColumn;
+    }
+
+    /**
+     * Like {@link #associateTo(InMemoryTable, Association...)} but both directions of the association are run-length
+     * encoded (see {@link InMemoryColumn.RunLengthAssociationColumn}). This is for clustered data: the X rows must be
+     * grouped by the Y rows that they associate to, like ZIP codes that are grouped by city.
+     *
+     * @throws IllegalArgumentException if the associated rows of an X row, or the X rows that associate to a Y row, are
+     *                                  not a range of consecutive rows
+     */
+    public InMemoryColumn.RunLengthAssociationColumn associateToClustered(InMemoryTable associatedEntity, Association... associations) {
+        var csr = Csr.of(associations);
+        var reverse = csr.reverse(associatedEntity.size());
+        var associationColumn = InMemoryColumn.RunLengthAssociationColumn.encode(associatedEntity, csr.offsets(), csr.targets());
+        var reverseAssociationColumn = InMemoryColumn.RunLengthAssociationColumn.encode(this, reverse.offsets(), reverse.targets());
+        reverseAssociationColumn.setReverseAssociatedColumn(associationColumn);
+        associationColumn.setReverseAssociatedColumn(reverseAssociationColumn);
+
+        this.columns.add(associationColumn);
+        associatedEntity.columns.add(reverseAssociationColumn);
+        return associationColumn;
+    }
+
+    /**
+     * Associations laid out in the "compressed sparse row" (CSR) style. See {@link InMemoryColumn.AssociationColumn}.
+     */
+    private record Csr(int[] offsets, int[] targets) {
+
+        static Csr of(Association... associations) {
+            int[] offsets = new int[associations.length + 1];
+            for (int x = 0; x < associations.length; x++) {
+                int count = switch (associations[x]) {
+                    case Association.One ignored -> 1;
+                    case Association.Many(var indices) -> indices.length;
+                    case Association.None ignored -> 0;
                     case null -> throw new IllegalStateException("Found a null association");
                 };
+                offsets[x + 1] = offsets[x] + count;
+            }
 
-                for (int yIndex : yIndices) {
-                    var yToX = yIndexToXAssociations.get(yIndex);
-                    yToX.add(xIndex);
+            int[] targets = new int[offsets[associations.length]];
+            for (int x = 0; x < associations.length; x++) {
+                switch (associations[x]) {
+                    case Association.One(var y) -> targets[offsets[x]] = y;
+                    case Association.Many(var indices) -> System.arraycopy(indices, 0, targets, offsets[x], indices.length);
+                    case Association.None ignored -> {
+                    }
                 }
             }
-
-            Association[] yToXAssociations = IntStream.range(0, associatedEntity.size()).mapToObj(yIndex -> {
-                List<Integer> xIndices = yIndexToXAssociations.get(yIndex);
-                return switch (xIndices.size()) {
-                    case 0 -> Association.None.NONE;
-                    case 1 -> new Association.One(xIndices.get(0));
-                    default -> new Association.Many(xIndices.stream().mapToInt(i -> i).toArray());
-                };
-            }).toArray(Association[]::new);
-            reverseAssociationColumn = new InMemoryColumn.AssociationColumn(this, yToXAssociations);
-            reverseAssociationColumn.setReverseAssociatedColumn(associationColumn);
-            associationColumn.setReverseAssociatedColumn(reverseAssociationColumn);
+            return new Csr(offsets, targets);
         }
 
-        associatedEntity.columns.add(reverseAssociationColumn);
-        return associationColumn;
+        /**
+         * The reverse associations, from Y to X. The X rows of each Y row are in ascending order.
+         * <p>
+         * This is a two-pass "counting" algorithm. The first pass counts the number of X rows that associate to each Y
+         * row so that the second pass can fill the reverse targets in place. There is no boxing and no intermediate
+         * lists, which matters when the tables are big (see the 'geography-generator' module).
+         */
+        Csr reverse(int ySize) {
+            int xSize = offsets.length - 1;
+            int[] reverseOffsets = new int[ySize + 1];
+            for (int y : targets) reverseOffsets[y + 1]++;
+            for (int y = 0; y < ySize; y++) reverseOffsets[y + 1] += reverseOffsets[y];
+
+            int[] reverseTargets = new int[targets.length];
+            int[] filled = new int[ySize];
+            for (int x = 0; x < xSize; x++) {
+                for (int t = offsets[x]; t < offsets[x + 1]; t++) {
+                    int y = targets[t];
+                    reverseTargets[reverseOffsets[y] + filled[y]++] = x;
+                }
+            }
+            return new Csr(reverseOffsets, reverseTargets);
+        }
     }
 
     public int size() {
@@ -95,62 +155,116 @@ public class InMemoryTable implements Table {
         return switch (column) {
             case InMemoryColumn.BooleanColumn boolColumn -> boolColumn.bools().length;
             case InMemoryColumn.IntegerColumn intColumn -> intColumn.ints().length;
+            case InMemoryColumn.PackedIntegerColumn packedColumn -> packedColumn.height();
+            case InMemoryColumn.RunLengthIntegerColumn runLengthColumn -> runLengthColumn.height();
+            case InMemoryColumn.DeltaIntegerColumn deltaColumn -> deltaColumn.height();
             case InMemoryColumn.StringColumn stringColumn -> stringColumn.strings().length;
-            case InMemoryColumn.AssociationColumn associationColumn -> associationColumn.associations.length;
+            case InMemoryColumn.DictionaryStringColumn dictionaryColumn -> dictionaryColumn.codes().length;
+            case InMemoryColumn.AssociationColumn associationColumn -> associationColumn.height();
+            case InMemoryColumn.RunLengthAssociationColumn associationColumn -> associationColumn.height();
         };
     }
 
+    @Override
+    public InMemoryTable select(List<Integer> ordinals) {
+        return new InMemoryTable(new ArrayList<>(ordinals.stream().map(columns::get).toList()));
+    }
+
     /**
      * This method is designed to create the result set of the query. A subset of the original table is the result set.
      */
     @Override
     public Table subset(BitSet matchingRows) {
+        int size = size();
+        return subset(matchingRows.stream().takeWhile(i -> i < size).toArray());
+    }
+
+    @Override
+    public Table subset(CompressedBitmap matchingRows) {
+        return subset(matchingRows.toArray());
+    }
+
+    /**
+     * A lazy subset. See {@link InMemoryTableView}.
+     */
+    @Override
+    public InMemoryTableView view(CompressedBitmap matchingRows) {
+        return new InMemoryTableView(this, matchingRows.toArray());
+    }
+
+    @Override
+    public InMemoryTable subset(int[] rows) {
+        // Visit only the matching rows. When there are few matches, this is much cheaper than visiting every row.
         var prunedColumns = columns.stream()
                 .<InMemoryColumn>map(column -> switch (column) {
                     case InMemoryColumn.BooleanColumn(var bools) -> {
-                        var pruned = new boolean[matchingRows.cardinality()];
-                        int j = 0;
-                        for (int i = 0; i < size(); i++) {
-                            if (!matchingRows.get(i)) continue;
-
-                            pruned[j] = bools[i];
-                            j++;
-                        }
+                        var pruned = new boolean[rows.length];
+                        for (int j = 0; j < rows.length; j++) pruned[j] = bools[rows[j]];
                         yield new InMemoryColumn.BooleanColumn(pruned);
                     }
                     case InMemoryColumn.IntegerColumn(var ints) -> {
-                        var pruned = new int[matchingRows.cardinality()];
-                        int j = 0;
-                        for (int i = 0; i < size(); i++) {
-                            if (!matchingRows.get(i)) continue;
-
-                            pruned[j] = ints[i];
-                            j++;
-                        }
+                        var pruned = new int[rows.length];
+                        for (int j = 0; j < rows.length; j++) pruned[j] = ints[rows[j]];
+                        yield new InMemoryColumn.IntegerColumn(pruned);
+                    }
+                    case InMemoryColumn.PackedIntegerColumn packedColumn -> {
+                        // The result set is decoded. It's usually small and it's read value by value.
+                        var pruned = new int[rows.length];
+                        for (int j = 0; j < rows.length; j++) pruned[j] = packedColumn.get(rows[j]);
+                        yield new InMemoryColumn.IntegerColumn(pruned);
+                    }
+                    case InMemoryColumn.RunLengthIntegerColumn runLengthColumn -> {
+                        // The result set is decoded, like for a packed column.
+                        var pruned = new int[rows.length];
+                        for (int j = 0; j < rows.length; j++) pruned[j] = runLengthColumn.get(rows[j]);
+                        yield new InMemoryColumn.IntegerColumn(pruned);
+                    }
+                    case InMemoryColumn.DeltaIntegerColumn deltaColumn -> {
+                        // The result set is decoded, like for a packed column. Each row decodes the start of its block.
+                        var pruned = new int[rows.length];
+                        for (int j = 0; j < rows.length; j++) pruned[j] = deltaColumn.get(rows[j]);
                         yield new InMemoryColumn.IntegerColumn(pruned);
                     }
                     case InMemoryColumn.StringColumn(var strings) -> {
-                        var pruned = new String[matchingRows.cardinality()];
-                        int j = 0;
-                        for (int i = 0; i < size(); i++) {
-                            if (!matchingRows.get(i)) continue;
-
-                            pruned[j] = strings[i];
-                            j++;
-                        }
+                        var pruned = new String[rows.length];
+                        for (int j = 0; j < rows.length; j++) pruned[j] = strings[rows[j]];
                         yield new InMemoryColumn.StringColumn(pruned);
                     }
+                    case InMemoryColumn.DictionaryStringColumn(var dictionary, var codes) -> {
+                        // The dictionary is shared with the original column. Only the codes are pruned.
+                        var pruned = new int[rows.length];
+                        for (int j = 0; j < rows.length; j++) pruned[j] = codes[rows[j]];
+                        yield new InMemoryColumn.DictionaryStringColumn(dictionary, pruned);
+                    }
                     case InMemoryColumn.AssociationColumn associationColumn -> {
-                        var associations = associationColumn.associations;
-                        var pruned = new Association[matchingRows.cardinality()];
-                        int j = 0;
-                        for (int i = 0; i < size(); i++) {
-                            if (!matchingRows.get(i)) continue;
-
-                            pruned[j] = associations[i];
-                            j++;
+                        var offsets = associationColumn.offsets;
+                        var targets = associationColumn.targets;
+                        var prunedOffsets = new int[rows.length + 1];
+                        for (int j = 0; j < rows.length; j++) {
+                            prunedOffsets[j + 1] = prunedOffsets[j] + offsets[rows[j] + 1] - offsets[rows[j]];
+                        }
+                        var prunedTargets = new int[prunedOffsets[rows.length]];
+                        for (int j = 0; j < rows.length; j++) {
+                            System.arraycopy(targets, offsets[rows[j]], prunedTargets, prunedOffsets[j], prunedOffsets[j + 1] - prunedOffsets[j]);
+                        }
+                        yield new InMemoryColumn.AssociationColumn(associationColumn.associatedEntity, prunedOffsets, prunedTargets);
+                    }
+                    case InMemoryColumn.RunLengthAssociationColumn associationColumn -> {
+                        // The subset is laid out in the CSR style because its rows are not necessarily clustered (for
+                        // example, when they are ordered).
+                        var runs = new int[rows.length];
+                        var prunedOffsets = new int[rows.length + 1];
+                        for (int j = 0; j < rows.length; j++) {
+                            runs[j] = associationColumn.runOf(rows[j]);
+                            prunedOffsets[j + 1] = prunedOffsets[j] + associationColumn.targetEnds[runs[j]] - associationColumn.targetStarts[runs[j]];
+                        }
+                        var prunedTargets = new int[prunedOffsets[rows.length]];
+                        for (int j = 0; j < rows.length; j++) {
+                            for (int t = prunedOffsets[j], y = associationColumn.targetStarts[runs[j]]; t < prunedOffsets[j + 1]; t++, y++) {
+                                prunedTargets[t] = y;
+                            }
                         }
-                        yield new InMemoryColumn.AssociationColumn(associationColumn.associatedEntity, pruned);
+                        yield new InMemoryColumn.AssociationColumn(associationColumn.associatedEntity, prunedOffsets, prunedTargets);
                     }
                 })
                 .toList();
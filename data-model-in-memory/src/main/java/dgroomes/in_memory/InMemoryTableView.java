@@ -0,0 +1,288 @@
+package dgroomes.in_memory;
+
+import dgroomes.data_system.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * A lazy subset of an {@link InMemoryTable}. It is the source table plus a "selection vector": the indices of the
+ * selected rows of the source, in ascending order. Nothing is copied. Row {@code i} of the view reads through to row
+ * {@code rows[i]} of the source.
+ * <p>
+ * Compared to {@link InMemoryTable#subset(BitSet)}, creating a view only costs the selection vector, no matter how many
+ * columns the table has. This pays off for big result sets where only a few columns are read. The price is an extra
+ * indirection on every read. Use {@link #compact()} to copy the view into a dense {@link InMemoryTable} when the rows are
+ * read many times.
+ * <p>
+ * The columns of a view are {@link ViewColumn}s, not {@link InMemoryColumn}s.
+ */
+public final class InMemoryTableView implements Table {
+
+    private final InMemoryTable source;
+    private final int[] rows;
+    private final List<ViewColumn> columns;
+
+    /**
+     * @param rows the indices of the selected rows of the source, in ascending order. The array is not copied.
+     */
+    InMemoryTableView(InMemoryTable source, int[] rows) {
+        this.source = source;
+        this.rows = rows;
+        this.columns = source.columns().stream().map(column -> ViewColumn.of((InMemoryColumn) column, rows)).toList();
+    }
+
+    @Override
+    public List<ViewColumn> columns() {
+        return columns;
+    }
+
+    @Override
+    public int size() {
+        return rows.length;
+    }
+
+    /**
+     * Only the selection vector is counted. The source table is shared.
+     */
+    @Override
+    public long estimatedBytes() {
+        return 4L * rows.length;
+    }
+
+    /**
+     * The index in the source table of the given row of the view.
+     */
+    public int sourceRow(int i) {
+        return rows[i];
+    }
+
+    @Override
+    public InMemoryTableView select(List<Integer> ordinals) {
+        return new InMemoryTableView(source.select(ordinals), rows);
+    }
+
+    /**
+     * Copy the selected rows into a dense {@link InMemoryTable}.
+     */
+    @Override
+    public InMemoryTable compact() {
+        return source.subset(rows);
+    }
+
+    /**
+     * A dense subset of the view. The selection vectors are composed, so the rows are copied straight from the source.
+     */
+    @Override
+    public Table subset(BitSet matchingRows) {
+        return source.subset(compose(matchingRows.stream()));
+    }
+
+    @Override
+    public Table subset(CompressedBitmap matchingRows) {
+        return source.subset(compose(Arrays.stream(matchingRows.toArray())));
+    }
+
+    @Override
+    public Table subset(int[] rows) {
+        return source.subset(Arrays.stream(rows).map(i -> this.rows[i]).toArray());
+    }
+
+    /**
+     * A view of the view. The selection vectors are composed, so the new view reads straight through to the source.
+     */
+    @Override
+    public InMemoryTableView view(CompressedBitmap matchingRows) {
+        return new InMemoryTableView(source, compose(Arrays.stream(matchingRows.toArray())));
+    }
+
+    private int[] compose(IntStream matchingRows) {
+        return matchingRows.takeWhile(i -> i < rows.length).map(i -> rows[i]).toArray();
+    }
+
+    /**
+     * A column of a {@link InMemoryTableView}. It reads through the selection vector to the source column. Predicates
+     * are evaluated by the source column (see {@link ColumnFilterable}) so, for example, a dictionary-encoded column
+     * still only evaluates a string predicate once per dictionary entry.
+     */
+    public sealed interface ViewColumn extends Column {
+
+        static ViewColumn of(InMemoryColumn source, int[] rows) {
+            return switch (source) {
+                case InMemoryColumn.BooleanColumn booleanColumn -> new BooleanViewColumn(booleanColumn, rows);
+                case InMemoryColumn.IntegerColumn integerColumn -> new IntegerViewColumn(integerColumn, rows);
+                case InMemoryColumn.PackedIntegerColumn packedColumn -> new IntegerViewColumn(packedColumn, rows);
+                case InMemoryColumn.RunLengthIntegerColumn runLengthColumn -> new IntegerViewColumn(runLengthColumn, rows);
+                case InMemoryColumn.DeltaIntegerColumn deltaColumn -> new IntegerViewColumn(deltaColumn, rows);
+                case InMemoryColumn.StringColumn stringColumn -> new StringViewColumn(stringColumn, rows);
+                case InMemoryColumn.DictionaryStringColumn dictionaryColumn -> new StringViewColumn(dictionaryColumn, rows);
+                case InMemoryColumn.AssociationColumn associationColumn -> new AssociationViewColumn(associationColumn, rows);
+                case InMemoryColumn.RunLengthAssociationColumn associationColumn -> new AssociationViewColumn(associationColumn, rows);
+            };
+        }
+
+        int[] rows();
+
+        @Override
+        default int height() {
+            return rows().length;
+        }
+
+        /**
+         * Nothing is retained by the column itself. The selection vector is shared by all the columns of the view and
+         * it is counted by the table (see {@link InMemoryTableView#estimatedBytes()}).
+         */
+        @Override
+        default long estimatedBytes() {
+            return 0;
+        }
+    }
+
+    public record BooleanViewColumn(InMemoryColumn.BooleanColumn source, int[] rows) implements ViewColumn, ColumnFilterable.BooleanColumnFilterable {
+
+        public boolean get(int i) {
+            return source.bools()[rows[i]];
+        }
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(Predicate<Boolean> predicate) {
+            return idx -> predicate.test(get(idx));
+        }
+    }
+
+    /**
+     * @param source a {@link InMemoryColumn.IntegerColumn}, a {@link InMemoryColumn.PackedIntegerColumn}, a
+     *               {@link InMemoryColumn.RunLengthIntegerColumn} or a {@link InMemoryColumn.DeltaIntegerColumn}
+     */
+    public record IntegerViewColumn(InMemoryColumn source, int[] rows) implements ViewColumn, ColumnFilterable.IntegerColumnFilterable {
+
+        @Override
+        public int get(int i) {
+            return switch (source) {
+                case InMemoryColumn.IntegerColumn(var ints) -> ints[rows[i]];
+                case InMemoryColumn.PackedIntegerColumn packedColumn -> packedColumn.get(rows[i]);
+                case InMemoryColumn.RunLengthIntegerColumn runLengthColumn -> runLengthColumn.get(rows[i]);
+                case InMemoryColumn.DeltaIntegerColumn deltaColumn -> deltaColumn.get(rows[i]);
+                default -> throw new IllegalStateException("Not an integer column: " + source.getClass().getSimpleName());
+            };
+        }
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(IntPredicate predicate) {
+            IntPredicate sourcePredicate = ((ColumnFilterable.IntegerColumnFilterable) source).where(predicate);
+            return idx -> sourcePredicate.test(rows[idx]);
+        }
+    }
+
+    /**
+     * @param source either a {@link InMemoryColumn.StringColumn} or a {@link InMemoryColumn.DictionaryStringColumn}
+     */
+    public record StringViewColumn(InMemoryColumn source, int[] rows) implements ViewColumn, ColumnFilterable.StringColumnFilterable {
+
+        @Override
+        public String get(int i) {
+            return switch (source) {
+                case InMemoryColumn.StringColumn(var strings) -> strings[rows[i]];
+                case InMemoryColumn.DictionaryStringColumn dictionaryColumn -> dictionaryColumn.get(rows[i]);
+                default -> throw new IllegalStateException("Not a string column: " + source.getClass().getSimpleName());
+            };
+        }
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(Predicate<String> predicate) {
+            IntPredicate sourcePredicate = ((ColumnFilterable.StringColumnFilterable) source).where(predicate);
+            return idx -> sourcePredicate.test(rows[idx]);
+        }
+    }
+
+    /**
+     * @param source either a {@link InMemoryColumn.AssociationColumn} or a
+     *               {@link InMemoryColumn.RunLengthAssociationColumn}
+     */
+    public record AssociationViewColumn(InMemoryColumn source, int[] rows) implements ViewColumn, AssociationColumn, ColumnFilterable.AssociationColumnFilterable {
+
+        private AssociationColumn association() {
+            return (AssociationColumn) source;
+        }
+
+        @Override
+        public Table associatedEntity() {
+            return association().associatedEntity();
+        }
+
+        /**
+         * The rows of the associated table don't associate back to the rows of a view. Like the association columns of a
+         * materialized subset, there is no reverse association.
+         */
+        @Override
+        public AssociationColumn reverseAssociatedColumn() {
+            throw new IllegalStateException("A view has no reverse association column");
+        }
+
+        @Override
+        public boolean hasReverseAssociatedColumn() {
+            return false;
+        }
+
+        @Override
+        public Association associationsForIndex(int i) {
+            return association().associationsForIndex(rows[i]);
+        }
+
+        @Override
+        public void propagate(BitSet rows, int fromIndex, int toIndex, BitSet associatedRows) {
+            switch (source) {
+                case InMemoryColumn.AssociationColumn csr -> {
+                    int[] offsets = csr.offsets;
+                    int[] targets = csr.targets;
+                    for (int i = rows.nextSetBit(fromIndex); i >= 0 && i < toIndex; i = rows.nextSetBit(i + 1)) {
+                        int row = this.rows[i];
+                        for (int t = offsets[row], end = offsets[row + 1]; t < end; t++) associatedRows.set(targets[t]);
+                    }
+                }
+                case InMemoryColumn.RunLengthAssociationColumn runLength -> {
+                    for (int i = rows.nextSetBit(fromIndex); i >= 0 && i < toIndex; i = rows.nextSetBit(i + 1)) {
+                        int run = runLength.runOf(this.rows[i]);
+                        associatedRows.set(runLength.targetStarts[run], runLength.targetEnds[run]);
+                    }
+                }
+                default -> throw new IllegalStateException("Not an association column: " + source.getClass().getSimpleName());
+            }
+        }
+
+        @Override
+        public void forEachAssociated(int i, IntConsumer action) {
+            association().forEachAssociated(rows[i], action);
+        }
+
+        @Override
+        public ColumnFilterable filterableType() {
+            return this;
+        }
+
+        @Override
+        public IntPredicate where(Predicate<Association> predicate) {
+            throw new IllegalStateException("not implemented");
+        }
+    }
+}
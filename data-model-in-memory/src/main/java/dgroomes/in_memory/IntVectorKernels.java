@@ -0,0 +1,76 @@
+package dgroomes.in_memory;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD scan kernels over integer arrays, implemented with the (incubating) Vector API. See <a href="https://openjdk.org/jeps/448">JEP 448: Vector API (Sixth Incubator)</a>.
+ * <p>
+ * The kernels compare many lanes of integers at once and turn the comparison results (a vector mask) straight into the
+ * bits of a word. Sixty-four rows make one word, which is always a whole number of vectors: the preferred species
+ * has at most 16 integer lanes (512-bit registers).
+ * <p>
+ * Don't reference this class unless {@link #isAvailable()} returns true. The 'jdk.incubator.vector' module is not
+ * resolved by default, and referencing the vector types without it fails with a {@link NoClassDefFoundError}.
+ */
+final class IntVectorKernels {
+
+    private IntVectorKernels() {
+    }
+
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Set the bits for the rows in {@code [fromIndex, toIndex)} whose value is in the range {@code [min, max]} (both ends
+     * are included). The words start at the word of {@code fromIndex} (see
+     * {@link dgroomes.data_system.ColumnFilterable.IntegerColumnFilterable#scan}).
+     */
+    static void between(int[] ints, int min, int max, int fromIndex, int toIndex, long[] words) {
+        if (min > max) return; // The range is empty.
+        Kernel.between(ints, min, max, fromIndex, toIndex, words);
+    }
+
+    /**
+     * The vector types are only referenced from this nested class so that loading {@link IntVectorKernels} (to call
+     * {@link #isAvailable()}) does not require the vector module.
+     */
+    private static final class Kernel {
+
+        private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+        static void between(int[] ints, int min, int max, int fromIndex, int toIndex, long[] words) {
+            // The range test 'min <= v <= max' is done with a single unsigned comparison: 'v - min' (unsigned) <= 'max - min'.
+            // When 'v' is below 'min', the subtraction wraps around to a huge unsigned number.
+            int width = max - min;
+            int base = fromIndex >>> 6;
+            int i = fromIndex;
+
+            // The head: scalar until we reach a word boundary.
+            for (; i < toIndex && (i & 63) != 0; i++) {
+                if (Integer.compareUnsigned(ints[i] - min, width) <= 0) words[(i >>> 6) - base] |= 1L << i;
+            }
+
+            // The body: one word (64 rows) at a time.
+            int lanes = SPECIES.length();
+            for (; i + 64 <= toIndex; i += 64) {
+                long word = 0;
+                for (int lane = 0; lane < 64; lane += lanes) {
+                    IntVector values = IntVector.fromArray(SPECIES, ints, i + lane);
+                    long mask = values.sub(min).compare(VectorOperators.UNSIGNED_LE, width).toLong();
+                    word |= mask << lane;
+                }
+                words[(i >>> 6) - base] |= word;
+            }
+
+            // The tail: scalar for the remaining rows.
+            for (; i < toIndex; i++) {
+                if (Integer.compareUnsigned(ints[i] - min, width) <= 0) words[(i >>> 6) - base] |= 1L << i;
+            }
+        }
+    }
+}
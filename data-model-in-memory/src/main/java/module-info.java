@@ -1,4 +1,5 @@
 module dgroomes.in_memory {
     requires dgroomes.data_system;
+    requires static jdk.incubator.vector;
     exports dgroomes.in_memory;
 }
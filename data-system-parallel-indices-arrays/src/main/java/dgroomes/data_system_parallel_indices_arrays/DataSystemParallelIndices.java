@@ -0,0 +1,178 @@
+package dgroomes.data_system_parallel_indices_arrays;
+
+import dgroomes.data_system.CursorResult;
+import dgroomes.data_system.DataSystem;
+import dgroomes.data_system.Query;
+import dgroomes.data_system.QueryResult;
+import dgroomes.data_system.ResultCursor;
+import dgroomes.data_system.RowOrder;
+import dgroomes.data_system.Table;
+import dgroomes.data_system.ZoneMaps;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An implementation of a {@link DataSystem} that is characterized by a parallel execution strategy which relies on
+ * tracking matching indices with {@link java.util.BitSet} data structures.
+ * <p>
+ * This is the parallel sibling of the serial data system in the 'data-system-serial-indices-arrays' module. The overall
+ * algorithm is the same ("filter each node, then prune upwards from the leaves") but the row-level work of each step is
+ * split into morsels and run on a {@link ForkJoinPool}. See {@link Morsels}.
+ */
+public class DataSystemParallelIndices implements DataSystem {
+
+    public final Verifier verifier;
+
+    private final Map<String, Table> tables = new HashMap<>();
+    private final ForkJoinPool pool;
+    private final ZoneMaps zoneMaps = new ZoneMaps();
+
+    /**
+     * Create a data system that runs queries on the common {@link ForkJoinPool}. By default, a query may use all the
+     * threads of the pool.
+     */
+    public DataSystemParallelIndices() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a data system that runs queries on the given {@link ForkJoinPool}. By default, a query may use all the
+     * threads of the pool.
+     */
+    public DataSystemParallelIndices(ForkJoinPool pool) {
+        this.verifier = new Verifier(zoneMaps);
+        this.pool = Objects.requireNonNull(pool, "The 'pool' argument must not be null");
+    }
+
+    /**
+     * Register a {@link Table} into the data system. The zone maps of the integer columns of the table are built now
+     * (see {@link dgroomes.data_system.ZoneMap}).
+     */
+    public void register(String tableName, Table table) {
+        Table previous = tables.put(tableName, table);
+        if (previous != null && previous != table) zoneMaps.remove(previous);
+        zoneMaps.add(table);
+    }
+
+    /**
+     * Execute the query using as many threads as the pool offers.
+     */
+    @Override
+    public QueryResult execute(Query query) {
+        return execute(query, pool.getParallelism());
+    }
+
+    /**
+     * Execute the query using at most 'parallelism' threads of the pool. This is the knob for keeping one big query from
+     * taking over all the cores when other queries are running at the same time.
+     *
+     * @param query       the query to execute
+     * @param parallelism the maximum number of morsel workers (and therefore threads) that this query may use at once
+     */
+    public QueryResult execute(Query query, int parallelism) {
+        checkParallelism(parallelism);
+
+        ExecutionContext executionContext;
+        switch (verify(query)) {
+            case Verifier.VerificationResult.IllegalQuery(var message) -> {
+                return new QueryResult.Failure(message);
+            }
+            case Verifier.VerificationResult.LegalQuery(var legalExecutionContext) -> executionContext = legalExecutionContext;
+        }
+
+        filter(executionContext, parallelism);
+
+        // Prune the table down to the rows at the matching indices This represents the final "result set" of the query.
+        // Only the projected columns are copied.
+        int[] orderedRows = orderedRows(query, executionContext);
+        Table subset = orderedRows == null
+                ? resultTable(query).subset(executionContext.matchingRows())
+                : resultTable(query).subset(orderedRows);
+        return new QueryResult.Success(subset);
+    }
+
+    /**
+     * Execute the query using as many threads as the pool offers, and open a cursor over its result set. The matching
+     * rows are found up front (in parallel) but the result set is never materialized. The batches are read straight from
+     * the queried table (see {@link ResultCursor}).
+     */
+    @Override
+    public CursorResult cursor(Query query, int batchCapacity) {
+        return switch (verify(query)) {
+            case Verifier.VerificationResult.IllegalQuery(var message) -> new CursorResult.Failure(message);
+            case Verifier.VerificationResult.LegalQuery(var executionContext) -> {
+                filter(executionContext, pool.getParallelism());
+                int[] orderedRows = orderedRows(query, executionContext);
+                var rows = orderedRows == null ? executionContext.matchingRows().stream().iterator() : Arrays.stream(orderedRows).iterator();
+                yield new CursorResult.Opened(ResultCursor.of(resultTable(query), rows, batchCapacity));
+            }
+        };
+    }
+
+    private static void checkParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism degree must be at least 1 but was " + parallelism);
+        }
+    }
+
+    private Verifier.VerificationResult verify(Query query) {
+        if (!tables.containsKey(query.tableName)) {
+            var msg = "The query targets the table '%s' but that table is not registered".formatted(query.tableName);
+            return new Verifier.VerificationResult.IllegalQuery(msg);
+        }
+
+        return verifier.verify(query, tables.get(query.tableName));
+    }
+
+    /**
+     * The table that the result set is cut from: the queried table, narrowed to the projection of the query.
+     */
+    private Table resultTable(Query query) {
+        Table table = tables.get(query.tableName);
+        return query.getProjection().map(table::select).orElse(table);
+    }
+
+    /**
+     * The rows of the result set in the order of the query (see {@link RowOrder}), or null when the query is neither
+     * ordered nor limited. The matching rows are found in parallel but they are ordered on the calling thread.
+     */
+    private int[] orderedRows(Query query, ExecutionContext executionContext) {
+        var rowOrder = RowOrder.of(query, tables.get(query.tableName));
+        if (rowOrder == null) return null;
+        BitSet matchingRows = executionContext.matchingRows();
+        return rowOrder.apply(matchingRows.stream().iterator(), matchingRows.cardinality());
+    }
+
+    /**
+     * Find the matching rows of a verified query. When this is done, the root node's matching rows are the rows of the
+     * result set.
+     */
+    private void filter(ExecutionContext executionContext, int parallelism) {
+        var morsels = new Morsels(pool, parallelism);
+
+        // Find the leaf nodes and apply 'self' filtering on each node. The parallelism is within each node (over its
+        // rows), not across nodes.
+        Deque<ExecutionContext.Node> leaves = new ArrayDeque<>();
+        Deque<ExecutionContext.Node> nodes = new ArrayDeque<>();
+        nodes.push(executionContext.rootNode);
+        while (!nodes.isEmpty()) {
+            ExecutionContext.Node node = nodes.pop();
+            node.filterSelf(morsels);
+            List<ExecutionContext.Node> childNodes = node.childNodes();
+            if (childNodes.isEmpty()) {
+                leaves.push(node);
+            } else {
+                nodes.addAll(childNodes);
+            }
+        }
+
+        // Filter upwards from the leaves, via associations.
+        while (!leaves.isEmpty()) {
+            ExecutionContext.Node leaf = leaves.pop();
+            leaf.filterParent(morsels);
+            ExecutionContext.Node parent = leaf.parent;
+            if (parent != null) leaves.push(parent);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package dgroomes.data_system_parallel_indices_arrays;
+
+import dgroomes.data_system.AssociationColumn;
+import dgroomes.data_system.Table;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntPredicate;
+
+/**
+ * A verified and stateful representation of a query and its execution state.
+ * <p>
+ * This is a parallel take on the execution context of the 'data-system-serial-indices-arrays' module. The shape of the
+ * graph is the same but the filtering work of each node is split into morsels (see {@link Morsels}) which are processed
+ * in parallel.
+ */
+public class ExecutionContext {
+
+    /**
+     * When the matching phase is complete, the root node's matching rows can be taken as the final matching rows.
+     */
+    public BitSet matchingRows() {
+        return rootNode.matchingBits;
+    }
+
+    /**
+     * A stateful node in the execution context graph.
+     * <p>
+     * It represents a table, matching indices, and relationships to parent and child nodes.
+     */
+    public static class Node {
+
+        private final List<IntPredicate> columnPredicates = new ArrayList<>();
+        private final List<ColumnScan> columnScans = new ArrayList<>();
+        final Table table;
+        private BitSet matchingBits;
+
+        final Node parent;
+        private final AssociationColumn associationToParent;
+
+        public List<Node> childNodes() {
+            return List.copyOf(childNodes);
+        }
+
+        private final List<Node> childNodes = new ArrayList<>();
+
+        private Node(Table table, Node parent, AssociationColumn associationToParent) {
+            this.table = table;
+            this.parent = parent;
+            this.associationToParent = associationToParent;
+            this.matchingBits = new BitSet(table.size());
+        }
+
+        public void addColumnPredicate(IntPredicate columnPredicate) {
+            columnPredicates.add(columnPredicate);
+        }
+
+        public void addColumnScan(ColumnScan columnScan) {
+            columnScans.add(columnScan);
+        }
+
+        public Node createChildNode(AssociationColumn associationToChild) {
+            var childNode = new Node(associationToChild.associatedEntity(), this, associationToChild.reverseAssociatedColumn());
+            childNodes.add(childNode);
+            return childNode;
+        }
+
+        /**
+         * Filter the node's rows based on the column predicates.
+         * <p>
+         * The rows are split into morsels. Because a morsel always covers whole 64-bit words, each worker can fill in
+         * its own slice of a shared word array without any synchronization. The words are turned into the node's
+         * {@link BitSet} at the end. Note that we can't have the workers write into a {@link BitSet} directly because
+         * {@link BitSet} is not thread-safe even for disjoint bits (it tracks the number of "words in use").
+         * <p>
+         * Criteria that the column can recognize are evaluated in bulk with {@link ColumnScan}s (which may be
+         * vectorized). The remaining (opaque) predicates are evaluated one row at a time.
+         */
+        public void filterSelf(Morsels morsels) {
+            int size = table.size();
+
+            // Combine all the predicates using the convenient "and" method.
+            Optional<IntPredicate> combinedPredicateOpt = columnPredicates.stream().reduce(IntPredicate::and);
+
+            if (columnScans.isEmpty() && combinedPredicateOpt.isEmpty()) {
+                // When there are no predicates, there is no specific filtering work to do. Technically, all rows match.
+                matchingBits.set(0, size);
+                return;
+            }
+
+            IntPredicate combinedPredicate = combinedPredicateOpt.orElse(null);
+            long[] words = new long[(size + 63) >>> 6];
+
+            // The scans write into worker-local words that start at the first word of the morsel (see
+            // IntegerColumnFilterable#scan). When there are multiple scans, the second and later scans write into scratch
+            // words which are then AND-ed into the first.
+            morsels.forEachMorsel(size, () -> new long[2][Morsels.MORSEL_SIZE >>> 6], (local, fromIndex, toIndex) -> {
+                // The only worker may be given all the rows at once, so go one morsel at a time.
+                for (int morselFrom = fromIndex; morselFrom < toIndex; morselFrom += Morsels.MORSEL_SIZE) {
+                    filterMorsel(morselFrom, Math.min(morselFrom + Morsels.MORSEL_SIZE, toIndex), combinedPredicate, words, local[0], local[1]);
+                }
+            });
+
+            matchingBits = BitSet.valueOf(words);
+        }
+
+        /**
+         * Filter the rows {@code [fromIndex, toIndex)} of one morsel into its slice of the words.
+         */
+        private void filterMorsel(int fromIndex, int toIndex, IntPredicate combinedPredicate, long[] words, long[] morselWords, long[] scratch) {
+            int fromWord = fromIndex >>> 6;
+            int wordCount = ((toIndex + 63) >>> 6) - fromWord;
+
+            if (columnScans.isEmpty()) {
+                for (int w = 0; w < wordCount; w++) {
+                    long word = 0;
+                    int base = (fromWord + w) << 6;
+                    int end = Math.min(base + 64, toIndex);
+                    for (int i = base; i < end; i++) {
+                        if (combinedPredicate.test(i)) word |= 1L << i;
+                    }
+                    words[fromWord + w] = word;
+                }
+                return;
+            }
+
+            // The bulk scans go first.
+            Arrays.fill(morselWords, 0L);
+            columnScans.getFirst().scan(fromIndex, toIndex, morselWords);
+            for (int s = 1; s < columnScans.size(); s++) {
+                columnScans.get(s).scan(fromIndex, toIndex, scratch);
+                for (int w = 0; w < wordCount; w++) {
+                    morselWords[w] &= scratch[w];
+                    scratch[w] = 0;
+                }
+            }
+
+            // Then the opaque predicates are only tested on the rows that survived the scans.
+            if (combinedPredicate != null) {
+                for (int w = 0; w < wordCount; w++) {
+                    long word = morselWords[w];
+                    for (long remaining = word; remaining != 0; remaining &= remaining - 1) {
+                        int i = ((fromWord + w) << 6) + Long.numberOfTrailingZeros(remaining);
+                        if (!combinedPredicate.test(i)) word &= ~(1L << i);
+                    }
+                    morselWords[w] = word;
+                }
+            }
+            System.arraycopy(morselWords, 0, words, fromWord, wordCount);
+        }
+
+        /**
+         * This is an "upwards" filter. This method narrows that parent node's matching bits to the rows of the
+         * parent that are associated from rows in the current node.
+         * <p>
+         * The associations of one morsel can point anywhere in the parent table, so each worker accumulates into its
+         * own {@link BitSet} and the worker-local results are OR-ed together at the end.
+         */
+        public void filterParent(Morsels morsels) {
+            if (parent == null) return; // The root node is the only node without a parent.
+
+            int parentSize = parent.table.size();
+            List<BitSet> workerResults = morsels.forEachMorsel(table.size(), () -> new BitSet(parentSize),
+                    (parentMatchingBitsByAssociation, fromIndex, toIndex) -> associationToParent.propagate(matchingBits, fromIndex, toIndex, parentMatchingBitsByAssociation));
+
+            var parentMatchingBitsByAssociation = workerResults.getFirst();
+            for (int i = 1; i < workerResults.size(); i++) {
+                parentMatchingBitsByAssociation.or(workerResults.get(i));
+            }
+
+            parent.matchingBits.and(parentMatchingBitsByAssociation);
+        }
+    }
+
+    /**
+     * A "bulk" filter over the rows of a node's table. It sets the bits of the matching rows in the range
+     * {@code [fromIndex, toIndex)}, in words that start at the word of {@code fromIndex}. See
+     * {@link dgroomes.data_system.ColumnFilterable.IntegerColumnFilterable#scan}.
+     */
+    @FunctionalInterface
+    public interface ColumnScan {
+        void scan(int fromIndex, int toIndex, long[] words);
+    }
+
+    public final Node rootNode;
+
+    public ExecutionContext(Table rootTable) {
+        this.rootNode = new Node(rootTable, null, null);
+    }
+}
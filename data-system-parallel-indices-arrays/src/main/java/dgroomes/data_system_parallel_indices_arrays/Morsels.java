@@ -0,0 +1,81 @@
+package dgroomes.data_system_parallel_indices_arrays;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A "morsel-driven" work scheduler. A range of rows is split into fixed-size chunks called morsels and a bounded number
+ * of workers pull morsels off of a shared counter until there are none left. This is the scheduling idea from the HyPer
+ * paper "Morsel-Driven Parallelism" and it has a nice property: fast workers naturally take more morsels than slow ones
+ * so we get load balancing for free.
+ * <p>
+ * The number of workers is the "parallelism degree" of the query. Because each worker is one task in the
+ * {@link ForkJoinPool}, a query can never occupy more than that many threads of the pool at once.
+ */
+class Morsels {
+
+    /**
+     * The number of rows in a morsel. It is a multiple of 64 so that each morsel covers whole words of a
+     * {@link java.util.BitSet}. This is what lets workers write their slice of the bits without coordinating.
+     */
+    static final int MORSEL_SIZE = 64 * 256;
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    Morsels(ForkJoinPool pool, int parallelism) {
+        this.pool = pool;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * A unit of work over the rows [fromIndex, toIndex) of one morsel. Each worker has its own 'state' object.
+     */
+    interface MorselTask<T> {
+        void run(T state, int fromIndex, int toIndex);
+    }
+
+    /**
+     * Split the rows [0, rowCount) into morsels and process them in parallel.
+     *
+     * @param rowCount     the number of rows to process
+     * @param workerState  creates the state that is private to each worker (e.g. a worker-local accumulator)
+     * @param task         the work to do for each morsel
+     * @return the worker states, one per worker that was scheduled. The caller is responsible for combining them.
+     */
+    <T> List<T> forEachMorsel(int rowCount, Supplier<T> workerState, MorselTask<T> task) {
+        int morselCount = (rowCount + MORSEL_SIZE - 1) / MORSEL_SIZE;
+        int workerCount = Math.min(parallelism, morselCount);
+
+        // When there is only one worker, there is no point in paying the scheduling overhead. Just do the work on the
+        // current thread.
+        if (workerCount <= 1) {
+            T state = workerState.get();
+            if (rowCount > 0) task.run(state, 0, rowCount);
+            return Collections.singletonList(state);
+        }
+
+        var nextMorsel = new AtomicInteger();
+        List<ForkJoinTask<T>> workers = new ArrayList<>(workerCount);
+        for (int w = 0; w < workerCount; w++) {
+            workers.add(ForkJoinTask.adapt(() -> {
+                T state = workerState.get();
+                int morsel;
+                while ((morsel = nextMorsel.getAndIncrement()) < morselCount) {
+                    int fromIndex = morsel * MORSEL_SIZE;
+                    int toIndex = Math.min(fromIndex + MORSEL_SIZE, rowCount);
+                    task.run(state, fromIndex, toIndex);
+                }
+                return state;
+            }));
+        }
+
+        workers.forEach(pool::execute);
+        return workers.stream().map(ForkJoinTask::join).toList();
+    }
+}
@@ -0,0 +1,116 @@
+package dgroomes.data_system_parallel_indices_arrays;
+
+import dgroomes.data_system.AssociationColumn;
+import dgroomes.data_system.Table;
+import dgroomes.data_system.Criteria;
+import dgroomes.data_system.Query;
+import dgroomes.data_system.QueryLowering;
+import dgroomes.data_system.RowOrder;
+import dgroomes.data_system.ZoneMaps;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A query verifier (or at least, my naive guess at what a query verifier is. Is this a linker? A compiler?).
+ * <p>
+ * We want to take a {@link Criteria} and create an "execution context" from it. This is a
+ * graph that is a physical representation of the query execution process. It incorporates tables as nodes.
+ */
+public class Verifier {
+
+    private final ZoneMaps zoneMaps;
+
+    /**
+     * Create a verifier that doesn't use zone maps.
+     */
+    public Verifier() {
+        this(new ZoneMaps());
+    }
+
+    /**
+     * @param zoneMaps the zone maps of the registered tables. The range scans of the columns that have a zone map go
+     *                 through it (see {@link dgroomes.data_system.ZoneMap}).
+     */
+    public Verifier(ZoneMaps zoneMaps) {
+        this.zoneMaps = Objects.requireNonNull(zoneMaps, "The 'zoneMaps' argument must not be null");
+    }
+
+    public sealed interface VerificationResult {
+
+        record LegalQuery(ExecutionContext executionContext) implements VerificationResult {}
+
+        record IllegalQuery(String message) implements VerificationResult {}
+    }
+
+    /**
+     * Verify if the given {@link Query} is legal for the given {@link Table}. If the query describes columns that
+     * don't exist or types that don't match, then the query is illegal.
+     *
+     * @param query the query to verify and link
+     * @param table The table to verify the criteria against
+     * @return a {@link VerificationResult} that indicates if the query is legal or not. For legal queries, the result
+     * will contain an {@link ExecutionContext} that can be used to execute the query.
+     */
+    public VerificationResult verify(Query query, Table table) {
+        Objects.requireNonNull(query, "The 'query' argument must not be null");
+        Objects.requireNonNull(table, "The 'table' argument must not be null");
+
+        var executionContext = new ExecutionContext(table);
+
+        // Algorithm working notes. We need to descend the query nodes and its child nodes, all the while verifying
+        // that ordinals are "legal", meaning they follow columns that exist and are the right type. We turn each
+        // query node into an execution node.
+        record NodeNode(Query.Node queryNode, ExecutionContext.Node executionNode) {}
+        Deque<NodeNode> toVisit = new ArrayDeque<>();
+        toVisit.add(new NodeNode(query.rootNode, executionContext.rootNode));
+
+        while (!toVisit.isEmpty()) {
+            var nodeNode = toVisit.pop();
+            var currentQueryNode = nodeNode.queryNode;
+            var currentExecutionNode = nodeNode.executionNode;
+
+            // Wire up the criteria. They are lowered (see QueryLowering) into the forms that are cheapest to
+            // evaluate. Only the ranges are executed differently here: they go through the zone maps.
+            try {
+                for (var lowered : QueryLowering.lower(currentExecutionNode.table, currentQueryNode.getCriteria())) {
+                    switch (lowered) {
+                        case QueryLowering.Lowered.StringScan stringScan ->
+                                currentExecutionNode.addColumnScan(stringScan.scan()::scan);
+                        case QueryLowering.Lowered.IntScan intScan ->
+                                currentExecutionNode.addColumnScan(intScan.scan()::scan);
+                        case QueryLowering.Lowered.IntRangeScan rangeScan ->
+                                currentExecutionNode.addColumnScan(zoneMaps.rangeScan(rangeScan.column(), rangeScan.range())::scan);
+                        case QueryLowering.Lowered.RowPredicate rowPredicate ->
+                                currentExecutionNode.addColumnPredicate(rowPredicate.predicate());
+                        case QueryLowering.Lowered.StringParameter ignored -> {
+                            return new VerificationResult.IllegalQuery("Query parameters are not supported by this data system.");
+                        }
+                        case QueryLowering.Lowered.IntParameter ignored -> {
+                            return new VerificationResult.IllegalQuery("Query parameters are not supported by this data system.");
+                        }
+                    }
+                }
+
+                for (Map.Entry<Integer, Query.Node> entry : currentQueryNode.getChildrenByOrdinal().entrySet()) {
+                    AssociationColumn associationColumn = QueryLowering.association(currentExecutionNode.table, entry.getKey());
+                    var childNode = currentExecutionNode.createChildNode(associationColumn);
+                    toVisit.add(new NodeNode(entry.getValue(), childNode));
+                }
+            } catch (IllegalArgumentException e) {
+                return new VerificationResult.IllegalQuery(e.getMessage());
+            }
+        }
+
+        try {
+            QueryLowering.checkProjection(query, table);
+            RowOrder.of(query, table);
+        } catch (IllegalArgumentException e) {
+            return new VerificationResult.IllegalQuery(e.getMessage());
+        }
+
+        return new VerificationResult.LegalQuery(executionContext);
+    }
+}
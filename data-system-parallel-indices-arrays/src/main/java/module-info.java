@@ -0,0 +1,5 @@
+module dgroomes.data_system_parallel_indices_arrays {
+    requires dgroomes.data_system;
+    requires dgroomes.util;
+    exports dgroomes.data_system_parallel_indices_arrays;
+}
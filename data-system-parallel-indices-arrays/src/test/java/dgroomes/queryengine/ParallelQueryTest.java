@@ -0,0 +1,214 @@
+package dgroomes.queryengine;
+
+import dgroomes.data_system.*;
+import dgroomes.data_system.QueryResult.Failure;
+import dgroomes.data_system.QueryResult.Success;
+import dgroomes.data_system_parallel_indices_arrays.DataSystemParallelIndices;
+import dgroomes.in_memory.InMemoryColumn;
+import dgroomes.in_memory.InMemoryTable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opentest4j.AssertionFailedError;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static dgroomes.in_memory.InMemoryColumn.ofInts;
+import static dgroomes.in_memory.InMemoryColumn.ofStrings;
+import static dgroomes.in_memory.InMemoryTable.ofColumns;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for the parallel data system. The small-table cases mirror the functional tests of the serial data system. The
+ * large-table cases span many morsels so that the parallel code paths are actually exercised.
+ */
+public class ParallelQueryTest {
+
+    private DataSystemParallelIndices dataSystem;
+
+    @BeforeEach
+    void setUp() {
+        dataSystem = new DataSystemParallelIndices(new ForkJoinPool(4));
+    }
+
+    @Test
+    void intQuery_oneColumnTable() {
+        var table = ofColumns(ofInts(-1, 0, 1, 2, 3));
+        dataSystem.register("ints", table);
+        var query = new Query("ints");
+        query.rootNode.addCriteria(new Criteria.IntCriteria(0, i -> i > 0));
+
+        var columns = columns(dataSystem.execute(query));
+
+        assertThat(columns).hasSize(1);
+        if (!(columns.getFirst() instanceof InMemoryColumn.IntegerColumn(var ints))) {
+            throw new AssertionFailedError("Expected an IntegerColumn");
+        }
+        assertThat(ints).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void illegalOrdinals() {
+        var cities = ofColumns(ofStrings("Minneapolis", "Pierre"), ofInts(425_336, 14_091));
+        dataSystem.register("cities", cities);
+        var criteriaPastTheEnd = new Query("cities");
+        criteriaPastTheEnd.rootNode.addCriteria(new Criteria.IntCriteria(2, new Criteria.IntEquals(1)));
+        var childPastTheEnd = new Query("cities");
+        childPastTheEnd.rootNode.createChild(2);
+
+        assertThat(dataSystem.execute(criteriaPastTheEnd)).isInstanceOf(Failure.class);
+        assertThat(dataSystem.execute(childPastTheEnd)).isInstanceOf(Failure.class);
+    }
+
+    @Test
+    void queryOnAssociationProperty() {
+        var cities = ofColumns(ofStrings("Minneapolis", "Pierre", "Duluth"));
+        dataSystem.register("cities", cities);
+        var states = ofColumns(ofStrings("Minnesota", "South Dakota"));
+        dataSystem.register("states", states);
+        cities.associateTo(states, Association.toOne(0), Association.toOne(1), Association.toOne(0));
+
+        var query = new Query("cities");
+        query.rootNode.createChild(1).addCriteria(new Criteria.StringCriteria(0, "Minnesota"::equals));
+
+        var columns = columns(dataSystem.execute(query));
+
+        if (!(columns.getFirst() instanceof InMemoryColumn.StringColumn(var cityMatches))) {
+            throw new AssertionFailedError("Expected a StringColumn");
+        }
+        assertThat(cityMatches).containsExactly("Minneapolis", "Duluth");
+    }
+
+    @Test
+    void projection() {
+        var cities = ofColumns(ofStrings("Minneapolis", "Pierre", "Duluth"), ofInts(425_336, 14_091, 86_697));
+        dataSystem.register("cities", cities);
+        var query = new Query("cities").select(1);
+        query.rootNode.addCriteria(new Criteria.IntCriteria(1, population -> population > 50_000));
+
+        var columns = columns(dataSystem.execute(query));
+
+        assertThat(columns).hasSize(1);
+        if (!(columns.getFirst() instanceof InMemoryColumn.IntegerColumn(var populations))) {
+            throw new AssertionFailedError("Expected an IntegerColumn");
+        }
+        assertThat(populations).containsExactly(425_336, 86_697);
+    }
+
+    @Test
+    void orderByAndLimit() {
+        var cities = ofColumns(ofStrings("Minneapolis", "Pierre", "Duluth", "Rochester"), ofInts(425_336, 14_091, 86_697, 121_395));
+        dataSystem.register("cities", cities);
+        var query = new Query("cities").select(0).orderByDescending(1).limit(2);
+        query.rootNode.addCriteria(new Criteria.IntCriteria(1, population -> population > 50_000));
+
+        var columns = columns(dataSystem.execute(query));
+
+        if (!(columns.getFirst() instanceof InMemoryColumn.StringColumn(var names))) {
+            throw new AssertionFailedError("Expected a StringColumn");
+        }
+        assertThat(names).containsExactly("Minneapolis", "Rochester");
+        assertThat(dataSystem.execute(new Query("cities").orderBy(0))).isInstanceOf(Failure.class);
+    }
+
+    @Test
+    void cursor() {
+        var cities = ofColumns(ofStrings("Minneapolis", "Pierre", "Duluth", "Rochester"), ofInts(425_336, 14_091, 86_697, 121_395));
+        dataSystem.register("cities", cities);
+        var query = new Query("cities");
+        query.rootNode.addCriteria(new Criteria.IntCriteria(1, population -> population > 50_000));
+
+        if (!(dataSystem.cursor(query, 2) instanceof CursorResult.Opened(var cursor))) {
+            throw new AssertionFailedError("Expected an opened cursor");
+        }
+        List<Integer> rows = new ArrayList<>();
+        while (cursor.next()) {
+            for (int i = 0; i < cursor.size(); i++) rows.add(cursor.rows()[i]);
+        }
+
+        assertThat(rows).containsExactly(0, 2, 3);
+    }
+
+    /**
+     * Query a table that is big enough to be split into many morsels, and over an association so that the upwards
+     * filtering is parallelized too. The answer is compared to a plain loop.
+     */
+    @Test
+    void manyMorsels() {
+        int size = 1_000_003; // Purposely not a multiple of 64.
+        int[] numbers = IntStream.range(0, size).toArray();
+        int[] remainders = IntStream.range(0, 7).toArray();
+        var numbersTable = ofColumns(new InMemoryColumn.IntegerColumn(numbers));
+        var remaindersTable = ofColumns(new InMemoryColumn.IntegerColumn(remainders));
+        dataSystem.register("numbers", numbersTable);
+        dataSystem.register("remainders", remaindersTable);
+        numbersTable.associateTo(remaindersTable, IntStream.range(0, size).mapToObj(i -> Association.toOne(i % 7)).toArray(Association[]::new));
+
+        // Find the numbers in a range that are divisible by 3 and whose remainder (mod 7) is 2 or 5.
+        var query = new Query("numbers");
+        query.rootNode.addCriteria(new Criteria.IntCriteria(0, i -> i % 3 == 0))
+                .addCriteria(Criteria.IntCriteria.range(0, 1_000, 900_001))
+                .createChild(1)
+                .addCriteria(new Criteria.IntCriteria(0, r -> r == 2 || r == 5));
+
+        int[] expected = IntStream.range(1_000, 900_001).filter(i -> i % 3 == 0 && (i % 7 == 2 || i % 7 == 5)).toArray();
+        for (int parallelism : new int[]{1, 2, 4}) {
+            var columns = columns(dataSystem.execute(query, parallelism));
+            if (!(columns.getFirst() instanceof InMemoryColumn.IntegerColumn(var ints))) {
+                throw new AssertionFailedError("Expected an IntegerColumn");
+            }
+            assertThat(ints).isEqualTo(expected);
+        }
+    }
+
+    /**
+     * Like {@link #manyMorsels()} but the association is run-length encoded, so the upwards filtering propagates whole
+     * runs. The runs straddle the boundaries of the morsels.
+     */
+    @Test
+    void manyMorsels_clustered() {
+        int size = 1_000_003;
+        int groupSize = 1_000;
+        var numbersTable = ofColumns(new InMemoryColumn.IntegerColumn(IntStream.range(0, size).toArray()));
+        var groupsTable = ofColumns(new InMemoryColumn.IntegerColumn(IntStream.range(0, size / groupSize + 1).toArray()));
+        dataSystem.register("numbers", numbersTable);
+        dataSystem.register("groups", groupsTable);
+        numbersTable.associateToClustered(groupsTable, IntStream.range(0, size).mapToObj(i -> Association.toOne(i / groupSize)).toArray(Association[]::new));
+
+        // Find the even numbers whose group is a multiple of 3.
+        var query = new Query("numbers");
+        query.rootNode.addCriteria(new Criteria.IntCriteria(0, i -> i % 2 == 0))
+                .createChild(1)
+                .addCriteria(new Criteria.IntCriteria(0, group -> group % 3 == 0));
+
+        int[] expected = IntStream.range(0, size).filter(i -> i % 2 == 0 && (i / groupSize) % 3 == 0).toArray();
+        for (int parallelism : new int[]{1, 4}) {
+            var columns = columns(dataSystem.execute(query, parallelism));
+            if (!(columns.getFirst() instanceof InMemoryColumn.IntegerColumn(var ints))) {
+                throw new AssertionFailedError("Expected an IntegerColumn");
+            }
+            assertThat(ints).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void illegalParallelism() {
+        dataSystem.register("ints", InMemoryTable.ofColumns(ofInts(1)));
+
+        try {
+            dataSystem.execute(new Query("ints"), 0);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new AssertionFailedError("Expected an IllegalArgumentException");
+    }
+
+    private static List<? extends Column> columns(QueryResult result) {
+        return switch (result) {
+            case Failure(var msg) -> throw new AssertionFailedError(msg);
+            case Success(var resultTable) -> resultTable.columns();
+        };
+    }
+}
@@ -0,0 +1,154 @@
+package dgroomes.data_system_serial_indices_arrays;
+
+import dgroomes.data_system.Aggregate;
+import dgroomes.data_system.AggregateResult;
+import dgroomes.data_system.AssociationColumn;
+import dgroomes.data_system.ColumnFilterable;
+import dgroomes.data_system.CompressedBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The aggregates and the group-by of a verified query, resolved to the columns that they read. See
+ * {@link dgroomes.data_system.Query#aggregate} and {@link dgroomes.data_system.Query#groupBy}.
+ * <p>
+ * The aggregates are evaluated straight from the matching rows of the root node. The result set is never materialized.
+ * The accumulators are primitive ({@link IntSummaryStatistics}) and each distinct column is read only once, no matter
+ * how many aggregates read it. A "count" without a group-by is just the cardinality of the matching rows, so no column
+ * is read at all.
+ *
+ * @param aggregates  the aggregates, as they were given
+ * @param columns     the distinct columns that are read by the aggregates
+ * @param columnIndex for each aggregate, the index of its column in {@code columns}. This is -1 for a count.
+ * @param groupPath   the association columns to follow from the root table to the table of the group-by column. This is
+ *                    empty when the group-by column is a column of the root table.
+ * @param groupColumn the group-by column, or null when there is no group-by
+ * @param groupHeight the number of rows in the table of the group-by column
+ */
+record Aggregation(List<Aggregate> aggregates, List<ColumnFilterable.IntegerColumnFilterable> columns,
+                   int[] columnIndex, List<AssociationColumn> groupPath, ColumnFilterable groupColumn,
+                   int groupHeight) {
+
+    AggregateResult.Success evaluate(CompressedBitmap matchingRows, int rootHeight) {
+        if (groupColumn == null) return evaluateUngrouped(matchingRows, rootHeight);
+        return new Grouper().evaluate(matchingRows);
+    }
+
+    private AggregateResult.Success evaluateUngrouped(CompressedBitmap matchingRows, int rootHeight) {
+        long count = matchingRows.cardinality();
+        var statistics = new IntSummaryStatistics[columns.size()];
+        if (!columns.isEmpty()) {
+            // Summarize over the dense words of the matching rows. Dense words are what lets a column summarize runs of
+            // matching rows with tight loops.
+            int wordCount = (rootHeight + 63) >>> 6;
+            long[] words = matchingRows.toWords(wordCount);
+            for (int k = 0; k < columns.size(); k++) {
+                statistics[k] = new IntSummaryStatistics();
+                columns.get(k).summarize(words, 0, wordCount, statistics[k]);
+            }
+        }
+        return new AggregateResult.Success(List.of(new AggregateResult.Group(null, values(count, statistics))));
+    }
+
+    private List<Number> values(long count, IntSummaryStatistics[] statistics) {
+        var values = new ArrayList<Number>(aggregates.size());
+        for (int a = 0; a < aggregates.size(); a++) {
+            var aggregateStatistics = columnIndex[a] < 0 ? null : statistics[columnIndex[a]];
+            boolean empty = count == 0;
+            Number value = switch (aggregates.get(a)) {
+                case Aggregate.Count ignored -> count;
+                case Aggregate.Sum ignored -> aggregateStatistics.getSum();
+                case Aggregate.Min ignored -> empty ? null : aggregateStatistics.getMin();
+                case Aggregate.Max ignored -> empty ? null : aggregateStatistics.getMax();
+                case Aggregate.Avg ignored -> empty ? null : aggregateStatistics.getAverage();
+            };
+            values.add(value);
+        }
+        // Not 'List.copyOf' because the values may be null.
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * The state of one grouped evaluation.
+     * <p>
+     * Each row of the table of the group-by column is resolved to its group at most once. The group ids are cached in
+     * an array indexed by row, so the (boxed) group-by value is only read and hashed the first time a row is reached.
+     */
+    private final class Grouper {
+
+        private final int[] groupOfRow;
+        private final Map<Object, Integer> groupIds = new HashMap<>();
+        private final List<Object> keys = new ArrayList<>();
+        private long[] counts = new long[16];
+        private final List<IntSummaryStatistics[]> statistics = new ArrayList<>();
+
+        Grouper() {
+            groupOfRow = new int[groupHeight];
+            Arrays.fill(groupOfRow, -1);
+        }
+
+        AggregateResult.Success evaluate(CompressedBitmap matchingRows) {
+            matchingRows.forEach(row -> visit(row, 0, row));
+
+            var groups = new ArrayList<AggregateResult.Group>(keys.size());
+            for (int g = 0; g < keys.size(); g++) {
+                groups.add(new AggregateResult.Group(keys.get(g), values(counts[g], statistics.get(g))));
+            }
+            @SuppressWarnings("unchecked")
+            Comparator<Object> byKey = Comparator.nullsFirst(Comparator.comparing(key -> (Comparable<Object>) key));
+            groups.sort(Comparator.comparing(AggregateResult.Group::key, byKey));
+            return new AggregateResult.Success(List.copyOf(groups));
+        }
+
+        /**
+         * Follow the group-by path from the given row, depth-first, and accumulate the root row into the group of each
+         * row that is reached at the end of the path.
+         */
+        private void visit(int rootRow, int depth, int row) {
+            if (depth == groupPath.size()) {
+                accumulate(groupOf(row), rootRow);
+                return;
+            }
+            groupPath.get(depth).forEachAssociated(row, associatedRow -> visit(rootRow, depth + 1, associatedRow));
+        }
+
+        private void accumulate(int group, int rootRow) {
+            counts[group]++;
+            var groupStatistics = statistics.get(group);
+            for (int k = 0; k < columns.size(); k++) {
+                groupStatistics[k].accept(columns.get(k).get(rootRow));
+            }
+        }
+
+        private int groupOf(int row) {
+            int group = groupOfRow[row];
+            if (group >= 0) return group;
+
+            Object key = switch (groupColumn) {
+                case ColumnFilterable.IntegerColumnFilterable integerColumn -> integerColumn.get(row);
+                case ColumnFilterable.StringColumnFilterable stringColumn -> stringColumn.get(row);
+                default -> throw new IllegalStateException("The group-by column must be an integer or string column. This is unexpected.");
+            };
+            group = groupIds.computeIfAbsent(key, this::newGroup);
+            groupOfRow[row] = group;
+            return group;
+        }
+
+        private int newGroup(Object key) {
+            int group = keys.size();
+            keys.add(key);
+            if (group == counts.length) counts = Arrays.copyOf(counts, group * 2);
+            var groupStatistics = new IntSummaryStatistics[columns.size()];
+            for (int k = 0; k < groupStatistics.length; k++) groupStatistics[k] = new IntSummaryStatistics();
+            statistics.add(groupStatistics);
+            return group;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package dgroomes.data_system_serial_indices_arrays;
+
+import dgroomes.data_system.CompressedBitmap;
+import dgroomes.data_system.Criteria;
+import dgroomes.data_system.Table;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A cache of the matching rows of query subtrees. It is shared by all queries, so a subtree that shows up in different
+ * queries (even under different root tables) is only evaluated once.
+ * <p>
+ * The matching rows of a node are a function of its table, its criteria and its subtree: a row matches when it matches
+ * the criteria and when it is associated to matching rows of each child node. Nothing above the node matters. That's
+ * what makes the bitmap reusable. Like the {@link ResultCache}, only declarative criteria can be compared, so a subtree
+ * with a lambda in it is never cached. Parameters are compared by their bound values.
+ * <p>
+ * The bitmaps are compressed (see {@link CompressedBitmap}), so the bitmap of a selective subtree over a big table is
+ * small. The cache is bounded by the size of the bitmaps. When it is full, the least recently used bitmaps are evicted (see
+ * {@link BoundedLruCache}). The cache is thread-safe.
+ */
+public final class BitmapCache {
+
+    /**
+     * The structural fingerprint of a subtree of a query. Tables are compared by identity.
+     */
+    record SubtreeKey(Table table, Set<Criteria> criteria, Map<Integer, SubtreeKey> childrenByOrdinal) {
+
+        boolean references(Table other) {
+            return table == other || childrenByOrdinal.values().stream().anyMatch(child -> child.references(other));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SubtreeKey other && table == other.table && criteria.equals(other.criteria) && childrenByOrdinal.equals(other.childrenByOrdinal);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(table), criteria, childrenByOrdinal);
+        }
+    }
+
+    private final BoundedLruCache<SubtreeKey, CompressedBitmap> cache;
+
+    /**
+     * @param maxBytes the maximum size of the cached bitmaps. When it is 0, nothing is cached.
+     */
+    public BitmapCache(long maxBytes) {
+        this.cache = new BoundedLruCache<>(maxBytes, CompressedBitmap::estimatedBytes);
+    }
+
+    public boolean isEnabled() {
+        return cache.isEnabled();
+    }
+
+    /**
+     * The cached bitmap must not be modified.
+     */
+    Optional<CompressedBitmap> get(SubtreeKey key) {
+        return cache.get(key);
+    }
+
+    /**
+     * The bitmap must not be modified after it is cached.
+     */
+    void put(SubtreeKey key, CompressedBitmap matchingRows) {
+        cache.put(key, matchingRows);
+    }
+
+    /**
+     * Drop the bitmaps of the subtrees that involve the given table.
+     * <p>
+     * Note: tables are compared by identity, so a bitmap is never wrong for a table that has been replaced. But it's
+     * unlikely to be asked for again, and it keeps the old table reachable. So it's best to free the memory.
+     */
+    void invalidate(Table table) {
+        cache.invalidateIf(key -> key.references(table));
+    }
+
+    public CacheStatistics statistics() {
+        return cache.statistics();
+    }
+}
@@ -0,0 +1,95 @@
+package dgroomes.data_system_serial_indices_arrays;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least-recently-used (LRU) cache that is bounded by the estimated size of its values, in bytes. This is the core of
+ * the {@link ResultCache} and the {@link BitmapCache}.
+ * <p>
+ * The cache is thread-safe.
+ */
+final class BoundedLruCache<K, V> {
+
+    private record Entry<V>(V value, long bytes) {}
+
+    private final long maxBytes;
+    private final ToLongFunction<V> weigher;
+
+    // A LinkedHashMap in "access order" is an LRU list. The eldest entry is the least recently used one.
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes the maximum estimated size of the values. When it is 0, nothing is cached.
+     * @param weigher  estimates the size of a value, in bytes
+     */
+    BoundedLruCache(long maxBytes, ToLongFunction<V> weigher) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("The maximum size must not be negative but was " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+    }
+
+    boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    synchronized Optional<V> get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return Optional.empty();
+        }
+        hits++;
+        return Optional.of(entry.value());
+    }
+
+    /**
+     * Cache the value, and evict the least recently used values until it fits. A value that is larger than the whole
+     * cache is not cached.
+     */
+    synchronized void put(K key, V value) {
+        long entryBytes = weigher.applyAsLong(value);
+        if (entryBytes > maxBytes) return;
+
+        Entry<V> previous = entries.put(key, new Entry<>(value, entryBytes));
+        if (previous != null) bytes -= previous.bytes();
+        bytes += entryBytes;
+
+        // The new entry is the most recently used one, and it fits, so it is never evicted here.
+        Iterator<Entry<V>> eldestFirst = entries.values().iterator();
+        while (bytes > maxBytes) {
+            Entry<V> eldest = eldestFirst.next();
+            eldestFirst.remove();
+            bytes -= eldest.bytes();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drop the values of the matching keys. These are not counted as evictions.
+     */
+    synchronized void invalidateIf(Predicate<K> keyPredicate) {
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (keyPredicate.test(entry.getKey())) {
+                bytes -= entry.getValue().bytes();
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized CacheStatistics statistics() {
+        return new CacheStatistics(hits, misses, evictions, entries.size(), bytes);
+    }
+}
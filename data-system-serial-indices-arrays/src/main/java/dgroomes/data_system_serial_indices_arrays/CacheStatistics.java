@@ -0,0 +1,12 @@
+package dgroomes.data_system_serial_indices_arrays;
+
+/**
+ * The counters of a cache. See {@link ResultCache} and {@link BitmapCache}.
+ *
+ * @param hits      the number of lookups that found a value
+ * @param misses    the number of lookups that did not. Lookups for things that can't be cached are not counted.
+ * @param evictions the number of values that were evicted to make room for others. Invalidations are not counted.
+ * @param entries   the number of values in the cache
+ * @param bytes     the estimated size of the values in the cache
+ */
+public record CacheStatistics(long hits, long misses, long evictions, int entries, long bytes) {}
@@ -1,31 +1,195 @@
 package dgroomes.data_system_serial_indices_arrays;
 
+import dgroomes.data_system.AggregateResult;
+import dgroomes.data_system.Bindings;
+import dgroomes.data_system.ColumnFilterable;
+import dgroomes.data_system.CursorResult;
 import dgroomes.data_system.DataSystem;
 import dgroomes.data_system.Query;
 import dgroomes.data_system.QueryResult;
+import dgroomes.data_system.ResultCursor;
+import dgroomes.data_system.SortedIndex;
 import dgroomes.data_system.Table;
+import dgroomes.data_system.TrigramIndex;
+import dgroomes.data_system.ZoneMaps;
 
 import java.util.*;
 
 /**
  * An implementation of a {@link DataSystem} that is characterized by a serial execution strategy which relies on
- * tracking matching indices with {@link java.util.BitSet} data structures.
+ * tracking matching indices with bitmaps. The matching rows of each node are kept as a
+ * {@link dgroomes.data_system.CompressedBitmap}.
  */
 public class DataSystemSerialIndices implements DataSystem {
 
+    /**
+     * The strategy for filtering the nodes of a query.
+     */
+    public enum ExecutionMode {
+
+        /**
+         * Filter every node with a full scan of its table, then prune upwards from the leaves to the root. This is
+         * simple and the cost is predictable, but every row of every table in the query is scanned.
+         * <p>
+         * Because each subtree is finished before its parent is pruned by it, the matching rows of each subtree can be
+         * reused by other queries through the {@link BitmapCache}.
+         */
+        LEAVES_UP,
+
+        /**
+         * "Sideways information passing". Start with a full scan of the most selective node (as estimated by sampling)
+         * and then push its matching rows across the associations, in both directions, as candidate rows for the
+         * neighboring nodes. Each remaining node only evaluates its criteria on its candidates. Finally, prune upwards
+         * from the leaves like {@link #LEAVES_UP}.
+         * <p>
+         * When one node is highly selective, the full scans of the other nodes turn into small probes. When no node is
+         * selective, this costs about the same as {@link #LEAVES_UP} plus the sampling.
+         * <p>
+         * The matching rows of a node depend on nodes outside its subtree, so the {@link BitmapCache} is not used.
+         */
+        SIDEWAYS
+    }
+
+    /**
+     * The form of the result set of a query.
+     */
+    public enum ResultForm {
+
+        /**
+         * The result set is a copy of the matching rows. See {@link Table#subset(dgroomes.data_system.CompressedBitmap)}.
+         */
+        MATERIALIZED,
+
+        /**
+         * The result set reads through to the matching rows of the queried table, lazily. Use {@link Table#compact()} to
+         * copy it into a dense table. See {@link Table#view(dgroomes.data_system.CompressedBitmap)}.
+         * <p>
+         * The result set of an ordered or limited query (see {@link Query#orderBy(int)}) is materialized anyway.
+         */
+        VIEW
+    }
+
     public final Verifier verifier;
 
     private final Map<String, Table> tables = new HashMap<>();
+    private final ExecutionMode defaultExecutionMode;
+    private final ResultCache resultCache;
+    private final BitmapCache bitmapCache;
+    private final ZoneMaps zoneMaps = new ZoneMaps();
+    // The indexes are keyed by the identity of their column, like the zone maps (see ZoneMaps).
+    private final Map<ColumnFilterable.IntegerColumnFilterable, SortedIndex> indexes = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final Map<ColumnFilterable.StringColumnFilterable, TrigramIndex> trigramIndexes = Collections.synchronizedMap(new IdentityHashMap<>());
 
     public DataSystemSerialIndices() {
-        verifier = new Verifier();
+        this(ExecutionMode.LEAVES_UP);
+    }
+
+    /**
+     * @param defaultExecutionMode the execution mode for {@link #execute(Query)}
+     */
+    public DataSystemSerialIndices(ExecutionMode defaultExecutionMode) {
+        this(defaultExecutionMode, 0);
     }
 
     /**
-     * Register a {@link Table} into the data system.
+     * @param defaultExecutionMode the execution mode for {@link #execute(Query)}
+     * @param resultCacheBytes     the maximum estimated size of the cached result sets (see {@link ResultCache}). When it
+     *                             is 0, results are not cached.
+     */
+    public DataSystemSerialIndices(ExecutionMode defaultExecutionMode, long resultCacheBytes) {
+        this(defaultExecutionMode, resultCacheBytes, 0);
+    }
+
+    /**
+     * @param defaultExecutionMode the execution mode for {@link #execute(Query)}
+     * @param resultCacheBytes     the maximum estimated size of the cached result sets (see {@link ResultCache}). When it
+     *                             is 0, results are not cached.
+     * @param bitmapCacheBytes     the maximum size of the cached bitmaps of query subtrees (see {@link BitmapCache}).
+     *                             When it is 0, bitmaps are not cached.
+     */
+    public DataSystemSerialIndices(ExecutionMode defaultExecutionMode, long resultCacheBytes, long bitmapCacheBytes) {
+        verifier = new Verifier(zoneMaps, indexes, trigramIndexes);
+        this.defaultExecutionMode = Objects.requireNonNull(defaultExecutionMode);
+        this.resultCache = new ResultCache(resultCacheBytes);
+        this.bitmapCache = new BitmapCache(bitmapCacheBytes);
+    }
+
+    /**
+     * Register a {@link Table} into the data system. If a table was already registered under the same name, then the
+     * cached results of the queries that target it, and the cached bitmaps that involve it, are dropped.
+     * <p>
+     * The zone maps of the integer columns of the table are built now (see {@link dgroomes.data_system.ZoneMap}). This
+     * costs one pass over each integer column.
+     * <p>
+     * Note: queries that reach the table only through an association are not affected. They follow the association to
+     * the table object it was created with, not to whatever table is registered under the name.
      */
     public void register(String tableName, Table table) {
-        tables.put(tableName, table);
+        Table previous = tables.put(tableName, table);
+        resultCache.invalidate(tableName);
+        if (previous != null && previous != table) {
+            bitmapCache.invalidate(previous);
+            zoneMaps.remove(previous);
+            previous.columns().forEach(column -> {
+                indexes.remove(column.filterableType());
+                trigramIndexes.remove(column.filterableType());
+            });
+        }
+        zoneMaps.add(table);
+    }
+
+    /**
+     * Create a sorted index (see {@link SortedIndex}) of an integer column of a registered table. Queries with range or
+     * equality criteria on the column then look up the matching rows in the index instead of scanning the column, when
+     * the index estimates that few enough rows match.
+     * <p>
+     * This is opt-in because an index costs a sort of the column up front and 8 bytes per row. Registering a different
+     * table under the same name drops the indexes of the previous table.
+     *
+     * @throws IllegalArgumentException if the table is not registered or the column is not an integer column
+     */
+    public void createIndex(String tableName, int ordinal) {
+        Table table = tables.get(tableName);
+        if (table == null) {
+            throw new IllegalArgumentException("The table '%s' is not registered".formatted(tableName));
+        }
+        if (ordinal < 0 || ordinal >= table.width()
+            || !(table.columns().get(ordinal).filterableType() instanceof ColumnFilterable.IntegerColumnFilterable column)) {
+            throw new IllegalArgumentException("The column at ordinal %d of the table '%s' is not an integer column".formatted(ordinal, tableName));
+        }
+        indexes.computeIfAbsent(column, ignored -> SortedIndex.build(column, table.size()));
+    }
+
+    /**
+     * Create a trigram index (see {@link TrigramIndex}) of a string column of a registered table. Queries with
+     * {@link dgroomes.data_system.Criteria.StringContains} or
+     * {@link dgroomes.data_system.Criteria.StringRegex} criteria on the column then only test the rows that
+     * contain every trigram of the substring (or of the literal parts of the regular expression).
+     * <p>
+     * Like {@link #createIndex(String, int)}, this is opt-in. It costs a pass over the column up front and a posting list
+     * for each distinct trigram. Registering a different table under the same name drops the indexes of the previous
+     * table.
+     *
+     * @throws IllegalArgumentException if the table is not registered or the column is not a string column
+     */
+    public void createTrigramIndex(String tableName, int ordinal) {
+        Table table = tables.get(tableName);
+        if (table == null) {
+            throw new IllegalArgumentException("The table '%s' is not registered".formatted(tableName));
+        }
+        if (ordinal < 0 || ordinal >= table.width()
+            || !(table.columns().get(ordinal).filterableType() instanceof ColumnFilterable.StringColumnFilterable column)) {
+            throw new IllegalArgumentException("The column at ordinal %d of the table '%s' is not a string column".formatted(ordinal, tableName));
+        }
+        trigramIndexes.computeIfAbsent(column, ignored -> TrigramIndex.build(column, table.size()));
+    }
+
+    public CacheStatistics resultCacheStatistics() {
+        return resultCache.statistics();
+    }
+
+    public CacheStatistics bitmapCacheStatistics() {
+        return bitmapCache.statistics();
     }
 
     /**
@@ -35,58 +199,213 @@ public class DataSystemSerialIndices implements DataSystem {
      * Decision: This method returns the query result set as a "value". In other words, this method does not return a
      * "view" of the result set and it does not return a cursor over the result set. This is a conscious decision. This
      * design allows for a less complex implementation. I'm more interested in spending my time learning concepts with
-     * this project than I am interested in maximizing user features/options.
+     * this project than I am interested in maximizing user features/options. UPDATE: for big result sets, the copying
+     * dominates the cost of the query. See {@link #executeView(Query)} for the opt-in alternative.
      * <p>
      * Tentative decision: this returns a pruned table. Consider a table that represents a city. It has two columns:
      * "city_name" and "state code". Return a new table where its component columns are pruned down to the entries that
      * matched the criteria.
      * <p>
      * Tentative decision: it's ok to not parse criteria like "x < 5" and instead just use lambda. In this way, we can't
-     * do a whole category of optimization but I don't care to do that.
+     * do a whole category of optimization but I don't care to do that. UPDATE: that category of optimization (SIMD
+     * kernels, zone maps, indexes, merged ranges) turned out to be where the wins are. See the criteria expressions
+     * ({@link dgroomes.data_system.Criteria.IntExpression} and {@link dgroomes.data_system.Criteria.StringExpression}).
+     * Lambdas are still supported, as the escape hatch.
      * <p>
      * Decision: full scans are good. I don't care about indexing. This data is in-memory and we want to support criteria
-     * like regex which can't take advantage of indexes anyway.
+     * like regex which can't take advantage of indexes anyway. UPDATE: repeated point and range lookups on a big table
+     * are where full scans hurt. See {@link #createIndex(String, int)} for the opt-in alternative.
      * <p>
      * I don't care much about generics here. I just want to get something working.
      */
     @Override
     public QueryResult execute(Query query) {
+        return execute(query, defaultExecutionMode);
+    }
+
+    /**
+     * Execute the query with the given execution mode. The result is the same for every mode. Only the cost differs.
+     * <p>
+     * When the result cache is enabled, a successful result is cached and the same query (structurally) is answered
+     * from the cache until the table is registered again. See {@link ResultCache}.
+     */
+    public QueryResult execute(Query query, ExecutionMode executionMode) {
+        Optional<ResultCache.Key> cacheKey = resultCache.isEnabled() ? ResultCache.key(query) : Optional.empty();
+        if (cacheKey.isPresent()) {
+            Optional<Table> cached = resultCache.get(cacheKey.get());
+            if (cached.isPresent()) return new QueryResult.Success(cached.get());
+        }
+
+        QueryResult result = executeProfiled(query, executionMode).result();
+        if (cacheKey.isPresent() && result instanceof QueryResult.Success(var resultSet)) {
+            resultCache.put(cacheKey.get(), resultSet);
+        }
+        return result;
+    }
+
+    /**
+     * Like {@link #execute(Query)} but the result set is a lazy view over the queried table (see
+     * {@link ResultForm#VIEW}). The result cache is not used.
+     */
+    public QueryResult executeView(Query query) {
+        return executeProfiled(query, defaultExecutionMode, ResultForm.VIEW).result();
+    }
+
+    /**
+     * The result of a query along with the statistics that were observed while executing it.
+     *
+     * @param statistics the statistics of each node of the query, in a depth-first order starting with the root. This
+     *                   is empty when the query failed verification.
+     */
+    public record ProfiledQueryResult(QueryResult result, List<NodeStatistics> statistics) {}
+
+    /**
+     * Like {@link #execute(Query, ExecutionMode)} but also report the statistics of the criteria of each node and the
+     * evaluation order that was decided from them. See {@link NodeStatistics}.
+     */
+    public ProfiledQueryResult executeProfiled(Query query, ExecutionMode executionMode) {
+        return executeProfiled(query, executionMode, ResultForm.MATERIALIZED);
+    }
+
+    /**
+     * Like {@link #executeProfiled(Query, ExecutionMode)} but with the given form of the result set.
+     */
+    public ProfiledQueryResult executeProfiled(Query query, ExecutionMode executionMode, ResultForm resultForm) {
         if (!tables.containsKey(query.tableName)) {
             var msg = "The query targets the table '%s' but that table is not registered".formatted(query.tableName);
-            return new QueryResult.Failure(msg);
+            return new ProfiledQueryResult(new QueryResult.Failure(msg), List.of());
         }
 
         Table table = tables.get(query.tableName);
 
         Verifier.VerificationResult verificationResult = verifier.verify(query, table);
 
-        ExecutionContext executionContext;
+        ExecutionPlan executionPlan;
         if (verificationResult instanceof Verifier.VerificationResult.IllegalQuery(var message)) {
-            return new QueryResult.Failure(message);
+            return new ProfiledQueryResult(new QueryResult.Failure(message), List.of());
         } else if (verificationResult instanceof Verifier.VerificationResult.LegalQuery legalQuery) {
-            executionContext = legalQuery.executionContext();
+            executionPlan = legalQuery.executionPlan();
         } else {
             throw new IllegalStateException("Unexpected verification result: " + verificationResult);
         }
 
-        // Algorithm working notes. We need to "prune from the leaves". Visit each leaf node, apply the scalar criterion
-        // to filter down the data, and then prune the parent table by the associations, and repeat until we reach the
-        // root. Do this for each leaf.
-        Deque<ExecutionContext.Node> leaves = new ArrayDeque<>();
+        if (!executionPlan.parameters().isEmpty()) {
+            return new ProfiledQueryResult(new QueryResult.Failure(unboundParametersMessage(executionPlan.parameters().keySet())), List.of());
+        }
+
+        return run(executionPlan.instantiate(Bindings.EMPTY), executionPlan, executionMode, resultForm, bitmapCache);
+    }
+
+    private static String unboundParametersMessage(Set<String> parameters) {
+        return "The query has parameters %s. Use 'prepare' and then bind values to the parameters.".formatted(parameters);
+    }
+
+    /**
+     * Execute the query and open a cursor over its result set. The matching rows are found up front but the result set
+     * is never materialized. The batches are read straight from the queried table (see {@link ResultCursor}). The
+     * result cache is not used.
+     */
+    @Override
+    public CursorResult cursor(Query query, int batchCapacity) {
+        return switch (prepare(query)) {
+            case PrepareResult.Failure(var message) -> new CursorResult.Failure(message);
+            case PrepareResult.Prepared(var preparedQuery) when !preparedQuery.parameters().isEmpty() ->
+                    new CursorResult.Failure(unboundParametersMessage(preparedQuery.parameters()));
+            case PrepareResult.Prepared(var preparedQuery) -> new CursorResult.Opened(preparedQuery.cursor(Bindings.EMPTY, batchCapacity));
+        };
+    }
+
+    /**
+     * Execute the query and aggregate its matching rows. The aggregates are evaluated straight from the matching rows
+     * of the root node (see {@link Aggregation}). The result cache is not used.
+     */
+    @Override
+    public AggregateResult aggregate(Query query) {
+        return switch (prepare(query)) {
+            case PrepareResult.Failure(var message) -> new AggregateResult.Failure(message);
+            case PrepareResult.Prepared(var preparedQuery) when !preparedQuery.parameters().isEmpty() ->
+                    new AggregateResult.Failure(unboundParametersMessage(preparedQuery.parameters()));
+            case PrepareResult.Prepared(var preparedQuery) -> preparedQuery.aggregate(Bindings.EMPTY);
+        };
+    }
+
+    /**
+     * The result of preparing a query. See {@link #prepare(Query)}.
+     */
+    public sealed interface PrepareResult {
+
+        record Prepared(PreparedQuery preparedQuery) implements PrepareResult {}
+
+        record Failure(String message) implements PrepareResult {}
+    }
+
+    /**
+     * Verify the query once so that it can be executed many times, with different values bound to its parameters (see
+     * {@link dgroomes.data_system.Criteria.IntParameter} and {@link dgroomes.data_system.Criteria.StringParameter}).
+     * <p>
+     * The prepared query is bound to the table that is registered now. Registering a different table under the same
+     * name later does not affect it.
+     */
+    public PrepareResult prepare(Query query) {
+        if (!tables.containsKey(query.tableName)) {
+            var msg = "The query targets the table '%s' but that table is not registered".formatted(query.tableName);
+            return new PrepareResult.Failure(msg);
+        }
+
+        return switch (verifier.verify(query, tables.get(query.tableName))) {
+            case Verifier.VerificationResult.IllegalQuery(var message) -> new PrepareResult.Failure(message);
+            case Verifier.VerificationResult.LegalQuery(var executionPlan) ->
+                    new PrepareResult.Prepared(new PreparedQuery(executionPlan, defaultExecutionMode, bitmapCache));
+        };
+    }
 
-        // Let's find the leaf nodes. In the same loop, we also apply 'self' filtering on each node.
-        Deque<ExecutionContext.Node> nodes = new ArrayDeque<>();
-        nodes.push(executionContext.rootNode);
-        while (!nodes.isEmpty()) {
-            ExecutionContext.Node node = nodes.pop();
-            node.filterSelf();
-            List<ExecutionContext.Node> childNodes = node.childNodes();
-            if (childNodes.isEmpty()) {
-                leaves.push(node);
-            } else {
-                nodes.addAll(childNodes);
+    /**
+     * Execute a verified and bound query.
+     */
+    static ProfiledQueryResult run(ExecutionContext executionContext, ExecutionPlan executionPlan, ExecutionMode executionMode, ResultForm resultForm, BitmapCache bitmapCache) {
+        filter(executionContext, executionMode, bitmapCache);
+
+        // Prune the table down to the rows at the matching indices This represents the final "result set" of the query.
+        //
+        // An ordered (or limited) result set is always materialized. The rows are copied in the order of the result set.
+        Table table = executionPlan.resultTable();
+        var matchingRows = executionContext.matchingRows();
+        Table subset;
+        if (executionPlan.rowOrder() != null) {
+            subset = table.subset(executionPlan.rowOrder().apply(matchingRows.iterator(), matchingRows.cardinality()));
+        } else {
+            subset = switch (resultForm) {
+                case MATERIALIZED -> table.subset(matchingRows);
+                case VIEW -> table.view(matchingRows);
+            };
+        }
+        var statistics = nodes(executionContext).stream().map(ExecutionContext.Node::statistics).toList();
+        return new ProfiledQueryResult(new QueryResult.Success(subset), statistics);
+    }
+
+    /**
+     * Find the matching rows of a verified and bound query. When this is done, the root node's matching rows are the
+     * rows of the result set.
+     */
+    static void filter(ExecutionContext executionContext, ExecutionMode executionMode, BitmapCache bitmapCache) {
+        switch (executionMode) {
+            case LEAVES_UP -> executionContext.rootNode.filterSubtree(bitmapCache);
+            case SIDEWAYS -> {
+                filterSideways(executionContext);
+                pruneFromLeaves(executionContext);
             }
         }
+    }
+
+    /**
+     * Algorithm working notes. We need to "prune from the leaves". Visit each leaf node, and prune the parent table by
+     * the associations, and repeat until we reach the root. Do this for each leaf.
+     */
+    private static void pruneFromLeaves(ExecutionContext executionContext) {
+        Deque<ExecutionContext.Node> leaves = new ArrayDeque<>();
+        for (ExecutionContext.Node node : nodes(executionContext)) {
+            if (node.childNodes().isEmpty()) leaves.push(node);
+        }
 
         // Filter upwards from the leaves, via associations.
         while (!leaves.isEmpty()) {
@@ -95,9 +414,62 @@ public class DataSystemSerialIndices implements DataSystem {
             ExecutionContext.Node parent = leaf.parent;
             if (parent != null) leaves.push(parent);
         }
+    }
 
-        // Prune the table down to the rows at the matching indices This represents the final "result set" of the query.
-        Table subset = table.subset(executionContext.matchingRows());
-        return new QueryResult.Success(subset);
+    /**
+     * Apply the scalar criteria of the most selective node with a full scan and then spread outwards from it (see
+     * {@link ExecutionMode#SIDEWAYS}).
+     * <p>
+     * This is correct because every row that ends up in the result set is connected, through associations, to at
+     * least one matching row of every node. In particular, the most selective node. So a row that can't be reached
+     * from the matching rows of that node can be dropped before its own criteria are even evaluated.
+     */
+    private static void filterSideways(ExecutionContext executionContext) {
+        List<ExecutionContext.Node> nodes = nodes(executionContext);
+        ExecutionContext.Node seed = nodes.getFirst();
+        long fewestMatches = Long.MAX_VALUE;
+        for (ExecutionContext.Node node : nodes) {
+            long matches = node.estimateMatches();
+            if (matches < fewestMatches) {
+                seed = node;
+                fewestMatches = matches;
+            }
+        }
+
+        seed.filterSelf();
+
+        // Spread outwards through the query graph (it's a tree) in a breadth-first order.
+        Set<ExecutionContext.Node> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<ExecutionContext.Node> toVisit = new ArrayDeque<>();
+        visited.add(seed);
+        toVisit.add(seed);
+        while (!toVisit.isEmpty()) {
+            ExecutionContext.Node node = toVisit.poll();
+            if (node.parent != null && visited.add(node.parent)) {
+                node.parent.filterSelf(node.parentCandidates());
+                toVisit.add(node.parent);
+            }
+            for (ExecutionContext.Node child : node.childNodes()) {
+                if (visited.add(child)) {
+                    child.filterSelf(child.candidatesFromParent());
+                    toVisit.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * All the nodes of the execution context, in a depth-first order starting with the root.
+     */
+    private static List<ExecutionContext.Node> nodes(ExecutionContext executionContext) {
+        List<ExecutionContext.Node> nodes = new ArrayList<>();
+        Deque<ExecutionContext.Node> toVisit = new ArrayDeque<>();
+        toVisit.push(executionContext.rootNode);
+        while (!toVisit.isEmpty()) {
+            ExecutionContext.Node node = toVisit.pop();
+            nodes.add(node);
+            node.childNodes().forEach(toVisit::push);
+        }
+        return nodes;
     }
 }
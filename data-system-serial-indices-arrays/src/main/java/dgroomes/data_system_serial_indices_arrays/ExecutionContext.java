@@ -1,12 +1,14 @@
 package dgroomes.data_system_serial_indices_arrays;
 
-import dgroomes.data_system.Association;
 import dgroomes.data_system.AssociationColumn;
+import dgroomes.data_system.CompressedBitmap;
 import dgroomes.data_system.Criteria;
 import dgroomes.data_system.Table;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.IntPredicate;
@@ -24,7 +26,7 @@ public class ExecutionContext {
     /**
      * When the matching phase is complete, the root node's matching rows can be taken as the final matching rows.
      */
-    public BitSet matchingRows() {
+    public CompressedBitmap matchingRows() {
         return rootNode.matchingBits;
     }
 
@@ -37,12 +39,27 @@ public class ExecutionContext {
      */
     public static class Node {
 
-        private final List<IntPredicate> columnPredicates = new ArrayList<>();
+        /**
+         * The criteria of the node, in the order that they are evaluated. The order adapts to the statistics that are
+         * observed during evaluation. See {@link #evaluate}.
+         */
+        private final List<Criterion> criteria = new ArrayList<>();
+        private int morselsEvaluated;
+        private int reorders;
+        private BitmapCache.SubtreeKey subtreeKey;
+        final String path;
         final Table table;
-        private final BitSet matchingBits;
+
+        /**
+         * The matching rows are kept compressed (see {@link CompressedBitmap}) because they are retained for the whole
+         * execution, and even beyond it in the {@link BitmapCache}. The criteria themselves are evaluated over the
+         * dense words of one morsel at a time (see {@link #matching}) because that's what the bulk scans write to.
+         */
+        private CompressedBitmap matchingBits;
 
         final Node parent;
         private final AssociationColumn associationToParent;
+        private final AssociationColumn associationFromParent;
 
         public List<Node> childNodes() {
             return List.copyOf(childNodes);
@@ -50,19 +67,41 @@ public class ExecutionContext {
 
         private final List<Node> childNodes = new ArrayList<>();
 
-        private Node(Table table, Node parent, AssociationColumn associationToParent) {
+        private Node(String path, Table table, Node parent, AssociationColumn associationToParent, AssociationColumn associationFromParent) {
+            this.path = path;
             this.table = table;
             this.parent = parent;
             this.associationToParent = associationToParent;
-            this.matchingBits = new BitSet(table.size());
+            this.associationFromParent = associationFromParent;
+            this.matchingBits = new CompressedBitmap();
         }
 
-        public void addColumnPredicate(IntPredicate columnPredicate) {
-            columnPredicates.add(columnPredicate);
+        /**
+         * @param description a human-readable description of the predicate, for the statistics
+         */
+        public void addColumnPredicate(String description, IntPredicate columnPredicate) {
+            criteria.add(new Criterion(description, null, columnPredicate));
+        }
+
+        /**
+         * @param description a human-readable description of the scan, for the statistics
+         */
+        public void addColumnScan(String description, ColumnScan columnScan) {
+            criteria.add(new Criterion(description, columnScan, null));
+        }
+
+        /**
+         * Set the key of this node's subtree for the {@link BitmapCache}. Nodes without a key are never cached.
+         */
+        void setSubtreeKey(BitmapCache.SubtreeKey subtreeKey) {
+            this.subtreeKey = subtreeKey;
         }
 
-        public Node createChildNode(AssociationColumn associationToChild) {
-            var childNode = new Node(associationToChild.associatedEntity(), this, associationToChild.reverseAssociatedColumn());
+        /**
+         * @param ordinal the ordinal of the association column (only used to describe the node)
+         */
+        public Node createChildNode(int ordinal, AssociationColumn associationToChild) {
+            var childNode = new Node(path + "." + ordinal, associationToChild.associatedEntity(), this, associationToChild.reverseAssociatedColumn(), associationToChild);
             childNodes.add(childNode);
             return childNode;
         }
@@ -77,22 +116,226 @@ public class ExecutionContext {
          * based on the result of other nodes.
          */
         public void filterSelf() {
-            // Combine all the predicates using the convenient "and" method.
-            Optional<IntPredicate> combinedPredicateOpt = columnPredicates.stream().reduce(IntPredicate::and);
+            matchingBits = matching(null);
+        }
+
+        /**
+         * Like {@link #filterSelf()} but only the given candidate rows are considered. Rows that aren't candidates never
+         * match. This is much cheaper than a full scan when there are few candidates.
+         */
+        public void filterSelf(CompressedBitmap candidates) {
+            matchingBits = matching(candidates);
+        }
+
+        /**
+         * Estimate the number of matching rows by evaluating the criteria on a sample of the rows. The sample is made of
+         * whole words (64 rows each) that are spread evenly over the table, so that the bulk scans can be used. A small
+         * table is sampled in full, so its estimate is exact.
+         * <p>
+         * The estimate has no side effects. The criteria are applied directly, not through {@link #evaluate}, so the
+         * sample doesn't count towards the statistics or the sampled morsels, and it doesn't reorder the criteria.
+         */
+        public long estimateMatches() {
+            int size = table.size();
+            if (criteria.isEmpty() || size == 0) return size;
+
+            int wordCount = wordCount();
+            int sampleWords = Math.min(SAMPLE_WORDS, wordCount);
+            long sampleRows = 0;
+            long sampleMatches = 0;
+            var word = new long[1];
+            var scratch = new long[1];
+            for (int s = 0; s < sampleWords; s++) {
+                int w = (int) ((long) s * wordCount / sampleWords);
+                fillAll(word, w, 1);
+                sampleRows += Long.bitCount(word[0]);
+                for (Criterion criterion : criteria) {
+                    criterion.apply(word, scratch, w, 1, size);
+                    if (word[0] == 0) break;
+                }
+                sampleMatches += Long.bitCount(word[0]);
+            }
+            return (long) Math.ceil((double) sampleMatches / sampleRows * size);
+        }
+
+        private static final int SAMPLE_WORDS = 16;
+
+        /**
+         * The number of words (64 rows each) in a morsel. The evaluation order of the criteria is only ever changed
+         * between morsels.
+         */
+        private static final int MORSEL_WORDS = 64;
+
+        /**
+         * The number of morsels, at the start of the node's evaluation, that are used to sample the statistics of the
+         * criteria.
+         */
+        private static final int SAMPLED_MORSELS = 2;
+
+        /**
+         * After the first sampled morsels, one in every this many morsels is sampled again. The data may not be
+         * uniform, so the statistics (and the order) are re-checked periodically.
+         */
+        private static final int RESAMPLE_INTERVAL = 32;
+
+        private int wordCount() {
+            return (table.size() + 63) >>> 6;
+        }
+
+        /**
+         * Set the words to the words {@code [fromWord, fromWord + wordCount)} of a bitmap of all the rows of the table.
+         */
+        private void fillAll(long[] words, int fromWord, int wordCount) {
+            int size = table.size();
+            Arrays.fill(words, 0, wordCount, -1L);
+            int lastWord = fromWord + wordCount - 1;
+            if (lastWord == (size - 1) >>> 6 && (size & 63) != 0) words[wordCount - 1] = (1L << size) - 1;
+        }
+
+        /**
+         * Evaluate the criteria on the candidate rows (or all the rows, when there are no candidates) and return the
+         * matching rows, compressed.
+         * <p>
+         * The rows are evaluated one morsel at a time. The candidates of a morsel are copied into morsel-sized words, the
+         * criteria clear the bits of the rows that don't match, and what is left is appended to the result. So the
+         * table is never materialized as dense words: besides the result, only a few morsels' worth of words are held.
+         * <p>
+         * When there are candidates, only the morsels that have at least one candidate are visited. The morsels in
+         * between are skipped without being looked at.
+         */
+        private CompressedBitmap matching(CompressedBitmap candidates) {
+            int wordCount = wordCount();
+            if (criteria.isEmpty()) {
+                // When there are no criteria, technically, all candidates match.
+                return candidates != null ? candidates : new CompressedBitmap.Builder().addRange(0, table.size()).build();
+            }
+
+            var matching = new CompressedBitmap.Builder();
+            var words = new long[MORSEL_WORDS];
+            var scratch = new long[MORSEL_WORDS];
+            for (int fromWord = nextMorsel(candidates, 0); fromWord < wordCount; fromWord = nextMorsel(candidates, fromWord + MORSEL_WORDS)) {
+                int morselWords = Math.min(MORSEL_WORDS, wordCount - fromWord);
+                if (candidates == null) {
+                    fillAll(words, fromWord, morselWords);
+                } else {
+                    Arrays.fill(words, 0L);
+                    candidates.copyWords(fromWord, words);
+                }
+                evaluate(words, scratch, fromWord, morselWords);
+                matching.appendWords(fromWord, words, morselWords);
+            }
+            return matching.build();
+        }
+
+        /**
+         * The first word of the first morsel, at or after the given morsel, that has a candidate. When there are no
+         * candidates (all rows are candidates), that is just the given morsel.
+         */
+        private int nextMorsel(CompressedBitmap candidates, int fromWord) {
+            if (candidates == null || fromWord >= wordCount()) return fromWord;
+            int row = candidates.nextSetBit(fromWord << 6);
+            if (row < 0) return wordCount();
+            return (row >>> 6) & -MORSEL_WORDS;
+        }
+
+        /**
+         * Evaluate the criteria on the candidate rows of one morsel and clear the bits of the rows that don't match. The
+         * words are the words {@code [fromWord, fromWord + wordCount)} of a bitmap that is laid out like the words of a
+         * {@link BitSet}, so {@code words[0]} is word {@code fromWord}.
+         * <p>
+         * This is where the criteria are adaptively ordered. Each criterion is only evaluated on the rows that survived
+         * the criteria before it, so the cheapest and most selective criteria should go first. But we can't know which
+         * criteria those are until we try them. On a "sampled" morsel, each criterion is evaluated independently on all
+         * the candidates of the morsel, and its selectivity and cost per row are recorded. Then the criteria are
+         * reordered by rank (see {@link Criterion#rank()}). The other morsels just evaluate the criteria in the current
+         * order.
+         * <p>
+         * The bulk scans only run over the words that have candidates.
+         *
+         * @param scratch words of the same length that are all zeros. They are left that way.
+         */
+        private void evaluate(long[] words, long[] scratch, int fromWord, int wordCount) {
+            int size = table.size();
+            long candidateCount = bitCount(words, 0, wordCount);
+            if (candidateCount == 0) return;
+
+            boolean sample = criteria.size() > 1 && (morselsEvaluated < SAMPLED_MORSELS || morselsEvaluated % RESAMPLE_INTERVAL == 0);
+            morselsEvaluated++;
 
-            if (combinedPredicateOpt.isEmpty()) {
-                // When there are no predicates, there is no specific filtering work to do. Technically, all rows match.
-                matchingBits.set(0, table.size());
+            if (!sample) {
+                for (Criterion criterion : criteria) {
+                    criterion.apply(words, scratch, fromWord, wordCount, size);
+                    long matchCount = bitCount(words, 0, wordCount);
+                    criterion.rowsEvaluated += candidateCount;
+                    criterion.rowsMatched += matchCount;
+                    candidateCount = matchCount;
+                    if (candidateCount == 0) break;
+                }
                 return;
             }
 
-            var combinedPredicate = combinedPredicateOpt.get();
+            long[] candidates = Arrays.copyOf(words, wordCount);
+            long[] trial = new long[wordCount];
+            for (Criterion criterion : criteria) {
+                System.arraycopy(candidates, 0, trial, 0, wordCount);
+                long start = System.nanoTime();
+                criterion.apply(trial, scratch, fromWord, wordCount, size);
+                long nanos = System.nanoTime() - start;
+                long matchCount = bitCount(trial, 0, wordCount);
+                criterion.sampledRows += candidateCount;
+                criterion.sampledMatches += matchCount;
+                criterion.sampledNanos += nanos;
+                criterion.rowsEvaluated += candidateCount;
+                criterion.rowsMatched += matchCount;
+                for (int w = 0; w < wordCount; w++) words[w] &= trial[w];
+            }
 
-            for (int i = 0; i < table.size(); i++) {
-                if (combinedPredicate.test(i)) matchingBits.set(i);
+            List<Criterion> reordered = new ArrayList<>(criteria);
+            reordered.sort(Comparator.comparingDouble(Criterion::rank));
+            if (!reordered.equals(criteria)) {
+                criteria.clear();
+                criteria.addAll(reordered);
+                reorders++;
             }
         }
 
+        private static long bitCount(long[] words, int fromWord, int toWord) {
+            long count = 0;
+            for (int w = fromWord; w < toWord; w++) count += Long.bitCount(words[w]);
+            return count;
+        }
+
+        /**
+         * The statistics that were observed while evaluating the criteria of this node, with the criteria in their
+         * current evaluation order.
+         */
+        public NodeStatistics statistics() {
+            var criterionStatistics = criteria.stream()
+                    .map(c -> new NodeStatistics.CriterionStatistics(c.description, c.sampledRows, c.selectivity(), c.nanosPerRow(), c.rowsEvaluated, c.rowsMatched))
+                    .toList();
+            return new NodeStatistics(path, criterionStatistics, reorders);
+        }
+
+        /**
+         * The rows of the parent that are associated from the matching rows of this node. This is a "sideways" pass of
+         * information, upwards.
+         */
+        public CompressedBitmap parentCandidates() {
+            var candidates = new CompressedBitmap.Builder();
+            associationToParent.propagate(matchingBits, candidates);
+            return candidates.build();
+        }
+
+        /**
+         * The rows of this node that are associated from the matching rows of the parent. This is a "sideways" pass of
+         * information, downwards.
+         */
+        public CompressedBitmap candidatesFromParent() {
+            var candidates = new CompressedBitmap.Builder();
+            associationFromParent.propagate(parent.matchingBits, candidates);
+            return candidates.build();
+        }
+
         /**
          * This is an "upwards" filter. This method narrows that parent node's matching bits to the rows of the
          * parent that are associated from rows in the current node.
@@ -100,31 +343,129 @@ public class ExecutionContext {
         public void filterParent() {
             if (parent == null) return; // The root node is the only node without a parent.
 
-            var parentMatchingBitsByAssociation = new BitSet(parent.table.size());
+            var parentMatchingBitsByAssociation = new CompressedBitmap.Builder();
+            associationToParent.propagate(matchingBits, parentMatchingBitsByAssociation);
+            parent.matchingBits = parent.matchingBits.and(parentMatchingBitsByAssociation.build());
+        }
+
+        /**
+         * Filter this node and its whole subtree, bottom-up: each child's subtree is filtered and then the child narrows
+         * this node's matching rows (see {@link #filterParent()}).
+         * <p>
+         * When this is done, the matching rows only depend on the subtree. So they are looked up in, and saved to, the
+         * bitmap cache. On a hit, the subtree isn't evaluated at all.
+         */
+        public void filterSubtree(BitmapCache bitmapCache) {
+            boolean cacheable = subtreeKey != null && bitmapCache.isEnabled();
+            if (cacheable) {
+                Optional<CompressedBitmap> cached = bitmapCache.get(subtreeKey);
+                if (cached.isPresent()) {
+                    // Note: the cached bitmap is shared. That's ok because matching rows are never modified in place.
+                    // The set operations of a compressed bitmap return new bitmaps.
+                    matchingBits = cached.get();
+                    return;
+                }
+            }
+
+            filterSelf();
+            for (Node child : childNodes) {
+                child.filterSubtree(bitmapCache);
+                child.filterParent();
+            }
 
-            for (int i = 0; i < table.size(); i++) {
-                if (!matchingBits.get(i)) continue;
+            if (cacheable) bitmapCache.put(subtreeKey, matchingBits);
+        }
+    }
 
-                Association upwardsAssociation = associationToParent.associationsForIndex(i);
+    /**
+     * One criterion of a node, in the form that is cheapest to evaluate: either a bulk {@link ColumnScan} or an opaque
+     * predicate. It also keeps the statistics that were observed while evaluating it.
+     */
+    private static final class Criterion {
 
-                switch (upwardsAssociation) {
-                    case Association.Many(var indices) -> {
-                        for (int index : indices) parentMatchingBitsByAssociation.set(index);
+        final String description;
+        private final ColumnScan scan;
+        private final IntPredicate predicate;
+
+        long sampledRows;
+        long sampledMatches;
+        long sampledNanos;
+        long rowsEvaluated;
+        long rowsMatched;
+
+        private Criterion(String description, ColumnScan scan, IntPredicate predicate) {
+            this.description = description;
+            this.scan = scan;
+            this.predicate = predicate;
+        }
+
+        /**
+         * Clear the bits of the candidate rows that don't match. The words are the words
+         * {@code [fromWord, fromWord + wordCount)} of the bitmap, so {@code words[0]} is word {@code fromWord}. The
+         * scratch words must be all zeros, and they are left that way.
+         */
+        void apply(long[] words, long[] scratch, int fromWord, int wordCount, int size) {
+            if (scan != null) {
+                // Scan each run of words that have candidates. The scan writes its words starting at scratch[0].
+                int w = 0;
+                while (w < wordCount) {
+                    if (words[w] == 0) {
+                        w++;
+                        continue;
                     }
-                    case Association.One(var index) -> parentMatchingBitsByAssociation.set(index);
-                    case Association.None ignored -> {
-                        // No-op
+                    int runEnd = w + 1;
+                    while (runEnd < wordCount && words[runEnd] != 0) runEnd++;
+                    scan.scan((fromWord + w) << 6, Math.min((fromWord + runEnd) << 6, size), scratch);
+                    for (int k = 0; w < runEnd; w++, k++) {
+                        words[w] &= scratch[k];
+                        scratch[k] = 0;
                     }
                 }
+                return;
             }
 
-            parent.matchingBits.and(parentMatchingBitsByAssociation);
+            for (int w = 0; w < wordCount; w++) {
+                long word = words[w];
+                for (long remaining = word; remaining != 0; remaining &= remaining - 1) {
+                    int i = ((fromWord + w) << 6) + Long.numberOfTrailingZeros(remaining);
+                    if (!predicate.test(i)) word &= ~(1L << i);
+                }
+                words[w] = word;
+            }
+        }
+
+        double selectivity() {
+            return sampledRows == 0 ? 1.0 : (double) sampledMatches / sampledRows;
+        }
+
+        double nanosPerRow() {
+            return sampledRows == 0 ? 0.0 : (double) sampledNanos / sampledRows;
+        }
+
+        /**
+         * The rank of the criterion. Lower ranks are evaluated first. This is the classic rank for ordering independent
+         * filters: the cost per row divided by the fraction of rows that are filtered out. A criterion that never
+         * filters anything out goes last no matter how cheap it is.
+         */
+        double rank() {
+            double filteredOut = 1.0 - selectivity();
+            return filteredOut <= 0 ? Double.POSITIVE_INFINITY : nanosPerRow() / filteredOut;
         }
     }
 
+    /**
+     * A "bulk" filter over the rows of a node's table. It sets the bits of the matching rows in the range
+     * {@code [fromIndex, toIndex)}, in words that start at the word of {@code fromIndex}. See
+     * {@link dgroomes.data_system.ColumnFilterable.IntegerColumnFilterable#scan}.
+     */
+    @FunctionalInterface
+    public interface ColumnScan {
+        void scan(int fromIndex, int toIndex, long[] words);
+    }
+
     public final Node rootNode;
 
     public ExecutionContext(Table rootTable) {
-        this.rootNode = new Node(rootTable, null, null);
+        this.rootNode = new Node("root", rootTable, null, null, null);
     }
 }
@@ -0,0 +1,106 @@
+package dgroomes.data_system_serial_indices_arrays;
+
+import dgroomes.data_system.AssociationColumn;
+import dgroomes.data_system.Bindings;
+import dgroomes.data_system.Criteria;
+import dgroomes.data_system.RowOrder;
+import dgroomes.data_system.Table;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A verified query. This is the output of the {@link Verifier}.
+ * <p>
+ * Unlike an {@link ExecutionContext}, a plan is immutable. It is a template from which an execution context is
+ * instantiated for each execution. This is what lets a query be verified once and then executed many times, and even
+ * from many threads at once. See {@link PreparedQuery}.
+ *
+ * @param parameters  the types of the parameters of the query, by name. The type is either
+ *                    {@link dgroomes.data_system.Criteria.IntExpression} or
+ *                    {@link dgroomes.data_system.Criteria.StringExpression}.
+ * @param resultTable the table that the result set is cut from. This is the queried table narrowed to the projection of
+ *                    the query (see {@link dgroomes.data_system.Query#select(int...)}), so only the selected columns are
+ *                    copied.
+ * @param aggregation the resolved aggregates and group-by of the query, or null when the query has none
+ * @param rowOrder    the resolved ordering and limit of the query, or null when the query has none
+ */
+public record ExecutionPlan(Table table, Node rootNode, Map<String, Class<?>> parameters, Table resultTable, Aggregation aggregation, RowOrder rowOrder) {
+
+    /**
+     * @param ordinal            the ordinal of the association column in the parent node that leads to this node. It is
+     *                           not used for the root node.
+     * @param associationToChild the association column in the parent node that leads to this node. This is null for the
+     *                           root node.
+     * @param queryCriteria      the criteria of the query node, as they were given. These are for the
+     *                           {@link BitmapCache}.
+     * @param criteria           the criteria of the node in their initial evaluation order
+     */
+    record Node(int ordinal, AssociationColumn associationToChild, List<Criteria> queryCriteria, List<CriterionTemplate> criteria, List<Node> childNodes) {}
+
+    /**
+     * A criterion that has been verified and "lowered" but that may still need to be bound to the values of its
+     * parameters. It adds itself to the execution node (see {@link ExecutionContext.Node#addColumnScan} and
+     * {@link ExecutionContext.Node#addColumnPredicate}).
+     */
+    @FunctionalInterface
+    interface CriterionTemplate {
+        void addTo(ExecutionContext.Node node, Bindings bindings);
+    }
+
+    /**
+     * Create a new execution context for this plan, with the criteria bound to the given values.
+     *
+     * @throws IllegalArgumentException if a parameter is not bound, or if it is bound to a value of the wrong type
+     */
+    public ExecutionContext instantiate(Bindings bindings) {
+        var executionContext = new ExecutionContext(table);
+        instantiate(rootNode, table, executionContext.rootNode, bindings);
+        return executionContext;
+    }
+
+    /**
+     * @return the key of the subtree for the {@link BitmapCache}, or null if the subtree can't be cached
+     */
+    private static BitmapCache.SubtreeKey instantiate(Node planNode, Table table, ExecutionContext.Node executionNode, Bindings bindings) {
+        for (var criterion : planNode.criteria()) {
+            criterion.addTo(executionNode, bindings);
+        }
+
+        boolean cacheable = true;
+        Map<Integer, BitmapCache.SubtreeKey> childKeysByOrdinal = new HashMap<>();
+        for (var childPlanNode : planNode.childNodes()) {
+            var childExecutionNode = executionNode.createChildNode(childPlanNode.ordinal(), childPlanNode.associationToChild());
+            var childKey = instantiate(childPlanNode, childPlanNode.associationToChild().associatedEntity(), childExecutionNode, bindings);
+            if (childKey == null) {
+                cacheable = false;
+            } else {
+                childKeysByOrdinal.put(childPlanNode.ordinal(), childKey);
+            }
+        }
+
+        Set<Criteria> boundCriteria = new HashSet<>();
+        for (var criterion : planNode.queryCriteria()) {
+            Criteria bound = switch (criterion) {
+                case Criteria.IntCriteria(var ordinal, Criteria.IntParameter(var name)) -> new Criteria.IntCriteria(ordinal, bindings.intValue(name));
+                case Criteria.StringCriteria(var ordinal, Criteria.StringParameter(var name)) -> new Criteria.StringCriteria(ordinal, bindings.stringValue(name));
+                case Criteria.IntCriteria intCriteria when intCriteria.integerPredicate() instanceof Criteria.IntExpression -> intCriteria;
+                case Criteria.StringCriteria stringCriteria when stringCriteria.stringPredicate() instanceof Criteria.StringExpression -> stringCriteria;
+                default -> null; // Lambdas can't be compared.
+            };
+            if (bound == null) {
+                cacheable = false;
+            } else {
+                boundCriteria.add(bound);
+            }
+        }
+
+        if (!cacheable) return null;
+        var key = new BitmapCache.SubtreeKey(table, Set.copyOf(boundCriteria), Map.copyOf(childKeysByOrdinal));
+        executionNode.setSubtreeKey(key);
+        return key;
+    }
+}
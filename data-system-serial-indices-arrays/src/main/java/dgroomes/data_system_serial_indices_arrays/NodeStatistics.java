@@ -0,0 +1,27 @@
+package dgroomes.data_system_serial_indices_arrays;
+
+import java.util.List;
+
+/**
+ * The statistics that were observed while evaluating the criteria of one node of a query, and the evaluation order that
+ * was decided from them. See {@link ExecutionContext.Node#statistics()}.
+ *
+ * @param node     the path of the node in the query. The root node is "root" and a child node is its parent's path plus
+ *                 the ordinal of the association column, like "root.2.1".
+ * @param criteria the criteria of the node, in their final evaluation order
+ * @param reorders the number of times that the evaluation order was changed
+ */
+public record NodeStatistics(String node, List<CriterionStatistics> criteria, int reorders) {
+
+    /**
+     * @param description   a description of the criterion, like "column 1: IntBetween[min=1000, max=2147483647]"
+     * @param sampledRows   the number of rows that the criterion was evaluated on while sampling. When sampling, each
+     *                      criterion is evaluated on the same rows, independently of the other criteria.
+     * @param selectivity   the fraction of the sampled rows that matched
+     * @param nanosPerRow   the cost of evaluating the criterion on one sampled row
+     * @param rowsEvaluated the total number of rows that the criterion was evaluated on
+     * @param rowsMatched   the total number of rows that matched
+     */
+    public record CriterionStatistics(String description, long sampledRows, double selectivity, double nanosPerRow,
+                                      long rowsEvaluated, long rowsMatched) {}
+}
@@ -0,0 +1,111 @@
+package dgroomes.data_system_serial_indices_arrays;
+
+import dgroomes.data_system.AggregateResult;
+import dgroomes.data_system.Bindings;
+import dgroomes.data_system.QueryResult;
+import dgroomes.data_system.ResultCursor;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A query that has been verified once and can be executed many times, with different values bound to its parameters.
+ * See {@link DataSystemSerialIndices#prepare(dgroomes.data_system.Query)}.
+ * <p>
+ * Executing a prepared query skips the verification. It only instantiates a fresh {@link ExecutionContext} from the
+ * (immutable) {@link ExecutionPlan} and runs it. Because each execution has its own execution context, a prepared query
+ * is safe to execute from many threads at once.
+ */
+public final class PreparedQuery {
+
+    private final ExecutionPlan executionPlan;
+    private final DataSystemSerialIndices.ExecutionMode defaultExecutionMode;
+    private final BitmapCache bitmapCache;
+
+    PreparedQuery(ExecutionPlan executionPlan, DataSystemSerialIndices.ExecutionMode defaultExecutionMode, BitmapCache bitmapCache) {
+        this.executionPlan = executionPlan;
+        this.defaultExecutionMode = defaultExecutionMode;
+        this.bitmapCache = bitmapCache;
+    }
+
+    /**
+     * The names of the parameters of the query.
+     */
+    public Set<String> parameters() {
+        return executionPlan.parameters().keySet();
+    }
+
+    /**
+     * @throws IllegalArgumentException if a parameter is not bound, or if it is bound to a value of the wrong type
+     */
+    public QueryResult execute(Bindings bindings) {
+        return execute(bindings, defaultExecutionMode);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a parameter is not bound, or if it is bound to a value of the wrong type
+     */
+    public QueryResult execute(Bindings bindings, DataSystemSerialIndices.ExecutionMode executionMode) {
+        return executeProfiled(bindings, executionMode).result();
+    }
+
+    /**
+     * Like {@link #execute(Bindings)} but the result set is a lazy view. See
+     * {@link DataSystemSerialIndices.ResultForm#VIEW}.
+     *
+     * @throws IllegalArgumentException if a parameter is not bound, or if it is bound to a value of the wrong type
+     */
+    public QueryResult executeView(Bindings bindings) {
+        return executeProfiled(bindings, defaultExecutionMode, DataSystemSerialIndices.ResultForm.VIEW).result();
+    }
+
+    /**
+     * See {@link DataSystemSerialIndices#cursor}.
+     *
+     * @throws IllegalArgumentException if a parameter is not bound, or if it is bound to a value of the wrong type
+     */
+    public ResultCursor cursor(Bindings bindings, int batchCapacity) {
+        var executionContext = executionPlan.instantiate(bindings);
+        DataSystemSerialIndices.filter(executionContext, defaultExecutionMode, bitmapCache);
+        var matchingRows = executionContext.matchingRows();
+        if (executionPlan.rowOrder() == null) {
+            return ResultCursor.of(executionPlan.resultTable(), matchingRows.iterator(), batchCapacity);
+        }
+        int[] orderedRows = executionPlan.rowOrder().apply(matchingRows.iterator(), matchingRows.cardinality());
+        return ResultCursor.of(executionPlan.resultTable(), Arrays.stream(orderedRows).iterator(), batchCapacity);
+    }
+
+    /**
+     * See {@link DataSystemSerialIndices#aggregate}.
+     *
+     * @throws IllegalArgumentException if a parameter is not bound, or if it is bound to a value of the wrong type
+     */
+    public AggregateResult aggregate(Bindings bindings) {
+        var aggregation = executionPlan.aggregation();
+        if (aggregation == null) {
+            return new AggregateResult.Failure("The query has no aggregates. Use 'Query.aggregate' to add them.");
+        }
+        var executionContext = executionPlan.instantiate(bindings);
+        DataSystemSerialIndices.filter(executionContext, defaultExecutionMode, bitmapCache);
+        return aggregation.evaluate(executionContext.matchingRows(), executionPlan.table().size());
+    }
+
+    /**
+     * See {@link DataSystemSerialIndices#executeProfiled}.
+     *
+     * @throws IllegalArgumentException if a parameter is not bound, or if it is bound to a value of the wrong type
+     */
+    public DataSystemSerialIndices.ProfiledQueryResult executeProfiled(Bindings bindings, DataSystemSerialIndices.ExecutionMode executionMode) {
+        return executeProfiled(bindings, executionMode, DataSystemSerialIndices.ResultForm.MATERIALIZED);
+    }
+
+    /**
+     * See {@link DataSystemSerialIndices#executeProfiled}.
+     *
+     * @throws IllegalArgumentException if a parameter is not bound, or if it is bound to a value of the wrong type
+     */
+    public DataSystemSerialIndices.ProfiledQueryResult executeProfiled(Bindings bindings, DataSystemSerialIndices.ExecutionMode executionMode, DataSystemSerialIndices.ResultForm resultForm) {
+        var executionContext = executionPlan.instantiate(bindings);
+        return DataSystemSerialIndices.run(executionContext, executionPlan, executionMode, resultForm, bitmapCache);
+    }
+}
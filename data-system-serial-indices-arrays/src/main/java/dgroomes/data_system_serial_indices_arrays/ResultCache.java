@@ -0,0 +1,99 @@
+package dgroomes.data_system_serial_indices_arrays;
+
+import dgroomes.data_system.Criteria;
+import dgroomes.data_system.Query;
+import dgroomes.data_system.Table;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A cache of query result sets.
+ * <p>
+ * The cache is keyed on the structure of the query: the table name, the tree of nodes, the ordinals and the criteria.
+ * Only declarative criteria (see {@link Criteria.IntExpression} and {@link Criteria.StringExpression}) can be compared,
+ * so a query with a lambda or a parameter in it is never cached. The criteria of a node are compared as a set because
+ * they are AND-ed together and so their order doesn't change the result.
+ * <p>
+ * The cache is bounded by the estimated size of the result sets (see {@link Table#estimatedBytes()}). When it is full,
+ * the least recently used entries are evicted (see {@link BoundedLruCache}). Note: a frequency-aware policy like
+ * W-TinyLFU would fare better for "scan-like" workloads but LRU is simple and is a good fit for dashboards that repeat
+ * the same few queries.
+ * <p>
+ * The cache is thread-safe.
+ */
+public final class ResultCache {
+
+    /**
+     * The structural fingerprint of a query.
+     *
+     * @param projection the projection of the query (see {@link Query#select(int...)}). It is empty when the query has
+     *                   no projection.
+     * @param ordering   the ordering of the query (see {@link Query#orderBy(int)}), or null
+     * @param limit      the limit of the query (see {@link Query#limit(int)}), or -1
+     */
+    record Key(String tableName, NodeKey rootNode, List<Integer> projection, Query.Ordering ordering, int limit) {}
+
+    record NodeKey(Set<Criteria> criteria, Map<Integer, NodeKey> childrenByOrdinal) {}
+
+    private final BoundedLruCache<Key, Table> cache;
+
+    /**
+     * @param maxBytes the maximum estimated size of the cached result sets. When it is 0, nothing is cached.
+     */
+    public ResultCache(long maxBytes) {
+        this.cache = new BoundedLruCache<>(maxBytes, Table::estimatedBytes);
+    }
+
+    public boolean isEnabled() {
+        return cache.isEnabled();
+    }
+
+    /**
+     * The fingerprint of the query, or empty if the query can't be cached.
+     */
+    static Optional<Key> key(Query query) {
+        return nodeKey(query.rootNode).map(rootNode -> new Key(query.tableName, rootNode, query.getProjection().orElse(List.of()), query.getOrdering().orElse(null), query.getLimit().orElse(-1)));
+    }
+
+    private static Optional<NodeKey> nodeKey(Query.Node node) {
+        List<Criteria> criteria = node.getCriteria();
+        for (Criteria criterion : criteria) {
+            boolean declarative = switch (criterion) {
+                case Criteria.IntCriteria intCriteria -> intCriteria.integerPredicate() instanceof Criteria.IntExpression;
+                case Criteria.StringCriteria stringCriteria -> stringCriteria.stringPredicate() instanceof Criteria.StringExpression;
+            };
+            if (!declarative) return Optional.empty();
+        }
+
+        Map<Integer, NodeKey> childrenByOrdinal = new HashMap<>();
+        for (var entry : node.getChildrenByOrdinal().entrySet()) {
+            Optional<NodeKey> childKey = nodeKey(entry.getValue());
+            if (childKey.isEmpty()) return Optional.empty();
+            childrenByOrdinal.put(entry.getKey(), childKey.get());
+        }
+        return Optional.of(new NodeKey(Set.copyOf(criteria), Map.copyOf(childrenByOrdinal)));
+    }
+
+    Optional<Table> get(Key key) {
+        return cache.get(key);
+    }
+
+    void put(Key key, Table resultSet) {
+        cache.put(key, resultSet);
+    }
+
+    /**
+     * Drop the result sets of the queries that target the given table.
+     */
+    void invalidate(String tableName) {
+        cache.invalidateIf(key -> key.tableName().equals(tableName));
+    }
+
+    public CacheStatistics statistics() {
+        return cache.statistics();
+    }
+}
@@ -1,29 +1,81 @@
 package dgroomes.data_system_serial_indices_arrays;
 
+import dgroomes.data_system.Aggregate;
 import dgroomes.data_system.AssociationColumn;
 import dgroomes.data_system.Column;
 import dgroomes.data_system.ColumnFilterable;
+import dgroomes.data_system.CompressedBitmap;
 import dgroomes.data_system.Table;
 import dgroomes.data_system.Criteria;
 import dgroomes.data_system.Query;
+import dgroomes.data_system.QueryLowering;
+import dgroomes.data_system.RowOrder;
+import dgroomes.data_system.SortedIndex;
+import dgroomes.data_system.TrigramIndex;
+import dgroomes.data_system.ZoneMaps;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.TreeMap;
 import java.util.function.IntPredicate;
 
 /**
  * A query verifier (or at least, my naive guess at what a query verifier is. Is this a linker? A compiler?).
  * <p>
- * We want to take a {@link Criteria} and create an "execution context" from it. This is a
+ * We want to take a {@link Criteria} and create an "execution plan" from it. This is a
  * graph that is a physical representation of the query execution process. It incorporates tables as nodes.
  */
 public class Verifier {
 
+    private final ZoneMaps zoneMaps;
+    private final Map<ColumnFilterable.IntegerColumnFilterable, SortedIndex> indexes;
+    private final Map<ColumnFilterable.StringColumnFilterable, TrigramIndex> trigramIndexes;
+
+    /**
+     * Create a verifier that doesn't use zone maps or indexes.
+     */
+    public Verifier() {
+        this(new ZoneMaps());
+    }
+
+    /**
+     * @param zoneMaps the zone maps of the registered tables. The range scans of the columns that have a zone map go
+     *                 through it (see {@link dgroomes.data_system.ZoneMap}).
+     */
+    public Verifier(ZoneMaps zoneMaps) {
+        this(zoneMaps, Map.of());
+    }
+
+    /**
+     * @param indexes the sorted indexes of integer columns, by column. A range on an indexed column is looked up in the
+     *                index, instead of scanned, when the index says that the range is selective enough (see
+     *                {@link SortedIndex#isSelective}). The map is read at verification time (and at binding time, for
+     *                parameters), so indexes that are created later are used by later queries.
+     */
+    public Verifier(ZoneMaps zoneMaps, Map<ColumnFilterable.IntegerColumnFilterable, SortedIndex> indexes) {
+        this(zoneMaps, indexes, Map.of());
+    }
+
+    /**
+     * @param trigramIndexes the trigram indexes of string columns, by column. A "contains" or regex criterion on an
+     *                       indexed column only tests the candidate rows of the index (see
+     *                       {@link TrigramIndex#candidates}). Like {@code indexes}, the map is read at verification time.
+     */
+    public Verifier(ZoneMaps zoneMaps, Map<ColumnFilterable.IntegerColumnFilterable, SortedIndex> indexes,
+                    Map<ColumnFilterable.StringColumnFilterable, TrigramIndex> trigramIndexes) {
+        this.zoneMaps = Objects.requireNonNull(zoneMaps, "The 'zoneMaps' argument must not be null");
+        this.indexes = Objects.requireNonNull(indexes, "The 'indexes' argument must not be null");
+        this.trigramIndexes = Objects.requireNonNull(trigramIndexes, "The 'trigramIndexes' argument must not be null");
+    }
+
     public sealed interface VerificationResult {
 
-        record LegalQuery(ExecutionContext executionContext) implements VerificationResult {}
+        record LegalQuery(ExecutionPlan executionPlan) implements VerificationResult {}
 
         record IllegalQuery(String message) implements VerificationResult {}
     }
@@ -35,78 +87,274 @@ public class Verifier {
      * @param query the query to verify and link
      * @param table The table to verify the criteria against
      * @return a {@link VerificationResult} that indicates if the query is legal or not. For legal queries, the result
-     * will contain an {@link ExecutionContext} that can be used to execute the query.
+     * will contain an {@link ExecutionPlan} from which an {@link ExecutionContext} can be instantiated to execute the
+     * query.
      */
     public VerificationResult verify(Query query, Table table) {
         Objects.requireNonNull(query, "The 'query' argument must not be null");
         Objects.requireNonNull(table, "The 'table' argument must not be null");
 
-        var executionContext = new ExecutionContext(table);
+        var rootPlanNode = new PlanNode(table, 0, null);
+        Map<String, Class<?>> parameters = new TreeMap<>();
 
         // Algorithm working notes. We need to descend the query nodes and its child nodes, all the while verifying
         // that ordinals are "legal", meaning they follow columns that exist and are the right type. We turn each
-        // query node into an execution node.
-        record NodeNode(Query.Node queryNode, ExecutionContext.Node executionNode) {}
+        // query node into a plan node.
+        record NodeNode(Query.Node queryNode, PlanNode planNode) {}
         Deque<NodeNode> toVisit = new ArrayDeque<>();
-        toVisit.add(new NodeNode(query.rootNode, executionContext.rootNode));
+        toVisit.add(new NodeNode(query.rootNode, rootPlanNode));
 
         while (!toVisit.isEmpty()) {
             var nodeNode = toVisit.pop();
             var currentQueryNode = nodeNode.queryNode;
-            var currentExecutionNode = nodeNode.executionNode;
+            var currentPlanNode = nodeNode.planNode;
 
-            // Wire up the criteria.
-            for (var criterion : currentQueryNode.getCriteria()) {
-                int ordinal = criterion.ordinal();
+            // Wire up the criteria. They are lowered (see QueryLowering) into the forms that are cheapest to evaluate.
+            // Only the ranges, the string expressions and the parameters are executed differently here:
+            //   * A range may be looked up in a sorted index instead of scanned (see rangeScan).
+            //   * A string expression may only test the candidate rows of a trigram index (see stringScan).
+            //   * Parameters can't be lowered until their values are bound, so they are lowered when the plan is
+            //     instantiated. They become bulk column scans.
+            //
+            // The order that the criteria are added in is only the initial evaluation order. The execution context adapts
+            // the order to the selectivity and cost that it observes.
+            currentPlanNode.queryCriteria.addAll(currentQueryNode.getCriteria());
+            try {
+                for (var lowered : QueryLowering.lower(currentPlanNode.table, currentQueryNode.getCriteria())) {
+                    int ordinal = lowered.ordinal();
+                    switch (lowered) {
+                        case QueryLowering.Lowered.StringParameter(var ignored, var stringFilterable, var name) -> {
+                            if (!declareParameter(parameters, name, Criteria.StringExpression.class))
+                                return new VerificationResult.IllegalQuery("The parameter '%s' is used for both integer and string columns.".formatted(name));
+                            currentPlanNode.criteria.add((node, bindings) -> {
+                                var expression = bindings.stringValue(name);
+                                var boundDescription = "column %d: %s (parameter '%s')".formatted(ordinal, expression, name);
+                                var candidates = trigramCandidates(stringFilterable, expression);
+                                node.addColumnScan(boundDescription + trigramNote(candidates), stringScan(stringFilterable, expression, candidates));
+                            });
+                        }
+                        case QueryLowering.Lowered.IntParameter(var ignored, var integerFilterable, var name) -> {
+                            if (!declareParameter(parameters, name, Criteria.IntExpression.class))
+                                return new VerificationResult.IllegalQuery("The parameter '%s' is used for both integer and string columns.".formatted(name));
+                            currentPlanNode.criteria.add((node, bindings) -> {
+                                var expression = bindings.intValue(name);
+                                // Like the range-like expressions, prefer the range form because it has the fastest scan.
+                                IntPredicate boundPredicate = expression.asBetween().<IntPredicate>map(between -> between).orElse(expression);
+                                var boundDescription = "column %d: %s (parameter '%s')".formatted(ordinal, boundPredicate, name);
+                                ExecutionContext.ColumnScan columnScan = boundPredicate instanceof Criteria.IntBetween between
+                                        ? rangeScan(integerFilterable, between)
+                                        : (fromIndex, toIndex, words) -> integerFilterable.scan(boundPredicate, fromIndex, toIndex, words);
+                                node.addColumnScan(boundDescription + indexNote(integerFilterable, boundPredicate), columnScan);
+                            });
+                        }
+                        case QueryLowering.Lowered.StringScan stringScan -> {
+                            var candidates = trigramCandidates(stringScan.column(), stringScan.expression());
+                            var description = "column %d: %s".formatted(ordinal, stringScan.expression()) + trigramNote(candidates);
+                            addColumnScan(currentPlanNode, description, stringScan(stringScan.column(), stringScan.expression(), candidates));
+                        }
+                        case QueryLowering.Lowered.IntScan intScan -> {
+                            var description = "column %d: %s".formatted(ordinal, intScan.predicate() instanceof Criteria.IntExpression ? intScan.predicate() : "lambda");
+                            addColumnScan(currentPlanNode, description, intScan.scan()::scan);
+                        }
+                        case QueryLowering.Lowered.IntRangeScan(var ignored, var integerFilterable, var range) -> {
+                            var description = "column %d: %s".formatted(ordinal, range) + indexNote(integerFilterable, range);
+                            addColumnScan(currentPlanNode, description, rangeScan(integerFilterable, range));
+                        }
+                        case QueryLowering.Lowered.RowPredicate(var ignored, var predicate) -> {
+                            var description = "column %d: lambda".formatted(ordinal);
+                            currentPlanNode.criteria.add((node, bindings) -> node.addColumnPredicate(description, predicate));
+                        }
+                    }
+                }
 
-                if (currentExecutionNode.table.columns().size() < ordinal) {
-                    var msg = "The query ordinal '%d' is out of bounds for the table with %d columns".formatted(ordinal, currentExecutionNode.table.columns().size());
-                    return new VerificationResult.IllegalQuery(msg);
+                for (Map.Entry<Integer, Query.Node> entry : currentQueryNode.getChildrenByOrdinal().entrySet()) {
+                    AssociationColumn associationColumn = QueryLowering.association(currentPlanNode.table, entry.getKey());
+                    var childNode = new PlanNode(associationColumn.associatedEntity(), entry.getKey(), associationColumn);
+                    currentPlanNode.childNodes.add(childNode);
+                    toVisit.add(new NodeNode(entry.getValue(), childNode));
                 }
+            } catch (IllegalArgumentException e) {
+                return new VerificationResult.IllegalQuery(e.getMessage());
+            }
+        }
 
-                Column column = currentExecutionNode.table.columns().get(ordinal);
+        try {
+            QueryLowering.checkProjection(query, table);
+        } catch (IllegalArgumentException e) {
+            return new VerificationResult.IllegalQuery(e.getMessage());
+        }
+        Table resultTable = query.getProjection().map(table::select).orElse(table);
 
-                IntPredicate columnPredicate;
+        Aggregation aggregation = null;
+        if (!query.getAggregates().isEmpty() || query.getGroupBy().isPresent()) {
+            List<ColumnFilterable.IntegerColumnFilterable> columns = new ArrayList<>();
+            List<Aggregate> aggregates = query.getAggregates();
+            int[] columnIndex = new int[aggregates.size()];
+            for (int a = 0; a < aggregates.size(); a++) {
+                OptionalInt ordinal = switch (aggregates.get(a)) {
+                    case Aggregate.Count ignored -> OptionalInt.empty();
+                    case Aggregate.Sum(var o) -> OptionalInt.of(o);
+                    case Aggregate.Min(var o) -> OptionalInt.of(o);
+                    case Aggregate.Max(var o) -> OptionalInt.of(o);
+                    case Aggregate.Avg(var o) -> OptionalInt.of(o);
+                };
+                if (ordinal.isEmpty()) {
+                    columnIndex[a] = -1;
+                    continue;
+                }
+                if (ordinal.getAsInt() < 0 || ordinal.getAsInt() >= table.width()) {
+                    var msg = "The aggregated ordinal '%d' is out of bounds for the table with %d columns".formatted(ordinal.getAsInt(), table.width());
+                    return new VerificationResult.IllegalQuery(msg);
+                }
+                if (!(table.columns().get(ordinal.getAsInt()).filterableType() instanceof ColumnFilterable.IntegerColumnFilterable integerFilterable)) {
+                    return new VerificationResult.IllegalQuery("Only integer columns can be aggregated but the column at ordinal %d is not an integer column.".formatted(ordinal.getAsInt()));
+                }
+                int index = columns.indexOf(integerFilterable);
+                if (index < 0) {
+                    index = columns.size();
+                    columns.add(integerFilterable);
+                }
+                columnIndex[a] = index;
+            }
 
-                switch (column.filterableType()) {
-                    case ColumnFilterable.StringColumnFilterable stringFilterable -> {
-                        if (!(criterion instanceof Criteria.StringCriteria stringCriteria))
-                            return new VerificationResult.IllegalQuery("The column is a string column but the criterion is not a string predicate.");
-                        columnPredicate = stringFilterable.where(stringCriteria.stringPredicate());
-                    }
-                    case ColumnFilterable.IntegerColumnFilterable integerFilterable -> {
-                        if (!(criterion instanceof Criteria.IntCriteria intCriteria))
-                            return new VerificationResult.IllegalQuery("The column is an integer column but the criterion is not an integer predicate.");
-                        columnPredicate = integerFilterable.where(intCriteria.integerPredicate());
+            List<AssociationColumn> groupPath = new ArrayList<>();
+            ColumnFilterable groupColumn = null;
+            Table groupTable = table;
+            if (query.getGroupBy().isPresent()) {
+                List<Integer> path = query.getGroupBy().get();
+                for (int i = 0; i < path.size(); i++) {
+                    int ordinal = path.get(i);
+                    if (ordinal < 0 || ordinal >= groupTable.width()) {
+                        var msg = "The group-by ordinal '%d' is out of bounds for the table with %d columns".formatted(ordinal, groupTable.width());
+                        return new VerificationResult.IllegalQuery(msg);
                     }
-                    case ColumnFilterable.BooleanColumnFilterable ignored -> {
-                        return new VerificationResult.IllegalQuery("Boolean columns are not supported yet.");
+                    Column column = groupTable.columns().get(ordinal);
+                    if (i < path.size() - 1) {
+                        if (!(column instanceof AssociationColumn associationColumn)) {
+                            return new VerificationResult.IllegalQuery("The group-by path goes through the column at ordinal %d but it is not an association column.".formatted(ordinal));
+                        }
+                        groupPath.add(associationColumn);
+                        groupTable = associationColumn.associatedEntity();
+                    } else {
+                        groupColumn = column.filterableType();
+                        if (!(groupColumn instanceof ColumnFilterable.IntegerColumnFilterable || groupColumn instanceof ColumnFilterable.StringColumnFilterable)) {
+                            return new VerificationResult.IllegalQuery("The group-by column at ordinal %d is not an integer or string column.".formatted(ordinal));
+                        }
                     }
-                    case ColumnFilterable.AssociationColumnFilterable ignored -> {
-                        return new VerificationResult.IllegalQuery("Association columns can't be matched on with a scalar criteria.");
-                    }
-                    default ->
-                            throw new IllegalStateException("Unrecognized column type: %s. This is unexpected.".formatted(column.getClass().getName()));
                 }
-
-                currentExecutionNode.addColumnPredicate(columnPredicate);
             }
+            aggregation = new Aggregation(List.copyOf(aggregates), List.copyOf(columns), columnIndex, List.copyOf(groupPath), groupColumn, groupTable.size());
+        }
 
-            Map<Integer, Query.Node> childQueryNodesByOrdinal = currentQueryNode.getChildrenByOrdinal();
+        RowOrder rowOrder;
+        try {
+            rowOrder = RowOrder.of(query, table);
+        } catch (IllegalArgumentException e) {
+            return new VerificationResult.IllegalQuery(e.getMessage());
+        }
 
-            for (Map.Entry<Integer, Query.Node> entry : childQueryNodesByOrdinal.entrySet()) {
-                var ordinal = entry.getKey();
-                var queryNode = entry.getValue();
-                Column column = currentExecutionNode.table.columns().get(ordinal);
+        return new VerificationResult.LegalQuery(new ExecutionPlan(table, rootPlanNode.toPlan(), Map.copyOf(parameters), resultTable, aggregation, rowOrder));
+    }
 
-                if (!(column instanceof AssociationColumn associationColumn)) {
-                    return new VerificationResult.IllegalQuery("The column at ordinal %d is not an association column. It is a %s".formatted(ordinal, column.getClass().getName()));
-                }
-                var childNode = currentExecutionNode.createChildNode(associationColumn);
-                toVisit.add(new NodeNode(queryNode, childNode));
+    /**
+     * Declare a parameter of the given type. A parameter may be used many times but always with the same type.
+     *
+     * @return false if the parameter was already declared with a different type
+     */
+    private static boolean declareParameter(Map<String, Class<?>> parameters, String name, Class<?> type) {
+        return parameters.computeIfAbsent(name, ignored -> type) == type;
+    }
+
+    /**
+     * The scan of an integer column for a range. This is where the "access path" is chosen:
+     * <ul>
+     *     <li>When the column has a sorted index and the range is selective enough, the matching rows are looked up in
+     *     the index, once, and the scan only copies their bits.</li>
+     *     <li>Otherwise, the column is scanned, through its zone map if it has one.</li>
+     * </ul>
+     */
+    private ExecutionContext.ColumnScan rangeScan(ColumnFilterable.IntegerColumnFilterable column, Criteria.IntBetween range) {
+        SortedIndex index = indexes.get(column);
+        if (index != null && index.isSelective(range)) {
+            CompressedBitmap matchingRows = index.matchingRows(range);
+            return (fromIndex, toIndex, words) -> copyBits(matchingRows, fromIndex, toIndex, words);
+        }
+        return zoneMaps.rangeScan(column, range)::scan;
+    }
+
+    /**
+     * A note for the description of a criterion (see {@link NodeStatistics}) that says if it is looked up in an index.
+     */
+    private String indexNote(ColumnFilterable.IntegerColumnFilterable column, IntPredicate predicate) {
+        SortedIndex index = indexes.get(column);
+        boolean indexed = index != null && predicate instanceof Criteria.IntBetween range && index.isSelective(range);
+        return indexed ? " (index)" : "";
+    }
+
+    /**
+     * The candidate rows of a string expression from the trigram index of the column.
+     *
+     * @return the candidates, or null when the column has no trigram index or the index can't narrow down the rows
+     */
+    private CompressedBitmap trigramCandidates(ColumnFilterable.StringColumnFilterable column, Criteria.StringExpression expression) {
+        TrigramIndex index = trigramIndexes.get(column);
+        return index == null ? null : index.candidates(expression);
+    }
+
+    /**
+     * The scan of a string column for an expression. When there are candidate rows, only they are tested, with the
+     * exact predicate. Otherwise, the whole range is scanned.
+     */
+    private static ExecutionContext.ColumnScan stringScan(ColumnFilterable.StringColumnFilterable column, Criteria.StringExpression expression, CompressedBitmap candidates) {
+        if (candidates == null) return column.prepareScan(expression)::scan;
+        IntPredicate exact = column.where(expression);
+        return (fromIndex, toIndex, words) -> {
+            int base = fromIndex >>> 6;
+            for (int row = candidates.nextSetBit(fromIndex); row >= 0 && row < toIndex; row = candidates.nextSetBit(row + 1)) {
+                if (exact.test(row)) words[(row >>> 6) - base] |= 1L << row;
             }
+        };
+    }
+
+    private static String trigramNote(CompressedBitmap candidates) {
+        return candidates == null ? "" : " (trigram index: %,d candidates)".formatted(candidates.cardinality());
+    }
+
+    /**
+     * Set the bits in {@code words} of the rows of {@code source} that are in the range {@code [fromIndex, toIndex)}.
+     * Only the rows of the source are visited, not every word of the range. Like a column scan, the words start at the
+     * word of {@code fromIndex}.
+     */
+    private static void copyBits(CompressedBitmap source, int fromIndex, int toIndex, long[] words) {
+        int base = fromIndex >>> 6;
+        for (int row = source.nextSetBit(fromIndex); row >= 0 && row < toIndex; row = source.nextSetBit(row + 1)) {
+            words[(row >>> 6) - base] |= 1L << row;
         }
+    }
+
+    private static void addColumnScan(PlanNode planNode, String description, ExecutionContext.ColumnScan columnScan) {
+        planNode.criteria.add((node, bindings) -> node.addColumnScan(description, columnScan));
+    }
 
-        return new VerificationResult.LegalQuery(executionContext);
+    /**
+     * A mutable node of the plan that is under construction. See {@link ExecutionPlan.Node}.
+     */
+    private static final class PlanNode {
+        final Table table;
+        final int ordinal;
+        final AssociationColumn associationToChild;
+        final List<Criteria> queryCriteria = new ArrayList<>();
+        final List<ExecutionPlan.CriterionTemplate> criteria = new ArrayList<>();
+        final List<PlanNode> childNodes = new ArrayList<>();
+
+        PlanNode(Table table, int ordinal, AssociationColumn associationToChild) {
+            this.table = table;
+            this.ordinal = ordinal;
+            this.associationToChild = associationToChild;
+        }
+
+        ExecutionPlan.Node toPlan() {
+            return new ExecutionPlan.Node(ordinal, associationToChild, List.copyOf(queryCriteria), List.copyOf(criteria), childNodes.stream().map(PlanNode::toPlan).toList());
+        }
     }
 }
@@ -4,16 +4,36 @@ import dgroomes.data_system.*;
 import dgroomes.data_system.QueryResult.Failure;
 import dgroomes.data_system.QueryResult.Success;
 import dgroomes.data_system_serial_indices_arrays.DataSystemSerialIndices;
+import dgroomes.data_system_serial_indices_arrays.NodeStatistics;
+import dgroomes.data_system_serial_indices_arrays.CacheStatistics;
 import dgroomes.in_memory.InMemoryColumn;
 import dgroomes.in_memory.InMemoryColumn.StringColumn;
+import dgroomes.in_memory.InMemoryTableView;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
 import static dgroomes.in_memory.InMemoryColumn.ofInts;
 import static dgroomes.in_memory.InMemoryColumn.ofStrings;
 import static dgroomes.in_memory.InMemoryTable.ofColumns;
 import static dgroomes.queryengine.TestUtil.failed;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.assertj.core.api.Assertions.within;
 
 
 /**
@@ -75,6 +95,28 @@ public class QueryTest {
     /**
      * Ordinal integer query over a multi-column table.
      */
+    /**
+     * An ordinal one past the last column is out of bounds. It must be reported as an illegal query, not fail with an
+     * exception.
+     */
+    @Test
+    void illegalOrdinals() {
+        // Arrange
+        var cities = ofColumns(ofStrings("Minneapolis", "Pierre"), ofInts(425_336, 14_091));
+        dataSystem.register("cities", cities);
+        var criteriaPastTheEnd = new Query("cities");
+        criteriaPastTheEnd.rootNode.addCriteria(new Criteria.IntCriteria(2, new Criteria.IntEquals(1)));
+        var negativeCriteria = new Query("cities");
+        negativeCriteria.rootNode.addCriteria(new Criteria.IntCriteria(-1, new Criteria.IntEquals(1)));
+        var childPastTheEnd = new Query("cities");
+        childPastTheEnd.rootNode.createChild(2);
+
+        // Act & Assert
+        assertThat(dataSystem.execute(criteriaPastTheEnd)).isInstanceOf(Failure.class);
+        assertThat(dataSystem.execute(negativeCriteria)).isInstanceOf(Failure.class);
+        assertThat(dataSystem.execute(childPastTheEnd)).isInstanceOf(Failure.class);
+    }
+
     @Test
     void intQuery_twoColumnTable() {
         // Arrange
@@ -107,6 +149,1181 @@ public class QueryTest {
         assertThat(cities).containsExactly("Rochester");
     }
 
+    /**
+     * Range criteria are recognized by the data system and evaluated in bulk (vectorized, when possible). The answer
+     * must be the same as for an equivalent lambda. The table size is not a multiple of 64 to exercise the scalar tail.
+     */
+    @Test
+    void intRangeQuery() {
+        // Arrange
+        int[] values = new int[1_000];
+        for (int i = 0; i < values.length; i++) values[i] = (i * 37) % 101 - 50;
+        dataSystem.register("ints", ofColumns(new InMemoryColumn.IntegerColumn(values)));
+
+        var rangeQuery = new Query("ints");
+        rangeQuery.rootNode.addCriteria(Criteria.IntCriteria.range(0, -10, 20));
+        var lambdaQuery = new Query("ints");
+        lambdaQuery.rootNode.addCriteria(new Criteria.IntCriteria(0, i -> i >= -10 && i < 20));
+
+        // Act
+        QueryResult rangeResult = dataSystem.execute(rangeQuery);
+        QueryResult lambdaResult = dataSystem.execute(lambdaQuery);
+
+        // Assert
+        if (!(rangeResult instanceof Success(var rangeTable)) || !(rangeTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var rangeInts))) {
+            throw failed("Expected a successful result with an IntegerColumn");
+        }
+        if (!(lambdaResult instanceof Success(var lambdaTable)) || !(lambdaTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var lambdaInts))) {
+            throw failed("Expected a successful result with an IntegerColumn");
+        }
+        assertThat(rangeInts).hasSize(297);
+        assertThat(rangeInts).isEqualTo(lambdaInts);
+    }
+
+    /**
+     * Multiple range criteria and a lambda criteria on the same node.
+     */
+    @Test
+    void intRangeQuery_mixedWithLambda() {
+        // Arrange
+        var table = ofColumns(ofInts(1, 5, 10, 15, 20, 25, 30), ofInts(0, 1, 0, 1, 0, 1, 0));
+        dataSystem.register("ints", table);
+        var query = new Query("ints");
+        query.rootNode
+                .addCriteria(Criteria.IntCriteria.range(0, 5, 100))
+                .addCriteria(Criteria.IntCriteria.range(0, Integer.MIN_VALUE, 26))
+                .addCriteria(new Criteria.IntCriteria(1, flag -> flag == 1));
+
+        // Act
+        QueryResult result = dataSystem.execute(query);
+
+        // Assert
+        var columns = switch (result) {
+            case Failure(var msg) -> throw failed(msg);
+            case Success(var resultTable) -> resultTable.columns();
+        };
+
+        if (!(columns.getFirst() instanceof InMemoryColumn.IntegerColumn(var ints))) {
+            throw failed("Expected an IntegerColumn");
+        }
+        assertThat(ints).containsExactly(5, 15, 25);
+    }
+
+    /**
+     * Declarative integer expressions. The range-like expressions on the same column are merged into one range.
+     */
+    @Test
+    void intExpressions() {
+        // Arrange
+        var table = ofColumns(ofInts(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), ofInts(0, 1, 2, 0, 1, 2, 0, 1, 2, 0));
+        dataSystem.register("ints", table);
+        var query = new Query("ints");
+        query.rootNode
+                .addCriteria(Criteria.IntCriteria.between(0, 2, 9))
+                .addCriteria(Criteria.IntCriteria.range(0, 3, 100))
+                .addCriteria(Criteria.IntCriteria.notEqualTo(0, 5))
+                .addCriteria(Criteria.IntCriteria.in(1, 2, 0));
+
+        // Act
+        QueryResult result = dataSystem.execute(query);
+
+        // Assert
+        var columns = switch (result) {
+            case Failure(var msg) -> throw failed(msg);
+            case Success(var resultTable) -> resultTable.columns();
+        };
+
+        if (!(columns.getFirst() instanceof InMemoryColumn.IntegerColumn(var ints))) {
+            throw failed("Expected an IntegerColumn");
+        }
+        assertThat(ints).containsExactly(3, 4, 6, 7, 9);
+    }
+
+    /**
+     * When merged ranges don't overlap, nothing matches.
+     */
+    @Test
+    void intExpressions_disjointRanges() {
+        // Arrange
+        var table = ofColumns(ofInts(1, 2, 3, 4, 5));
+        dataSystem.register("ints", table);
+        var query = new Query("ints");
+        query.rootNode
+                .addCriteria(Criteria.IntCriteria.equalTo(0, 2))
+                .addCriteria(Criteria.IntCriteria.between(0, 3, Integer.MAX_VALUE));
+
+        // Act
+        QueryResult result = dataSystem.execute(query);
+
+        // Assert
+        var size = switch (result) {
+            case Failure(var msg) -> throw failed(msg);
+            case Success(var resultTable) -> resultTable.size();
+        };
+        assertThat(size).isZero();
+    }
+
+    /**
+     * Declarative string expressions mixed with a lambda.
+     */
+    @Test
+    void stringExpressions() {
+        // Arrange
+        var table = ofColumns(ofStrings("Minneapolis", "Minnetonka", "Duluth", "Mankato", "Moorhead", "Mound"));
+        dataSystem.register("cities", table);
+        var query = new Query("cities");
+        query.rootNode
+                .addCriteria(Criteria.StringCriteria.startsWith(0, "M"))
+                .addCriteria(Criteria.StringCriteria.notEqualTo(0, "Mound"))
+                .addCriteria(Criteria.StringCriteria.matches(0, "[A-Za-z]+"))
+                .addCriteria(new Criteria.StringCriteria(0, s -> s.length() > 7));
+
+        var containsQuery = new Query("cities");
+        containsQuery.rootNode
+                .addCriteria(Criteria.StringCriteria.contains(0, "nne"))
+                .addCriteria(Criteria.StringCriteria.in(0, "Minnetonka", "Duluth"));
+
+        // Act
+        QueryResult result = dataSystem.execute(query);
+        QueryResult containsResult = dataSystem.execute(containsQuery);
+
+        // Assert
+        if (!(result instanceof Success(var resultTable)) || !(resultTable.columns().getFirst() instanceof StringColumn(var strings))) {
+            throw failed("Expected a successful result with a StringColumn");
+        }
+        assertThat(strings).containsExactly("Minneapolis", "Minnetonka", "Moorhead");
+
+        if (!(containsResult instanceof Success(var containsTable)) || !(containsTable.columns().getFirst() instanceof StringColumn(var containsStrings))) {
+            throw failed("Expected a successful result with a StringColumn");
+        }
+        assertThat(containsStrings).containsExactly("Minnetonka");
+    }
+
+    /**
+     * Dictionary-encoded string columns give the same answers as plain string columns, for both declarative criteria
+     * (which are translated to ranges or sets of codes) and lambdas (which are evaluated per dictionary entry).
+     */
+    @Test
+    void dictionaryStringColumn() {
+        // Arrange
+        String[] names = {"Springfield", "Plymouth", "Springdale", "Albany", "Plymouth", "Springfield", "Salem", "Spring"};
+        dataSystem.register("plain", ofColumns(ofStrings(names)));
+        dataSystem.register("encoded", ofColumns(InMemoryColumn.DictionaryStringColumn.encode(names)));
+        List<Criteria.StringCriteria> criteria = List.of(
+                Criteria.StringCriteria.equalTo(0, "Plymouth"),
+                Criteria.StringCriteria.equalTo(0, "Boston"),
+                Criteria.StringCriteria.startsWith(0, "Spring"),
+                Criteria.StringCriteria.startsWith(0, "Zz"),
+                Criteria.StringCriteria.range(0, "B", "S"),
+                Criteria.StringCriteria.in(0, "Salem", "Albany", "Boston"),
+                Criteria.StringCriteria.notEqualTo(0, "Springfield"),
+                Criteria.StringCriteria.matches(0, ".*a.*"),
+                new Criteria.StringCriteria(0, s -> s.length() == 6));
+
+        for (var criterion : criteria) {
+            var plainQuery = new Query("plain");
+            plainQuery.rootNode.addCriteria(criterion);
+            var encodedQuery = new Query("encoded");
+            encodedQuery.rootNode.addCriteria(criterion);
+
+            // Act
+            QueryResult plainResult = dataSystem.execute(plainQuery);
+            QueryResult encodedResult = dataSystem.execute(encodedQuery);
+
+            // Assert
+            if (!(plainResult instanceof Success(var plainTable)) || !(plainTable.columns().getFirst() instanceof StringColumn(var expected))) {
+                throw failed("Expected a successful result with a StringColumn");
+            }
+            if (!(encodedResult instanceof Success(var encodedTable)) || !(encodedTable.columns().getFirst() instanceof InMemoryColumn.DictionaryStringColumn encoded)) {
+                throw failed("Expected a successful result with a DictionaryStringColumn");
+            }
+            var actual = new String[encoded.height()];
+            for (int i = 0; i < actual.length; i++) actual[i] = encoded.get(i);
+            assertThat(actual).isEqualTo(expected);
+        }
+
+        // A prepared scan tests a lambda once per dictionary entry, no matter how many ranges it scans.
+        var column = InMemoryColumn.DictionaryStringColumn.encode(names);
+        var tests = new AtomicInteger();
+        var scan = column.prepareScan(s -> tests.incrementAndGet() > 0 && s.startsWith("S"));
+        long[] words = new long[1];
+        for (int i = 0; i < names.length; i++) scan.scan(i, i + 1, words);
+        assertThat(words[0]).isEqualTo(0b1110_0101L);
+        assertThat(tests.get()).isEqualTo(column.dictionary().length);
+    }
+
+    /**
+     * A scan writes its words starting at the word of its first row, so a morsel only needs words for the morsel. Scan
+     * every column type over windows that don't start at row 0 (and that don't start on a word boundary).
+     */
+    @Test
+    void scanWindows() {
+        // Arrange
+        int size = 10_000;
+        int[] values = IntStream.range(0, size).map(i -> i / 100).toArray();
+        List<ColumnFilterable.IntegerColumnFilterable> columns = List.of(
+                new InMemoryColumn.IntegerColumn(values),
+                InMemoryColumn.PackedIntegerColumn.encode(values),
+                InMemoryColumn.RunLengthIntegerColumn.encode(values),
+                InMemoryColumn.DeltaIntegerColumn.encode(values));
+        var dictionary = InMemoryColumn.DictionaryStringColumn.encode(IntStream.of(values).mapToObj(v -> "v%03d".formatted(v)).toArray(String[]::new));
+        var range = new Criteria.IntBetween(20, 40);
+        IntPredicate expected = i -> values[i] >= 20 && values[i] <= 40;
+
+        for (int[] window : new int[][]{{0, size}, {4_096, 8_192}, {1_999, 2_150}, {3_000, 3_001}}) {
+            int fromIndex = window[0], toIndex = window[1];
+            long[] expectedWords = new long[((toIndex - 1) >>> 6) - (fromIndex >>> 6) + 1];
+            for (int i = fromIndex; i < toIndex; i++) {
+                if (expected.test(i)) expectedWords[(i >>> 6) - (fromIndex >>> 6)] |= 1L << i;
+            }
+
+            for (var column : columns) {
+                long[] words = new long[expectedWords.length];
+                column.scan(range, fromIndex, toIndex, words);
+                assertThat(words).as("%s %d..%d", column.getClass().getSimpleName(), fromIndex, toIndex).containsExactly(expectedWords);
+
+                words = new long[expectedWords.length];
+                ZoneMap.build(column, size, 1_000).scan(column, range, fromIndex, toIndex, words);
+                assertThat(words).as("zone map %d..%d", fromIndex, toIndex).containsExactly(expectedWords);
+            }
+
+            long[] words = new long[expectedWords.length];
+            dictionary.prepareScan(new Criteria.StringRange("v020", "v041")).scan(fromIndex, toIndex, words);
+            assertThat(words).as("dictionary %d..%d", fromIndex, toIndex).containsExactly(expectedWords);
+        }
+    }
+
+    /**
+     * 'To-many' and 'none' associations are laid out in the CSR style in both directions, and the query follows them
+     * from the "many" side.
+     */
+    @Test
+    void queryOnToManyAssociation() {
+        // Arrange
+        var states = ofColumns(ofStrings("Minnesota", "Wisconsin", "Nowhere"));
+        dataSystem.register("states", states);
+        var rivers = ofColumns(ofStrings("Mississippi", "St. Croix", "Red River"));
+        dataSystem.register("rivers", rivers);
+        var statesToRivers = states.associateTo(rivers,
+                Association.toMany(0, 1, 2) /* Minnesota */,
+                Association.toMany(0, 1) /* Wisconsin */,
+                Association.NONE);
+
+        assertThat(statesToRivers.offsets).containsExactly(0, 3, 5, 5);
+        assertThat(statesToRivers.targets).containsExactly(0, 1, 2, 0, 1);
+        var riversToStates = statesToRivers.reverseAssociatedColumn();
+        assertThat(riversToStates.offsets).containsExactly(0, 2, 4, 5);
+        assertThat(riversToStates.targets).containsExactly(0, 1, 0, 1, 0);
+        assertThat(riversToStates.associationsForIndex(2)).isEqualTo(Association.toOne(0));
+
+        // Find the states with the Red River.
+        var query = new Query("states");
+        query.rootNode.createChild(1).addCriteria(Criteria.StringCriteria.equalTo(0, "Red River"));
+
+        // Act
+        QueryResult result = dataSystem.execute(query);
+
+        // Assert
+        var columns = switch (result) {
+            case Failure(var msg) -> throw failed(msg);
+            case Success(var resultTable) -> resultTable.columns();
+        };
+
+        if (!(columns.getFirst() instanceof StringColumn(var stateMatches))) {
+            throw failed("Expected a StringColumn");
+        }
+        assertThat(stateMatches).containsExactly("Minnesota");
+
+        // The association survives the subset.
+        if (!(columns.get(1) instanceof InMemoryColumn.AssociationColumn prunedAssociation)
+            || !(prunedAssociation.associationsForIndex(0) instanceof Association.Many(var riverIndices))) {
+            throw failed("Expected an AssociationColumn with a 'many' association");
+        }
+        assertThat(riverIndices).containsExactly(0, 1, 2);
+    }
+
+    /**
+     * The "sideways" execution mode gives the same answers as the default mode, no matter which node is the most
+     * selective one.
+     */
+    @Test
+    void sidewaysExecutionMode() {
+        // Arrange
+        // numbers (0..9_999) -> buckets (number % 100) -> groups (bucket % 10)
+        //                   -> blocks (number / 1_000)
+        var numbers = ofColumns(new InMemoryColumn.IntegerColumn(IntStream.range(0, 10_000).toArray()));
+        var buckets = ofColumns(new InMemoryColumn.IntegerColumn(IntStream.range(0, 100).toArray()));
+        var groups = ofColumns(new InMemoryColumn.IntegerColumn(IntStream.range(0, 10).toArray()));
+        dataSystem.register("numbers", numbers);
+        dataSystem.register("buckets", buckets);
+        dataSystem.register("groups", groups);
+        var blocks = ofColumns(new InMemoryColumn.IntegerColumn(IntStream.range(0, 10).toArray()));
+        dataSystem.register("blocks", blocks);
+        numbers.associateTo(buckets, IntStream.range(0, 10_000).mapToObj(i -> Association.toOne(i % 100)).toArray(Association[]::new)); // numbers 1, buckets 1
+        buckets.associateTo(groups, IntStream.range(0, 100).mapToObj(i -> Association.toOne(i % 10)).toArray(Association[]::new)); // buckets 2, groups 1
+        numbers.associateTo(blocks, IntStream.range(0, 10_000).mapToObj(i -> Association.toOne(i / 1_000)).toArray(Association[]::new)); // numbers 2, blocks 1
+
+        // A selective leaf.
+        var evenNumbersInBucket42 = new Query("numbers");
+        evenNumbersInBucket42.rootNode.addCriteria(new Criteria.IntCriteria(0, n -> n % 2 == 0))
+                .createChild(1).addCriteria(Criteria.IntCriteria.equalTo(0, 42));
+
+        // A selective leaf, two levels down and through the reverse associations.
+        var groupsOfSomeNumbers = new Query("groups");
+        groupsOfSomeNumbers.rootNode.createChild(1)
+                .createChild(1).addCriteria(Criteria.IntCriteria.range(0, 500, 513));
+
+        // Sibling branches, with a selective branch and an unselective branch.
+        var bucketsWithSmallNumbersInGroup3 = new Query("buckets");
+        bucketsWithSmallNumbersInGroup3.rootNode.createChild(1).addCriteria(Criteria.IntCriteria.range(0, 0, 2_000));
+        bucketsWithSmallNumbersInGroup3.rootNode.createChild(2).addCriteria(Criteria.IntCriteria.equalTo(0, 3));
+
+        // A selective leaf whose candidates are all in one morsel of the root, so the other morsels are skipped.
+        var evenNumbersInBlock7 = new Query("numbers");
+        evenNumbersInBlock7.rootNode.addCriteria(new Criteria.IntCriteria(0, n -> n % 2 == 0))
+                .createChild(2).addCriteria(Criteria.IntCriteria.equalTo(0, 7));
+
+        record Case(Query query, int[] expected) {}
+        var cases = List.of(
+                new Case(evenNumbersInBucket42, IntStream.range(0, 100).map(k -> 42 + 100 * k).toArray()),
+                new Case(groupsOfSomeNumbers, new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}),
+                new Case(bucketsWithSmallNumbersInGroup3, new int[]{3, 13, 23, 33, 43, 53, 63, 73, 83, 93}),
+                new Case(evenNumbersInBlock7, IntStream.range(3_500, 4_000).map(k -> 2 * k).toArray()));
+
+        for (var c : cases) {
+            for (var mode : DataSystemSerialIndices.ExecutionMode.values()) {
+                // Act
+                QueryResult result = dataSystem.execute(c.query(), mode);
+
+                // Assert
+                var columns = switch (result) {
+                    case Failure(var msg) -> throw failed(msg);
+                    case Success(var resultTable) -> resultTable.columns();
+                };
+                if (!(columns.getFirst() instanceof InMemoryColumn.IntegerColumn(var ints))) {
+                    throw failed("Expected an IntegerColumn");
+                }
+                assertThat(ints).isEqualTo(c.expected());
+            }
+        }
+    }
+
+    /**
+     * The criteria are reordered by the selectivity and cost that are observed at runtime, and the statistics are
+     * reported.
+     */
+    @Test
+    void adaptiveCriteriaOrder() {
+        // Arrange
+        var table = ofColumns(
+                new InMemoryColumn.IntegerColumn(IntStream.range(0, 100_000).toArray()),
+                new InMemoryColumn.IntegerColumn(IntStream.range(0, 100_000).map(i -> i % 100).toArray()));
+        dataSystem.register("numbers", table);
+        var query = new Query("numbers");
+        // An expensive criteria that matches every row, followed by a cheap criteria that matches 1% of the rows.
+        query.rootNode.addCriteria(new Criteria.IntCriteria(0, n -> Integer.toString(n).hashCode() != 0))
+                .addCriteria(new Criteria.IntCriteria(1, n -> n == 7));
+
+        // Act
+        var profiled = dataSystem.executeProfiled(query, DataSystemSerialIndices.ExecutionMode.LEAVES_UP);
+
+        // Assert
+        var columns = switch (profiled.result()) {
+            case Failure(var msg) -> throw failed(msg);
+            case Success(var resultTable) -> resultTable.columns();
+        };
+        if (!(columns.getFirst() instanceof InMemoryColumn.IntegerColumn(var ints))) {
+            throw failed("Expected an IntegerColumn");
+        }
+        assertThat(ints).isEqualTo(IntStream.range(0, 1_000).map(k -> 7 + 100 * k).toArray());
+
+        assertThat(profiled.statistics()).hasSize(1);
+        var statistics = profiled.statistics().getFirst();
+        assertThat(statistics.node()).isEqualTo("root");
+        assertThat(statistics.reorders()).isEqualTo(1);
+        assertThat(statistics.criteria()).extracting(NodeStatistics.CriterionStatistics::description)
+                .containsExactly("column 1: lambda", "column 0: lambda");
+        var cheap = statistics.criteria().get(0);
+        assertThat(cheap.selectivity()).isCloseTo(0.01, within(0.001));
+        assertThat(cheap.rowsEvaluated()).isEqualTo(100_000);
+        // After the first sampled morsel, the expensive criteria is only evaluated on the few rows that are left.
+        var expensive = statistics.criteria().get(1);
+        assertThat(expensive.selectivity()).isEqualTo(1.0);
+        assertThat(expensive.rowsEvaluated()).isLessThan(20_000);
+
+        // The sideways mode estimates the selectivity of the node first. The estimate doesn't count towards the
+        // statistics, so they are the same as in the other mode.
+        var sideways = dataSystem.executeProfiled(query, DataSystemSerialIndices.ExecutionMode.SIDEWAYS).statistics().getFirst();
+        assertThat(sideways.reorders()).isEqualTo(statistics.reorders());
+        assertThat(sideways.criteria())
+                .extracting(NodeStatistics.CriterionStatistics::description, NodeStatistics.CriterionStatistics::sampledRows, NodeStatistics.CriterionStatistics::rowsEvaluated, NodeStatistics.CriterionStatistics::rowsMatched)
+                .containsExactlyElementsOf(statistics.criteria().stream()
+                        .map(c -> tuple(c.description(), c.sampledRows(), c.rowsEvaluated(), c.rowsMatched()))
+                        .toList());
+    }
+
+    /**
+     * A prepared query is verified once and then executed with different values bound to its parameters, from many
+     * threads at once.
+     */
+    @Test
+    void preparedQuery() throws Exception {
+        // Arrange
+        var cities = ofColumns(ofStrings("PLYMOUTH", "MINNEAPOLIS"));
+        var zips = ofColumns(ofInts(100, 2_000, 30_000, 400, 5_000));
+        dataSystem.register("cities", cities);
+        dataSystem.register("zips", zips);
+        zips.associateTo(cities, Association.toOne(0), Association.toOne(0), Association.toOne(1), Association.toOne(1), Association.toOne(1));
+
+        var query = new Query("zips");
+        query.rootNode.addCriteria(Criteria.IntCriteria.parameter(0, "population"))
+                .createChild(1)
+                .addCriteria(Criteria.StringCriteria.parameter(0, "city"));
+
+        // Act
+        var prepareResult = dataSystem.prepare(query);
+
+        // Assert
+        if (!(prepareResult instanceof DataSystemSerialIndices.PrepareResult.Prepared(var preparedQuery))) {
+            throw failed("Expected the query to be prepared but it was " + prepareResult);
+        }
+        assertThat(preparedQuery.parameters()).containsExactlyInAnyOrder("population", "city");
+
+        record Case(Bindings bindings, int[] expected) {}
+        var cases = List.of(
+                new Case(Bindings.EMPTY.bind("population", new Criteria.IntRange(1_000, Integer.MAX_VALUE)).bind("city", new Criteria.StringEquals("PLYMOUTH")), new int[]{2_000}),
+                new Case(Bindings.EMPTY.bind("population", new Criteria.IntRange(1_000, Integer.MAX_VALUE)).bind("city", new Criteria.StringEquals("MINNEAPOLIS")), new int[]{30_000, 5_000}),
+                new Case(Bindings.EMPTY.bind("population", new Criteria.IntIn(new int[]{100, 400})).bind("city", new Criteria.StringStartsWith("")), new int[]{100, 400}));
+
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            List<Callable<Void>> tasks = IntStream.range(0, 100).<Callable<Void>>mapToObj(i -> () -> {
+                var c = cases.get(i % cases.size());
+                var columns = switch (preparedQuery.execute(c.bindings())) {
+                    case Failure(var msg) -> throw failed(msg);
+                    case Success(var resultTable) -> resultTable.columns();
+                };
+                if (!(columns.getFirst() instanceof InMemoryColumn.IntegerColumn(var ints))) {
+                    throw failed("Expected an IntegerColumn");
+                }
+                assertThat(ints).isEqualTo(c.expected());
+                return null;
+            }).toList();
+            for (var future : executor.invokeAll(tasks)) future.get();
+        }
+
+        // A parameter must be bound.
+        assertThatThrownBy(() -> preparedQuery.execute(Bindings.EMPTY.bind("population", new Criteria.IntEquals(100))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("city");
+
+        // A query with parameters can't be executed without preparing it.
+        assertThat(dataSystem.execute(query)).isInstanceOf(Failure.class);
+    }
+
+    /**
+     * Structurally equal queries are answered from the result cache until the table is registered again.
+     */
+    @Test
+    void resultCache() {
+        // Arrange
+        // Each result set is one int (4 bytes) so the cache has room for two of them.
+        dataSystem = new DataSystemSerialIndices(DataSystemSerialIndices.ExecutionMode.LEAVES_UP, 8);
+        dataSystem.register("ints", ofColumns(ofInts(1, 2, 3)));
+        IntFunction<Query> equalTo = value -> {
+            var query = new Query("ints");
+            query.rootNode.addCriteria(Criteria.IntCriteria.equalTo(0, value)).addCriteria(Criteria.IntCriteria.range(0, 0, 10));
+            return query;
+        };
+        var sameButReordered = new Query("ints");
+        sameButReordered.rootNode.addCriteria(Criteria.IntCriteria.range(0, 0, 10)).addCriteria(Criteria.IntCriteria.equalTo(0, 1));
+        var lambda = new Query("ints");
+        lambda.rootNode.addCriteria(new Criteria.IntCriteria(0, i -> i == 1));
+
+        // Act and assert
+        var first = dataSystem.execute(equalTo.apply(1));
+        var second = dataSystem.execute(sameButReordered);
+        if (!(first instanceof Success(var firstResultSet)) || !(second instanceof Success(var secondResultSet))) {
+            throw failed("Expected both queries to succeed");
+        }
+        assertThat(secondResultSet).isSameAs(firstResultSet);
+        assertThat(dataSystem.resultCacheStatistics()).isEqualTo(new CacheStatistics(1, 1, 0, 1, 4));
+
+        // Lambdas can't be compared so the query is not cached (and not counted).
+        dataSystem.execute(lambda);
+        assertThat(dataSystem.resultCacheStatistics()).isEqualTo(new CacheStatistics(1, 1, 0, 1, 4));
+
+        // The least recently used result set is evicted.
+        dataSystem.execute(equalTo.apply(2));
+        dataSystem.execute(equalTo.apply(1));
+        dataSystem.execute(equalTo.apply(3));
+        assertThat(dataSystem.resultCacheStatistics()).isEqualTo(new CacheStatistics(2, 3, 1, 2, 8));
+        dataSystem.execute(equalTo.apply(1));
+        assertThat(dataSystem.resultCacheStatistics().hits()).isEqualTo(3);
+
+        // Registering the table again drops its result sets.
+        dataSystem.register("ints", ofColumns(ofInts(1, 1)));
+        assertThat(dataSystem.resultCacheStatistics().entries()).isEqualTo(0);
+        var columns = switch (dataSystem.execute(equalTo.apply(1))) {
+            case Failure(var msg) -> throw failed(msg);
+            case Success(var resultTable) -> resultTable.columns();
+        };
+        assertThat(columns.getFirst().height()).isEqualTo(2);
+    }
+
+    /**
+     * The matching rows of a subtree are cached and reused by a later query that contains the same subtree under a
+     * different root.
+     */
+    @Test
+    void bitmapCache() {
+        // Arrange
+        dataSystem = new DataSystemSerialIndices(DataSystemSerialIndices.ExecutionMode.LEAVES_UP, 0, 1024);
+        var states = ofColumns(ofStrings("MN", "WI"));
+        var cities = ofColumns(ofStrings("PLYMOUTH", "MADISON", "MINNEAPOLIS"));
+        var zips = ofColumns(ofInts(55441, 53703, 55401));
+        dataSystem.register("states", states);
+        dataSystem.register("cities", cities);
+        dataSystem.register("zips", zips);
+        cities.associateTo(states, Association.toOne(0), Association.toOne(1), Association.toOne(0)); // cities 1, states 1
+        zips.associateTo(states, Association.toOne(0), Association.toOne(1), Association.toOne(0)); // zips 1, states 2
+
+        // States with a city named PLYMOUTH.
+        var statesQuery = new Query("states");
+        statesQuery.rootNode.createChild(1).addCriteria(Criteria.StringCriteria.equalTo(0, "PLYMOUTH"));
+
+        // ZIP codes in states with a city named PLYMOUTH. This contains the whole states query as a subtree.
+        var zipsQuery = new Query("zips");
+        zipsQuery.rootNode.createChild(1).createChild(1).addCriteria(Criteria.StringCriteria.equalTo(0, "PLYMOUTH"));
+
+        // Act
+        var statesResult = dataSystem.execute(statesQuery);
+        var statisticsAfterStates = dataSystem.bitmapCacheStatistics();
+        var zipsResult = dataSystem.execute(zipsQuery);
+        var statisticsAfterZips = dataSystem.bitmapCacheStatistics();
+
+        // Assert
+        if (!(statesResult instanceof Success(var statesResultSet)) || !(statesResultSet.columns().getFirst() instanceof StringColumn(var stateMatches))) {
+            throw failed("Expected a StringColumn");
+        }
+        assertThat(stateMatches).containsExactly("MN");
+        if (!(zipsResult instanceof Success(var zipsResultSet)) || !(zipsResultSet.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var zipMatches))) {
+            throw failed("Expected an IntegerColumn");
+        }
+        assertThat(zipMatches).containsExactly(55441, 55401);
+
+        // The first query misses for its two subtrees. The second query misses for its root and then hits for the
+        // states subtree, so the cities subtree is not even looked up.
+        assertThat(statisticsAfterStates).extracting(CacheStatistics::hits, CacheStatistics::misses, CacheStatistics::entries).containsExactly(0L, 2L, 2);
+        assertThat(statisticsAfterZips).extracting(CacheStatistics::hits, CacheStatistics::misses, CacheStatistics::entries).containsExactly(1L, 3L, 3);
+
+        // Every cached subtree involves the cities table, so registering a new cities table drops them all.
+        dataSystem.register("cities", ofColumns(ofStrings("PLYMOUTH")));
+        assertThat(dataSystem.bitmapCacheStatistics().entries()).isEqualTo(0);
+    }
+
+    @Test
+    void compressedBitmap() {
+        // A sparse bitmap (array containers) and a dense bitmap (bitmap containers). The dense bitmap has every even word.
+        var sparse = CompressedBitmap.of(3, 70_000, 70_016, 200_000);
+        var dense = CompressedBitmap.fromWords(IntStream.range(0, 2048).mapToLong(w -> w % 2 == 0 ? -1L : 0L).toArray());
+
+        assertThat(dense.cardinality()).isEqualTo(1024 * 64);
+        assertThat(sparse.and(dense).toArray()).containsExactly(3, 70_016);
+        assertThat(sparse.or(dense).cardinality()).isEqualTo(1024 * 64 + 2);
+        assertThat(sparse.or(dense).contains(200_000)).isTrue();
+        assertThat(sparse.toBitSet().stream().toArray()).containsExactly(3, 70_000, 70_016, 200_000);
+        assertThat(sparse.estimatedBytes()).isLessThan(dense.estimatedBytes());
+
+        // Adding rows to an array container past its limit turns it into a bitmap container.
+        var grown = new CompressedBitmap();
+        for (int i = 0; i < 10_000; i++) grown.add(i * 3);
+        assertThat(grown.cardinality()).isEqualTo(10_000);
+        assertThat(grown.contains(29_997)).isTrue();
+        assertThat(grown.contains(29_998)).isFalse();
+
+        // A builder takes rows in any order and across chunks.
+        var builder = new CompressedBitmap.Builder();
+        for (int i = 9_999; i >= 0; i--) builder.add(i * 3);
+        var built = builder.add(200_000).add(3).build();
+        assertThat(built.cardinality()).isEqualTo(10_001);
+        assertThat(built.and(grown).cardinality()).isEqualTo(10_000);
+        assertThat(built.nextSetBit(29_998)).isEqualTo(200_000);
+        assertThat(new CompressedBitmap.Builder().build().isEmpty()).isTrue();
+        var range = new CompressedBitmap.Builder().addRange(65_530, 131_080).addRange(7, 8).build();
+        assertThat(range.cardinality()).isEqualTo(65_551);
+        assertThat(range.nextSetBit(8)).isEqualTo(65_530);
+        assertThat(range.contains(131_079)).isTrue();
+        assertThat(range.contains(131_080)).isFalse();
+
+        // A window of words: 'words[0]' is word 'fromWord' of the bitmap.
+        long[] window = new long[2];
+        sparse.copyWords(70_000 >>> 6, window);
+        assertThat(BitSet.valueOf(window).stream().map(i -> i + (70_000 & ~63)).toArray()).containsExactly(70_000, 70_016);
+        window = new long[3];
+        dense.copyWords(1023, window);
+        assertThat(window).containsExactly(0L, -1L, 0L);
+
+        // Windows appended in ascending order are compressed one chunk at a time.
+        var appended = new CompressedBitmap.Builder();
+        for (int fromWord = 0; fromWord < 4096; fromWord += 64) {
+            appended.appendWords(fromWord, IntStream.range(fromWord, fromWord + 64).mapToLong(w -> w % 2 == 0 ? -1L : 0L).toArray(), 64);
+        }
+        assertThat(appended.build().and(dense).cardinality()).isEqualTo(dense.cardinality());
+
+        // A query over a table that spans several chunks.
+        int size = 300_000;
+        var numbers = ofColumns(ofInts(IntStream.range(0, size).toArray()));
+        var parities = ofColumns(ofInts(0, 1));
+        dataSystem.register("numbers", numbers);
+        dataSystem.register("parities", parities);
+        numbers.associateTo(parities, IntStream.range(0, size).mapToObj(i -> Association.toOne(i % 2)).toArray(Association[]::new));
+        var query = new Query("numbers");
+        query.rootNode.addCriteria(Criteria.IntCriteria.range(0, 65_530, 65_545))
+                .createChild(1)
+                .addCriteria(Criteria.IntCriteria.equalTo(0, 1));
+
+        var result = dataSystem.execute(query);
+
+        if (!(result instanceof Success(var resultSet)) || !(resultSet.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var matches))) {
+            throw failed("Expected an IntegerColumn");
+        }
+        assertThat(matches).containsExactly(65_531, 65_533, 65_535, 65_537, 65_539, 65_541, 65_543);
+    }
+
+    @Test
+    void resultView() {
+        // Arrange
+        var cities = ofColumns(ofStrings("PLYMOUTH", "MADISON", "MINNEAPOLIS", "ROCHESTER"), ofInts(81_026, 269_840, 425_336, 121_395), InMemoryColumn.DictionaryStringColumn.encode("MN", "WI", "MN", "MN"));
+        dataSystem.register("cities", cities);
+        var query = new Query("cities");
+        query.rootNode.addCriteria(Criteria.StringCriteria.equalTo(2, "MN")).addCriteria(Criteria.IntCriteria.range(1, 100_000, Integer.MAX_VALUE));
+
+        // Act
+        var result = dataSystem.executeView(query);
+
+        // Assert
+        if (!(result instanceof Success(var resultSet)) || !(resultSet instanceof InMemoryTableView view)) {
+            throw failed("Expected a successful result with a view");
+        }
+        assertThat(view.size()).isEqualTo(2);
+        assertThat(view.sourceRow(0)).isEqualTo(2);
+        if (!(view.columns().get(0) instanceof InMemoryTableView.StringViewColumn names) || !(view.columns().get(2) instanceof InMemoryTableView.StringViewColumn states)) {
+            throw failed("Expected StringViewColumns");
+        }
+        assertThat(names.get(1)).isEqualTo("ROCHESTER");
+        assertThat(states.get(0)).isEqualTo("MN");
+
+        // The view can be compacted into the same table that a materialized query returns.
+        if (!(view.compact().columns().get(1) instanceof InMemoryColumn.IntegerColumn(var populations))) {
+            throw failed("Expected an IntegerColumn");
+        }
+        assertThat(populations).containsExactly(425_336, 121_395);
+        if (!(dataSystem.execute(query) instanceof Success(var materialized)) || !(materialized.columns().get(1) instanceof InMemoryColumn.IntegerColumn(var materializedPopulations))) {
+            throw failed("Expected an IntegerColumn");
+        }
+        assertThat(materializedPopulations).isEqualTo(populations);
+    }
+
+    /**
+     * Only the projected columns are in the result set, in the order that they were selected. The association column is
+     * not selected, so it isn't copied.
+     */
+    @Test
+    void projection() {
+        // Arrange
+        var cities = ofColumns(ofStrings("PLYMOUTH", "MADISON", "MINNEAPOLIS"), ofInts(81_026, 269_840, 425_336), ofStrings("MN", "WI", "MN"));
+        var states = ofColumns(ofStrings("MN", "WI"));
+        dataSystem.register("cities", cities);
+        cities.associateTo(states, Association.toOne(0), Association.toOne(1), Association.toOne(0));
+        var query = new Query("cities").select(1, 0);
+        query.rootNode.addCriteria(Criteria.StringCriteria.equalTo(2, "MN"));
+        var illegalQuery = new Query("cities").select(4);
+
+        // Act
+        var result = dataSystem.execute(query);
+        var illegalResult = dataSystem.execute(illegalQuery);
+
+        // Assert
+        if (!(result instanceof Success(var resultSet))) throw failed("Expected a successful result");
+        assertThat(resultSet.columns()).hasSize(2);
+        if (!(resultSet.columns().get(0) instanceof InMemoryColumn.IntegerColumn(var populations)) || !(resultSet.columns().get(1) instanceof StringColumn(var names))) {
+            throw failed("Expected an IntegerColumn and a StringColumn");
+        }
+        assertThat(populations).containsExactly(81_026, 425_336);
+        assertThat(names).containsExactly("PLYMOUTH", "MINNEAPOLIS");
+        assertThat(illegalResult).isEqualTo(new Failure("The projected ordinal '4' is out of bounds for the table with 4 columns"));
+    }
+
+    /**
+     * The result set is handed out in batches from one reusable selection vector. The matching rows span several
+     * chunks of the compressed bitmap.
+     */
+    @Test
+    void cursor() {
+        // Arrange
+        int size = 200_000;
+        dataSystem.register("numbers", ofColumns(ofInts(IntStream.range(0, size).toArray()), ofInts(IntStream.range(0, size).map(i -> i % 3).toArray())));
+        var query = new Query("numbers").select(0);
+        query.rootNode.addCriteria(Criteria.IntCriteria.equalTo(1, 0));
+
+        // Act
+        var cursorResult = dataSystem.cursor(query, 4_096);
+
+        // Assert
+        if (!(cursorResult instanceof CursorResult.Opened(var cursor))) throw failed("Expected an opened cursor");
+        if (!(cursor.table().columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var numbers))) throw failed("Expected an IntegerColumn");
+        int[] firstRows = null;
+        int batches = 0;
+        long count = 0;
+        int expected = 0;
+        while (cursor.next()) {
+            if (firstRows == null) firstRows = cursor.rows();
+            assertThat(cursor.rows()).isSameAs(firstRows);
+            assertThat(cursor.size()).isBetween(1, 4_096);
+            for (int i = 0; i < cursor.size(); i++) {
+                assertThat(numbers[cursor.rows()[i]]).isEqualTo(expected);
+                expected += 3;
+            }
+            count += cursor.size();
+            batches++;
+        }
+        assertThat(count).isEqualTo(66_667);
+        assertThat(batches).isEqualTo(17);
+        assertThat(cursor.next()).isFalse();
+        assertThat(dataSystem.cursor(new Query("nope"), 4_096)).isInstanceOf(CursorResult.Failure.class);
+    }
+
+    @Test
+    void aggregation() {
+        // Arrange
+        int size = 200_000;
+        dataSystem.register("numbers", ofColumns(ofInts(IntStream.range(0, size).toArray()), ofStrings(IntStream.range(0, size).mapToObj(String::valueOf).toArray(String[]::new))));
+
+        var states = ofColumns(ofStrings("MN", "WI"));
+        var cities = ofColumns(ofStrings("Minneapolis", "Saint Paul", "Madison"));
+        cities.associateTo(states, Association.toOne(0), Association.toOne(0), Association.toOne(1));
+        var zips = ofColumns(ofInts(55401, 55402, 55101, 53703, 53704), ofInts(100, 200, 300, 400, 500));
+        zips.associateTo(cities, Association.toOne(0), Association.toOne(0), Association.toOne(1), Association.toOne(2), Association.toOne(2));
+        dataSystem.register("zips", zips);
+
+        // Act
+        var countOnly = new Query("numbers").aggregate(Aggregate.count());
+        countOnly.rootNode.addCriteria(Criteria.IntCriteria.range(0, 1_000, 150_001));
+        var summary = new Query("numbers").aggregate(Aggregate.sum(0), Aggregate.min(0), Aggregate.max(0), Aggregate.avg(0), Aggregate.count());
+        summary.rootNode.addCriteria(Criteria.IntCriteria.range(0, 1_000, 150_001));
+        var empty = new Query("numbers").aggregate(Aggregate.count(), Aggregate.sum(0), Aggregate.min(0));
+        empty.rootNode.addCriteria(Criteria.IntCriteria.equalTo(0, -1));
+        var populationPerState = new Query("zips").aggregate(Aggregate.sum(1), Aggregate.count()).groupBy(2, 1, 0);
+        var largestZipPerCity = new Query("zips").aggregate(Aggregate.max(1)).groupBy(2, 0);
+        largestZipPerCity.rootNode.addCriteria(Criteria.IntCriteria.range(1, 200, Integer.MAX_VALUE));
+
+        // Assert
+        assertThat(dataSystem.aggregate(countOnly)).isEqualTo(new AggregateResult.Success(List.of(
+                new AggregateResult.Group(null, List.of(149_001L)))));
+        assertThat(dataSystem.aggregate(summary)).isEqualTo(new AggregateResult.Success(List.of(
+                new AggregateResult.Group(null, List.of(LongStream.rangeClosed(1_000, 150_000).sum(), 1_000, 150_000, 75_500.0, 149_001L)))));
+        if (!(dataSystem.aggregate(empty) instanceof AggregateResult.Success(var emptyGroups))) throw failed("Expected a success");
+        assertThat(emptyGroups.getFirst().values()).containsExactly(0L, 0L, null);
+        assertThat(dataSystem.aggregate(populationPerState)).isEqualTo(new AggregateResult.Success(List.of(
+                new AggregateResult.Group("MN", List.of(600L, 3L)),
+                new AggregateResult.Group("WI", List.of(900L, 2L)))));
+        assertThat(dataSystem.aggregate(largestZipPerCity)).isEqualTo(new AggregateResult.Success(List.of(
+                new AggregateResult.Group("Madison", List.of(500)),
+                new AggregateResult.Group("Minneapolis", List.of(200)),
+                new AggregateResult.Group("Saint Paul", List.of(300)))));
+
+        assertThat(dataSystem.aggregate(new Query("numbers").aggregate(Aggregate.sum(1)))).isInstanceOf(AggregateResult.Failure.class);
+        assertThat(dataSystem.aggregate(new Query("zips").aggregate(Aggregate.count()).groupBy(0, 1))).isInstanceOf(AggregateResult.Failure.class);
+        assertThat(dataSystem.aggregate(new Query("zips"))).isInstanceOf(AggregateResult.Failure.class);
+    }
+
+    /**
+     * The full ordering (radix sort) and the top-k ordering (heap) agree with a plain comparison sort, including for
+     * negative values and ties. Ties are broken by the order of the table.
+     */
+    @Test
+    void orderByAndLimit() {
+        // Arrange
+        int size = 10_000;
+        int[] values = IntStream.range(0, size).map(i -> (i * 7_919) % 2_001 - 1_000).toArray();
+        dataSystem.register("numbers", ofColumns(ofInts(values), ofInts(IntStream.range(0, size).toArray()), ofStrings(IntStream.range(0, size).mapToObj(String::valueOf).toArray(String[]::new))));
+        IntFunction<int[]> expected = limit -> IntStream.range(0, size).boxed()
+                .filter(i -> values[i] >= 0)
+                .sorted((a, b) -> Integer.compare(values[b], values[a]))
+                .limit(limit).mapToInt(Integer::intValue).toArray();
+        IntFunction<Query> query = limit -> {
+            var q = new Query("numbers").select(1).orderByDescending(0).limit(limit);
+            q.rootNode.addCriteria(Criteria.IntCriteria.range(0, 0, Integer.MAX_VALUE));
+            return q;
+        };
+
+        // Act
+        var ascending = dataSystem.execute(new Query("numbers").select(1).orderBy(0));
+        var top = dataSystem.execute(query.apply(10));
+        var many = dataSystem.execute(query.apply(4_000));
+        var firstRows = dataSystem.execute(new Query("numbers").select(1).limit(3));
+
+        // Assert
+        if (!(ascending instanceof Success(var ascendingTable)) || !(ascendingTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var ascendingRows))) {
+            throw failed("Expected a successful result with an IntegerColumn");
+        }
+        assertThat(ascendingRows).containsExactly(IntStream.range(0, size).boxed().sorted((a, b) -> Integer.compare(values[a], values[b])).mapToInt(Integer::intValue).toArray());
+        if (!(top instanceof Success(var topTable)) || !(topTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var topRows))) {
+            throw failed("Expected a successful result with an IntegerColumn");
+        }
+        assertThat(topRows).containsExactly(expected.apply(10));
+        if (!(many instanceof Success(var manyTable)) || !(manyTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var manyRows))) {
+            throw failed("Expected a successful result with an IntegerColumn");
+        }
+        assertThat(manyRows).containsExactly(expected.apply(4_000));
+        if (!(firstRows instanceof Success(var firstTable)) || !(firstTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var firstRowIds))) {
+            throw failed("Expected a successful result with an IntegerColumn");
+        }
+        assertThat(firstRowIds).containsExactly(0, 1, 2);
+
+        // A cursor hands out the rows in the same order.
+        if (!(dataSystem.cursor(query.apply(10), 4) instanceof CursorResult.Opened(var cursor))) throw failed("Expected an opened cursor");
+        var cursorRows = IntStream.builder();
+        while (cursor.next()) {
+            for (int i = 0; i < cursor.size(); i++) cursorRows.add(cursor.rows()[i]);
+        }
+        assertThat(cursorRows.build().toArray()).containsExactly(expected.apply(10));
+
+        assertThat(dataSystem.execute(new Query("numbers").orderBy(2))).isInstanceOf(Failure.class);
+        assertThat(dataSystem.execute(new Query("numbers").orderBy(3))).isInstanceOf(Failure.class);
+        assertThatThrownBy(() -> new Query("numbers").limit(-1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * A zone map skips the blocks that can't match a range and matches whole blocks that must match, without reading
+     * their values. The answer is the same as a plain scan.
+     */
+    @Test
+    void zoneMap() {
+        // Arrange
+        //
+        // The first column is clustered (sorted). The second is not.
+        int size = 100_000;
+        int[] clustered = IntStream.range(0, size).map(i -> i / 3).toArray();
+        int[] spread = IntStream.range(0, size).map(i -> (i * 7_919) % 10_007).toArray();
+        dataSystem.register("numbers", ofColumns(ofInts(clustered), ofInts(spread)));
+        int[] reads = new int[1];
+        var countingColumn = new ColumnFilterable.IntegerColumnFilterable() {
+            @Override
+            public int get(int index) {
+                reads[0]++;
+                return clustered[index];
+            }
+
+            @Override
+            public IntPredicate where(IntPredicate predicate) {
+                return index -> predicate.test(get(index));
+            }
+        };
+        var zoneMap = ZoneMap.build(countingColumn, size);
+        reads[0] = 0;
+
+        // Act
+        var range = new Criteria.IntBetween(1_000, 20_000);
+        long[] words = new long[(size + 63) >>> 6];
+        zoneMap.scan(countingColumn, range, 0, size, words);
+        var clusteredQuery = new Query("numbers");
+        clusteredQuery.rootNode.addCriteria(Criteria.IntCriteria.between(0, 1_000, 20_000));
+        var spreadQuery = new Query("numbers");
+        spreadQuery.rootNode.addCriteria(Criteria.IntCriteria.range(1, 100, 200)).addCriteria(Criteria.IntCriteria.range(0, 5_000, 30_000));
+
+        // Assert
+        assertThat(zoneMap.blockCount()).isEqualTo(25);
+        // Only the two blocks that straddle the ends of the range are read.
+        assertThat(reads[0]).isEqualTo(2 * ZoneMap.DEFAULT_BLOCK_SIZE);
+        assertThat(BitSet.valueOf(words).stream().toArray()).containsExactly(IntStream.range(3_000, 60_003).toArray());
+
+        if (!(dataSystem.execute(clusteredQuery) instanceof Success(var clusteredTable)) || !(clusteredTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var clusteredMatches))) {
+            throw failed("Expected a successful result with an IntegerColumn");
+        }
+        assertThat(clusteredMatches).containsExactly(IntStream.range(3_000, 60_003).map(i -> i / 3).toArray());
+        if (!(dataSystem.execute(spreadQuery) instanceof Success(var spreadTable)) || !(spreadTable.columns().get(1) instanceof InMemoryColumn.IntegerColumn(var spreadMatches))) {
+            throw failed("Expected a successful result with an IntegerColumn");
+        }
+        assertThat(spreadMatches).containsExactly(IntStream.range(15_000, 90_000).map(i -> spread[i]).filter(v -> v >= 100 && v < 200).toArray());
+    }
+
+    /**
+     * A selective range on an indexed column is looked up in the index. A range that matches many rows is scanned. The
+     * answers are the same either way.
+     */
+    @Test
+    void sortedIndex() {
+        // Arrange
+        int size = 50_000;
+        int[] values = IntStream.range(0, size).map(i -> (i * 7_919) % 10_007).toArray();
+        dataSystem.register("numbers", ofColumns(ofInts(values), ofStrings(IntStream.range(0, size).mapToObj(String::valueOf).toArray(String[]::new))));
+        dataSystem.createIndex("numbers", 0);
+        IntFunction<int[]> expected = value -> IntStream.range(0, size).filter(i -> values[i] >= value && values[i] < value + 10).map(i -> values[i]).toArray();
+        var narrow = new Query("numbers");
+        narrow.rootNode.addCriteria(Criteria.IntCriteria.range(0, 500, 510));
+        var wide = new Query("numbers");
+        wide.rootNode.addCriteria(Criteria.IntCriteria.range(0, 500, 10_000));
+        var parameterized = new Query("numbers");
+        parameterized.rootNode.addCriteria(Criteria.IntCriteria.parameter(0, "value"));
+
+        // Act
+        var narrowResult = dataSystem.executeProfiled(narrow, DataSystemSerialIndices.ExecutionMode.LEAVES_UP);
+        var wideResult = dataSystem.executeProfiled(wide, DataSystemSerialIndices.ExecutionMode.LEAVES_UP);
+        if (!(dataSystem.prepare(parameterized) instanceof DataSystemSerialIndices.PrepareResult.Prepared(var preparedQuery))) {
+            throw failed("Expected the query to be prepared");
+        }
+        var boundResult = preparedQuery.executeProfiled(Bindings.EMPTY.bind("value", new Criteria.IntRange(9_000, 9_010)), DataSystemSerialIndices.ExecutionMode.LEAVES_UP);
+
+        // Assert
+        assertThat(narrowResult.statistics().getFirst().criteria()).extracting(NodeStatistics.CriterionStatistics::description)
+                .containsExactly("column 0: IntBetween[min=500, max=509] (index)");
+        if (!(narrowResult.result() instanceof Success(var narrowTable)) || !(narrowTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var narrowMatches))) {
+            throw failed("Expected a successful result with an IntegerColumn");
+        }
+        assertThat(narrowMatches).containsExactly(expected.apply(500));
+
+        assertThat(wideResult.statistics().getFirst().criteria()).extracting(NodeStatistics.CriterionStatistics::description)
+                .containsExactly("column 0: IntBetween[min=500, max=9999]");
+        if (!(wideResult.result() instanceof Success(var wideTable))) throw failed("Expected a successful result");
+        assertThat(wideTable.size()).isEqualTo((int) IntStream.of(values).filter(v -> v >= 500 && v < 10_000).count());
+
+        assertThat(boundResult.statistics().getFirst().criteria().getFirst().description()).endsWith("(index)");
+        if (!(boundResult.result() instanceof Success(var boundTable)) || !(boundTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var boundMatches))) {
+            throw failed("Expected a successful result with an IntegerColumn");
+        }
+        assertThat(boundMatches).containsExactly(expected.apply(9_000));
+
+        assertThatThrownBy(() -> dataSystem.createIndex("numbers", 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> dataSystem.createIndex("nope", 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * A bit-packed column must answer the same as the plain column, for blocks of every width. This includes blocks of
+     * equal values (0 bits) and blocks that span the whole integer range (32 bits).
+     */
+    @Test
+    void packedIntegerColumn() {
+        // Arrange
+        int size = 10_000;
+        int[] values = IntStream.range(0, size).map(i -> switch (i / 1_000) {
+            case 0 -> 55_401 + (i * 31) % 1_000;
+            case 1 -> 7;
+            case 2 -> i % 2 == 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+            default -> (i * 7_919) % 100_003 - 50_000;
+        }).toArray();
+        var packed = InMemoryColumn.PackedIntegerColumn.encode(values);
+        dataSystem.register("plain", ofColumns(ofInts(values)));
+        dataSystem.register("packed", ofColumns(packed));
+        List<IntPredicate> predicates = List.of(
+                new Criteria.IntRange(55_500, 55_600),
+                new Criteria.IntBetween(-1_000, 7),
+                new Criteria.IntEquals(7),
+                new Criteria.IntEquals(Integer.MIN_VALUE),
+                new Criteria.IntBetween(Integer.MIN_VALUE, Integer.MAX_VALUE),
+                new Criteria.IntNotEquals(7),
+                new Criteria.IntIn(new int[]{55_401, Integer.MAX_VALUE, -50_000}),
+                i -> i % 3 == 0);
+
+        // Act & Assert
+        assertThat(packed.toInts()).isEqualTo(values);
+        assertThat(packed.estimatedBytes()).isLessThan(4L * size);
+        for (var predicate : predicates) {
+            var plainQuery = new Query("plain");
+            plainQuery.rootNode.addCriteria(new Criteria.IntCriteria(0, predicate));
+            var packedQuery = new Query("packed");
+            packedQuery.rootNode.addCriteria(new Criteria.IntCriteria(0, predicate));
+
+            if (!(dataSystem.execute(plainQuery) instanceof Success(var plainTable)) || !(plainTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var plainMatches))) {
+                throw failed("Expected a successful result with an IntegerColumn");
+            }
+            if (!(dataSystem.execute(packedQuery) instanceof Success(var packedTable)) || !(packedTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var packedMatches))) {
+                throw failed("Expected a successful result with an IntegerColumn");
+            }
+            assertThat(packedMatches).as(predicate.toString()).isNotEmpty().isEqualTo(plainMatches);
+        }
+    }
+
+    /**
+     * A delta-encoded column must answer the same as the plain column. This includes sorted values (the case it is
+     * meant for), evenly spaced values (0 bits), deltas that overflow an int and unsorted values.
+     */
+    @Test
+    void deltaIntegerColumn() {
+        // Arrange
+        int size = 10_000;
+        int[] values = IntStream.range(0, size).map(i -> switch (i / 1_000) {
+            case 0, 1, 2 -> 55_401 + i / 3;
+            case 3 -> 100_000 - i;
+            case 4 -> i % 2 == 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+            default -> (i * 7_919) % 100_003 - 50_000;
+        }).toArray();
+        var delta = InMemoryColumn.DeltaIntegerColumn.encode(values);
+        var sorted = InMemoryColumn.DeltaIntegerColumn.encode(Arrays.copyOf(values, 3_000));
+        dataSystem.register("plain", ofColumns(ofInts(values)));
+        dataSystem.register("delta", ofColumns(delta));
+        List<IntPredicate> predicates = List.of(
+                new Criteria.IntRange(55_500, 55_600),
+                new Criteria.IntBetween(-1_000, 96_500),
+                new Criteria.IntEquals(96_999),
+                new Criteria.IntEquals(Integer.MIN_VALUE),
+                new Criteria.IntBetween(Integer.MIN_VALUE, Integer.MAX_VALUE),
+                new Criteria.IntNotEquals(55_401),
+                new Criteria.IntIn(new int[]{55_401, Integer.MAX_VALUE, -50_000}),
+                i -> i % 3 == 0);
+
+        // Act & Assert
+        assertThat(delta.toInts()).isEqualTo(values);
+        assertThat(IntStream.of(0, 127, 128, 2_999, 3_500, 4_001, size - 1).map(delta::get))
+                .containsExactly(values[0], values[127], values[128], values[2_999], values[3_500], values[4_001], values[size - 1]);
+        // The sorted values take a few bits per row instead of 32.
+        assertThat(sorted.estimatedBytes()).isLessThan(3_000L / 2);
+        for (var predicate : predicates) {
+            var plainQuery = new Query("plain");
+            plainQuery.rootNode.addCriteria(new Criteria.IntCriteria(0, predicate));
+            var deltaQuery = new Query("delta");
+            deltaQuery.rootNode.addCriteria(new Criteria.IntCriteria(0, predicate));
+
+            if (!(dataSystem.execute(plainQuery) instanceof Success(var plainTable)) || !(plainTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var plainMatches))) {
+                throw failed("Expected a successful result with an IntegerColumn");
+            }
+            if (!(dataSystem.execute(deltaQuery) instanceof Success(var deltaTable)) || !(deltaTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var deltaMatches))) {
+                throw failed("Expected a successful result with an IntegerColumn");
+            }
+            assertThat(deltaMatches).as(predicate.toString()).isNotEmpty().isEqualTo(plainMatches);
+        }
+    }
+
+    /**
+     * Run-length encoded columns and associations must answer the same as the plain ones, in both directions of the
+     * association.
+     */
+    @Test
+    void runLengthEncoding() {
+        // Arrange
+        //
+        // The ZIP codes are grouped by city, and the cities by state, like they would be after a sort.
+        int zipCount = 10_000;
+        int[] codes = IntStream.range(0, zipCount).toArray();
+        int[] states = IntStream.range(0, zipCount).map(zip -> zip / 1_000).toArray();
+        String[] cityNames = IntStream.range(0, 100).mapToObj(city -> "city-" + city).toArray(String[]::new);
+        Association[] zipCities = IntStream.range(0, zipCount).mapToObj(zip -> Association.toOne(zip / 100)).toArray(Association[]::new);
+
+        var plainZips = ofColumns(ofInts(codes), ofInts(states));
+        var plainCities = ofColumns(ofStrings(cityNames));
+        plainZips.associateTo(plainCities, zipCities);
+        var clusteredZips = ofColumns(ofInts(codes), InMemoryColumn.RunLengthIntegerColumn.encode(states));
+        var clusteredCities = ofColumns(ofStrings(cityNames));
+        var clusteredAssociation = clusteredZips.associateToClustered(clusteredCities, zipCities);
+        dataSystem.register("plainZips", plainZips);
+        dataSystem.register("plainCities", plainCities);
+        dataSystem.register("clusteredZips", clusteredZips);
+        dataSystem.register("clusteredCities", clusteredCities);
+
+        // Zips in states 2 to 4 that are in a city whose name ends with "7" (the child narrows the parent through the
+        // reverse association).
+        Function<String, Query> zipsQuery = tableName -> {
+            var query = new Query(tableName);
+            query.rootNode.addCriteria(Criteria.IntCriteria.range(1, 2, 5))
+                    .createChild(2)
+                    .addCriteria(new Criteria.StringCriteria(0, name -> name.endsWith("7")));
+            return query;
+        };
+        // Cities that have a ZIP code that is a multiple of 1,234 (the child narrows the parent through the forward
+        // association).
+        Function<String, Query> citiesQuery = tableName -> {
+            var query = new Query(tableName);
+            query.rootNode.createChild(1)
+                    .addCriteria(new Criteria.IntCriteria(0, code -> code % 1_234 == 0));
+            return query;
+        };
+
+        // Act
+        var plainZipsResult = dataSystem.execute(zipsQuery.apply("plainZips"));
+        var clusteredZipsResult = dataSystem.execute(zipsQuery.apply("clusteredZips"));
+        var plainCitiesResult = dataSystem.execute(citiesQuery.apply("plainCities"));
+        var clusteredCitiesResult = dataSystem.execute(citiesQuery.apply("clusteredCities"));
+
+        // Assert
+        if (!(plainZipsResult instanceof Success(var plainZipsTable)) || !(plainZipsTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var plainCodes))
+            || !(clusteredZipsResult instanceof Success(var clusteredZipsTable)) || !(clusteredZipsTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var clusteredCodes))) {
+            throw failed("Expected successful results with an IntegerColumn");
+        }
+        assertThat(clusteredCodes).hasSize(300).isEqualTo(plainCodes);
+
+        if (!(plainCitiesResult instanceof Success(var plainCitiesTable)) || !(plainCitiesTable.columns().getFirst() instanceof StringColumn(var plainNames))
+            || !(clusteredCitiesResult instanceof Success(var clusteredCitiesTable)) || !(clusteredCitiesTable.columns().getFirst() instanceof StringColumn(var clusteredNames))) {
+            throw failed("Expected successful results with a StringColumn");
+        }
+        assertThat(clusteredNames).hasSize(9).isEqualTo(plainNames);
+
+        // A lambda on the run-length encoded column is scanned once per run, not tested once per row.
+        var tests = new AtomicInteger();
+        var lambdaQuery = new Query("clusteredZips");
+        lambdaQuery.rootNode.addCriteria(new Criteria.IntCriteria(1, state -> tests.incrementAndGet() > 0 && state % 3 == 0));
+        if (!(dataSystem.execute(lambdaQuery) instanceof Success(var lambdaTable)) || !(lambdaTable.columns().getFirst() instanceof InMemoryColumn.IntegerColumn(var lambdaCodes))) {
+            throw failed("Expected a successful result with an IntegerColumn");
+        }
+        assertThat(lambdaCodes).isEqualTo(IntStream.range(0, zipCount).filter(zip -> zip / 1_000 % 3 == 0).toArray());
+        assertThat(tests.get()).isLessThan(100);
+
+        // One run per city in both directions, instead of one or more ints per ZIP code.
+        assertThat(clusteredAssociation.runEnds).hasSize(100);
+        assertThat(clusteredAssociation.reverseAssociatedColumn().runEnds).hasSize(100);
+        assertThat(clusteredZips.columns().get(1).estimatedBytes()).isLessThan(plainZips.columns().get(1).estimatedBytes() / 100);
+        // Not clustered: the rows that associate to row 0 are not consecutive.
+        assertThatThrownBy(() -> ofColumns(ofInts(1, 2, 3)).associateToClustered(ofColumns(ofInts(1, 2)), Association.toOne(0), Association.toOne(1), Association.toOne(0)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * A trigram index narrows "contains" and regex criteria down to candidate rows. The results must be the same as a
+     * full scan, including for expressions that the index can't narrow down.
+     */
+    @Test
+    void trigramIndex() {
+        // Arrange
+        int size = 20_000;
+        String[] values = Stream.concat(IntStream.range(0, size).mapToObj(i -> "item-" + i + (i % 3 == 0 ? "-abc" : "-xyz")),
+                Stream.of("x\u0001bcd")).toArray(String[]::new);
+        dataSystem.register("items", ofColumns(ofStrings(values)));
+        dataSystem.createTrigramIndex("items", 0);
+        List<Criteria.StringExpression> expressions = List.of(
+                new Criteria.StringContains("1234"),
+                new Criteria.StringContains("-ab"),
+                new Criteria.StringContains("zzz"),
+                new Criteria.StringContains("12"),
+                new Criteria.StringRegex(Pattern.compile("item-1\\d?99-a.c")),
+                new Criteria.StringRegex(Pattern.compile("item-(1|2)00-xyz")),
+                new Criteria.StringRegex(Pattern.compile("ITEM-5.*", Pattern.CASE_INSENSITIVE)),
+                // Escaped code points and control characters are not literal runs of their digits or letters.
+                new Criteria.StringRegex(Pattern.compile("\\x69tem-12.-abc")),
+                new Criteria.StringRegex(Pattern.compile("\\x{69}tem-12.-abc")),
+                new Criteria.StringRegex(Pattern.compile("\\u0069tem-12.-abc")),
+                new Criteria.StringRegex(Pattern.compile("\\0151tem-12.-abc")),
+                new Criteria.StringRegex(Pattern.compile("x\\cAbcd")));
+
+        for (var expression : expressions) {
+            var query = new Query("items");
+            query.rootNode.addCriteria(new Criteria.StringCriteria(0, expression));
+
+            // Act
+            var result = dataSystem.executeProfiled(query, DataSystemSerialIndices.ExecutionMode.LEAVES_UP);
+
+            // Assert
+            if (!(result.result() instanceof Success(var table)) || !(table.columns().getFirst() instanceof StringColumn(var matches))) {
+                throw failed("Expected a successful result with a StringColumn");
+            }
+            assertThat(matches).as(expression.toString()).containsExactly(Stream.of(values).filter(expression::test).toArray(String[]::new));
+            boolean narrowed = !(expression instanceof Criteria.StringContains(var substring) && substring.length() < 3)
+                               && !(expression instanceof Criteria.StringRegex(var pattern) && pattern.flags() != 0);
+            assertThat(result.statistics().getFirst().criteria().getFirst().description().contains("(trigram index")).as(expression.toString()).isEqualTo(narrowed);
+        }
+
+        assertThatThrownBy(() -> dataSystem.createTrigramIndex("items", 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> dataSystem.createTrigramIndex("nope", 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
     /**
      * Multi-criteria query.
      */
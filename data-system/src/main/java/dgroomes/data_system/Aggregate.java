@@ -0,0 +1,54 @@
+package dgroomes.data_system;
+
+/**
+ * An aggregate function over the matching rows of a query. See {@link Query#aggregate(Aggregate...)}.
+ * <p>
+ * The ordinals are the ordinals of integer columns of the root table.
+ */
+public sealed interface Aggregate {
+
+    static Aggregate count() {
+        return new Count();
+    }
+
+    static Aggregate sum(int ordinal) {
+        return new Sum(ordinal);
+    }
+
+    static Aggregate min(int ordinal) {
+        return new Min(ordinal);
+    }
+
+    static Aggregate max(int ordinal) {
+        return new Max(ordinal);
+    }
+
+    static Aggregate avg(int ordinal) {
+        return new Avg(ordinal);
+    }
+
+    /**
+     * The number of matching rows, like "count(*)". The value is a {@link Long}.
+     */
+    record Count() implements Aggregate {}
+
+    /**
+     * The sum of the values. The value is a {@link Long}.
+     */
+    record Sum(int ordinal) implements Aggregate {}
+
+    /**
+     * The smallest value. The value is an {@link Integer}, or null when there are no matching rows.
+     */
+    record Min(int ordinal) implements Aggregate {}
+
+    /**
+     * The largest value. The value is an {@link Integer}, or null when there are no matching rows.
+     */
+    record Max(int ordinal) implements Aggregate {}
+
+    /**
+     * The average of the values. The value is a {@link Double}, or null when there are no matching rows.
+     */
+    record Avg(int ordinal) implements Aggregate {}
+}
@@ -0,0 +1,28 @@
+package dgroomes.data_system;
+
+import java.util.List;
+
+/**
+ * The result of aggregating the matching rows of a query. See {@link DataSystem#aggregate(Query)}.
+ */
+sealed public interface AggregateResult permits AggregateResult.Success, AggregateResult.Failure {
+
+    /**
+     * @param groups the groups, ordered by key. When the query has no group-by, there is exactly one group and its key
+     *               is null.
+     */
+    record Success(List<Group> groups) implements AggregateResult {
+    }
+
+    record Failure(String message) implements AggregateResult {
+    }
+
+    /**
+     * @param key    the value of the group-by column (an {@link Integer} or a {@link String}) or null when the query has
+     *               no group-by
+     * @param values the values of the aggregates, in the order of {@link Query#getAggregates()}. See {@link Aggregate}
+     *               for the type of each value. A value may be null.
+     */
+    record Group(Object key, List<Number> values) {
+    }
+}
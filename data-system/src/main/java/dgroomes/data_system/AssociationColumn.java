@@ -1,14 +1,82 @@
 package dgroomes.data_system;
 
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
 public interface AssociationColumn extends Column {
 
     Table associatedEntity();
 
+    /**
+     * The association column of the associated table that associates back to this table.
+     *
+     * @throws IllegalStateException if there is none (see {@link #hasReverseAssociatedColumn()})
+     */
     AssociationColumn reverseAssociatedColumn();
 
+    /**
+     * Whether there is a reverse association column. The association columns of a subset or a view don't have one.
+     */
+    boolean hasReverseAssociatedColumn();
+
     /**
      * For the row at the given index, return the associations from that row to the rows in the associated (other)
      * table.
      */
     Association associationsForIndex(int i);
+
+    /**
+     * Visit the associated rows of the row at the given index. The default implementation goes through
+     * {@link #associationsForIndex(int)}.
+     */
+    default void forEachAssociated(int i, IntConsumer action) {
+        switch (associationsForIndex(i)) {
+            case Association.Many(var indices) -> {
+                for (int index : indices) action.accept(index);
+            }
+            case Association.One(var index) -> action.accept(index);
+            case Association.None ignored -> {
+                // No-op
+            }
+        }
+    }
+
+    /**
+     * For each row that is set in {@code rows} and is in the range {@code [fromIndex, toIndex)}, set the bits of its
+     * associated rows in {@code associatedRows}. This is how matches are propagated across an association.
+     * <p>
+     * The default implementation goes through {@link #associationsForIndex(int)}. Implementations with a flat layout
+     * should override this with a loop that doesn't materialize {@link Association} objects.
+     */
+    default void propagate(BitSet rows, int fromIndex, int toIndex, BitSet associatedRows) {
+        for (int i = rows.nextSetBit(fromIndex); i >= 0 && i < toIndex; i = rows.nextSetBit(i + 1)) {
+            switch (associationsForIndex(i)) {
+                case Association.Many(var indices) -> {
+                    for (int index : indices) associatedRows.set(index);
+                }
+                case Association.One(var index) -> associatedRows.set(index);
+                case Association.None ignored -> {
+                    // No-op
+                }
+            }
+        }
+    }
+
+    /**
+     * Like {@link #propagate(BitSet, int, int, BitSet)} but for all the rows of a {@link CompressedBitmap}. The
+     * associated rows are added to {@code associatedRows}. They come in any order, which is why they go into a builder.
+     */
+    default void propagate(CompressedBitmap rows, CompressedBitmap.Builder associatedRows) {
+        rows.forEach(i -> {
+            switch (associationsForIndex(i)) {
+                case Association.Many(var indices) -> {
+                    for (int index : indices) associatedRows.add(index);
+                }
+                case Association.One(var index) -> associatedRows.add(index);
+                case Association.None ignored -> {
+                    // No-op
+                }
+            }
+        });
+    }
 }
@@ -0,0 +1,61 @@
+package dgroomes.data_system;
+
+import java.util.PrimitiveIterator;
+
+/**
+ * A {@link ResultCursor} that fills one reusable selection vector from an iterator over the result rows.
+ */
+final class BatchCursor implements ResultCursor {
+
+    private final Table table;
+    private final int[] rows;
+    private PrimitiveIterator.OfInt remaining;
+    private int size;
+
+    BatchCursor(Table table, PrimitiveIterator.OfInt remaining, int batchCapacity) {
+        if (batchCapacity < 1) {
+            throw new IllegalArgumentException("The batch capacity must be at least 1 but was " + batchCapacity);
+        }
+        this.table = table;
+        this.remaining = remaining;
+        this.rows = new int[batchCapacity];
+    }
+
+    @Override
+    public Table table() {
+        return table;
+    }
+
+    @Override
+    public int batchCapacity() {
+        return rows.length;
+    }
+
+    @Override
+    public boolean next() {
+        size = 0;
+        if (remaining == null) return false;
+        while (size < rows.length && remaining.hasNext()) {
+            rows[size++] = remaining.nextInt();
+        }
+        if (size == 0) close();
+        return size > 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int[] rows() {
+        return rows;
+    }
+
+    @Override
+    public void close() {
+        // Let go of the iterator (and whatever execution state it holds on to).
+        remaining = null;
+        size = 0;
+    }
+}
@@ -0,0 +1,58 @@
+package dgroomes.data_system;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The values of the parameters of a query. See {@link Criteria.IntParameter} and {@link Criteria.StringParameter}.
+ * <p>
+ * Instances are immutable. {@link #bind} returns a new instance, so it's safe to share bindings between threads.
+ */
+public final class Bindings {
+
+    public static final Bindings EMPTY = new Bindings(Map.of());
+
+    private final Map<String, Object> values;
+
+    private Bindings(Map<String, Object> values) {
+        this.values = values;
+    }
+
+    public Bindings bind(String name, Criteria.IntExpression value) {
+        return with(name, value);
+    }
+
+    public Bindings bind(String name, Criteria.StringExpression value) {
+        return with(name, value);
+    }
+
+    private Bindings with(String name, Object value) {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(value);
+        var copy = new HashMap<>(values);
+        copy.put(name, value);
+        return new Bindings(Map.copyOf(copy));
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no integer expression bound to the parameter
+     */
+    public Criteria.IntExpression intValue(String name) {
+        if (values.get(name) instanceof Criteria.IntExpression expression) return expression;
+        throw new IllegalArgumentException("No integer expression is bound to the parameter '%s'".formatted(name));
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no string expression bound to the parameter
+     */
+    public Criteria.StringExpression stringValue(String name) {
+        if (values.get(name) instanceof Criteria.StringExpression expression) return expression;
+        throw new IllegalArgumentException("No string expression is bound to the parameter '%s'".formatted(name));
+    }
+
+    @Override
+    public String toString() {
+        return "Bindings" + values;
+    }
+}
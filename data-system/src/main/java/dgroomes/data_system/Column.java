@@ -14,4 +14,12 @@ public interface Column {
      * The type of the column.
      */
     ColumnFilterable filterableType();
+
+    /**
+     * A rough estimate of the memory, in bytes, that is retained by the column. This is for sizing things like caches,
+     * not for accounting. The default assumes 8 bytes per element.
+     */
+    default long estimatedBytes() {
+        return 8L * height();
+    }
 }
@@ -1,5 +1,6 @@
 package dgroomes.data_system;
 
+import java.util.IntSummaryStatistics;
 import java.util.function.IntPredicate;
 import java.util.function.Predicate;
 
@@ -11,16 +12,105 @@ public sealed interface ColumnFilterable {
 
     non-sealed interface StringColumnFilterable extends ColumnFilterable {
         IntPredicate where(Predicate<String> predicate);
+
+        /**
+         * The value of the row at the given index.
+         */
+        String get(int index);
+
+        /**
+         * The "bulk" alternative to {@link #where(Predicate)}. See {@link IntegerColumnFilterable#scan}.
+         */
+        default void scan(Predicate<String> predicate, int fromIndex, int toIndex, long[] words) {
+            IntPredicate rowPredicate = where(predicate);
+            int base = fromIndex >>> 6;
+            for (int i = fromIndex; i < toIndex; i++) {
+                if (rowPredicate.test(i)) words[(i >>> 6) - base] |= 1L << i;
+            }
+        }
+
+        /**
+         * Bind the predicate to a scan that is called many times, for example once per morsel. The work that only
+         * depends on the predicate (like translating it to a predicate over the codes of a dictionary) is done once,
+         * here, instead of on every call of {@link #scan}.
+         */
+        default Scan prepareScan(Predicate<String> predicate) {
+            IntPredicate rowPredicate = where(predicate);
+            return (fromIndex, toIndex, words) -> {
+                int base = fromIndex >>> 6;
+                for (int i = fromIndex; i < toIndex; i++) {
+                    if (rowPredicate.test(i)) words[(i >>> 6) - base] |= 1L << i;
+                }
+            };
+        }
     }
 
     non-sealed interface IntegerColumnFilterable extends ColumnFilterable {
         IntPredicate where(IntPredicate predicate);
+
+        /**
+         * The value of the row at the given index.
+         */
+        int get(int index);
+
+        /**
+         * Add the values of the rows whose bits are set in the words {@code [fromWord, toWord)} to the statistics. The
+         * words are laid out like the words of a {@link java.util.BitSet}.
+         * <p>
+         * This is the "bulk" way to aggregate a column (see {@link Aggregate}). The default implementation reads one
+         * row at a time.
+         */
+        default void summarize(long[] words, int fromWord, int toWord, IntSummaryStatistics statistics) {
+            for (int w = fromWord; w < toWord; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    statistics.accept(get((w << 6) + Long.numberOfTrailingZeros(word)));
+                }
+            }
+        }
+
+        /**
+         * Test the rows in the range {@code [fromIndex, toIndex)} against the predicate and set the bits of the matching
+         * rows in the given words. The words are a window of the words of a {@link java.util.BitSet} (see
+         * {@link java.util.BitSet#toLongArray()}) that starts at the word of {@code fromIndex}: row {@code i} is bit
+         * {@code i & 63} of {@code words[(i >>> 6) - (fromIndex >>> 6)]}. So the caller only needs words for the range,
+         * not for the whole table. Bits are only ever set, never cleared.
+         * <p>
+         * This is the "bulk" alternative to {@link #where(IntPredicate)}. Implementations can recognize some kinds of
+         * predicates (e.g. the {@link Criteria.IntExpression}s) and evaluate them with an optimized strategy. The default
+         * implementation tests each row one at a time.
+         */
+        default void scan(IntPredicate predicate, int fromIndex, int toIndex, long[] words) {
+            IntPredicate rowPredicate = where(predicate);
+            int base = fromIndex >>> 6;
+            for (int i = fromIndex; i < toIndex; i++) {
+                if (rowPredicate.test(i)) words[(i >>> 6) - base] |= 1L << i;
+            }
+        }
+
+        /**
+         * If any predicate, even a lambda, is cheaper to evaluate with {@link #scan} than with {@link #where}. That is
+         * the case for a column that tests a predicate once per group of rows instead of once per row (e.g. once per
+         * run of a run-length encoded column). The data systems usually test a lambda with {@link #where}, on the rows
+         * that are still matching, but for these columns they scan it instead.
+         */
+        default boolean prefersScan() {
+            return false;
+        }
     }
 
     non-sealed interface BooleanColumnFilterable extends ColumnFilterable {
         IntPredicate where(Predicate<Boolean> predicate);
     }
 
+    /**
+     * A scan that is bound to a predicate. It sets the bits of the matching rows in the range {@code [fromIndex, toIndex)}
+     * like {@link IntegerColumnFilterable#scan} does, in words that start at the word of {@code fromIndex}.
+     */
+    @FunctionalInterface
+    interface Scan {
+        void scan(int fromIndex, int toIndex, long[] words);
+    }
+
     // Not sure this makes sense. Again, modelling associations as a column might be a bad idea.
     non-sealed interface AssociationColumnFilterable extends ColumnFilterable {
         IntPredicate where(Predicate<Association> predicate);
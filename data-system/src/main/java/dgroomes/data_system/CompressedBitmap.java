@@ -0,0 +1,683 @@
+package dgroomes.data_system;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of row indices in the style of "Roaring" bitmaps. See <a href="https://roaringbitmap.org">https://roaringbitmap.org</a>.
+ * <p>
+ * The rows are split into chunks of 65,536 rows by the high 16 bits of their index. Each non-empty chunk has a container
+ * for the low 16 bits, and the type of the container is chosen by the density of the chunk:
+ * <ul>
+ *     <li>An "array" container is a sorted array of the rows. It's used for chunks with at most 4,096 rows. It costs 2
+ *     bytes per row.</li>
+ *     <li>A "bitmap" container is 1,024 words (8 KiB). It's used for denser chunks. It costs 1 bit per row of the
+ *     chunk, like a {@link BitSet}.</li>
+ * </ul>
+ * Empty chunks cost nothing. So, a few thousand matching rows in a table of hundreds of millions of rows cost a few KiB
+ * instead of tens of MiB. And the intersection of two sparse sets is a merge of two short arrays instead of a pass over
+ * all the words of two huge {@link BitSet}s.
+ * <p>
+ * Note: Roaring also has "run" containers for long runs of consecutive rows. They are not implemented here. A full chunk
+ * is a bitmap container.
+ * <p>
+ * The set operations ({@link #and}, {@link #or}) return new instances and never modify their operands. Only
+ * {@link #add(int)} modifies an instance. Like {@link BitSet}, an instance that is being modified is not thread-safe. To
+ * add many rows out of order, or to build a bitmap one window of words at a time, use a {@link Builder}.
+ */
+public final class CompressedBitmap {
+
+    /**
+     * The maximum number of rows in an array container. At this point, an array container (2 bytes per row) is as big
+     * as a bitmap container.
+     */
+    static final int ARRAY_MAX = 4096;
+
+    private static final int CHUNK_WORDS = 1024;
+
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+
+    public CompressedBitmap() {
+        this(new char[4], new Container[4], 0);
+    }
+
+    private CompressedBitmap(char[] keys, Container[] containers, int size) {
+        this.keys = keys;
+        this.containers = containers;
+        this.size = size;
+    }
+
+    public static CompressedBitmap of(int... rows) {
+        var bitmap = new CompressedBitmap();
+        for (int row : rows) bitmap.add(row);
+        return bitmap;
+    }
+
+    /**
+     * Create a bitmap from words that are laid out like the words of a {@link BitSet} (see {@link BitSet#toLongArray()}).
+     */
+    public static CompressedBitmap fromWords(long[] words) {
+        int chunkCount = (words.length + CHUNK_WORDS - 1) / CHUNK_WORDS;
+        var keys = new char[Math.max(chunkCount, 1)];
+        var containers = new Container[Math.max(chunkCount, 1)];
+        int size = 0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int fromWord = chunk * CHUNK_WORDS;
+            Container container = container(words, fromWord, Math.min(fromWord + CHUNK_WORDS, words.length), false);
+            if (container == null) continue;
+            keys[size] = (char) chunk;
+            containers[size] = container;
+            size++;
+        }
+        return new CompressedBitmap(keys, containers, size);
+    }
+
+    /**
+     * The container of the rows of the words {@code [fromWord, toWord)}, which are the words of one chunk, or null if
+     * there are none.
+     *
+     * @param owned if the words are a whole chunk that the container can keep instead of copying
+     */
+    private static Container container(long[] words, int fromWord, int toWord, boolean owned) {
+        int cardinality = 0;
+        for (int w = fromWord; w < toWord; w++) cardinality += Long.bitCount(words[w]);
+        if (cardinality == 0) return null;
+
+        if (cardinality <= ARRAY_MAX) {
+            var values = new char[cardinality];
+            int j = 0;
+            for (int w = fromWord; w < toWord; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    values[j++] = (char) (((w - fromWord) << 6) + Long.numberOfTrailingZeros(word));
+                }
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+        return new BitmapContainer(owned ? words : Arrays.copyOf(Arrays.copyOfRange(words, fromWord, toWord), CHUNK_WORDS), cardinality);
+    }
+
+    /**
+     * Builds a bitmap from rows that are added in any order, for example the targets of an association.
+     * <p>
+     * Adding rows one at a time to a {@link CompressedBitmap} costs a binary search over the chunks and, for an array
+     * container, an insertion into a sorted array. That is quadratic when many rows are added out of order. A builder
+     * instead sets bits in a dense chunk of words (allocated when the chunk is first touched), so an add is a single
+     * bit operation, and compresses the chunks once in {@link #build()}.
+     */
+    public static final class Builder {
+
+        private long[][] chunks = new long[0][];
+
+        /**
+         * The chunks that {@link #appendWords} has moved past, already compressed. See {@link #seal(int)}.
+         */
+        private Container[] sealed = new Container[0];
+        private int appendHigh = -1;
+
+        public Builder add(int row) {
+            chunk(row >>> 16)[(row >>> 6) & (CHUNK_WORDS - 1)] |= 1L << row;
+            return this;
+        }
+
+        /**
+         * Add the rows {@code [fromRow, toRow)}. The bits are set a word at a time.
+         */
+        public Builder addRange(int fromRow, int toRow) {
+            while (fromRow < toRow) {
+                int high = fromRow >>> 16;
+                long chunkStart = (long) high << 16;
+                int to = (int) Math.min(toRow, chunkStart + (1 << 16));
+                setRange(chunk(high), (int) (fromRow - chunkStart), (int) (to - chunkStart));
+                fromRow = to;
+            }
+            return this;
+        }
+
+        /**
+         * Add the rows of the given words. The words are a window of the words of a bitmap: {@code words[0]} is word
+         * {@code fromWord}, and only the first {@code wordCount} words are read.
+         * <p>
+         * This is for rows that are produced in ascending order, for example one morsel at a time. Windows must be
+         * appended in ascending order and after any rows that were added with {@link #add} or {@link #addRange}. In
+         * return, each chunk is compressed as soon as the windows move past it, so at most one chunk is held as dense
+         * words.
+         */
+        public Builder appendWords(int fromWord, long[] words, int wordCount) {
+            for (int w = 0; w < wordCount; w++) {
+                long word = words[w];
+                if (word == 0) continue;
+                int absoluteWord = fromWord + w;
+                int high = absoluteWord / CHUNK_WORDS;
+                if (high != appendHigh) {
+                    seal(appendHigh);
+                    appendHigh = high;
+                }
+                chunk(high)[absoluteWord & (CHUNK_WORDS - 1)] |= word;
+            }
+            return this;
+        }
+
+        /**
+         * Compress the chunk. No more rows may be added to it.
+         */
+        private void seal(int high) {
+            if (high < 0 || chunks[high] == null) return;
+            sealed[high] = container(chunks[high], 0, CHUNK_WORDS, true);
+            chunks[high] = null;
+        }
+
+        /**
+         * Build the bitmap. The builder must not be used afterward.
+         */
+        public CompressedBitmap build() {
+            seal(appendHigh);
+            int chunkCount = 0;
+            for (int high = 0; high < chunks.length; high++) if (chunks[high] != null || sealed[high] != null) chunkCount++;
+            var keys = new char[Math.max(chunkCount, 1)];
+            var containers = new Container[Math.max(chunkCount, 1)];
+            int size = 0;
+            for (int high = 0; high < chunks.length; high++) {
+                Container container = chunks[high] != null ? container(chunks[high], 0, CHUNK_WORDS, true) : sealed[high];
+                if (container == null) continue;
+                keys[size] = (char) high;
+                containers[size] = container;
+                size++;
+            }
+            chunks = null;
+            sealed = null;
+            return new CompressedBitmap(keys, containers, size);
+        }
+
+        private static void setRange(long[] words, int fromIndex, int toIndex) {
+            int first = fromIndex >>> 6;
+            int last = (toIndex - 1) >>> 6;
+            long firstMask = -1L << fromIndex;
+            long lastMask = -1L >>> -toIndex;
+            if (first == last) {
+                words[first] |= firstMask & lastMask;
+                return;
+            }
+            words[first] |= firstMask;
+            for (int w = first + 1; w < last; w++) words[w] = -1L;
+            words[last] |= lastMask;
+        }
+
+        private long[] chunk(int high) {
+            if (high >= chunks.length) {
+                chunks = Arrays.copyOf(chunks, Math.max(high + 1, chunks.length * 2));
+                sealed = Arrays.copyOf(sealed, chunks.length);
+            }
+            long[] chunk = chunks[high];
+            if (chunk == null) chunk = chunks[high] = new long[CHUNK_WORDS];
+            return chunk;
+        }
+    }
+
+    public static CompressedBitmap fromBitSet(BitSet bits) {
+        return fromWords(bits.toLongArray());
+    }
+
+    /**
+     * Add the row to the set.
+     */
+    public void add(int row) {
+        char high = (char) (row >>> 16);
+        int i = Arrays.binarySearch(keys, 0, size, high);
+        if (i >= 0) {
+            containers[i] = containers[i].add((char) row);
+            return;
+        }
+
+        i = -i - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = high;
+        containers[i] = new ArrayContainer(new char[]{(char) row}, 1);
+        size++;
+    }
+
+    public boolean contains(int row) {
+        int i = Arrays.binarySearch(keys, 0, size, (char) (row >>> 16));
+        return i >= 0 && containers[i].contains((char) row);
+    }
+
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) cardinality += containers[i].cardinality();
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The rows that are in both sets.
+     */
+    public CompressedBitmap and(CompressedBitmap other) {
+        var result = new CompressedBitmap(new char[Math.max(Math.min(size, other.size), 1)], new Container[Math.max(Math.min(size, other.size), 1)], 0);
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container intersection = containers[i].and(other.containers[j]);
+                if (intersection.cardinality() > 0) {
+                    result.keys[result.size] = keys[i];
+                    result.containers[result.size] = intersection;
+                    result.size++;
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The rows that are in either set.
+     */
+    public CompressedBitmap or(CompressedBitmap other) {
+        var result = new CompressedBitmap(new char[Math.max(size + other.size, 1)], new Container[Math.max(size + other.size, 1)], 0);
+        int i = 0, j = 0;
+        while (i < size || j < other.size) {
+            char key;
+            Container union;
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                key = keys[i];
+                union = containers[i++].copy();
+            } else if (i == size || keys[i] > other.keys[j]) {
+                key = other.keys[j];
+                union = other.containers[j++].copy();
+            } else {
+                key = keys[i];
+                union = containers[i++].or(other.containers[j++]);
+            }
+            result.keys[result.size] = key;
+            result.containers[result.size] = union;
+            result.size++;
+        }
+        return result;
+    }
+
+    /**
+     * Visit the rows in ascending order.
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) containers[i].forEach(keys[i] << 16, action);
+    }
+
+    /**
+     * The first row that is at or after the given row, or -1 if there is none. Like {@link BitSet#nextSetBit(int)}.
+     */
+    public int nextSetBit(int fromRow) {
+        if (fromRow < 0) throw new IndexOutOfBoundsException("fromRow < 0: " + fromRow);
+        int i = Arrays.binarySearch(keys, 0, size, (char) (fromRow >>> 16));
+        if (i >= 0) {
+            int low = containers[i].nextValue((char) fromRow);
+            if (low >= 0) return keys[i] << 16 | low;
+            i++;
+        } else {
+            i = -i - 1;
+        }
+        // Every container is non-empty, so the next row is the first row of the next container.
+        return i < size ? keys[i] << 16 | containers[i].nextValue((char) 0) : -1;
+    }
+
+    /**
+     * Iterate over the rows in ascending order. The bitmap must not be modified during the iteration.
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int next = nextSetBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next < 0) throw new NoSuchElementException();
+                int row = next;
+                next = row == Integer.MAX_VALUE ? -1 : nextSetBit(row + 1);
+                return row;
+            }
+        };
+    }
+
+    /**
+     * The rows in ascending order.
+     */
+    public int[] toArray() {
+        var rows = new int[cardinality()];
+        int[] j = {0};
+        forEach(row -> rows[j[0]++] = row);
+        return rows;
+    }
+
+    /**
+     * The rows as words that are laid out like the words of a {@link BitSet}.
+     *
+     * @param wordCount the number of words. It must be enough to hold the highest row.
+     */
+    public long[] toWords(int wordCount) {
+        var words = new long[wordCount];
+        copyWords(0, words);
+        return words;
+    }
+
+    /**
+     * Set the bits of the rows in a window of the words of the bitmap: {@code words[0]} is word {@code fromWord}, and
+     * the window is {@code words.length} words long. Only the containers of the window are read, so a small window of a
+     * bitmap over a huge table is cheap.
+     */
+    public void copyWords(int fromWord, long[] words) {
+        long toWord = (long) fromWord + words.length;
+        int i = Arrays.binarySearch(keys, 0, size, (char) (fromWord / CHUNK_WORDS));
+        if (i < 0) i = -i - 1;
+        for (; i < size && (long) keys[i] * CHUNK_WORDS < toWord; i++) {
+            int chunkWord = keys[i] * CHUNK_WORDS;
+            int from = Math.max(fromWord, chunkWord);
+            int to = (int) Math.min(toWord, chunkWord + CHUNK_WORDS);
+            containers[i].copyTo(words, from - fromWord, from - chunkWord, to - chunkWord);
+        }
+    }
+
+    public BitSet toBitSet() {
+        return size == 0 ? new BitSet() : BitSet.valueOf(toWords((keys[size - 1] + 1) * CHUNK_WORDS));
+    }
+
+    /**
+     * A rough estimate of the memory, in bytes, that is retained by the bitmap.
+     */
+    public long estimatedBytes() {
+        long bytes = 32 + 10L * keys.length;
+        for (int i = 0; i < size; i++) bytes += containers[i].estimatedBytes();
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressedBitmap[cardinality=%d, chunks=%d]".formatted(cardinality(), size);
+    }
+
+    /**
+     * The container of the low 16 bits of the rows of one chunk.
+     */
+    private sealed interface Container permits ArrayContainer, BitmapContainer {
+
+        int cardinality();
+
+        boolean contains(char low);
+
+        /**
+         * Add the row. This may turn the container into a different type of container, so use the returned container
+         * from now on.
+         */
+        Container add(char low);
+
+        Container and(Container other);
+
+        Container or(Container other);
+
+        Container copy();
+
+        void forEach(int base, IntConsumer action);
+
+        /**
+         * The first value that is at or after the given value, or -1 if there is none.
+         */
+        int nextValue(char from);
+
+        /**
+         * Set the bits of the rows of the words {@code [fromWord, toWord)} of the container in the words, starting at
+         * the word {@code destWord}.
+         */
+        void copyTo(long[] words, int destWord, int fromWord, int toWord);
+
+        long estimatedBytes();
+    }
+
+    private static final class ArrayContainer implements Container {
+
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        @Override
+        public Container add(char low) {
+            int i = Arrays.binarySearch(values, 0, cardinality, low);
+            if (i >= 0) return this;
+            if (cardinality == ARRAY_MAX) return toBitmap().add(low);
+
+            i = -i - 1;
+            if (cardinality == values.length) values = Arrays.copyOf(values, Math.min(Math.max(cardinality * 2, 4), ARRAY_MAX));
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = low;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        public Container and(Container other) {
+            var result = new char[Math.min(cardinality, other.cardinality())];
+            int count = 0;
+            switch (other) {
+                case ArrayContainer array -> {
+                    // Merge the two sorted arrays.
+                    int i = 0, j = 0;
+                    while (i < cardinality && j < array.cardinality) {
+                        if (values[i] < array.values[j]) {
+                            i++;
+                        } else if (values[i] > array.values[j]) {
+                            j++;
+                        } else {
+                            result[count++] = values[i];
+                            i++;
+                            j++;
+                        }
+                    }
+                }
+                case BitmapContainer bitmap -> {
+                    for (int i = 0; i < cardinality; i++) {
+                        if (bitmap.contains(values[i])) result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        public Container or(Container other) {
+            return switch (other) {
+                case ArrayContainer array -> {
+                    var result = new char[cardinality + array.cardinality];
+                    int i = 0, j = 0, count = 0;
+                    while (i < cardinality || j < array.cardinality) {
+                        if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                            result[count++] = values[i++];
+                        } else if (i == cardinality || values[i] > array.values[j]) {
+                            result[count++] = array.values[j++];
+                        } else {
+                            result[count++] = values[i];
+                            i++;
+                            j++;
+                        }
+                    }
+                    var union = new ArrayContainer(result, count);
+                    yield count <= ARRAY_MAX ? union : union.toBitmap();
+                }
+                case BitmapContainer bitmap -> bitmap.or(this);
+            };
+        }
+
+        @Override
+        public Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+        }
+
+        @Override
+        public void forEach(int base, IntConsumer action) {
+            for (int i = 0; i < cardinality; i++) action.accept(base | values[i]);
+        }
+
+        @Override
+        public int nextValue(char from) {
+            int i = Arrays.binarySearch(values, 0, cardinality, from);
+            if (i < 0) i = -i - 1;
+            return i < cardinality ? values[i] : -1;
+        }
+
+        @Override
+        public void copyTo(long[] words, int destWord, int fromWord, int toWord) {
+            int i = fromWord == 0 ? 0 : Arrays.binarySearch(values, 0, cardinality, (char) (fromWord << 6));
+            if (i < 0) i = -i - 1;
+            for (int end = toWord << 6; i < cardinality && values[i] < end; i++) {
+                words[destWord + (values[i] >>> 6) - fromWord] |= 1L << values[i];
+            }
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return 32 + 2L * values.length;
+        }
+
+        BitmapContainer toBitmap() {
+            var words = new long[CHUNK_WORDS];
+            copyTo(words, 0, 0, CHUNK_WORDS);
+            return new BitmapContainer(words, cardinality);
+        }
+    }
+
+    private static final class BitmapContainer implements Container {
+
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        public Container add(char low) {
+            long before = words[low >>> 6];
+            words[low >>> 6] = before | (1L << low);
+            if (before != words[low >>> 6]) cardinality++;
+            return this;
+        }
+
+        @Override
+        public Container and(Container other) {
+            return switch (other) {
+                case ArrayContainer array -> array.and(this);
+                case BitmapContainer bitmap -> {
+                    var result = new long[CHUNK_WORDS];
+                    int count = 0;
+                    for (int w = 0; w < CHUNK_WORDS; w++) {
+                        result[w] = words[w] & bitmap.words[w];
+                        count += Long.bitCount(result[w]);
+                    }
+                    // The intersection may be sparse enough for an array container.
+                    yield count <= ARRAY_MAX ? toArray(result, count) : new BitmapContainer(result, count);
+                }
+            };
+        }
+
+        @Override
+        public Container or(Container other) {
+            var result = words.clone();
+            switch (other) {
+                case ArrayContainer array -> array.copyTo(result, 0, 0, CHUNK_WORDS);
+                case BitmapContainer bitmap -> {
+                    for (int w = 0; w < CHUNK_WORDS; w++) result[w] |= bitmap.words[w];
+                }
+            }
+            int count = 0;
+            for (long word : result) count += Long.bitCount(word);
+            return new BitmapContainer(result, count);
+        }
+
+        @Override
+        public Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        public void forEach(int base, IntConsumer action) {
+            for (int w = 0; w < CHUNK_WORDS; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    action.accept(base | (w << 6) + Long.numberOfTrailingZeros(word));
+                }
+            }
+        }
+
+        @Override
+        public int nextValue(char from) {
+            int w = from >>> 6;
+            long word = words[w] & (-1L << from);
+            while (word == 0) {
+                if (++w == CHUNK_WORDS) return -1;
+                word = words[w];
+            }
+            return (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+        @Override
+        public void copyTo(long[] words, int destWord, int fromWord, int toWord) {
+            for (int w = fromWord; w < toWord; w++) words[destWord + w - fromWord] |= this.words[w];
+        }
+
+        @Override
+        public long estimatedBytes() {
+            return 32 + 8L * CHUNK_WORDS;
+        }
+
+        private static ArrayContainer toArray(long[] words, int cardinality) {
+            var values = new char[cardinality];
+            int j = 0;
+            for (int w = 0; w < CHUNK_WORDS; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    values[j++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                }
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+    }
+}
@@ -1,11 +1,23 @@
 package dgroomes.data_system;
 
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.function.IntPredicate;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 /**
  * A criteria describes a specification (like 'x > 0') that targets values in a column. The column is not referenced
  * physically but is instead described by its ordinal pointer.
+ * <p>
+ * The specification is either an opaque lambda or a declarative expression (see {@link IntExpression} and
+ * {@link StringExpression}). Prefer the expressions. They can be inspected by the data system which can then choose an
+ * optimized evaluation strategy (e.g. SIMD, or merging multiple ranges into one). Lambdas are the escape hatch for
+ * everything else. They are opaque, so they are tested one value at a time: row by row, or in a bulk scan on a column
+ * that {@link ColumnFilterable.IntegerColumnFilterable#prefersScan() prefers scans} (e.g. once per run of a run-length
+ * encoded column).
  */
 sealed public interface Criteria permits Criteria.IntCriteria, Criteria.StringCriteria {
 
@@ -14,7 +26,360 @@ sealed public interface Criteria permits Criteria.IntCriteria, Criteria.StringCr
      */
     int ordinal();
 
-    record StringCriteria(int ordinal, Predicate<String> stringPredicate) implements Criteria {}
+    record StringCriteria(int ordinal, Predicate<String> stringPredicate) implements Criteria {
 
-    record IntCriteria(int ordinal, IntPredicate integerPredicate) implements Criteria {}
+        public static StringCriteria equalTo(int ordinal, String value) {
+            return new StringCriteria(ordinal, new StringEquals(value));
+        }
+
+        public static StringCriteria notEqualTo(int ordinal, String value) {
+            return new StringCriteria(ordinal, new StringNotEquals(value));
+        }
+
+        public static StringCriteria in(int ordinal, String... values) {
+            return new StringCriteria(ordinal, new StringIn(Set.of(values)));
+        }
+
+        public static StringCriteria startsWith(int ordinal, String prefix) {
+            return new StringCriteria(ordinal, new StringStartsWith(prefix));
+        }
+
+        public static StringCriteria contains(int ordinal, String substring) {
+            return new StringCriteria(ordinal, new StringContains(substring));
+        }
+
+        /**
+         * A criteria for values in the (lexicographic) range {@code [min, max)}.
+         */
+        public static StringCriteria range(int ordinal, String min, String max) {
+            return new StringCriteria(ordinal, new StringRange(min, max));
+        }
+
+        /**
+         * A criteria for values that match the regular expression in full. The expression is compiled once, here.
+         */
+        public static StringCriteria matches(int ordinal, String regex) {
+            return new StringCriteria(ordinal, new StringRegex(Pattern.compile(regex)));
+        }
+
+        /**
+         * A criteria whose expression is a named parameter. See {@link StringParameter}.
+         */
+        public static StringCriteria parameter(int ordinal, String name) {
+            return new StringCriteria(ordinal, new StringParameter(name));
+        }
+    }
+
+    record IntCriteria(int ordinal, IntPredicate integerPredicate) implements Criteria {
+
+        public static IntCriteria equalTo(int ordinal, int value) {
+            return new IntCriteria(ordinal, new IntEquals(value));
+        }
+
+        public static IntCriteria notEqualTo(int ordinal, int value) {
+            return new IntCriteria(ordinal, new IntNotEquals(value));
+        }
+
+        /**
+         * A criteria for values in the range {@code [min, max)}. Unlike a lambda, the range can be recognized by the data
+         * system which can then choose an optimized evaluation strategy (e.g. SIMD).
+         */
+        public static IntCriteria range(int ordinal, int min, int max) {
+            return new IntCriteria(ordinal, new IntRange(min, max));
+        }
+
+        /**
+         * A criteria for values in the range {@code [min, max]} (both ends are included).
+         */
+        public static IntCriteria between(int ordinal, int min, int max) {
+            return new IntCriteria(ordinal, new IntBetween(min, max));
+        }
+
+        public static IntCriteria in(int ordinal, int... values) {
+            return new IntCriteria(ordinal, new IntIn(values));
+        }
+
+        /**
+         * A criteria whose expression is a named parameter. See {@link IntParameter}.
+         */
+        public static IntCriteria parameter(int ordinal, String name) {
+            return new IntCriteria(ordinal, new IntParameter(name));
+        }
+    }
+
+    /**
+     * A declarative integer predicate.
+     * <p>
+     * Each expression is an {@link IntPredicate} so it can be used anywhere a lambda can, but because it is a record,
+     * it can be inspected.
+     */
+    sealed interface IntExpression extends IntPredicate permits IntEquals, IntNotEquals, IntRange, IntBetween, IntIn {
+
+        /**
+         * If this expression matches exactly the values of one contiguous range, then return that range. Contiguous
+         * ranges can be merged (intersected) with each other and they are the easiest kind of expression to optimize.
+         */
+        default Optional<IntBetween> asBetween() {
+            return Optional.empty();
+        }
+    }
+
+    record IntEquals(int value) implements IntExpression {
+
+        @Override
+        public boolean test(int v) {
+            return v == value;
+        }
+
+        @Override
+        public Optional<IntBetween> asBetween() {
+            return Optional.of(new IntBetween(value, value));
+        }
+    }
+
+    record IntNotEquals(int value) implements IntExpression {
+
+        @Override
+        public boolean test(int v) {
+            return v != value;
+        }
+    }
+
+    /**
+     * An integer predicate for values in the range {@code [min, max)}.
+     */
+    record IntRange(int min, int max) implements IntExpression {
+
+        @Override
+        public boolean test(int value) {
+            return value >= min && value < max;
+        }
+
+        @Override
+        public Optional<IntBetween> asBetween() {
+            // Careful: 'max - 1' overflows when the range is empty and 'max' is the minimum integer.
+            return Optional.of(min < max ? new IntBetween(min, max - 1) : IntBetween.EMPTY);
+        }
+    }
+
+    /**
+     * An integer predicate for values in the range {@code [min, max]}. When {@code min > max}, nothing matches.
+     */
+    record IntBetween(int min, int max) implements IntExpression {
+
+        /**
+         * The canonical empty range.
+         */
+        public static final IntBetween EMPTY = new IntBetween(0, -1);
+
+        @Override
+        public boolean test(int value) {
+            return value >= min && value <= max;
+        }
+
+        public boolean isEmpty() {
+            return min > max;
+        }
+
+        /**
+         * The range of values that are in both this range and the other range.
+         */
+        public IntBetween intersect(IntBetween other) {
+            var intersection = new IntBetween(Math.max(min, other.min), Math.min(max, other.max));
+            return intersection.isEmpty() ? EMPTY : intersection;
+        }
+
+        @Override
+        public Optional<IntBetween> asBetween() {
+            return Optional.of(isEmpty() ? EMPTY : this);
+        }
+    }
+
+    /**
+     * An integer predicate for values in a set. The values are copied, sorted and de-duplicated.
+     * <p>
+     * Note: records compare array components by identity, so {@code equals} and {@code hashCode} are overridden to
+     * compare the values.
+     */
+    record IntIn(int[] values) implements IntExpression {
+
+        public IntIn {
+            values = Arrays.stream(values).sorted().distinct().toArray();
+        }
+
+        @Override
+        public boolean test(int value) {
+            return Arrays.binarySearch(values, value) >= 0;
+        }
+
+        @Override
+        public Optional<IntBetween> asBetween() {
+            return switch (values.length) {
+                case 0 -> Optional.of(IntBetween.EMPTY);
+                case 1 -> Optional.of(new IntBetween(values[0], values[0]));
+                default -> Optional.empty();
+            };
+        }
+
+        @Override
+        public int[] values() {
+            return values.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntIn other && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return "IntIn" + Arrays.toString(values);
+        }
+    }
+
+    /**
+     * A declarative string predicate. See {@link IntExpression}.
+     */
+    sealed interface StringExpression extends Predicate<String> permits StringEquals, StringNotEquals, StringIn, StringStartsWith, StringRange, StringContains, StringRegex {}
+
+    record StringEquals(String value) implements StringExpression {
+
+        public StringEquals {
+            Objects.requireNonNull(value);
+        }
+
+        @Override
+        public boolean test(String s) {
+            return value.equals(s);
+        }
+    }
+
+    record StringNotEquals(String value) implements StringExpression {
+
+        public StringNotEquals {
+            Objects.requireNonNull(value);
+        }
+
+        @Override
+        public boolean test(String s) {
+            return !value.equals(s);
+        }
+    }
+
+    record StringIn(Set<String> values) implements StringExpression {
+
+        public StringIn {
+            values = Set.copyOf(values);
+        }
+
+        @Override
+        public boolean test(String s) {
+            return s != null && values.contains(s);
+        }
+    }
+
+    record StringStartsWith(String prefix) implements StringExpression {
+
+        public StringStartsWith {
+            Objects.requireNonNull(prefix);
+        }
+
+        @Override
+        public boolean test(String s) {
+            return s != null && s.startsWith(prefix);
+        }
+    }
+
+    /**
+     * A string predicate for values in the (lexicographic, see {@link String#compareTo(String)}) range {@code [min, max)}.
+     */
+    record StringRange(String min, String max) implements StringExpression {
+
+        public StringRange {
+            Objects.requireNonNull(min);
+            Objects.requireNonNull(max);
+        }
+
+        @Override
+        public boolean test(String s) {
+            return s != null && s.compareTo(min) >= 0 && s.compareTo(max) < 0;
+        }
+    }
+
+    record StringContains(String substring) implements StringExpression {
+
+        public StringContains {
+            Objects.requireNonNull(substring);
+        }
+
+        @Override
+        public boolean test(String s) {
+            return s != null && s.contains(substring);
+        }
+    }
+
+    /**
+     * A string predicate for values that match a regular expression in full.
+     * <p>
+     * Note: {@link Pattern} doesn't implement {@code equals}, so {@code equals} and {@code hashCode} are overridden to
+     * compare the expression and its flags.
+     */
+    record StringRegex(Pattern pattern) implements StringExpression {
+
+        public StringRegex {
+            Objects.requireNonNull(pattern);
+        }
+
+        @Override
+        public boolean test(String s) {
+            return s != null && pattern.matcher(s).matches();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StringRegex other && pattern.pattern().equals(other.pattern.pattern()) && pattern.flags() == other.pattern.flags();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pattern.pattern(), pattern.flags());
+        }
+    }
+
+    /**
+     * A placeholder for an integer expression that is bound when a prepared query is executed (see {@link Bindings}).
+     * <p>
+     * A parameter is not an expression itself. It can't be evaluated, so testing it fails.
+     */
+    record IntParameter(String name) implements IntPredicate {
+
+        public IntParameter {
+            Objects.requireNonNull(name);
+        }
+
+        @Override
+        public boolean test(int value) {
+            throw new IllegalStateException("The parameter '%s' is not bound".formatted(name));
+        }
+    }
+
+    /**
+     * A placeholder for a string expression. See {@link IntParameter}.
+     */
+    record StringParameter(String name) implements Predicate<String> {
+
+        public StringParameter {
+            Objects.requireNonNull(name);
+        }
+
+        @Override
+        public boolean test(String s) {
+            throw new IllegalStateException("The parameter '%s' is not bound".formatted(name));
+        }
+    }
 }
@@ -0,0 +1,12 @@
+package dgroomes.data_system;
+
+/**
+ * The result of opening a cursor over the result set of a query. See {@link DataSystem#cursor(Query, int)}.
+ */
+sealed public interface CursorResult permits CursorResult.Opened, CursorResult.Failure {
+    record Opened(ResultCursor cursor) implements CursorResult {
+    }
+
+    record Failure(String message) implements CursorResult {
+    }
+}
@@ -1,13 +1,16 @@
 package dgroomes.data_system;
 
+import java.util.stream.IntStream;
+
 /**
  * An instance of {@link DataSystem} is a "read-only object datastore and query engine".
  * <p>
  * It is a specific data system limited to the goals of this project. Basically, it lets you query table-like data with
- * a primitive pattern matching query API (like the 'cypher' query language). It does not do aggregations. There is no
- * query "language" but instead just a Java API for expressing queries.
+ * a primitive pattern matching query API (like the 'cypher' query language). There is no query "language" but instead
+ * just a Java API for expressing queries.
  * <p>
- * Consider it a toy implementation of parts of a database. It does not do aggregations.
+ * Consider it a toy implementation of parts of a database. Aggregations are limited to a few functions over integer
+ * columns (see {@link Aggregate}) and an optional group-by.
  * <p>
  * Specific implementations of {@link DataSystem} offer a way to load data into the system but that varies for different
  * providers. For a SQL-based system, for example, the write/load interface would be JDBC.
@@ -29,4 +32,30 @@ public interface DataSystem {
      * like a traditional flat result set from a SQL query.
      */
     QueryResult execute(Query query);
+
+    /**
+     * Execute the given query and open a cursor over its result set. The result set is handed out in batches of at most
+     * {@code batchCapacity} rows (see {@link ResultCursor}) instead of as one materialized table.
+     * <p>
+     * The default implementation materializes the result set with {@link #execute(Query)} and then hands it out in
+     * batches. Implementations should override this to produce the batches straight from their matching rows, so that
+     * the result set is never materialized.
+     */
+    default CursorResult cursor(Query query, int batchCapacity) {
+        return switch (execute(query)) {
+            case QueryResult.Success(var resultSet) ->
+                    new CursorResult.Opened(ResultCursor.of(resultSet, IntStream.range(0, resultSet.size()).iterator(), batchCapacity));
+            case QueryResult.Failure(var message) -> new CursorResult.Failure(message);
+        };
+    }
+
+    /**
+     * Execute the given query and aggregate its matching rows (see {@link Query#aggregate(Aggregate...)} and
+     * {@link Query#groupBy(int...)}). The result set is not materialized.
+     * <p>
+     * The default implementation does not support aggregations.
+     */
+    default AggregateResult aggregate(Query query) {
+        return new AggregateResult.Failure("Aggregations are not supported by this data system.");
+    }
 }
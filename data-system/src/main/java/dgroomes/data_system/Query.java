@@ -1,9 +1,12 @@
 package dgroomes.data_system;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
 
 /**
  * A toy query API. Instances of {@link Query} expresses a query over some structure of data. This is a
@@ -18,12 +21,116 @@ public class Query {
 
     public final Node rootNode;
     public final String tableName;
+    private List<Integer> projection;
+    private List<Aggregate> aggregates = List.of();
+    private List<Integer> groupBy;
+    private Ordering ordering;
+    private int limit = -1;
 
     public Query(String tableName) {
         this.tableName = tableName;
         this.rootNode = new Node();
     }
 
+    /**
+     * Name the columns of the result set, by their ordinals in the root table. This is the "select a, b, c" part of the
+     * query. Only these columns are copied into the result set. When there is no projection, the result set has all the
+     * columns of the root table.
+     * <p>
+     * Note: only the columns of the root table can be selected. A column that is reached through an association can't,
+     * because an association can be to-many and the result set has exactly one row for each matching root row. Select
+     * the association column instead and follow it.
+     */
+    public Query select(int... ordinals) {
+        if (ordinals.length == 0) {
+            throw new IllegalArgumentException("A projection must have at least one column");
+        }
+        this.projection = Arrays.stream(ordinals).boxed().toList();
+        return this;
+    }
+
+    public Optional<List<Integer>> getProjection() {
+        return Optional.ofNullable(projection);
+    }
+
+    /**
+     * Aggregate the matching rows instead of returning them. This is the "select count(*), sum(x)" part of the query.
+     * The aggregates are computed by {@link DataSystem#aggregate(Query)}. The other ways of executing a query ignore
+     * them.
+     */
+    public Query aggregate(Aggregate... aggregates) {
+        this.aggregates = List.of(aggregates);
+        return this;
+    }
+
+    public List<Aggregate> getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * Group the aggregates by the values of a column. The column is given by a path of ordinals. The last ordinal is the
+     * ordinal of an integer or string column, and the ordinals before it (if any) are association columns to follow
+     * from the root table. For example, "total population per state" for a query of ZIP codes is the path "ZIP to city
+     * association, city to state association, state code column".
+     * <p>
+     * When an association is to-many, a row is aggregated once for each associated row at the end of the path, like
+     * with a join in SQL.
+     */
+    public Query groupBy(int... path) {
+        if (path.length == 0) {
+            throw new IllegalArgumentException("A group-by path must have at least one ordinal");
+        }
+        this.groupBy = Arrays.stream(path).boxed().toList();
+        return this;
+    }
+
+    public Optional<List<Integer>> getGroupBy() {
+        return Optional.ofNullable(groupBy);
+    }
+
+    /**
+     * Order the result set by the values of an integer column of the root table, in ascending order. Rows with equal
+     * values keep the order of the table. When there is no ordering, the result set is in the order of the table.
+     */
+    public Query orderBy(int ordinal) {
+        this.ordering = new Ordering(ordinal, false);
+        return this;
+    }
+
+    /**
+     * Like {@link #orderBy(int)} but in descending order.
+     */
+    public Query orderByDescending(int ordinal) {
+        this.ordering = new Ordering(ordinal, true);
+        return this;
+    }
+
+    public Optional<Ordering> getOrdering() {
+        return Optional.ofNullable(ordering);
+    }
+
+    /**
+     * Keep only the first {@code limit} rows of the result set (after the ordering, if any). This is the "limit k" part
+     * of the query.
+     */
+    public Query limit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("The limit must not be negative but was %d".formatted(limit));
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    public OptionalInt getLimit() {
+        return limit < 0 ? OptionalInt.empty() : OptionalInt.of(limit);
+    }
+
+    /**
+     * @param ordinal    the ordinal of an integer column of the root table
+     * @param descending true for the largest values first
+     */
+    public record Ordering(int ordinal, boolean descending) {}
+
     public static class Node {
         private final Map<Integer, Node> childrenByOrdinal = new HashMap<>();
         private final List<Criteria> criteria = new ArrayList<>();
@@ -0,0 +1,173 @@
+package dgroomes.data_system;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * The part of verifying a query that doesn't depend on the data system: checking the ordinals and types of a query
+ * node against its table, and "lowering" its criteria into the forms that are cheapest to evaluate. The data systems
+ * share this and only differ in how they execute the lowered forms (e.g. through a zone map or an index).
+ * <p>
+ * Like {@link RowOrder#of}, an illegal query is reported with an {@link IllegalArgumentException}.
+ */
+public final class QueryLowering {
+
+    private QueryLowering() {}
+
+    /**
+     * A criterion in its lowered form.
+     */
+    public sealed interface Lowered {
+
+        int ordinal();
+
+        /**
+         * A declarative string expression. It becomes a bulk column scan. The column may be able to evaluate it
+         * without looking at every string (e.g. a dictionary-encoded column).
+         */
+        record StringScan(int ordinal, ColumnFilterable.StringColumnFilterable column,
+                          Criteria.StringExpression expression) implements Lowered {
+
+            public ColumnFilterable.Scan scan() {
+                return column.prepareScan(expression);
+            }
+        }
+
+        /**
+         * A bulk scan of an integer column. The predicate is either a declarative expression that is not range-like
+         * or a lambda on a column that prefers scans (e.g. a run-length encoded column, which tests it once per run).
+         */
+        record IntScan(int ordinal, ColumnFilterable.IntegerColumnFilterable column,
+                       IntPredicate predicate) implements Lowered {
+
+            public ColumnFilterable.Scan scan() {
+                return (fromIndex, toIndex, words) -> column.scan(predicate, fromIndex, toIndex, words);
+            }
+        }
+
+        /**
+         * The range-like expressions (equals, range, between) of an integer column, merged (intersected) into one range
+         * so that the column is only scanned once.
+         */
+        record IntRangeScan(int ordinal, ColumnFilterable.IntegerColumnFilterable column,
+                            Criteria.IntBetween range) implements Lowered {}
+
+        /**
+         * A parameter. It can't be lowered until its value is bound.
+         */
+        record StringParameter(int ordinal, ColumnFilterable.StringColumnFilterable column,
+                               String name) implements Lowered {}
+
+        /**
+         * A parameter. It can't be lowered until its value is bound.
+         */
+        record IntParameter(int ordinal, ColumnFilterable.IntegerColumnFilterable column,
+                            String name) implements Lowered {}
+
+        /**
+         * A lambda. It is opaque, so it is tested one row at a time on the rows that are still matching.
+         */
+        record RowPredicate(int ordinal, IntPredicate predicate) implements Lowered {}
+    }
+
+    /**
+     * Lower the criteria of a query node.
+     *
+     * @param table    the table of the query node
+     * @param criteria the criteria of the query node
+     * @return the lowered criteria, in their initial evaluation order: the scans and parameters in the order of the
+     * criteria, then the merged ranges by ordinal, then the row predicates
+     * @throws IllegalArgumentException if an ordinal is out of bounds or a criterion doesn't match the type of its
+     *                                  column
+     */
+    public static List<Lowered> lower(Table table, List<Criteria> criteria) {
+        List<Lowered> lowered = new ArrayList<>();
+        Map<Integer, Criteria.IntBetween> rangesByOrdinal = new TreeMap<>();
+        List<Lowered> rowPredicates = new ArrayList<>();
+
+        for (var criterion : criteria) {
+            int ordinal = criterion.ordinal();
+            if (ordinal < 0 || ordinal >= table.width()) {
+                throw new IllegalArgumentException("The query ordinal '%d' is out of bounds for the table with %d columns".formatted(ordinal, table.width()));
+            }
+
+            Column column = table.columns().get(ordinal);
+            switch (column.filterableType()) {
+                case ColumnFilterable.StringColumnFilterable stringFilterable -> {
+                    if (!(criterion instanceof Criteria.StringCriteria stringCriteria))
+                        throw new IllegalArgumentException("The column is a string column but the criterion is not a string predicate.");
+                    switch (stringCriteria.stringPredicate()) {
+                        case Criteria.StringParameter(var name) ->
+                                lowered.add(new Lowered.StringParameter(ordinal, stringFilterable, name));
+                        case Criteria.StringExpression expression ->
+                                lowered.add(new Lowered.StringScan(ordinal, stringFilterable, expression));
+                        case Predicate<String> predicate ->
+                                rowPredicates.add(new Lowered.RowPredicate(ordinal, stringFilterable.where(predicate)));
+                    }
+                }
+                case ColumnFilterable.IntegerColumnFilterable integerFilterable -> {
+                    if (!(criterion instanceof Criteria.IntCriteria intCriteria))
+                        throw new IllegalArgumentException("The column is an integer column but the criterion is not an integer predicate.");
+                    switch (intCriteria.integerPredicate()) {
+                        case Criteria.IntParameter(var name) ->
+                                lowered.add(new Lowered.IntParameter(ordinal, integerFilterable, name));
+                        case Criteria.IntExpression expression when expression.asBetween().isPresent() ->
+                                rangesByOrdinal.merge(ordinal, expression.asBetween().get(), Criteria.IntBetween::intersect);
+                        case Criteria.IntExpression expression ->
+                                lowered.add(new Lowered.IntScan(ordinal, integerFilterable, expression));
+                        case IntPredicate predicate when integerFilterable.prefersScan() ->
+                                lowered.add(new Lowered.IntScan(ordinal, integerFilterable, predicate));
+                        case IntPredicate predicate ->
+                                rowPredicates.add(new Lowered.RowPredicate(ordinal, integerFilterable.where(predicate)));
+                    }
+                }
+                case ColumnFilterable.BooleanColumnFilterable ignored ->
+                        throw new IllegalArgumentException("Boolean columns are not supported yet.");
+                case ColumnFilterable.AssociationColumnFilterable ignored ->
+                        throw new IllegalArgumentException("Association columns can't be matched on with a scalar criteria.");
+                default ->
+                        throw new IllegalStateException("Unrecognized column type: %s. This is unexpected.".formatted(column.getClass().getName()));
+            }
+        }
+
+        for (var entry : rangesByOrdinal.entrySet()) {
+            var integerFilterable = (ColumnFilterable.IntegerColumnFilterable) table.columns().get(entry.getKey()).filterableType();
+            lowered.add(new Lowered.IntRangeScan(entry.getKey(), integerFilterable, entry.getValue()));
+        }
+        lowered.addAll(rowPredicates);
+        return lowered;
+    }
+
+    /**
+     * The association column that a child query node is reached through.
+     *
+     * @throws IllegalArgumentException if the ordinal is out of bounds or the column is not an association column
+     */
+    public static AssociationColumn association(Table table, int ordinal) {
+        if (ordinal < 0 || ordinal >= table.width()) {
+            throw new IllegalArgumentException("The child ordinal '%d' is out of bounds for the table with %d columns".formatted(ordinal, table.width()));
+        }
+        Column column = table.columns().get(ordinal);
+        if (!(column instanceof AssociationColumn associationColumn)) {
+            throw new IllegalArgumentException("The column at ordinal %d is not an association column. It is a %s".formatted(ordinal, column.getClass().getName()));
+        }
+        return associationColumn;
+    }
+
+    /**
+     * Check the projection of the query, if it has one, against the table that it queries.
+     *
+     * @throws IllegalArgumentException if a projected ordinal is out of bounds
+     */
+    public static void checkProjection(Query query, Table table) {
+        for (int ordinal : query.getProjection().orElse(List.of())) {
+            if (ordinal < 0 || ordinal >= table.width()) {
+                throw new IllegalArgumentException("The projected ordinal '%d' is out of bounds for the table with %d columns".formatted(ordinal, table.width()));
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package dgroomes.data_system;
+
+import java.util.PrimitiveIterator;
+
+/**
+ * A forward-only cursor over the result set of a query. The result set is handed out in batches of at most
+ * {@link #batchCapacity()} rows. See {@link DataSystem#cursor(Query, int)}.
+ * <p>
+ * A batch is a "selection vector": the indices of the result rows in {@link #table()}. The rows are not copied. Read
+ * the columns of the table at those indices. For example:
+ * <pre>{@code
+ * if (cursor.table().columns().getFirst().filterableType() instanceof ColumnFilterable.IntegerColumnFilterable ints) {
+ *     while (cursor.next()) {
+ *         int[] rows = cursor.rows();
+ *         for (int i = 0; i < cursor.size(); i++) sum += ints.get(rows[i]);
+ *     }
+ * }
+ * }</pre>
+ * The array of the selection vector is reused for every batch, so the memory of a cursor does not grow with the size of
+ * the result set. And the batches are produced as they are asked for, so the first batch can be processed before the
+ * last one is produced.
+ * <p>
+ * A cursor is not thread-safe.
+ */
+public interface ResultCursor extends AutoCloseable {
+
+    /**
+     * Create a cursor over the given rows of the table.
+     *
+     * @param rows the indices of the result rows in the table, in the order of the result set
+     */
+    static ResultCursor of(Table table, PrimitiveIterator.OfInt rows, int batchCapacity) {
+        return new BatchCursor(table, rows, batchCapacity);
+    }
+
+    /**
+     * The table that the rows are read from. This is the queried table (narrowed to the projection of the query, if
+     * any), not a copy.
+     */
+    Table table();
+
+    /**
+     * The maximum number of rows in a batch.
+     */
+    int batchCapacity();
+
+    /**
+     * Advance to the next batch.
+     *
+     * @return false if there are no more rows. There is no current batch then.
+     */
+    boolean next();
+
+    /**
+     * The number of rows in the current batch.
+     */
+    int size();
+
+    /**
+     * The indices, in {@link #table()}, of the rows of the current batch. Only the first {@link #size()} elements are
+     * valid. The array is overwritten by {@link #next()}, so copy what you need to keep.
+     */
+    int[] rows();
+
+    /**
+     * Release the cursor. The rest of the result set is not produced.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,160 @@
+package dgroomes.data_system;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+
+/**
+ * The ordering and the limit of a result set (see {@link Query#orderBy(int)} and {@link Query#limit(int)}), resolved to
+ * the column that is ordered by. It turns the matching rows of a query into the rows of the result set, in order.
+ * <p>
+ * Two primitive algorithms do the work. Neither of them boxes a row.
+ * <ul>
+ *     <li>A full ordering is an LSD radix sort of the row ids, keyed by the values of the column. It makes (at most)
+ *     four passes of 8 bits each, so its cost is linear and, unlike a comparison sort, does not depend on the order of
+ *     the values. It is stable, so rows with equal values keep the order of the table.</li>
+ *     <li>An ordering with a small limit (k) is a bounded heap of the best k rows so far. It is fed straight from the
+ *     matching rows, so it is O(n log k) and only k rows are ever held. Ties are broken by the row id, so the answer is
+ *     the same as the first k rows of the full ordering.</li>
+ * </ul>
+ *
+ * @param column     the column to order by, or null when the rows are only limited
+ * @param descending true for the largest values first
+ * @param limit      the maximum number of rows, or {@link #NO_LIMIT}
+ */
+public record RowOrder(ColumnFilterable.IntegerColumnFilterable column, boolean descending, int limit) {
+
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    /**
+     * Resolve the ordering and the limit of the query against the table that it queries.
+     *
+     * @return the order, or null when the query has neither an ordering nor a limit
+     * @throws IllegalArgumentException if the ordered column is not an integer column of the table
+     */
+    public static RowOrder of(Query query, Table table) {
+        if (query.getOrdering().isEmpty() && query.getLimit().isEmpty()) return null;
+
+        int limit = query.getLimit().orElse(NO_LIMIT);
+        if (query.getOrdering().isEmpty()) return new RowOrder(null, false, limit);
+
+        var ordering = query.getOrdering().get();
+        if (ordering.ordinal() < 0 || ordering.ordinal() >= table.width()) {
+            throw new IllegalArgumentException("The ordered ordinal '%d' is out of bounds for the table with %d columns".formatted(ordering.ordinal(), table.width()));
+        }
+        if (!(table.columns().get(ordering.ordinal()).filterableType() instanceof ColumnFilterable.IntegerColumnFilterable integerColumn)) {
+            throw new IllegalArgumentException("Only integer columns can be ordered by but the column at ordinal %d is not an integer column.".formatted(ordering.ordinal()));
+        }
+        return new RowOrder(integerColumn, ordering.descending(), limit);
+    }
+
+    /**
+     * @param matchingRows the matching rows, in ascending order
+     * @param cardinality  the number of matching rows
+     * @return the rows of the result set, in order
+     */
+    public int[] apply(PrimitiveIterator.OfInt matchingRows, int cardinality) {
+        int size = Math.min(limit, cardinality);
+        if (column != null && size < cardinality / 4) return top(matchingRows, size);
+
+        // Only the first 'size' rows are needed when the rows are not ordered. Otherwise, all of them are sorted and
+        // then truncated.
+        int[] rows = new int[column == null ? size : cardinality];
+        for (int i = 0; i < rows.length; i++) rows[i] = matchingRows.nextInt();
+        if (column == null) return rows;
+        int[] sorted = sort(rows);
+        return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+    }
+
+    /**
+     * The sort key of a row. The bitwise complement reverses the order of the values, for a descending order.
+     */
+    private int key(int row) {
+        int value = column.get(row);
+        return descending ? ~value : value;
+    }
+
+    private int[] sort(int[] rows) {
+        int n = rows.length;
+        // Flip the sign bit so that the unsigned order of the bytes is the signed order of the keys.
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) keys[i] = key(rows[i]) ^ Integer.MIN_VALUE;
+
+        int[] keysBuffer = new int[n];
+        int[] rowsBuffer = new int[n];
+        int[] counts = new int[257];
+        for (int shift = 0; shift < 32; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) counts[((keys[i] >>> shift) & 0xFF) + 1]++;
+
+            // When every key has the same byte, the pass would not change the order. Skip it. This is common for the
+            // high bytes of small values.
+            if (n == 0 || counts[((keys[0] >>> shift) & 0xFF) + 1] == n) continue;
+
+            for (int b = 0; b < 256; b++) counts[b + 1] += counts[b];
+            for (int i = 0; i < n; i++) {
+                int slot = counts[(keys[i] >>> shift) & 0xFF]++;
+                keysBuffer[slot] = keys[i];
+                rowsBuffer[slot] = rows[i];
+            }
+            int[] swap = keys;
+            keys = keysBuffer;
+            keysBuffer = swap;
+            swap = rows;
+            rows = rowsBuffer;
+            rowsBuffer = swap;
+        }
+        return rows;
+    }
+
+    /**
+     * Keep the best k rows in a max-heap whose root is the worst of them. Each entry packs the key (high 32 bits) and the
+     * row id (low 32 bits) into a long, so comparing entries compares keys first and then rows.
+     */
+    private int[] top(PrimitiveIterator.OfInt matchingRows, int k) {
+        if (k == 0) return new int[0];
+
+        long[] heap = new long[k];
+        int size = 0;
+        while (matchingRows.hasNext()) {
+            int row = matchingRows.nextInt();
+            long entry = ((long) key(row) << 32) | row;
+            if (size < k) {
+                heap[size] = entry;
+                siftUp(heap, size++);
+            } else if (entry < heap[0]) {
+                heap[0] = entry;
+                siftDown(heap, k);
+            }
+        }
+
+        Arrays.sort(heap);
+        int[] rows = new int[k];
+        for (int i = 0; i < k; i++) rows[i] = (int) heap[i];
+        return rows;
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        long entry = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] >= entry) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        long entry = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heap[child + 1] > heap[child]) child++;
+            if (entry >= heap[child]) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = entry;
+    }
+}
@@ -0,0 +1,109 @@
+package dgroomes.data_system;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A secondary index of an integer column: the row ids of the column sorted by their values (a "sorted permutation").
+ * The rows whose values are in a range are a contiguous slice of the permutation, and the slice is found with two
+ * binary searches. So, the cost of a lookup is proportional to the number of matching rows, not to the number of rows
+ * in the table.
+ * <p>
+ * The size of the slice is also an exact estimate of the selectivity of the range, for free. See
+ * {@link #isSelective(Criteria.IntBetween)}.
+ * <p>
+ * The column must not change after the index is built.
+ */
+public final class SortedIndex {
+
+    /**
+     * The index is only worth it when at most one in this many rows match. A scan reads the column sequentially (and
+     * with SIMD, when available) while the index sets the bit of each matching row at a random position.
+     */
+    public static final int SELECTIVITY_DIVISOR = 16;
+
+    private final int[] values;
+    private final int[] rows;
+
+    private SortedIndex(int[] values, int[] rows) {
+        this.values = values;
+        this.rows = rows;
+    }
+
+    /**
+     * Build the index with a (stable) radix sort of the row ids. See {@link RowOrder}.
+     */
+    public static SortedIndex build(ColumnFilterable.IntegerColumnFilterable column, int height) {
+        int[] rows = new RowOrder(column, false, RowOrder.NO_LIMIT).apply(IntStream.range(0, height).iterator(), height);
+        int[] values = new int[height];
+        for (int i = 0; i < height; i++) values[i] = column.get(rows[i]);
+        return new SortedIndex(values, rows);
+    }
+
+    public int height() {
+        return rows.length;
+    }
+
+    /**
+     * The sorted values and the permutation.
+     */
+    public long estimatedBytes() {
+        return 8L * rows.length;
+    }
+
+    /**
+     * The number of rows whose values are in the range.
+     */
+    public int count(Criteria.IntBetween range) {
+        if (range.isEmpty()) return 0;
+        return upperBound(range.max()) - lowerBound(range.min());
+    }
+
+    /**
+     * Whether looking up the range with the index is expected to be cheaper than scanning the column. See
+     * {@link #SELECTIVITY_DIVISOR}.
+     */
+    public boolean isSelective(Criteria.IntBetween range) {
+        return (long) count(range) * SELECTIVITY_DIVISOR <= rows.length;
+    }
+
+    /**
+     * The rows whose values are in the range. The slice of the permutation is sorted by row and added to a
+     * {@link CompressedBitmap} in order, so the cost is proportional to the number of matching rows, not to the size of
+     * the table.
+     */
+    public CompressedBitmap matchingRows(Criteria.IntBetween range) {
+        if (range.isEmpty()) return new CompressedBitmap();
+        int[] slice = Arrays.copyOfRange(rows, lowerBound(range.min()), upperBound(range.max()));
+        Arrays.sort(slice);
+        return CompressedBitmap.of(slice);
+    }
+
+    /**
+     * The position of the first value that is greater than or equal to the given value.
+     */
+    private int lowerBound(int value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < value) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * The position of the first value that is greater than the given value.
+     */
+    private int upperBound(int value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= value) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
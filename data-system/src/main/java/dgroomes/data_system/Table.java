@@ -28,8 +28,53 @@ public interface Table {
      */
     int size();
 
+    /**
+     * A rough estimate of the memory, in bytes, that is retained by the table. See {@link Column#estimatedBytes()}.
+     */
+    default long estimatedBytes() {
+        return columns().stream().mapToLong(Column::estimatedBytes).sum();
+    }
+
+    /**
+     * Produce a {@link Table} with only the given columns, in the given order. The columns are shared, not copied. This
+     * is how a projection (see {@link Query#select(int...)}) is pushed down: the subset of the selected table only copies
+     * the selected columns.
+     */
+    Table select(List<Integer> ordinals);
+
     /**
      * Produce a {@link Table} that is a subset of the current table given by the indices.
      */
     Table subset(BitSet matchingRows);
+
+    /**
+     * Like {@link #subset(BitSet)} but the indices are given as a {@link CompressedBitmap}. The default implementation
+     * converts the bitmap to a {@link BitSet}.
+     */
+    default Table subset(CompressedBitmap matchingRows) {
+        return subset(matchingRows.toBitSet());
+    }
+
+    /**
+     * Produce a {@link Table} with the given rows, in the given order. Unlike the other subsets, the rows don't have to
+     * be in ascending order. This is how an ordered result set is created (see {@link Query#orderBy(int)}).
+     */
+    Table subset(int[] rows);
+
+    /**
+     * Like {@link #subset(CompressedBitmap)} but the rows may be read through from this table, lazily, instead of being
+     * copied. This is cheap to create when only a few columns of a big result set are read. The default implementation
+     * is the (copied) subset.
+     */
+    default Table view(CompressedBitmap matchingRows) {
+        return subset(matchingRows);
+    }
+
+    /**
+     * Copy the table into a dense form if it is a lazy view (see {@link #view(CompressedBitmap)}). Otherwise, return the
+     * table itself.
+     */
+    default Table compact() {
+        return this;
+    }
 }
@@ -0,0 +1,229 @@
+package dgroomes.data_system;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A secondary index of a string column: for each trigram (three consecutive characters) that occurs in the column, the
+ * rows whose values contain it (a "posting list"). The posting lists are {@link CompressedBitmap}s.
+ * <p>
+ * A row can only contain a substring if it contains every trigram of the substring. So, the intersection of the posting
+ * lists of those trigrams is a superset of the matching rows (the "candidates"), and the exact predicate only needs to
+ * be tested on the candidates. For a rare substring, that is a few rows instead of the whole column.
+ * <p>
+ * Only substrings of at least three characters can be looked up. The trigrams are case-sensitive, like
+ * {@link Criteria.StringContains}.
+ * <p>
+ * The column must not change after the index is built.
+ */
+public final class TrigramIndex {
+
+    private final Map<Long, CompressedBitmap> postings;
+    private final int height;
+
+    private TrigramIndex(Map<Long, CompressedBitmap> postings, int height) {
+        this.postings = postings;
+        this.height = height;
+    }
+
+    /**
+     * Build the index with one pass over the column. The rows are visited in order, so each posting list is only ever
+     * appended to.
+     */
+    public static TrigramIndex build(ColumnFilterable.StringColumnFilterable column, int height) {
+        var postings = new HashMap<Long, CompressedBitmap>();
+        for (int row = 0; row < height; row++) {
+            String value = column.get(row);
+            if (value == null) continue;
+            for (int i = 0; i + 3 <= value.length(); i++) {
+                postings.computeIfAbsent(trigram(value, i), ignored -> new CompressedBitmap()).add(row);
+            }
+        }
+        return new TrigramIndex(postings, height);
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * The number of distinct trigrams.
+     */
+    public int size() {
+        return postings.size();
+    }
+
+    /**
+     * The posting lists (the keys and the map itself are not counted).
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (var posting : postings.values()) bytes += posting.estimatedBytes();
+        return bytes;
+    }
+
+    /**
+     * The candidate rows of a string expression: a superset of the rows that match it.
+     * <p>
+     * A {@link Criteria.StringContains} is looked up by its substring. A {@link Criteria.StringRegex} is looked up by the
+     * literal runs that every match must contain (see {@link #requiredLiterals(Pattern)}).
+     *
+     * @return the candidate rows, or null when the index can't narrow down the rows (for example, the substring is
+     * shorter than three characters or the expression is of another kind). Then, every row is a candidate.
+     */
+    public CompressedBitmap candidates(Criteria.StringExpression expression) {
+        List<String> literals = switch (expression) {
+            case Criteria.StringContains(var substring) -> List.of(substring);
+            case Criteria.StringRegex(var pattern) -> requiredLiterals(pattern);
+            default -> List.of();
+        };
+
+        var trigramPostings = new ArrayList<CompressedBitmap>();
+        for (String literal : literals) {
+            for (int i = 0; i + 3 <= literal.length(); i++) {
+                CompressedBitmap posting = postings.get(trigram(literal, i));
+                // No row has the trigram, so no row can match.
+                if (posting == null) return new CompressedBitmap();
+                trigramPostings.add(posting);
+            }
+        }
+        if (trigramPostings.isEmpty()) return null;
+
+        // Intersect the shortest posting lists first so that the intermediate results stay small.
+        trigramPostings.sort(Comparator.comparingInt(CompressedBitmap::cardinality));
+        CompressedBitmap candidates = trigramPostings.getFirst();
+        for (int p = 1; p < trigramPostings.size() && !candidates.isEmpty(); p++) {
+            candidates = candidates.and(trigramPostings.get(p));
+        }
+        return candidates;
+    }
+
+    /**
+     * The literal runs (of at least three characters) that every value that matches the regular expression in full
+     * must contain.
+     * <p>
+     * This is a conservative reading of the expression, not a parser. Only the characters outside of groups and
+     * character classes are read, and a character that is made optional by a quantifier is dropped from its run. An
+     * expression with an alternation ('|') outside of groups, with embedded flags, with a quoted section, or with the
+     * flags that change how characters match (like {@link Pattern#CASE_INSENSITIVE}) has no required literals.
+     */
+    static List<String> requiredLiterals(Pattern pattern) {
+        int unsupportedFlags = Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ;
+        if ((pattern.flags() & unsupportedFlags) != 0) return List.of();
+        String source = pattern.pattern();
+        if ((pattern.flags() & Pattern.LITERAL) != 0) return List.of(source);
+
+        var literals = new ArrayList<String>();
+        var run = new StringBuilder();
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                if (i + 1 == source.length()) return List.of();
+                char escaped = source.charAt(++i);
+                if (escaped == 'Q') return List.of();
+                if (Character.isLetterOrDigit(escaped)) {
+                    // A character class (like '\d'), a boundary, a back reference or an escaped code point. Skip its
+                    // argument, if it has one (like '\p{Lu}', '\k<name>' or '\x41'). An escaped code point ends the
+                    // run rather than being decoded.
+                    i = endOfEscape(source, i);
+                    if (i < 0) return List.of();
+                    if (depth == 0 && !inClass) flush(run, literals);
+                    continue;
+                }
+                if (depth == 0 && !inClass) run.append(escaped);
+                continue;
+            }
+            if (inClass) {
+                if (c == '[') return List.of();
+                if (c == ']') inClass = false;
+                continue;
+            }
+            switch (c) {
+                case '[' -> {
+                    if (depth == 0) flush(run, literals);
+                    inClass = true;
+                    // A ']' right after the opening bracket (or its negation) is a literal member of the class.
+                    if (i + 1 < source.length() && source.charAt(i + 1) == '^') i++;
+                    if (i + 1 < source.length() && source.charAt(i + 1) == ']') i++;
+                }
+                case '(' -> {
+                    if (i + 2 < source.length() && source.charAt(i + 1) == '?'
+                        && (Character.isLetter(source.charAt(i + 2)) || source.charAt(i + 2) == '-')) {
+                        return List.of();
+                    }
+                    if (depth == 0) flush(run, literals);
+                    depth++;
+                }
+                case ')' -> depth--;
+                default -> {
+                    if (depth > 0) continue;
+                    switch (c) {
+                        case '|' -> {
+                            return List.of();
+                        }
+                        case '?', '*', '{' -> {
+                            // The previous character is optional.
+                            if (!run.isEmpty()) run.setLength(run.length() - 1);
+                            flush(run, literals);
+                            if (c == '{') {
+                                int end = source.indexOf('}', i);
+                                if (end < 0) return List.of();
+                                i = end;
+                            }
+                        }
+                        // A repetition ('+' keeps the previous character), a wildcard or an anchor ends the run.
+                        case '+', '.', '^', '$' -> flush(run, literals);
+                        default -> run.append(c);
+                    }
+                }
+            }
+        }
+        flush(run, literals);
+        return literals;
+    }
+
+    /**
+     * The position of the last character of an escape sequence whose escaped character (a letter or a digit) is at the
+     * given position, or -1 if the escape sequence is cut short.
+     */
+    private static int endOfEscape(String source, int i) {
+        char escaped = source.charAt(i);
+        int end;
+        if (i + 1 < source.length() && (source.charAt(i + 1) == '{' || source.charAt(i + 1) == '<')) {
+            // Like '\p{Lu}', '\x{1F600}', '\N{name}' or '\k<name>'.
+            end = source.indexOf(source.charAt(i + 1) == '{' ? '}' : '>', i + 1);
+        } else {
+            end = switch (escaped) {
+                // A hexadecimal code point: 'x' and two digits, or 'u' and four digits.
+                case 'x' -> i + 2;
+                case 'u' -> i + 4;
+                // A control character ('\cA').
+                case 'c' -> i + 1;
+                // An octal code point ('\0ooo') or a back reference ('\12'). All the digits that follow are skipped.
+                // That may drop a literal digit from the run, which only makes the candidates a bigger superset.
+                case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> {
+                    int last = i;
+                    while (last + 1 < source.length() && Character.isDigit(source.charAt(last + 1))) last++;
+                    yield last;
+                }
+                default -> i;
+            };
+        }
+        return end < source.length() ? end : -1;
+    }
+
+    private static void flush(StringBuilder run, List<String> literals) {
+        if (run.length() >= 3) literals.add(run.toString());
+        run.setLength(0);
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+}
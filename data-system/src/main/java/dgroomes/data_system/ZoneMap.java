@@ -0,0 +1,125 @@
+package dgroomes.data_system;
+
+/**
+ * A "zone map" of an integer column: the minimum and maximum value of each block of rows. This is the metadata that
+ * lets a range scan (see {@link Criteria.IntBetween}) skip the blocks that can't match, and match every row of the
+ * blocks that must match, without reading the values.
+ * <p>
+ * A zone map only pays off when the values are clustered, like the ZIP codes of a table that is sorted by ZIP code.
+ * When the values are spread out, every block overlaps the range and the scan is the same as a plain column scan, plus
+ * the (small) cost of checking the block metadata.
+ * <p>
+ * The column must not change after the zone map is built.
+ */
+public final class ZoneMap {
+
+    /**
+     * The number of rows in a block. This is a multiple of 64 so that whole blocks of matching rows are whole words of
+     * bits.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4_096;
+
+    private final int blockSize;
+    private final int height;
+    private final int[] mins;
+    private final int[] maxs;
+
+    private ZoneMap(int blockSize, int height, int[] mins, int[] maxs) {
+        this.blockSize = blockSize;
+        this.height = height;
+        this.mins = mins;
+        this.maxs = maxs;
+    }
+
+    public static ZoneMap build(ColumnFilterable.IntegerColumnFilterable column, int height) {
+        return build(column, height, DEFAULT_BLOCK_SIZE);
+    }
+
+    public static ZoneMap build(ColumnFilterable.IntegerColumnFilterable column, int height, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The block size must be at least 1 but was " + blockSize);
+        }
+        int blocks = (int) (((long) height + blockSize - 1) / blockSize);
+        int[] mins = new int[blocks];
+        int[] maxs = new int[blocks];
+        for (int block = 0; block < blocks; block++) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = block * blockSize, end = (int) Math.min(height, (long) (block + 1) * blockSize); i < end; i++) {
+                int value = column.get(i);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            mins[block] = min;
+            maxs[block] = max;
+        }
+        return new ZoneMap(blockSize, height, mins, maxs);
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public int blockCount() {
+        return mins.length;
+    }
+
+    public long estimatedBytes() {
+        return 8L * mins.length;
+    }
+
+    /**
+     * Like {@link ColumnFilterable.IntegerColumnFilterable#scan} for the given range, but block by block:
+     * <ul>
+     *     <li>A block whose values are all outside the range is skipped.</li>
+     *     <li>A block whose values are all inside the range has its bits set, a word at a time.</li>
+     *     <li>Otherwise, the column scans the rows of the block.</li>
+     * </ul>
+     * Like the column's scan, the words start at the word of {@code fromIndex}. A block after the first starts at a
+     * different word, so the column scans it into words of its own, which are then OR-ed in.
+     *
+     * @param column the column that the zone map was built from
+     */
+    public void scan(ColumnFilterable.IntegerColumnFilterable column, Criteria.IntBetween range, int fromIndex, int toIndex, long[] words) {
+        toIndex = Math.min(toIndex, height);
+        if (range.isEmpty() || fromIndex >= toIndex) return;
+
+        int base = fromIndex >>> 6;
+        long[] blockWords = null;
+        for (int block = fromIndex / blockSize; (long) block * blockSize < toIndex; block++) {
+            int blockFrom = Math.max(fromIndex, block * blockSize);
+            int blockTo = (int) Math.min(toIndex, (long) (block + 1) * blockSize);
+            if (maxs[block] < range.min() || mins[block] > range.max()) continue;
+            if (mins[block] >= range.min() && maxs[block] <= range.max()) {
+                setRange(words, blockFrom - (base << 6), blockTo - (base << 6));
+            } else if (blockFrom == fromIndex) {
+                column.scan(range, blockFrom, blockTo, words);
+            } else {
+                if (blockWords == null) blockWords = new long[(blockSize >>> 6) + 2];
+                column.scan(range, blockFrom, blockTo, blockWords);
+                int offset = (blockFrom >>> 6) - base;
+                for (int w = 0, blockWordCount = ((blockTo - 1) >>> 6) - (blockFrom >>> 6) + 1; w < blockWordCount; w++) {
+                    words[offset + w] |= blockWords[w];
+                    blockWords[w] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the bits in the range {@code [fromIndex, toIndex)}, like {@link java.util.BitSet#set(int, int)}.
+     */
+    private static void setRange(long[] words, int fromIndex, int toIndex) {
+        int first = fromIndex >>> 6;
+        int last = (toIndex - 1) >>> 6;
+        long firstMask = -1L << fromIndex;
+        long lastMask = -1L >>> -toIndex;
+        if (first == last) {
+            words[first] |= firstMask & lastMask;
+            return;
+        }
+        words[first] |= firstMask;
+        for (int w = first + 1; w < last; w++) words[w] = -1L;
+        words[last] |= lastMask;
+    }
+}
@@ -0,0 +1,59 @@
+package dgroomes.data_system;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The zone maps (see {@link ZoneMap}) of the integer columns of the tables that are registered in a data system. The
+ * zone maps of a table are built when the table is registered.
+ * <p>
+ * The columns are compared by identity, not by equality. Some columns are records over off-heap memory (e.g. a
+ * column in foreign memory is a record of a memory segment), so two different columns can be equal when an address is
+ * reused after the first one is unmapped. By equality, the second column would get the zone map of the first.
+ * <p>
+ * This is thread-safe.
+ */
+public final class ZoneMaps {
+
+    private final Map<ColumnFilterable.IntegerColumnFilterable, ZoneMap> zoneMaps = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /**
+     * Build the zone maps of the integer columns of the table.
+     */
+    public void add(Table table) {
+        for (Column column : table.columns()) {
+            if (column.filterableType() instanceof ColumnFilterable.IntegerColumnFilterable integerColumn) {
+                zoneMaps.computeIfAbsent(integerColumn, ignored -> ZoneMap.build(integerColumn, column.height()));
+            }
+        }
+    }
+
+    /**
+     * Drop the zone maps of the columns of the table.
+     */
+    public void remove(Table table) {
+        for (Column column : table.columns()) {
+            if (column.filterableType() instanceof ColumnFilterable.IntegerColumnFilterable integerColumn) {
+                zoneMaps.remove(integerColumn);
+            }
+        }
+    }
+
+    /**
+     * A scan of the column for the range. It goes through the zone map of the column when it has one.
+     *
+     * @return a scan with the same signature as {@link ColumnFilterable.IntegerColumnFilterable#scan}, minus the
+     * predicate
+     */
+    public RangeScan rangeScan(ColumnFilterable.IntegerColumnFilterable column, Criteria.IntBetween range) {
+        ZoneMap zoneMap = zoneMaps.get(column);
+        if (zoneMap == null) return (fromIndex, toIndex, words) -> column.scan(range, fromIndex, toIndex, words);
+        return (fromIndex, toIndex, words) -> zoneMap.scan(column, range, fromIndex, toIndex, words);
+    }
+
+    @FunctionalInterface
+    public interface RangeScan {
+        void scan(int fromIndex, int toIndex, long[] words);
+    }
+}
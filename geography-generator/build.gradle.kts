@@ -0,0 +1,14 @@
+plugins {
+    id("dgroomes.conventions")
+    `java-library`
+}
+
+dependencies {
+    implementation(project(":geography-loader"))
+    api(project(":geography"))
+    api(project(":data-model-in-memory"))
+
+    testImplementation(libs.assertj)
+    testImplementation(libs.junit.jupiter.api)
+    testRuntimeOnly(libs.junit.jupiter.engine)
+}
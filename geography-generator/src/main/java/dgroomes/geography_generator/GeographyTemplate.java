@@ -0,0 +1,94 @@
+package dgroomes.geography_generator;
+
+import dgroomes.geography.City;
+import dgroomes.geography.GeographyGraph;
+import dgroomes.geography.State;
+import dgroomes.geography.Zip;
+import dgroomes.geography_loader.StateData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The real geography data (one "universe") flattened into arrays. This is the template that the
+ * {@link UniverseGenerator} copies from.
+ * <p>
+ * The object-to-object relationships are expressed as row indices. For example, {@code zipCityIndices[i]} is the row
+ * index (in the city arrays) of the city that contains the ZIP at row index {@code i}.
+ *
+ * @param stateAdjacencies for each state, the row indices of its adjacent states
+ */
+public record GeographyTemplate(int[] zipCodes,
+                                int[] zipPopulations,
+                                int[] zipCityIndices,
+                                String[] cityNames,
+                                int[] cityStateIndices,
+                                String[] stateCodes,
+                                String[] stateNames,
+                                int[][] stateAdjacencies) {
+
+    public int zipCount() {
+        return zipCodes.length;
+    }
+
+    public int cityCount() {
+        return cityNames.length;
+    }
+
+    public int stateCount() {
+        return stateCodes.length;
+    }
+
+    /**
+     * Flatten a {@link GeographyGraph} into a template. This is the only place where the object graph (and its maps of
+     * records) is used, and it is only used once for the real (small) data set.
+     */
+    public static GeographyTemplate of(GeographyGraph geo) {
+        int stateCount = geo.states().size();
+        String[] stateCodes = new String[stateCount];
+        String[] stateNames = new String[stateCount];
+        Map<State, Integer> stateIndices = new HashMap<>();
+        Map<String, Integer> stateIndicesByCode = new HashMap<>();
+        for (State state : geo.states()) {
+            int i = stateIndices.size();
+            stateIndices.put(state, i);
+            stateIndicesByCode.put(state.code(), i);
+            stateCodes[i] = state.code();
+            stateNames[i] = state.name();
+        }
+
+        int cityCount = geo.cities().size();
+        String[] cityNames = new String[cityCount];
+        int[] cityStateIndices = new int[cityCount];
+        Map<City, Integer> cityIndices = new HashMap<>();
+        for (City city : geo.cities()) {
+            int i = cityIndices.size();
+            cityIndices.put(city, i);
+            cityNames[i] = city.name();
+            cityStateIndices[i] = stateIndices.get(city.state(geo));
+        }
+
+        int zipCount = geo.zips().size();
+        int[] zipCodes = new int[zipCount];
+        int[] zipPopulations = new int[zipCount];
+        int[] zipCityIndices = new int[zipCount];
+        int i = 0;
+        for (Zip zip : geo.zips()) {
+            zipCodes[i] = zip.zipCode();
+            zipPopulations[i] = zip.population();
+            zipCityIndices[i] = cityIndices.get(zip.city(geo));
+            i++;
+        }
+
+        List<List<Integer>> adjacencies = new ArrayList<>();
+        for (int s = 0; s < stateCount; s++) adjacencies.add(new ArrayList<>());
+        for (StateData.StateAdjacency adjacency : StateData.STATE_ADJACENCIES) {
+            adjacencies.get(stateIndicesByCode.get(adjacency.state())).add(stateIndicesByCode.get(adjacency.adjacentState()));
+        }
+        int[][] stateAdjacencies = adjacencies.stream().map(list -> list.stream().mapToInt(Integer::intValue).toArray()).toArray(int[][]::new);
+
+        return new GeographyTemplate(zipCodes, zipPopulations, zipCityIndices, cityNames, cityStateIndices, stateCodes, stateNames, stateAdjacencies);
+    }
+}
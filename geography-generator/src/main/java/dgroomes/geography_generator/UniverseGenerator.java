@@ -0,0 +1,148 @@
+package dgroomes.geography_generator;
+
+import dgroomes.data_system.Association;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Multiply the geography data into "parallel universes". This is how we get from the real 29,353 ZIP codes to data sets
+ * that are orders of magnitude bigger while keeping the shape (and the associations) of the real data.
+ * <p>
+ * Each universe is a copy of the {@link GeographyTemplate} with these differences:
+ * <ul>
+ *     <li>Its rows are at their own offsets (see {@link Universes}).</li>
+ *     <li>Its ZIP codes are distinct from the ZIP codes of every other universe. The ZIP code of a copy is
+ *     {@code universe * 100_000 + zipCode}.</li>
+ *     <li>Its states are adjacent to the states of the template and additionally to the same state in the neighboring
+ *     universes ({@code u - 1} and {@code u + 1}). This makes the state adjacency graph connected across universes,
+ *     which makes for interesting (expensive) queries.</li>
+ *     <li>Optionally, its ZIP populations are skewed (see {@link #generate(GeographyTemplate, int, double, long)}).</li>
+ * </ul>
+ * The generator writes straight into the column arrays. It does not go through the {@link dgroomes.geography.GeographyGraph}
+ * or any maps. The universes are generated in parallel because each universe writes to its own slice of the arrays.
+ * <p>
+ * Limitation: the ZIP codes are 'int's and each universe takes 100,000 of them, so there are at most
+ * {@link #MAX_UNIVERSES} (21,473) universes. With the real template, that is about 630 million ZIP rows, short of a
+ * billion. Going further would take wider (long) ZIP codes or ZIP codes that are not unique across universes.
+ */
+public class UniverseGenerator {
+
+    /**
+     * The ZIP codes of the template are at most five digits. Offsetting the ZIP codes of each universe by this much
+     * keeps them distinct.
+     */
+    private static final int ZIP_CODE_STRIDE = 100_000;
+
+    /**
+     * The maximum number of universes (21,473). Beyond this, the ZIP codes overflow an 'int'. See the class Javadoc.
+     */
+    public static final int MAX_UNIVERSES = (Integer.MAX_VALUE - ZIP_CODE_STRIDE) / ZIP_CODE_STRIDE;
+
+    /**
+     * Generate the given number of universes with the populations copied as-is from the template.
+     */
+    public static Universes generate(GeographyTemplate template, int universeCount) {
+        return generate(template, universeCount, 0, 0);
+    }
+
+    /**
+     * Generate the given number of universes.
+     *
+     * @param populationSkew a value in [0, 1). When zero, the populations are copied as-is from the template. Otherwise,
+     *                       the population of each ZIP is multiplied by a random factor drawn from a Pareto (power law)
+     *                       distribution. The higher the skew, the heavier the tail: a few ZIPs get huge populations and
+     *                       most get smaller ones. The factors are normalized so that the average population stays about
+     *                       the same.
+     * @param seed           the seed for the random population factors. The same seed generates the same data.
+     */
+    public static Universes generate(GeographyTemplate template, int universeCount, double populationSkew, long seed) {
+        if (universeCount < 1 || universeCount > MAX_UNIVERSES) {
+            throw new IllegalArgumentException("The universe count must be between 1 and %d but was %d".formatted(MAX_UNIVERSES, universeCount));
+        }
+        if (!(populationSkew >= 0 && populationSkew < 1)) { // Written this way so that NaN is rejected too
+            throw new IllegalArgumentException("The population skew must be in [0, 1) but was " + populationSkew);
+        }
+
+        int zipsPerUniverse = template.zipCount();
+        int citiesPerUniverse = template.cityCount();
+        int statesPerUniverse = template.stateCount();
+
+        long zipCount = (long) zipsPerUniverse * universeCount;
+        long cityCount = (long) citiesPerUniverse * universeCount;
+        if (zipCount > Integer.MAX_VALUE - 8 || cityCount > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("%d universes is too many rows for Java arrays".formatted(universeCount));
+        }
+
+        int[] zipCodes = new int[(int) zipCount];
+        int[] zipPopulations = new int[(int) zipCount];
+        Association[] zipCityAssociations = new Association[(int) zipCount];
+        String[] cityNames = new String[(int) cityCount];
+        Association[] cityStateAssociations = new Association[(int) cityCount];
+        String[] stateCodes = new String[statesPerUniverse * universeCount];
+        String[] stateNames = new String[statesPerUniverse * universeCount];
+        Association[] stateAdjacencies = new Association[statesPerUniverse * universeCount];
+
+        IntStream.range(0, universeCount).parallel().forEach(u -> {
+            int zipOffset = u * zipsPerUniverse;
+            int cityOffset = u * citiesPerUniverse;
+            int stateOffset = u * statesPerUniverse;
+
+            // States
+            for (int s = 0; s < statesPerUniverse; s++) {
+                stateCodes[stateOffset + s] = template.stateCodes()[s];
+                stateNames[stateOffset + s] = template.stateNames()[s];
+
+                int[] adjacent = template.stateAdjacencies()[s];
+                boolean hasPrevious = u > 0;
+                boolean hasNext = u < universeCount - 1;
+                int[] indices = new int[adjacent.length + (hasPrevious ? 1 : 0) + (hasNext ? 1 : 0)];
+                int i = 0;
+                if (hasPrevious) indices[i++] = stateOffset - statesPerUniverse + s;
+                for (int adjacentState : adjacent) indices[i++] = stateOffset + adjacentState;
+                if (hasNext) indices[i] = stateOffset + statesPerUniverse + s;
+                stateAdjacencies[stateOffset + s] = switch (indices.length) {
+                    case 0 -> Association.NONE;
+                    case 1 -> Association.toOne(indices[0]);
+                    default -> Association.toMany(indices);
+                };
+            }
+
+            // Cities. The cities of a state share one association object.
+            Association[] toState = new Association[statesPerUniverse];
+            for (int s = 0; s < statesPerUniverse; s++) toState[s] = Association.toOne(stateOffset + s);
+            for (int c = 0; c < citiesPerUniverse; c++) {
+                cityNames[cityOffset + c] = template.cityNames()[c];
+                cityStateAssociations[cityOffset + c] = toState[template.cityStateIndices()[c]];
+            }
+
+            // ZIPs. Similarly, the ZIPs of a city share one association object.
+            Association[] toCity = new Association[citiesPerUniverse];
+            SplittableRandom random = populationSkew == 0 ? null : new SplittableRandom(seed ^ (u * 0x9E3779B97F4A7C15L));
+            for (int z = 0; z < zipsPerUniverse; z++) {
+                int cityIndex = template.zipCityIndices()[z];
+                Association cityAssociation = toCity[cityIndex];
+                if (cityAssociation == null) {
+                    cityAssociation = Association.toOne(cityOffset + cityIndex);
+                    toCity[cityIndex] = cityAssociation;
+                }
+
+                zipCodes[zipOffset + z] = u * ZIP_CODE_STRIDE + template.zipCodes()[z];
+                zipPopulations[zipOffset + z] = random == null ? template.zipPopulations()[z] : skew(template.zipPopulations()[z], populationSkew, random);
+                zipCityAssociations[zipOffset + z] = cityAssociation;
+            }
+        });
+
+        return new Universes(universeCount, zipCodes, zipPopulations, zipCityAssociations, cityNames, cityStateAssociations, stateCodes, stateNames, stateAdjacencies);
+    }
+
+    /**
+     * Multiply the population by a factor drawn from a Pareto distribution with shape {@code alpha = 1 / skew}. The
+     * mean of that distribution is {@code alpha / (alpha - 1)} so we divide by it to keep the average about the same.
+     */
+    private static int skew(int population, double skew, SplittableRandom random) {
+        double alpha = 1 / skew;
+        double factor = Math.pow(1 - random.nextDouble(), -1 / alpha) * (alpha - 1) / alpha;
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(population * factor));
+    }
+}
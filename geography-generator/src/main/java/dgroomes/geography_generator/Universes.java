@@ -0,0 +1,45 @@
+package dgroomes.geography_generator;
+
+import dgroomes.data_system.Association;
+import dgroomes.in_memory.InMemoryColumn;
+import dgroomes.in_memory.InMemoryTable;
+
+/**
+ * The columns of N "parallel universes" of geography data. This is the output of the {@link UniverseGenerator}.
+ * <p>
+ * The rows of universe {@code u} are laid out contiguously. For example, the ZIPs of universe {@code u} are at row
+ * indices {@code [u * zipsPerUniverse, (u + 1) * zipsPerUniverse)}.
+ */
+public record Universes(int universeCount,
+                        int[] zipCodes,
+                        int[] zipPopulations,
+                        Association[] zipCityAssociations,
+                        String[] cityNames,
+                        Association[] cityStateAssociations,
+                        String[] stateCodes,
+                        String[] stateNames,
+                        Association[] stateAdjacencies) {
+
+    public record Tables(InMemoryTable zips, InMemoryTable cities, InMemoryTable states) {}
+
+    /**
+     * Build the tables and wire up the associations (in both directions). The columns are laid out like this, which is
+     * the same as the 'app' module:
+     * <ul>
+     *     <li>zips: 0: ZIP code (integer), 1: population (integer), 2: city (association)</li>
+     *     <li>cities: 0: city name (string), 1: state (association), 2: ZIP codes (association)</li>
+     *     <li>states: 0: state code (string), 1: state name (string), 2: cities (association), 3: state adjacencies
+     *     (association), 4: state adjacencies (reverse association)</li>
+     * </ul>
+     */
+    public Tables tables() {
+        // The names repeat across universes, so the string columns are dictionary-encoded.
+        var states = InMemoryTable.ofColumns(InMemoryColumn.DictionaryStringColumn.encode(stateCodes), InMemoryColumn.DictionaryStringColumn.encode(stateNames));
+        var cities = InMemoryTable.ofColumns(InMemoryColumn.DictionaryStringColumn.encode(cityNames));
+        cities.associateTo(states, cityStateAssociations);
+        var zips = InMemoryTable.ofColumns(new InMemoryColumn.IntegerColumn(zipCodes), new InMemoryColumn.IntegerColumn(zipPopulations));
+        zips.associateTo(cities, zipCityAssociations);
+        states.associateTo(states, stateAdjacencies);
+        return new Tables(zips, cities, states);
+    }
+}
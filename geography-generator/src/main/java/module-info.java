@@ -0,0 +1,7 @@
+module dgroomes.geography_generator {
+    requires dgroomes.geography_loader;
+    requires transitive dgroomes.geography;
+    requires transitive dgroomes.in_memory;
+    requires transitive dgroomes.data_system;
+    exports dgroomes.geography_generator;
+}
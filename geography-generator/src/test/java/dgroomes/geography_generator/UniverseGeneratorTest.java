@@ -0,0 +1,132 @@
+package dgroomes.geography_generator;
+
+import dgroomes.data_system.Association;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The generator is tested against a tiny hand-written template instead of the real geography data so that the expected
+ * row indices are easy to work out by hand.
+ */
+public class UniverseGeneratorTest {
+
+    /**
+     * Three states (AA and BB are adjacent, CC is an island), three cities (one per state) and four ZIPs. The first
+     * city has two ZIPs.
+     */
+    private static final GeographyTemplate TEMPLATE = new GeographyTemplate(
+            new int[]{10_001, 20_002, 99_999, 30_003},
+            new int[]{100, 200, 300, 400},
+            new int[]{0, 1, 2, 0},
+            new String[]{"Aville", "Btown", "Cburg"},
+            new int[]{0, 1, 2},
+            new String[]{"AA", "BB", "CC"},
+            new String[]{"Aland", "Bland", "Cland"},
+            new int[][]{{1}, {0}, {}});
+
+    @Test
+    void rowOffsetsAndZipCodeStride() {
+        // Act
+        var universes = UniverseGenerator.generate(TEMPLATE, 3);
+
+        // Assert
+        assertThat(universes.universeCount()).isEqualTo(3);
+        assertThat(universes.zipCodes()).containsExactly(
+                10_001, 20_002, 99_999, 30_003,
+                110_001, 120_002, 199_999, 130_003,
+                210_001, 220_002, 299_999, 230_003);
+        assertThat(universes.zipPopulations()).containsExactly(100, 200, 300, 400, 100, 200, 300, 400, 100, 200, 300, 400);
+        assertThat(universes.stateCodes()).containsExactly("AA", "BB", "CC", "AA", "BB", "CC", "AA", "BB", "CC");
+
+        // The ZIPs of universe 1 are at rows [4, 8) and point to the cities of universe 1 which are at rows [3, 6).
+        assertThat(IntStream.range(4, 8).map(z -> indices(universes.zipCityAssociations()[z])[0])).containsExactly(3, 4, 5, 3);
+        assertThat(IntStream.range(3, 6).map(c -> indices(universes.cityStateAssociations()[c])[0])).containsExactly(3, 4, 5);
+    }
+
+    @Test
+    void associationsStayWithinTheirUniverse() {
+        // Act
+        var universes = UniverseGenerator.generate(TEMPLATE, 3);
+
+        // Assert
+        int zipsPerUniverse = TEMPLATE.zipCount();
+        int citiesPerUniverse = TEMPLATE.cityCount();
+        int statesPerUniverse = TEMPLATE.stateCount();
+        for (int z = 0; z < universes.zipCodes().length; z++) {
+            for (int city : indices(universes.zipCityAssociations()[z])) {
+                assertThat(city / citiesPerUniverse).isEqualTo(z / zipsPerUniverse);
+            }
+        }
+        for (int c = 0; c < universes.cityNames().length; c++) {
+            for (int state : indices(universes.cityStateAssociations()[c])) {
+                assertThat(state / statesPerUniverse).isEqualTo(c / citiesPerUniverse);
+            }
+        }
+
+        // The only cross-universe associations are the state adjacencies to the same state in the neighboring universes.
+        for (int s = 0; s < universes.stateCodes().length; s++) {
+            for (int adjacent : indices(universes.stateAdjacencies()[s])) {
+                int universeDistance = Math.abs(adjacent / statesPerUniverse - s / statesPerUniverse);
+                if (universeDistance != 0) {
+                    assertThat(universeDistance).isEqualTo(1);
+                    assertThat(adjacent % statesPerUniverse).isEqualTo(s % statesPerUniverse);
+                }
+            }
+        }
+        assertThat(indices(universes.stateAdjacencies()[0])).containsExactly(1, 3);
+        assertThat(indices(universes.stateAdjacencies()[4])).containsExactly(1, 3, 7);
+        assertThat(indices(universes.stateAdjacencies()[8])).containsExactly(5);
+    }
+
+    @Test
+    void oneUniverseIsTheTemplate() {
+        // Act
+        var universes = UniverseGenerator.generate(TEMPLATE, 1);
+
+        // Assert
+        assertThat(universes.zipCodes()).isEqualTo(TEMPLATE.zipCodes());
+        assertThat(universes.stateAdjacencies()[2]).isSameAs(Association.NONE);
+    }
+
+    @Test
+    void universeCountIsValidated() {
+        assertThatThrownBy(() -> UniverseGenerator.generate(TEMPLATE, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> UniverseGenerator.generate(TEMPLATE, UniverseGenerator.MAX_UNIVERSES + 1)).isInstanceOf(IllegalArgumentException.class);
+
+        // The largest ZIP code of the last universe must still fit in an 'int'.
+        var universes = UniverseGenerator.generate(TEMPLATE, UniverseGenerator.MAX_UNIVERSES);
+        int[] zipCodes = universes.zipCodes();
+        assertThat(zipCodes[zipCodes.length - 2]).isEqualTo((UniverseGenerator.MAX_UNIVERSES - 1) * 100_000 + 99_999);
+    }
+
+    @Test
+    void populationSkewIsValidated() {
+        assertThatThrownBy(() -> UniverseGenerator.generate(TEMPLATE, 1, -0.1, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> UniverseGenerator.generate(TEMPLATE, 1, 1, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> UniverseGenerator.generate(TEMPLATE, 1, Double.NaN, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void populationSkewIsSeeded() {
+        // Act
+        var skewed = UniverseGenerator.generate(TEMPLATE, 4, 0.5, 42);
+        var again = UniverseGenerator.generate(TEMPLATE, 4, 0.5, 42);
+
+        // Assert
+        assertThat(skewed.zipPopulations()).isEqualTo(again.zipPopulations());
+        assertThat(skewed.zipPopulations()).isNotEqualTo(UniverseGenerator.generate(TEMPLATE, 4).zipPopulations());
+        assertThat(IntStream.of(skewed.zipPopulations()).min().orElseThrow()).isNotNegative();
+    }
+
+    private static int[] indices(Association association) {
+        return switch (association) {
+            case Association.None ignored -> new int[0];
+            case Association.One(int idx) -> new int[]{idx};
+            case Association.Many(int[] indices) -> indices;
+        };
+    }
+}
@@ -2,9 +2,13 @@ rootProject.name = "java-columnar-query-engine"
 
 include(
     ":app",
+    ":benchmarks",
+    ":data-model-foreign-memory",
     ":data-model-in-memory",
     ":data-system",
+    ":data-system-parallel-indices-arrays",
     ":data-system-serial-indices-arrays",
     ":geography",
+    ":geography-generator",
     ":geography-loader",
     ":util")
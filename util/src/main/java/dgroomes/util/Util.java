@@ -10,7 +10,7 @@ public class Util {
      * <p>
      * For example, 1234567 becomes "1,234,567".
      */
-    public static String formatInteger(int value) {
+    public static String formatInteger(long value) {
         return NumberFormat.getNumberInstance(Locale.US).format(value);
     }
 